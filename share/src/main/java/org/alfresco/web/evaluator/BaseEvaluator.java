@@ -28,8 +28,6 @@ package org.alfresco.web.evaluator;
 import org.alfresco.error.AlfrescoRuntimeException;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
-import org.json.simple.parser.ParseException;
 import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.site.AuthenticationUtil;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
@@ -45,10 +43,9 @@ public abstract class BaseEvaluator implements Evaluator
 {
     private static final String PORTLET_HOST = "portletHost";
 
-    // optional args from the calling webscript
-    protected HashMap<String, String> args = null;
-    // metadata from the webscript response
-    protected JSONObject metadata = null;
+    // context of the evaluations running on the current thread
+    private static final ThreadLocal<EvaluatorContext> CONTEXT = new ThreadLocal<EvaluatorContext>();
+
     // negate output flag
     protected boolean negateOutput = false;
 
@@ -97,45 +94,54 @@ public abstract class BaseEvaluator implements Evaluator
     @SuppressWarnings({"WeakerAccess"})
     public final boolean evaluate(Object record, Object metadata, HashMap<String, String> args)
     {
-        JSONObject jsonObject;
-        this.args = args;
+        return evaluate(EvaluatorContext.create(record, metadata, args));
+    }
 
+    /**
+     * Entry point for an already parsed record. The same context can be used to call any number of
+     * evaluators for the record, from any number of threads.
+     *
+     * @param context EvaluatorContext containing the record, metadata and args
+     * @return boolean indicating evaluator result
+     */
+    public final boolean evaluate(EvaluatorContext context)
+    {
+        final EvaluatorContext previous = CONTEXT.get();
+        CONTEXT.set(context);
         try
         {
-            if (record instanceof JSONObject)
-            {
-                jsonObject = (JSONObject)record;
-            }
-            else if (record instanceof String)
-            {
-                jsonObject = (JSONObject)JSONValue.parseWithException((String)record);
-            }
-            else
-            {
-                throw new IllegalArgumentException("Expecting either JSONObject or JSON String for 'record'");
-            }
-            if (metadata instanceof JSONObject)
-            {
-                this.metadata = (JSONObject)metadata;
-            }
-            else if (metadata instanceof String)
+            return (this.negateOutput ^ evaluate(context.getRecord()));
+        }
+        finally
+        {
+            if (previous != null)
             {
-                this.metadata = (JSONObject)JSONValue.parseWithException((String)metadata);
+                CONTEXT.set(previous);
             }
             else
             {
-                throw new IllegalArgumentException("Expecting either JSONObject or JSON String for 'metadata'");
+                CONTEXT.remove();
             }
         }
-        catch (ParseException perr)
-        {
-            throw new AlfrescoRuntimeException("Failed to parse JSON string: " + perr.getMessage());
-        }
-        catch (Exception err)
+    }
+
+    /**
+     * Calls another evaluator with the context of the current evaluation - used by evaluators that
+     * combine the results of other evaluators. The negateOutput flag of the other evaluator applies.
+     *
+     * @param evaluator Evaluator to call
+     * @param jsonObject The object the evaluation is for
+     * @return boolean indicating evaluator result
+     */
+    protected final boolean evaluate(Evaluator evaluator, JSONObject jsonObject)
+    {
+        if (evaluator instanceof BaseEvaluator)
         {
-            throw new AlfrescoRuntimeException("Failed to run UI evaluator: " + err.getMessage());
+            final EvaluatorContext context = getContext();
+            return ((BaseEvaluator)evaluator).evaluate(
+                    context != null ? context.forRecord(jsonObject) : new EvaluatorContext(jsonObject, null, null));
         }
-        return (this.negateOutput ^ evaluate(jsonObject));
+        return evaluator.evaluate(jsonObject);
     }
 
     /**
@@ -154,7 +160,8 @@ public abstract class BaseEvaluator implements Evaluator
     @SuppressWarnings({"UnusedDeclaration"})
     public final HashMap<String, String> getArgs()
     {
-        return this.args;
+        final EvaluatorContext context = getContext();
+        return context != null ? context.getArgs() : null;
     }
 
     /**
@@ -165,11 +172,8 @@ public abstract class BaseEvaluator implements Evaluator
      */
     public final String getArg(String name)
     {
-        if (this.args != null && this.args.containsKey(name))
-        {
-            return this.args.get(name);
-        }
-        return null;
+        final EvaluatorContext context = getContext();
+        return context != null ? context.getArg(name) : null;
     }
 
     /**
@@ -179,7 +183,18 @@ public abstract class BaseEvaluator implements Evaluator
      */
     public final JSONObject getMetadata()
     {
-        return this.metadata;
+        final EvaluatorContext context = getContext();
+        return context != null ? context.getMetadata() : null;
+    }
+
+    /**
+     * Get the context of the evaluation running on the current thread
+     *
+     * @return EvaluatorContext or null if called outside of an evaluation
+     */
+    protected final EvaluatorContext getContext()
+    {
+        return CONTEXT.get();
     }
 
     /**
@@ -476,25 +491,19 @@ public abstract class BaseEvaluator implements Evaluator
      */
     public final Object getJSONValue(JSONObject jsonObject, String accessor)
     {
-        String[] keys = accessor.split("\\.");
-        Object record = jsonObject;
+        return JSONAccessor.get(accessor).getValue(jsonObject);
+    }
 
-        for (String key : keys)
-        {
-            if (record instanceof JSONObject)
-            {
-                record = ((JSONObject)record).get(key);
-            }
-            else if (record instanceof JSONArray)
-            {
-                record = ((JSONArray)record).get(Integer.parseInt(key));
-            }
-            else
-            {
-                return null;
-            }
-        }
-        return record;
+    /**
+     * Retrieve a JSON value given a compiled accessor
+     *
+     * @param jsonObject JSONObject containing a "node" object as returned from the ApplicationScriptUtils class.
+     * @param accessor Compiled accessor for the value
+     * @return Object value or null
+     */
+    public final Object getJSONValue(JSONObject jsonObject, JSONAccessor accessor)
+    {
+        return accessor.getValue(jsonObject);
     }
 
     /**
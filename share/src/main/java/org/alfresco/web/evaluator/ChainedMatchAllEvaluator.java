@@ -70,10 +70,7 @@ public class ChainedMatchAllEvaluator extends BaseEvaluator
 
             while (result && evalIter.hasNext())
             {
-                BaseEvaluator evaluator = (BaseEvaluator)evalIter.next();
-                evaluator.args = this.args;
-                evaluator.metadata = this.metadata;
-                result = evaluator.negateOutput ^ evaluator.evaluate(jsonObject);
+                result = evaluate(evalIter.next(), jsonObject);
             }
         }
 
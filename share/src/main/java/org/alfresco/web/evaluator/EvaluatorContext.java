@@ -0,0 +1,211 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.evaluator;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.json.simple.parser.ParseException;
+
+import java.util.HashMap;
+
+/**
+ * The state of a single evaluation - the record being evaluated, the metadata from the webscript
+ * response and the optional webscript args.
+ * <p>
+ * Evaluators are singleton beans so this state is passed with each call rather than being held by the
+ * evaluator. A context is immutable and can be reused for any number of evaluators, and any number of
+ * threads, evaluating the same record - the record is parsed once when the context is created.
+ */
+public final class EvaluatorContext
+{
+    /** Most recently parsed JSON strings for the current thread */
+    private static final ThreadLocal<ParseCache> PARSE_CACHE = new ThreadLocal<ParseCache>()
+    {
+        @Override
+        protected ParseCache initialValue()
+        {
+            return new ParseCache();
+        }
+    };
+
+    private final JSONObject record;
+    private final JSONObject metadata;
+    private final HashMap<String, String> args;
+
+    /**
+     * Constructor
+     *
+     * @param record The record the evaluation is for
+     * @param metadata Metadata from the webscript response (may be null)
+     * @param args URL arguments passed to calling webscript (may be null)
+     */
+    public EvaluatorContext(JSONObject record, JSONObject metadata, HashMap<String, String> args)
+    {
+        if (record == null)
+        {
+            throw new IllegalArgumentException("Record is mandatory.");
+        }
+        this.record = record;
+        this.metadata = metadata;
+        this.args = args;
+    }
+
+    /**
+     * Create a context from the values received from a Rhino script, parsing any JSON Strings.
+     * <p>
+     * The record and metadata are usually the same String instances for each evaluator called by a
+     * script for a record, so the last parsed values are remembered per thread and not parsed again.
+     *
+     * @param record JSON String or JSONObject as received from a Rhino script
+     * @param metadata JSON String or JSONObject as received from a Rhino script (may be null)
+     * @param args URL arguments passed to calling webscript (may be null)
+     * @return EvaluatorContext
+     */
+    public static EvaluatorContext create(Object record, Object metadata, HashMap<String, String> args)
+    {
+        try
+        {
+            final ParseCache cache = PARSE_CACHE.get();
+            JSONObject jsonRecord;
+            if (record instanceof JSONObject)
+            {
+                jsonRecord = (JSONObject)record;
+            }
+            else if (record instanceof String)
+            {
+                jsonRecord = cache.parseRecord((String)record);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Expecting either JSONObject or JSON String for 'record'");
+            }
+            JSONObject jsonMetadata;
+            if (metadata instanceof JSONObject)
+            {
+                jsonMetadata = (JSONObject)metadata;
+            }
+            else if (metadata instanceof String)
+            {
+                jsonMetadata = cache.parseMetadata((String)metadata);
+            }
+            else if (metadata == null)
+            {
+                jsonMetadata = null;
+            }
+            else
+            {
+                throw new IllegalArgumentException("Expecting either JSONObject or JSON String for 'metadata'");
+            }
+            return new EvaluatorContext(jsonRecord, jsonMetadata, args);
+        }
+        catch (ParseException perr)
+        {
+            throw new AlfrescoRuntimeException("Failed to parse JSON string: " + perr.getMessage());
+        }
+        catch (Exception err)
+        {
+            throw new AlfrescoRuntimeException("Failed to run UI evaluator: " + err.getMessage());
+        }
+    }
+
+    /**
+     * @return the record the evaluation is for
+     */
+    public JSONObject getRecord()
+    {
+        return this.record;
+    }
+
+    /**
+     * @return metadata from the webscript response (may be null)
+     */
+    public JSONObject getMetadata()
+    {
+        return this.metadata;
+    }
+
+    /**
+     * @return URL arguments passed to calling webscript (may be null)
+     */
+    public HashMap<String, String> getArgs()
+    {
+        return this.args;
+    }
+
+    /**
+     * Get webscript argument by name
+     *
+     * @param name Argument name
+     * @return string argument value or null
+     */
+    public String getArg(String name)
+    {
+        return this.args != null ? this.args.get(name) : null;
+    }
+
+    /**
+     * Create a context for another record with the same metadata and args as this context.
+     *
+     * @param record The record the evaluation is for
+     * @return EvaluatorContext
+     */
+    public EvaluatorContext forRecord(JSONObject record)
+    {
+        return record == this.record ? this : new EvaluatorContext(record, this.metadata, this.args);
+    }
+
+    /**
+     * Remembers the last record and metadata JSON Strings parsed on a thread.
+     */
+    private static final class ParseCache
+    {
+        private String recordString;
+        private JSONObject record;
+        private String metadataString;
+        private JSONObject metadata;
+
+        JSONObject parseRecord(String json) throws ParseException
+        {
+            if (!json.equals(this.recordString))
+            {
+                this.record = (JSONObject)JSONValue.parseWithException(json);
+                this.recordString = json;
+            }
+            return this.record;
+        }
+
+        JSONObject parseMetadata(String json) throws ParseException
+        {
+            if (!json.equals(this.metadataString))
+            {
+                this.metadata = (JSONObject)JSONValue.parseWithException(json);
+                this.metadataString = json;
+            }
+            return this.metadata;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.evaluator;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A compiled accessor for a value in a JSON record, given in dot notation e.g. "node.properties.cm:name".
+ * <p>
+ * The accessor is split into its keys, and any array indexes parsed, once when it is compiled so evaluators
+ * configured with an accessor only walk the record for each evaluation.
+ */
+public final class JSONAccessor
+{
+    /** Accessors compiled for BaseEvaluator.getJSONValue() - bounded in case accessors are built per record */
+    private static final int MAX_CACHED = 1024;
+    private static final ConcurrentMap<String, JSONAccessor> CACHE = new ConcurrentHashMap<String, JSONAccessor>();
+
+    private final String accessor;
+    private final String[] keys;
+    private final int[] indexes;
+
+    private JSONAccessor(String accessor, String[] keys)
+    {
+        this.accessor = accessor;
+        this.keys = keys;
+        this.indexes = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            this.indexes[i] = parseIndex(keys[i]);
+        }
+    }
+
+    /**
+     * Compile an accessor in dot notation format, e.g. "node.properties.cm:name"
+     *
+     * @param accessor String containing dotted notation path to value
+     * @return JSONAccessor
+     */
+    public static JSONAccessor compile(String accessor)
+    {
+        if (accessor == null)
+        {
+            throw new IllegalArgumentException("Accessor is mandatory.");
+        }
+        return new JSONAccessor(accessor, accessor.split("\\."));
+    }
+
+    /**
+     * Compile an accessor for a node property - the property name is not split so may contain dots.
+     *
+     * @param propertyName Name of the property
+     * @return JSONAccessor for "node.properties.&lt;propertyName&gt;"
+     */
+    public static JSONAccessor forProperty(String propertyName)
+    {
+        if (propertyName == null)
+        {
+            throw new IllegalArgumentException("Property name is mandatory.");
+        }
+        return new JSONAccessor("node.properties." + propertyName, new String[] {"node", "properties", propertyName});
+    }
+
+    /**
+     * Get a compiled accessor, reusing a previously compiled instance for the same accessor string.
+     *
+     * @param accessor String containing dotted notation path to value
+     * @return JSONAccessor
+     */
+    static JSONAccessor get(String accessor)
+    {
+        JSONAccessor compiled = CACHE.get(accessor);
+        if (compiled == null)
+        {
+            compiled = compile(accessor);
+            if (CACHE.size() < MAX_CACHED)
+            {
+                CACHE.putIfAbsent(accessor, compiled);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Retrieve the value from a JSON record
+     *
+     * @param jsonObject JSONObject to retrieve the value from
+     * @return Object value or null
+     */
+    public Object getValue(JSONObject jsonObject)
+    {
+        Object record = jsonObject;
+        for (int i = 0; i < this.keys.length; i++)
+        {
+            if (record instanceof JSONObject)
+            {
+                record = ((JSONObject)record).get(this.keys[i]);
+            }
+            else if (record instanceof JSONArray)
+            {
+                // a key that is not an index fails here as it always has
+                final int index = this.indexes[i] != -1 ? this.indexes[i] : Integer.parseInt(this.keys[i]);
+                record = ((JSONArray)record).get(index);
+            }
+            else
+            {
+                return null;
+            }
+        }
+        return record;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.accessor;
+    }
+
+    private static int parseIndex(String key)
+    {
+        final int len = key.length();
+        if (len == 0 || len > 9)
+        {
+            return -1;
+        }
+        for (int i = 0; i < len; i++)
+        {
+            final char c = key.charAt(i);
+            if (c < '0' || c > '9')
+            {
+                return -1;
+            }
+        }
+        return Integer.parseInt(key);
+    }
+}
@@ -35,7 +35,7 @@ import org.json.simple.JSONObject;
 public class MetadataValueEvaluator extends BaseEvaluator
 {
     private Comparator comparator = null;
-    private String accessor = null;
+    private JSONAccessor accessor = null;
 
     /**
      * Comparator class
@@ -54,7 +54,7 @@ public class MetadataValueEvaluator extends BaseEvaluator
      */
     public void setAccessor(String accessor)
     {
-        this.accessor = accessor;
+        this.accessor = (accessor != null ? JSONAccessor.compile(accessor) : null);
     }
 
     @Override
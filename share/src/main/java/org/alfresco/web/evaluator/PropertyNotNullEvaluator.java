@@ -35,7 +35,7 @@ import org.json.simple.JSONObject;
  */
 public class PropertyNotNullEvaluator extends BaseEvaluator
 {
-    private String property = null;
+    private JSONAccessor property = null;
 
     /**
      * Property name
@@ -44,7 +44,7 @@ public class PropertyNotNullEvaluator extends BaseEvaluator
      */
     public void setProperty(String name)
     {
-        this.property = name;
+        this.property = (name != null ? JSONAccessor.forProperty(name) : null);
     }
 
     /**
@@ -61,7 +61,7 @@ public class PropertyNotNullEvaluator extends BaseEvaluator
 
         if (this.property != null)
         {
-            Object value = getProperty(jsonObject, this.property);
+            Object value = getJSONValue(jsonObject, this.property);
             result = (value != null);
         }
 
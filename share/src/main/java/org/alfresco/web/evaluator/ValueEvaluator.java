@@ -33,7 +33,7 @@ import org.json.simple.JSONObject;
 public class ValueEvaluator extends BaseEvaluator
 {
     private Comparator comparator = null;
-    private String accessor = null;
+    private JSONAccessor accessor = null;
 
     /**
      * Comparator class
@@ -52,7 +52,7 @@ public class ValueEvaluator extends BaseEvaluator
      */
     public void setAccessor(String accessor)
     {
-        this.accessor = accessor;
+        this.accessor = (accessor != null ? JSONAccessor.compile(accessor) : null);
     }
 
     @Override
@@ -81,10 +81,7 @@ public class VirtualChainedMatchOneEvaluator extends VirtualBaseEvaluator
 
             while (!result && evalIter.hasNext())
             {
-                BaseEvaluator evaluator = (BaseEvaluator)evalIter.next();
-                evaluator.args = this.args;
-                evaluator.metadata = this.metadata;
-                result = evaluator.negateOutput ^ evaluator.evaluate(jsonObject);
+                result = evaluate(evalIter.next(), jsonObject);
             }
         }
         return result;
@@ -25,9 +25,11 @@
  */
 package org.alfresco.web.extensibility;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -41,6 +43,8 @@ import org.json.JSONObject;
 import org.json.simple.parser.ParseException;
 import org.springframework.extensions.config.RemoteConfigElement;
 import org.springframework.extensions.config.RemoteConfigElement.EndpointDescriptor;
+import org.springframework.extensions.surf.ClusterMessageAware;
+import org.springframework.extensions.surf.ClusterService;
 import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.ServletUtil;
 import org.springframework.extensions.surf.UserFactory;
@@ -58,14 +62,19 @@ import org.springframework.extensions.webscripts.connector.Response;
 
 /**
  * Utility class for evaluators to pick values from the request and get site information etc.
+ * <p>
+ * Site membership of the current user is cached for the request and in a short lived cache
+ * shared across requests. Entries can be invalidated via {@link #invalidateSiteMembership(String, String)}
+ * which also informs the other nodes in the cluster.
  *
  * @author ewinlof
  */
-public class SlingshotEvaluatorUtil {
+public class SlingshotEvaluatorUtil implements ClusterMessageAware {
 
     private static Log logger = LogFactory.getLog(SlingshotEvaluatorUtil.class);
 
     public static final String SITE_PRESET_CACHE = SlingshotEvaluatorUtil.class.getName() + ".sitePresets";
+    public static final String SITE_MEMBERSHIP_CACHE = SlingshotEvaluatorUtil.class.getName() + ".siteMemberships";
 
     /* Context attributes and url parameters/path tokens */
     protected static final String PORTLET_HOST = "portletHost"; // Set by the ProxyPortlet
@@ -76,11 +85,33 @@ public class SlingshotEvaluatorUtil {
 
     protected WebFrameworkServiceRegistry serviceRegistry = null;
 
+    /** Cache of user site roles shared across requests */
+    private final SiteMembershipCache siteMembershipCache = new SiteMembershipCache();
+
+    protected ClusterService clusterService;
+
     public void setServiceRegistry(WebFrameworkServiceRegistry serviceRegistry)
     {
         this.serviceRegistry = serviceRegistry;
     }
 
+    /**
+     * @param timeout   Time in milliseconds that a site membership is cached across requests, zero to only
+     *                  cache site membership for the current request. Default is 10 seconds.
+     */
+    public void setSiteMembershipCacheTimeout(long timeout)
+    {
+        this.siteMembershipCache.setTimeout(timeout);
+    }
+
+    /**
+     * @param size  Maximum number of (user, site) memberships cached across requests. Default is 1000.
+     */
+    public void setSiteMembershipCacheSize(int size)
+    {
+        this.siteMembershipCache.setMaxSize(size);
+    }
+
     /**
      * Helper for getting an evaluator parameter trimmed OR defaultValue if no value has been provided.
      *
@@ -360,6 +391,8 @@ public class SlingshotEvaluatorUtil {
         }
 
         // Work through the supplied list of groups to determine whether or not the current user is a member of them...
+        String siteRole = null;
+        boolean siteRoleRetrieved = false;
         for (String groupName: groups)
         {
             boolean isMemberOfCurrentGroup = false;
@@ -379,49 +412,19 @@ public class SlingshotEvaluatorUtil {
                     else
                     {
                         // We're going to rely on URI tokens to determine if we're viewing a site - it's the
-                        // best data available from the RequestContext.
-                        try
+                        // best data available from the RequestContext. The role of the user in the site answers
+                        // every site group so it is only retrieved once per evaluation.
+                        if (!siteRoleRetrieved)
                         {
-                            CredentialVault cv = context.getCredentialVault();
-                            if (cv != null)
-                            {
-                                Credentials creds = cv.retrieve(AlfrescoUserFactory.ALFRESCO_ENDPOINT_ID);
-                                if (creds == null && !externalAuth)
-                                {
-                                    // User is not logged in anymore
-                                    return false;
-                                }
-                                String userName = (String)session.getAttribute(UserFactory.SESSION_ATTRIBUTE_KEY_USER_ID);
-                                Connector connector = context.getServiceRegistry().getConnectorService().getConnector(AlfrescoUserFactory.ALFRESCO_ENDPOINT_ID, userName, ServletUtil.getSession());
-                                Response res = connector.call("/api/sites/" + currentSite + "/memberships/" + URLEncoder.encode(context.getUserId()));
-                                if (res.getStatus().getCode() == Status.STATUS_OK)
-                                {
-                                    String response = res.getResponse();
-                                    org.json.simple.parser.JSONParser p = new org.json.simple.parser.JSONParser();
-                                    Object o2 = p.parse(response);
-                                    if (o2 instanceof org.json.simple.JSONObject)
-                                    {
-                                        org.json.simple.JSONObject jsonRes = (org.json.simple.JSONObject) o2;
-                                        String siteMembership = (String) jsonRes.get("role");
-                                        isMemberOfCurrentGroup = siteMembership.equals(groupName);
-                                    }
-                                }
-                                else
-                                {
-                                    // When the user is NOT a member of the site the request will actually return a 404 (rather than a 200)
-                                    // so on any request that fails we will assume they are not a member of the site.
-                                    isMemberOfCurrentGroup = false;
-                                }
-                            }
+                            siteRole = getSiteRole(context, session, currentSite, externalAuth);
+                            siteRoleRetrieved = true;
                         }
-                        catch (ConnectorServiceException e)
+                        if (siteRole == null)
                         {
-                            e.printStackTrace();
-                        }
-                        catch (ParseException e)
-                        {
-                            e.printStackTrace();
+                            // User is not logged in anymore
+                            return false;
                         }
+                        isMemberOfCurrentGroup = siteRole.equals(groupName);
                     }
                 }
                 else if (groupsList != null)
@@ -466,6 +469,111 @@ public class SlingshotEvaluatorUtil {
         return isMember;
     }
 
+    /**
+     * Gets the role of the current user in the given site. The role is cached for the current request
+     * and for a short time across requests.
+     *
+     * @param context RequestContext
+     * @param session HttpSession
+     * @param site The site to retrieve the role for
+     * @param externalAuth True if the endpoint uses external authentication
+     * @return The site role e.g. "SiteManager", empty string if the user is not a member of the site or
+     *         null if the user is no longer logged in.
+     */
+    @SuppressWarnings("unchecked")
+    protected String getSiteRole(RequestContext context, HttpSession session, String site, boolean externalAuth)
+    {
+        // Get the membership request cache
+        Map<String, String> requestCache = (Map<String, String>) context.getAttributes().get(SITE_MEMBERSHIP_CACHE);
+        if (requestCache == null)
+        {
+            requestCache = new HashMap<String, String>(4);
+            context.getAttributes().put(SITE_MEMBERSHIP_CACHE, requestCache);
+        }
+        String role = requestCache.get(site);
+        if (role != null)
+        {
+            return role;
+        }
+
+        final String userId = context.getUserId();
+        role = this.siteMembershipCache.get(userId, site);
+        if (role == null)
+        {
+            // failures to retrieve the membership are treated as not a member but are not cached
+            role = "";
+            try
+            {
+                CredentialVault cv = context.getCredentialVault();
+                if (cv != null)
+                {
+                    Credentials creds = cv.retrieve(AlfrescoUserFactory.ALFRESCO_ENDPOINT_ID);
+                    if (creds == null && !externalAuth)
+                    {
+                        // User is not logged in anymore
+                        return null;
+                    }
+                    String userName = (String)session.getAttribute(UserFactory.SESSION_ATTRIBUTE_KEY_USER_ID);
+                    Connector connector = context.getServiceRegistry().getConnectorService().getConnector(AlfrescoUserFactory.ALFRESCO_ENDPOINT_ID, userName, ServletUtil.getSession());
+                    Response res = connector.call("/api/sites/" + site + "/memberships/" + URLEncoder.encode(userId));
+                    if (res.getStatus().getCode() == Status.STATUS_OK)
+                    {
+                        String response = res.getResponse();
+                        org.json.simple.parser.JSONParser p = new org.json.simple.parser.JSONParser();
+                        Object o2 = p.parse(response);
+                        if (o2 instanceof org.json.simple.JSONObject)
+                        {
+                            org.json.simple.JSONObject jsonRes = (org.json.simple.JSONObject) o2;
+                            Object siteMembership = jsonRes.get("role");
+                            if (siteMembership != null)
+                            {
+                                role = siteMembership.toString();
+                            }
+                            this.siteMembershipCache.put(userId, site, role);
+                        }
+                    }
+                    else if (res.getStatus().getCode() == Status.STATUS_NOT_FOUND)
+                    {
+                        // When the user is NOT a member of the site the request will actually return a 404 (rather than a 200)
+                        this.siteMembershipCache.put(userId, site, role);
+                    }
+                    // on any other request that fails we will assume they are not a member of the site
+                }
+            }
+            catch (ConnectorServiceException e)
+            {
+                e.printStackTrace();
+            }
+            catch (ParseException e)
+            {
+                e.printStackTrace();
+            }
+        }
+        requestCache.put(site, role);
+        return role;
+    }
+
+    /**
+     * Invalidate cached site memberships on this node and all other nodes in the cluster. Called by the
+     * SlingshotRemoteClient when site memberships are changed via a proxied request.
+     *
+     * @param site The site to invalidate memberships for, null for all sites
+     * @param userId The user to invalidate memberships for, null for all users
+     */
+    public void invalidateSiteMembership(String site, String userId)
+    {
+        this.siteMembershipCache.invalidate(site, userId);
+
+        // inform cluster of update
+        if (this.clusterService != null)
+        {
+            Map<String, Serializable> params = new HashMap<>(4);
+            params.put(SiteMembershipMessage.PAYLOAD_SITE, site);
+            params.put(SiteMembershipMessage.PAYLOAD_USERID, userId);
+            this.clusterService.publishClusterMessage(SiteMembershipMessage.TYPE, params);
+        }
+    }
+
     /**
      * Gets the list of groups to check for membership of. This assumes that the groups have been
      * provided as a comma delimited string and will convert that string into a List removing trailing
@@ -504,4 +612,133 @@ public class SlingshotEvaluatorUtil {
         }
         return header;
     }
+
+
+    /**
+     * Cluster message indicating that cached site memberships should be invalidated.
+     * The payload for this message is the site and user - either can be null to match all.
+     */
+    static interface SiteMembershipMessage
+    {
+        static final String TYPE = "site-membership-invalidate";
+        static final String PAYLOAD_SITE = "site";
+        static final String PAYLOAD_USERID = "user";
+    }
+
+    @Override
+    public void setClusterService(ClusterService service)
+    {
+        this.clusterService = service;
+    }
+
+    @Override
+    public String getClusterMessageType()
+    {
+        return SiteMembershipMessage.TYPE;
+    }
+
+    @Override
+    public void onClusterMessage(Map<String, Serializable> payload)
+    {
+        final String site = (String)payload.get(SiteMembershipMessage.PAYLOAD_SITE);
+        final String userId = (String)payload.get(SiteMembershipMessage.PAYLOAD_USERID);
+        if (logger.isDebugEnabled())
+            logger.debug("Cluster message to invalidate site memberships - site: " + site + " user: " + userId);
+        this.siteMembershipCache.invalidate(site, userId);
+    }
+
+    /**
+     * Bounded, time limited cache of the role for a (user, site) pair - an empty string role is
+     * cached for a user that is not a member of the site.
+     */
+    static class SiteMembershipCache
+    {
+        private long timeout = 10000L;
+        private int maxSize = 1000;
+
+        private final LinkedHashMap<String, CachedRole> roles = new LinkedHashMap<String, CachedRole>(64, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedRole> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+
+        synchronized void setTimeout(long timeout)
+        {
+            this.timeout = timeout;
+            this.roles.clear();
+        }
+
+        synchronized void setMaxSize(int maxSize)
+        {
+            this.maxSize = maxSize;
+            this.roles.clear();
+        }
+
+        synchronized String get(String userId, String site)
+        {
+            final String key = key(userId, site);
+            final CachedRole cached = this.roles.get(key);
+            if (cached != null)
+            {
+                if (cached.expires > System.currentTimeMillis())
+                {
+                    return cached.role;
+                }
+                this.roles.remove(key);
+            }
+            return null;
+        }
+
+        synchronized void put(String userId, String site, String role)
+        {
+            if (this.timeout > 0)
+            {
+                this.roles.put(key(userId, site), new CachedRole(userId, site, role, System.currentTimeMillis() + this.timeout));
+            }
+        }
+
+        synchronized void invalidate(String site, String userId)
+        {
+            if (site != null && userId != null)
+            {
+                this.roles.remove(key(userId, site));
+            }
+            else
+            {
+                final Iterator<CachedRole> i = this.roles.values().iterator();
+                while (i.hasNext())
+                {
+                    final CachedRole cached = i.next();
+                    if ((site == null || site.equals(cached.site)) && (userId == null || userId.equals(cached.userId)))
+                    {
+                        i.remove();
+                    }
+                }
+            }
+        }
+
+        private static String key(String userId, String site)
+        {
+            return site + '|' + userId;
+        }
+
+        private static final class CachedRole
+        {
+            final String userId;
+            final String site;
+            final String role;
+            final long expires;
+
+            CachedRole(String userId, String site, String role, long expires)
+            {
+                this.userId = userId;
+                this.site = site;
+                this.role = role;
+                this.expires = expires;
+            }
+        }
+    }
 }
@@ -26,6 +26,7 @@
 package org.alfresco.web.scripts;
 
 import org.alfresco.web.evaluator.Evaluator;
+import org.alfresco.web.evaluator.EvaluatorContext;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.BeansException;
@@ -33,6 +34,8 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.extensions.webscripts.processor.BaseProcessorExtension;
 
+import java.util.HashMap;
+
 /**
  * @author mikeh
  */
@@ -80,4 +83,18 @@ public class ActionEvaluatorHelper extends BaseProcessorExtension implements App
         }
         return null;
     }
+
+    /*
+     * Returns an evaluation context for a record. The record and metadata are parsed once and the
+     * context can be passed to any number of evaluators for the record.
+     *
+     * @param record    JSON String or JSONObject representing the record
+     * @param metadata  JSON String or JSONObject containing metadata (may be null)
+     * @param args      URL arguments passed to calling webscript (may be null)
+     * @return EvaluatorContext
+     */
+    public EvaluatorContext createContext(Object record, Object metadata, HashMap<String, String> args)
+    {
+        return EvaluatorContext.create(record, metadata, args);
+    }
 }
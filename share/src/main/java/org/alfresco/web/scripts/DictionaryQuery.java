@@ -27,8 +27,11 @@ package org.alfresco.web.scripts;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -37,6 +40,7 @@ import org.alfresco.util.ParameterCheck;
 import org.alfresco.web.scripts.Dictionary.DictionaryAssoc;
 import org.alfresco.web.scripts.Dictionary.DictionaryItem;
 import org.alfresco.web.scripts.Dictionary.DictionaryProperty;
+import org.alfresco.web.scripts.forms.FormUIGet;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONArray;
@@ -119,6 +123,20 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
         return getDictionary().getSubTypes(ddclass);
     }
     
+    /**
+     * getChildTypes - return Array of the direct sub-types for the given class.
+     * 
+     * @param ddclass   DD class to get direct sub-types for
+     * 
+     * @return Array of direct sub-types for the type or aspect, can be empty but never null.
+     */
+    public String[] getChildTypes(final String ddclass)
+    {
+        ParameterCheck.mandatoryString("ddclass", ddclass);
+        
+        return getDictionary().getChildTypes(ddclass);
+    }
+    
     /**
      * hasDefaultAspect - return if the type definition has the default aspect applied..
      * 
@@ -374,6 +392,7 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
         ParameterCheck.mandatoryString("json", json);
         
         getDictionary().updateAddClasses(json);
+        FormUIGet.invalidateFormDefinitions();
         
         // inform cluster of update
         if (this.clusterService != null)
@@ -395,6 +414,7 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
         ParameterCheck.mandatoryString("json", json);
         
         getDictionary().updateRemoveClasses(json);
+        FormUIGet.invalidateFormDefinitions();
         
         // inform cluster of update
         if (this.clusterService != null)
@@ -543,7 +563,7 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
     {
         final String userId = (String)payload.get(DictionaryUpdateMessage.PAYLOAD_USERID);
         final String jsonAdd = (String)payload.get(DictionaryUpdateMessage.PAYLOAD_ADD);
-        final String jsonRemove = (String)payload.get(DictionaryUpdateMessage.PAYLOAD_ADD);
+        final String jsonRemove = (String)payload.get(DictionaryUpdateMessage.PAYLOAD_REMOVE);
         
         if (jsonAdd != null)
         {
@@ -563,6 +583,9 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
                 getSingletonValue(isTenant(), userId).updateRemoveClasses(jsonRemove);
             }
         }
+        
+        // form definitions of the updated types are cached by the form UI component
+        FormUIGet.invalidateFormDefinitions();
     }
 }
 
@@ -571,9 +594,11 @@ public class DictionaryQuery extends SingletonValueProcessorExtension<Dictionary
  * Class representing a Data Dictionary model instance. There will be a DD instance
  * for each tenant in Alfresco, for a single tenant instance there will only be one.
  * <p>
- * Handles the internals of various dictionary queries and manipulates the JSON data
- * that represents each type, aspect and its properties. The various public methods
- * on the DictionaryQuery should stay isolated from the JSON internals.
+ * The JSON data that represents each type, aspect and its properties is parsed once into
+ * typed descriptors when the dictionary is built or updated. The type and aspect hierarchies
+ * are then precomputed into an immutable index so that the various hierarchy queries do not
+ * need to walk parent chains or scan the whole dictionary. The various public methods on the
+ * DictionaryQuery should stay isolated from the JSON internals.
  * 
  * @author Kevin Roast
  */
@@ -602,8 +627,13 @@ class Dictionary
     static final String JSON_ROLE = "role";
     static final String JSON_MANY = "many";
     
-    private Map<String, DictionaryItem> types;
-    private Map<String, DictionaryItem> aspects;
+    private static final String[] EMPTY_NAMES = new String[0];
+    private static final DictionaryProperty[] EMPTY_PROPERTIES = new DictionaryProperty[0];
+    private static final DictionaryAssoc[] EMPTY_ASSOCS = new DictionaryAssoc[0];
+    
+    /** immutable type and aspect hierarchies - replaced as a whole on update */
+    private volatile ClassHierarchy types;
+    private volatile ClassHierarchy aspects;
     
     /**
      * Constructor
@@ -613,449 +643,187 @@ class Dictionary
      */
     Dictionary(Map<String, DictionaryItem> types, Map<String, DictionaryItem> aspects)
     {
-        this.types = types;
-        this.aspects = aspects;
+        this.types = new ClassHierarchy(types);
+        this.aspects = new ClassHierarchy(aspects);
     }
     
     public DictionaryItem getType(String type)
     {
-        return this.types.get(type);
+        return this.types.getItem(type);
     }
     
     public DictionaryItem getAspect(String aspect)
     {
-        return this.aspects.get(aspect);
+        return this.aspects.getItem(aspect);
     }
     
     public DictionaryItem getTypeOrAspect(String ddclass)
     {
-        DictionaryItem item = this.types.get(ddclass);
+        DictionaryItem item = this.types.getItem(ddclass);
         if (item == null)
         {
-            item = this.aspects.get(ddclass);
+            item = this.aspects.getItem(ddclass);
         }
         return item;
     }
     
     public boolean isSubType(String type, String isType)
     {
-        boolean isSubType = false;
-        try
+        return this.types.isSubClass(type, isType);
+    }
+    
+    public String[] getSubTypes(String ddclass)
+    {
+        // take a single reference to each hierarchy so a concurrent update cannot be observed half way
+        final ClassHierarchy types = this.types;
+        if (types.getItem(ddclass) != null)
         {
-            DictionaryItem ddtype = getType(type);
-            while (!isSubType && ddtype != null)
-            {
-                // the parent JSON object will always exist, but may be empty
-                JSONObject parent = ddtype.data.getJSONObject(JSON_PARENT);
-                if (parent.has(JSON_NAME))
-                {
-                    // found a parent type specified for our type
-                    String parentName = parent.getString(JSON_NAME);
-                    ddtype = this.types.get(parentName);
-                    if (ddtype != null)
-                    {
-                        isSubType = (isType.equals(ddtype.data.getString(JSON_NAME)));
-                    }
-                }
-                else
-                {
-                    // no parent found - end the search
-                    ddtype = null;
-                }
-            }
+            return types.getSubClasses(ddclass).clone();
         }
-        catch (JSONException jsonErr)
+        final ClassHierarchy aspects = this.aspects;
+        if (aspects.getItem(ddclass) != null)
         {
-            throw new AlfrescoRuntimeException("Error retrieving 'isSubType' information for: " + type, jsonErr);
+            return aspects.getSubClasses(ddclass).clone();
         }
-        return isSubType;
+        return EMPTY_NAMES;
     }
     
-    public String[] getSubTypes(String ddclass)
+    public String[] getChildTypes(String ddclass)
     {
-        try
+        final ClassHierarchy types = this.types;
+        if (types.getItem(ddclass) != null)
         {
-            List<String> subTypes = new ArrayList<String>();
-            DictionaryItem dditem = getType(ddclass);
-            if (dditem != null)
-            {
-                // TODO: get parent of given ddclass - if that is non-null then can be used as a quick exit for the parent hiearchy search on types
-                for (String typeName : this.types.keySet())
-                {
-                    DictionaryItem ddType = getType(typeName);
-                    String parentType = null;
-                    while (ddType != null)
-                    {
-                        // the parent JSON object will always exist, but name value may be empty
-                        JSONObject parent = ddType.data.getJSONObject(JSON_PARENT);
-                        parentType = parent.optString(JSON_NAME);
-                        if (parentType != null)
-                        {
-                            if (parentType.equals(ddclass))
-                            {
-                                // found a sub-type - store and exit the loop
-                                subTypes.add(parentType);
-                                ddType = null;
-                            }
-                            else
-                            {
-                                // get the parent type for another loop round
-                                ddType = getType(parentType);
-                            }
-                        }
-                    }
-                }
-            }
-            else
-            {
-                dditem = getAspect(ddclass);
-                if (dditem != null)
-                {
-                    for (String aspectName : this.aspects.keySet())
-                    {
-                        DictionaryItem ddAspect = getAspect(aspectName);
-                        String parentAspect = null;
-                        while (ddAspect != null)
-                        {
-                            // the parent JSON object will always exist, but name value may be empty
-                            JSONObject parent = ddAspect.data.getJSONObject(JSON_PARENT);
-                            parentAspect = parent.optString(JSON_NAME);
-                            if (parentAspect != null)
-                            {
-                                if (parentAspect.equals(ddclass))
-                                {
-                                    // found a sub-type - store and exit the loop
-                                    subTypes.add(parentAspect);
-                                    ddAspect = null;
-                                }
-                                else
-                                {
-                                    // get the parent aspect for another loop round
-                                    ddAspect = getAspect(parentAspect);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            return subTypes.toArray(new String[subTypes.size()]);
+            return types.getChildClasses(ddclass).clone();
         }
-        catch (JSONException jsonErr)
+        final ClassHierarchy aspects = this.aspects;
+        if (aspects.getItem(ddclass) != null)
         {
-            throw new AlfrescoRuntimeException("Error retrieving 'subtype' information for: " + ddclass, jsonErr);
+            return aspects.getChildClasses(ddclass).clone();
         }
+        return EMPTY_NAMES;
     }
     
     public String[] getAllTypes()
     {
-        return this.types.keySet().toArray(new String[this.types.keySet().size()]);
+        return this.types.getNames();
     }
     
     public String[] getAllAspects()
     {
-        return this.aspects.keySet().toArray(new String[this.aspects.keySet().size()]);
+        return this.aspects.getNames();
     }
     
     public boolean hasDefaultAspect(String type, String aspect)
     {
-        boolean hasAspect = false;
-        try
-        {
-            DictionaryItem ddtype = getType(type);
-            if (ddtype != null)
-            {
-                JSONObject aspects = ddtype.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                Iterator<String> keys = aspects.keys();
-                while (!hasAspect && keys.hasNext())
-                {
-                    hasAspect = (aspect.equals(keys.next()));
-                }
-            }
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'defaultAspects' information for: " + type, jsonErr);
-        }
-        return hasAspect;
+        DictionaryItem ddtype = getType(type);
+        return ddtype != null && ddtype.hasDefaultAspect(aspect);
     }
     
     public String[] getDefaultAspects(String type)
     {
-        String[] defaultAspects = null;
-        try
-        {
-            DictionaryItem ddtype = getType(type);
-            if (ddtype != null)
-            {
-                JSONObject aspects = ddtype.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                defaultAspects = new String[aspects.length()];
-                int count = 0;
-                Iterator<String> keys = aspects.keys();
-                while (keys.hasNext())
-                {
-                    defaultAspects[count++] = keys.next();
-                }
-            }
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'defaultAspects' information for: " + type, jsonErr);
-        }
-        return defaultAspects != null ? defaultAspects : new String[0];
+        DictionaryItem ddtype = getType(type);
+        return ddtype != null ? ddtype.defaultAspects.clone() : EMPTY_NAMES;
     }
     
     public boolean hasProperty(String ddclass, String property, boolean checkDefaultAspects)
     {
-        boolean hasProperty = false;
-        try
-        {
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                JSONObject properties = dditem.data.getJSONObject(JSON_PROPERTIES);
-                Iterator<String> props = properties.keys();
-                while (!hasProperty && props.hasNext())
-                {
-                    // test properties and inherited properties
-                    hasProperty = (property.equals(props.next()));
-                }
-                if (checkDefaultAspects && !hasProperty)
-                {
-                    // test each default aspect for the property
-                    JSONObject aspects = dditem.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                    Iterator<String> keys = aspects.keys();
-                    while (!hasProperty && keys.hasNext())
-                    {
-                        // get each aspect defined on the type
-                        DictionaryItem aspect = getAspect(keys.next());
-                        if (aspect != null)
-                        {
-                            props = aspect.data.getJSONObject(JSON_PROPERTIES).keys();
-                            while (!hasProperty && props.hasNext())
-                            {
-                                // test properties on each aspect
-                                hasProperty = (property.equals(props.next()));
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'properties' information for: " + ddclass, jsonErr);
-        }
-        return hasProperty;
+        return getProperty(ddclass, property, checkDefaultAspects) != null;
     }
-   
+    
     public String getTitle(String ddclass)
     {
-        try
-        {
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            return dditem != null ? dditem.data.getString(JSON_TITLE) : null;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'title' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.title : null;
     }
     
     public String getDescription(String ddclass)
     {
-        try
-        {
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            return dditem != null ? dditem.data.getString(JSON_DESCRIPTION) : null;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'description' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.description : null;
     }
     
     public String getParent(String ddclass)
     {
-        try
-        {
-            String parentType = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                // the parent JSON object will always exist, but may be empty
-                JSONObject parent = dditem.data.getJSONObject(JSON_PARENT);
-                parentType = parent.optString(JSON_NAME);
-            }
-            return parentType;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'parent' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.parent : null;
     }
     
     public boolean isContainer(String type)
     {
-        try
-        {
-            DictionaryItem ddtype = getType(type);
-            return ddtype != null ? ddtype.data.getBoolean(JSON_IS_CONTAINER) : false;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'isContainer' information for: " + type, jsonErr);
-        }
+        DictionaryItem ddtype = getType(type);
+        return ddtype != null ? ddtype.isContainer : false;
     }
     
     public DictionaryProperty getProperty(String ddclass, String property, boolean checkDefaultAspects)
     {
-        try
+        DictionaryProperty ddprop = null;
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        if (dditem != null)
         {
-            DictionaryProperty ddprop = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
+            ddprop = dditem.properties.get(property);
+            if (ddprop == null && checkDefaultAspects)
             {
-                JSONObject properties = dditem.data.getJSONObject(JSON_PROPERTIES);
-                if (properties.has(property))
-                {
-                    ddprop = new DictionaryProperty(property, properties.getJSONObject(property));
-                }
-                else if (checkDefaultAspects)
+                // test each default aspect for the property
+                for (int i=0; ddprop == null && i<dditem.defaultAspects.length; i++)
                 {
-                    // test each default aspect for the property
-                    JSONObject aspects = dditem.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                    Iterator<String> keys = aspects.keys();
-                    while (ddprop == null && keys.hasNext())
+                    DictionaryItem aspect = getAspect(dditem.defaultAspects[i]);
+                    if (aspect != null)
                     {
-                        // get each aspect defined on the type
-                        DictionaryItem aspect = getAspect(keys.next());
-                        if (aspect != null)
-                        {
-                            properties = aspect.data.getJSONObject(JSON_PROPERTIES);
-                            if (properties.has(property))
-                            {
-                                ddprop = new DictionaryProperty(property, properties.getJSONObject(property));
-                            }
-                        }
+                        ddprop = aspect.properties.get(property);
                     }
                 }
             }
-            return ddprop;
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'properties' information for: " + ddclass, jsonErr);
         }
+        return ddprop;
     }
     
     public DictionaryProperty[] getProperties(String ddclass, boolean checkDefaultAspects)
     {
-        try
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        if (dditem == null)
         {
-            DictionaryProperty[] ddprops = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                JSONObject properties = dditem.data.getJSONObject(JSON_PROPERTIES);
-                List<DictionaryProperty> propList = new ArrayList<DictionaryProperty>(properties.length());
-                Iterator<String> props = properties.keys();
-                while (props.hasNext())
-                {
-                    String propName = props.next();
-                    propList.add(new DictionaryProperty(propName, properties.getJSONObject(propName)));
-                }
-                if (checkDefaultAspects)
-                {
-                    JSONObject aspects = dditem.data.getJSONObject(JSON_DEFAULT_ASPECTS);
-                    Iterator<String> keys = aspects.keys();
-                    while (keys.hasNext())
-                    {
-                        // get each aspect defined on the type
-                        DictionaryItem aspect = getAspect(keys.next());
-                        if (aspect != null)
-                        {
-                            properties = aspect.data.getJSONObject(JSON_PROPERTIES);
-                            props = properties.keys();
-                            while (props.hasNext())
-                            {
-                                String propName = props.next();
-                                propList.add(new DictionaryProperty(propName, properties.getJSONObject(propName)));
-                            }
-                        }
-                    }
-                }
-                ddprops = new DictionaryProperty[propList.size()];
-                propList.toArray(ddprops);
-            }
-            return ddprops != null ? ddprops : new DictionaryProperty[0];
+            return EMPTY_PROPERTIES;
         }
-        catch (JSONException jsonErr)
+        if (!checkDefaultAspects)
         {
-            throw new AlfrescoRuntimeException("Error retrieving 'properties' information for: " + ddclass, jsonErr);
+            return dditem.properties.values().toArray(new DictionaryProperty[dditem.properties.size()]);
         }
-    }
-    
-    public DictionaryAssoc[] getAssociations(String ddclass)
-    {
-        try
+        List<DictionaryProperty> propList = new ArrayList<DictionaryProperty>(dditem.properties.values());
+        for (String aspectName : dditem.defaultAspects)
         {
-            DictionaryAssoc[] ddassocs = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
+            // get each aspect defined on the type
+            DictionaryItem aspect = getAspect(aspectName);
+            if (aspect != null)
             {
-                JSONObject assocs = dditem.data.getJSONObject(JSON_ASSOCIATIONS);
-                ddassocs = new DictionaryAssoc[assocs.length()];
-                int count = 0;
-                Iterator<String> assocNames = assocs.keys();
-                while (assocNames.hasNext())
-                {
-                    String assocName = assocNames.next();
-                    ddassocs[count++] = new DictionaryAssoc(assocName, assocs.getJSONObject(assocName));
-                }
+                propList.addAll(aspect.properties.values());
             }
-            return ddassocs != null ? ddassocs : new DictionaryAssoc[0];
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'associations' information for: " + ddclass, jsonErr);
         }
+        return propList.toArray(new DictionaryProperty[propList.size()]);
+    }
+    
+    public DictionaryAssoc[] getAssociations(String ddclass)
+    {
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.associations.clone() : EMPTY_ASSOCS;
     }
     
     public DictionaryAssoc[] getChildAssociations(String ddclass)
     {
-        try
-        {
-            DictionaryAssoc[] ddassocs = null;
-            DictionaryItem dditem = getTypeOrAspect(ddclass);
-            if (dditem != null)
-            {
-                JSONObject assocs = dditem.data.getJSONObject(JSON_CHILDASSOCIATIONS);
-                ddassocs = new DictionaryAssoc[assocs.length()];
-                int count = 0;
-                Iterator<String> assocNames = assocs.keys();
-                while (assocNames.hasNext())
-                {
-                    String assocName = assocNames.next();
-                    ddassocs[count++] = new DictionaryAssoc(assocName, assocs.getJSONObject(assocName));
-                }
-            }
-            return ddassocs != null ? ddassocs : new DictionaryAssoc[0];
-        }
-        catch (JSONException jsonErr)
-        {
-            throw new AlfrescoRuntimeException("Error retrieving 'childassociations' information for: " + ddclass, jsonErr);
-        }
+        DictionaryItem dditem = getTypeOrAspect(ddclass);
+        return dditem != null ? dditem.childAssociations.clone() : EMPTY_ASSOCS;
     }
     
-    public void updateAddClasses(String classes)
+    public synchronized void updateAddClasses(String classes)
     {
         try
         {
             JSONArray json = new JSONArray(classes);
             
-            // shallow copy types and aspects maps - do not modify the originals as iterators could be running in threads 
-            final Map<String, DictionaryItem> types = (Map<String, DictionaryItem>)((HashMap)this.types).clone();
-            final Map<String, DictionaryItem> aspects = (Map<String, DictionaryItem>)((HashMap)this.aspects).clone();
+            // copy types and aspects maps - do not modify the originals as queries could be running in threads.
+            // only the classes in the update are parsed, existing items are shared with the new hierarchy
+            final Map<String, DictionaryItem> types = this.types.copyItems();
+            final Map<String, DictionaryItem> aspects = this.aspects.copyItems();
+            boolean typesChanged = false, aspectsChanged = false;
             for (int i=0; i<json.length(); i++)
             {
                 // get the object representing the dd class
@@ -1067,18 +835,20 @@ class Dictionary
                 {
                     // add or update the aspect definition
                     aspects.put(typeName, new DictionaryItem(typeName, ddclass));
+                    aspectsChanged = true;
                 }
                 else
                 {
                     // add or update the type definition
                     types.put(typeName, new DictionaryItem(typeName, ddclass));
+                    typesChanged = true;
                 }
             }
-            // Update the instance collection references - threads already iterating the original collections will not be
-            // affected - when a new iterator is created it will have visibility of the new references and see the updates.
+            // Update the instance references - threads already querying the original hierarchies will not be
+            // affected - subsequent queries will have visibility of the new references and see the updates.
             // It is acceptable for this data to be "eventually consistent" and does not need to be a transactional update.
-            this.types = types;
-            this.aspects = aspects;
+            if (typesChanged) this.types = new ClassHierarchy(types);
+            if (aspectsChanged) this.aspects = new ClassHierarchy(aspects);
         }
         catch (JSONException e)
         {
@@ -1086,15 +856,16 @@ class Dictionary
         }
     }
     
-    public void updateRemoveClasses(String classes)
+    public synchronized void updateRemoveClasses(String classes)
     {
         try
         {
             JSONArray json = new JSONArray(classes);
             
-            // shallow copy types and aspects maps - do not modify the originals as iterators could be running in threads 
-            final Map<String, DictionaryItem> types = (Map<String, DictionaryItem>)((HashMap)this.types).clone();
-            final Map<String, DictionaryItem> aspects = (Map<String, DictionaryItem>)((HashMap)this.aspects).clone();
+            // copy types and aspects maps - do not modify the originals as queries could be running in threads
+            final Map<String, DictionaryItem> types = this.types.copyItems();
+            final Map<String, DictionaryItem> aspects = this.aspects.copyItems();
+            boolean typesChanged = false, aspectsChanged = false;
             for (int i=0; i<json.length(); i++)
             {
                 // get the object representing the dd class
@@ -1105,19 +876,19 @@ class Dictionary
                 if (ddclass.getBoolean(JSON_IS_ASPECT))
                 {
                     // remove the aspect definition
-                    aspects.remove(typeName);
+                    aspectsChanged |= (aspects.remove(typeName) != null);
                 }
                 else
                 {
                     // remove the type definition
-                    types.remove(typeName);
+                    typesChanged |= (types.remove(typeName) != null);
                 }
             }
-            // Update the instance collection references - threads already iterating the original collections will not be
-            // affected - when a new iterator is created it will have visibility of the new references and see the updates.
+            // Update the instance references - threads already querying the original hierarchies will not be
+            // affected - subsequent queries will have visibility of the new references and see the updates.
             // It is acceptable for this data to be "eventually consistent" and does not need to be a transactional update.
-            this.types = types;
-            this.aspects = aspects;
+            if (typesChanged) this.types = new ClassHierarchy(types);
+            if (aspectsChanged) this.aspects = new ClassHierarchy(aspects);
         }
         catch (JSONException e)
         {
@@ -1133,19 +904,242 @@ class Dictionary
     
     
     /**
-     * Simple wrapper class representing a single Data Dictionary type or aspect instance.
+     * Immutable precomputed index over a single class hierarchy - either the types or the aspects.
      * <p>
-     * The dd item is backed by the underlying JSON structure from the parent dictionary.
+     * Each class is assigned an ordinal and the set of its ancestors is held as a bitset, so a
+     * sub-class test is a single bit lookup. The direct and transitive sub-classes of each class are
+     * also precomputed. Only ancestors that are present in the hierarchy are indexed - a parent chain
+     * ends at the first parent class that is not known to the dictionary.
+     */
+    static final class ClassHierarchy
+    {
+        private final Map<String, DictionaryItem> items;
+        private final Map<String, Integer> ordinals;
+        private final String[] names;
+        private final BitSet[] ancestors;
+        private final String[][] children;
+        private final String[][] descendants;
+        
+        ClassHierarchy(Map<String, DictionaryItem> items)
+        {
+            final int size = items.size();
+            this.items = items;
+            this.ordinals = new HashMap<String, Integer>(size * 2);
+            this.names = new String[size];
+            int ordinal = 0;
+            for (String name : items.keySet())
+            {
+                this.ordinals.put(name, ordinal);
+                this.names[ordinal++] = name;
+            }
+            
+            // resolve the ancestors of every class - each parent chain is only walked once
+            this.ancestors = new BitSet[size];
+            final boolean[] resolving = new boolean[size];
+            for (int i=0; i<size; i++)
+            {
+                resolveAncestors(i, resolving);
+            }
+            
+            // invert the ancestor sets to build the direct and transitive sub-class lists
+            final List<List<String>> childLists = new ArrayList<List<String>>(size);
+            final List<List<String>> descendantLists = new ArrayList<List<String>>(size);
+            for (int i=0; i<size; i++)
+            {
+                childLists.add(new ArrayList<String>(2));
+                descendantLists.add(new ArrayList<String>(2));
+            }
+            for (int i=0; i<size; i++)
+            {
+                final Integer parent = this.ordinals.get(items.get(this.names[i]).parent);
+                if (parent != null && this.ancestors[i].get(parent))
+                {
+                    childLists.get(parent).add(this.names[i]);
+                }
+                for (int a = this.ancestors[i].nextSetBit(0); a >= 0; a = this.ancestors[i].nextSetBit(a + 1))
+                {
+                    descendantLists.get(a).add(this.names[i]);
+                }
+            }
+            this.children = new String[size][];
+            this.descendants = new String[size][];
+            for (int i=0; i<size; i++)
+            {
+                this.children[i] = toArray(childLists.get(i));
+                this.descendants[i] = toArray(descendantLists.get(i));
+            }
+        }
+        
+        private BitSet resolveAncestors(int ordinal, boolean[] resolving)
+        {
+            BitSet result = this.ancestors[ordinal];
+            if (result == null)
+            {
+                result = new BitSet();
+                final Integer parent = this.ordinals.get(this.items.get(this.names[ordinal]).parent);
+                // a cyclic definition is not valid in the model - end the chain rather than loop forever
+                if (parent != null && !resolving[parent])
+                {
+                    resolving[ordinal] = true;
+                    result.or(resolveAncestors(parent, resolving));
+                    result.set(parent);
+                    resolving[ordinal] = false;
+                }
+                this.ancestors[ordinal] = result;
+            }
+            return result;
+        }
+        
+        private static String[] toArray(List<String> list)
+        {
+            return list.isEmpty() ? EMPTY_NAMES : list.toArray(new String[list.size()]);
+        }
+        
+        DictionaryItem getItem(String name)
+        {
+            return this.items.get(name);
+        }
+        
+        /**
+         * @return true if the class is a sub-class of isClass at any depth - false for the same class
+         */
+        boolean isSubClass(String name, String isClass)
+        {
+            final Integer ordinal = this.ordinals.get(name);
+            if (ordinal != null)
+            {
+                final Integer isOrdinal = this.ordinals.get(isClass);
+                return isOrdinal != null && this.ancestors[ordinal].get(isOrdinal);
+            }
+            return false;
+        }
+        
+        /**
+         * @return the direct sub-classes of the class - the returned array must not be modified
+         */
+        String[] getChildClasses(String name)
+        {
+            final Integer ordinal = this.ordinals.get(name);
+            return ordinal != null ? this.children[ordinal] : EMPTY_NAMES;
+        }
+        
+        /**
+         * @return the sub-classes of the class at any depth - the returned array must not be modified
+         */
+        String[] getSubClasses(String name)
+        {
+            final Integer ordinal = this.ordinals.get(name);
+            return ordinal != null ? this.descendants[ordinal] : EMPTY_NAMES;
+        }
+        
+        String[] getNames()
+        {
+            return this.names.clone();
+        }
+        
+        Map<String, DictionaryItem> copyItems()
+        {
+            return new HashMap<String, DictionaryItem>(this.items);
+        }
+        
+        int size()
+        {
+            return this.names.length;
+        }
+    }
+    
+    
+    /**
+     * Simple immutable class representing a single Data Dictionary type or aspect instance.
+     * <p>
+     * The dd item is parsed once from the underlying JSON structure from the parent dictionary.
      */
     public static class DictionaryItem
     {
         final private String type;
-        final private JSONObject data;
+        final private String parent;
+        final private String title;
+        final private String description;
+        final private boolean isContainer;
+        final private String[] defaultAspects;
+        final private Map<String, DictionaryProperty> properties;
+        final private DictionaryAssoc[] associations;
+        final private DictionaryAssoc[] childAssociations;
         
-        DictionaryItem(String type, JSONObject data)
+        DictionaryItem(String type, JSONObject data) throws JSONException
         {
             this.type = type;
-            this.data = data;
+            // the parent JSON object will always exist, but name value may be empty
+            JSONObject parent = data.optJSONObject(JSON_PARENT);
+            this.parent = parent != null ? parent.optString(JSON_NAME) : "";
+            this.title = data.optString(JSON_TITLE, null);
+            this.description = data.optString(JSON_DESCRIPTION, null);
+            this.isContainer = data.optBoolean(JSON_IS_CONTAINER);
+            
+            JSONObject aspects = data.optJSONObject(JSON_DEFAULT_ASPECTS);
+            if (aspects != null && aspects.length() != 0)
+            {
+                this.defaultAspects = new String[aspects.length()];
+                int count = 0;
+                Iterator<String> keys = aspects.keys();
+                while (keys.hasNext())
+                {
+                    this.defaultAspects[count++] = keys.next();
+                }
+            }
+            else
+            {
+                this.defaultAspects = EMPTY_NAMES;
+            }
+            
+            JSONObject properties = data.optJSONObject(JSON_PROPERTIES);
+            if (properties != null && properties.length() != 0)
+            {
+                Map<String, DictionaryProperty> props = new LinkedHashMap<String, DictionaryProperty>(properties.length() * 2);
+                Iterator<String> keys = properties.keys();
+                while (keys.hasNext())
+                {
+                    String propName = keys.next();
+                    props.put(propName, new DictionaryProperty(propName, properties.getJSONObject(propName)));
+                }
+                this.properties = Collections.unmodifiableMap(props);
+            }
+            else
+            {
+                this.properties = Collections.emptyMap();
+            }
+            
+            this.associations = parseAssocs(data.optJSONObject(JSON_ASSOCIATIONS));
+            this.childAssociations = parseAssocs(data.optJSONObject(JSON_CHILDASSOCIATIONS));
+        }
+        
+        private static DictionaryAssoc[] parseAssocs(JSONObject assocs) throws JSONException
+        {
+            if (assocs == null || assocs.length() == 0)
+            {
+                return EMPTY_ASSOCS;
+            }
+            DictionaryAssoc[] ddassocs = new DictionaryAssoc[assocs.length()];
+            int count = 0;
+            Iterator<String> assocNames = assocs.keys();
+            while (assocNames.hasNext())
+            {
+                String assocName = assocNames.next();
+                ddassocs[count++] = new DictionaryAssoc(assocName, assocs.getJSONObject(assocName));
+            }
+            return ddassocs;
+        }
+        
+        boolean hasDefaultAspect(String aspect)
+        {
+            for (String defaultAspect : this.defaultAspects)
+            {
+                if (aspect.equals(defaultAspect))
+                {
+                    return true;
+                }
+            }
+            return false;
         }
         
         @Override
@@ -1163,7 +1157,7 @@ class Dictionary
         @Override
         public String toString()
         {
-            return this.type.toString() + "\r\n" + data.toString();
+            return this.type.toString() + "\r\n" + "parent: " + this.parent + ", properties: " + this.properties.keySet();
         }
     }
     
@@ -1171,17 +1165,15 @@ class Dictionary
     /**
      * Base class representing a single Data Dictionary meta instance.
      * <p>
-     * The meta is backed by the underlying JSON structure from the parent dictionary.
+     * The meta values are extracted from the underlying JSON structure once on construction.
      */
     private static abstract class DictionaryMetaBase
     {
-        final private JSONObject meta;
         final private String name;
         
-        DictionaryMetaBase(String name, JSONObject meta)
+        DictionaryMetaBase(String name)
         {
             this.name = name;
-            this.meta = meta;
         }
         
         public String getName()
@@ -1190,91 +1182,33 @@ class Dictionary
         }
         
         /**
-         * Helper to get mandatory string value from the underlying JSON metadata.
-         * 
-         * @param value     name of the value to retrieve
-         * 
-         * @return the value
-         */
-        protected String getStringValue(String value)
-        {
-            try
-            {
-                return this.meta.getString(value);
-            }
-            catch (JSONException e)
-            {
-                throw new AlfrescoRuntimeException("Error retrieving '" + value + "' information for item: " + name, e);
-            }
-        }
-        
-        /**
-         * Helper to get optional string value from an object in the underlying JSON metadata.
+         * Helper to get an optional string value from an object in the underlying JSON metadata.
          * 
+         * @param meta      the JSON metadata
          * @param object    name of the object containing the value
          * @param value     name of the value to retrieve
          * 
-         * @return the value
+         * @return the value or null if the object is not present
          */
-        protected String getStringValue(String object, String value)
+        protected static String getStringValue(JSONObject meta, String object, String value)
         {
-            try
-            {
-                String result = null;
-                if (this.meta.has(object))
-                {
-                    result = this.meta.getJSONObject(object).optString(value);
-                }
-                return result;
-            }
-            catch (JSONException e)
-            {
-                throw new AlfrescoRuntimeException("Error retrieving '" + value + "' information for item: " + name, e);
-            }
+            JSONObject obj = meta.optJSONObject(object);
+            return obj != null ? obj.optString(value) : null;
         }
         
         /**
-         * Helper to get mandatory boolean value from the underlying JSON metadata.
-         * 
-         * @param value     name of the value to retrieve
-         * 
-         * @return the value
-         */
-        protected boolean getBooleanValue(String value)
-        {
-            try
-            {
-                return this.meta.getBoolean(value);
-            }
-            catch (JSONException e)
-            {
-                throw new AlfrescoRuntimeException("Error retrieving '" + value + "' information for item: " + name, e);
-            }
-        }
-        
-        /**
-         * Helper to get mandatory boolean value from an object in the underlying JSON metadata.
+         * Helper to get a boolean value from an object in the underlying JSON metadata.
          * 
+         * @param meta      the JSON metadata
          * @param object    name of the object containing the value
          * @param value     name of the value to retrieve
          * 
-         * @return the value
+         * @return the value or false if the object is not present
          */
-        protected boolean getBooleanValue(String object, String value)
+        protected static boolean getBooleanValue(JSONObject meta, String object, String value)
         {
-            try
-            {
-                boolean result = false;
-                if (this.meta.has(object))
-                {
-                    result = this.meta.getJSONObject(object).getBoolean(value);
-                }
-                return result;
-            }
-            catch (JSONException e)
-            {
-                throw new AlfrescoRuntimeException("Error retrieving '" + value + "' information for item: " + name, e);
-            }
+            JSONObject obj = meta.optJSONObject(object);
+            return obj != null ? obj.optBoolean(value) : false;
         }
         
         @Override
@@ -1292,54 +1226,73 @@ class Dictionary
      */
     public static class DictionaryProperty extends DictionaryMetaBase
     {
+        final private String title;
+        final private String description;
+        final private String dataType;
+        final private String defaultValue;
+        final private boolean isMultiValued;
+        final private boolean isMandatory;
+        final private boolean isEnforced;
+        final private boolean isProtected;
+        final private boolean isIndexed;
+        
         DictionaryProperty(String name, JSONObject property)
         {
-            super(name, property);
+            super(name);
+            this.title = property.optString(Dictionary.JSON_TITLE, null);
+            this.description = property.optString(Dictionary.JSON_DESCRIPTION, null);
+            this.dataType = property.optString(Dictionary.JSON_DATATYPE, null);
+            this.defaultValue = property.optString(Dictionary.JSON_DEFAULTVALUE, null);
+            this.isMultiValued = property.optBoolean(Dictionary.JSON_MULTIVALUED);
+            this.isMandatory = property.optBoolean(Dictionary.JSON_MANDATORY);
+            this.isEnforced = property.optBoolean(Dictionary.JSON_ENFORCED);
+            this.isProtected = property.optBoolean(Dictionary.JSON_PROTECTED);
+            this.isIndexed = property.optBoolean(Dictionary.JSON_INDEXED);
         }
         
         public String getTitle()
         {
-            return getStringValue(Dictionary.JSON_TITLE);
+            return this.title;
         }
         
         public String getDescription()
         {
-            return getStringValue(Dictionary.JSON_DESCRIPTION);
+            return this.description;
         }
         
         public String getDataType()
         {
-            return getStringValue(Dictionary.JSON_DATATYPE);
+            return this.dataType;
         }
         
         public String getDefaultValue()
         {
-            return getStringValue(Dictionary.JSON_DEFAULTVALUE);
+            return this.defaultValue;
         }
         
         public boolean getIsMultiValued()
         {
-            return getBooleanValue(Dictionary.JSON_MULTIVALUED);
+            return this.isMultiValued;
         }
         
         public boolean getIsMandatory()
         {
-            return getBooleanValue(Dictionary.JSON_MANDATORY);
+            return this.isMandatory;
         }
         
         public boolean getIsEnforced()
         {
-            return getBooleanValue(Dictionary.JSON_ENFORCED);
+            return this.isEnforced;
         }
         
         public boolean getIsProtected()
         {
-            return getBooleanValue(Dictionary.JSON_PROTECTED);
+            return this.isProtected;
         }
         
         public boolean getIsIndexed()
         {
-            return getBooleanValue(Dictionary.JSON_INDEXED);
+            return this.isIndexed;
         }
     }
     
@@ -1351,54 +1304,73 @@ class Dictionary
      */
     public static class DictionaryAssoc extends DictionaryMetaBase
     {
+        final private String title;
+        final private String sourceClass;
+        final private String sourceRole;
+        final private boolean sourceIsMandatory;
+        final private boolean sourceIsMany;
+        final private String targetClass;
+        final private String targetRole;
+        final private boolean targetIsMandatory;
+        final private boolean targetIsMany;
+        
         DictionaryAssoc(String name, JSONObject assoc)
         {
-            super(name, assoc);
+            super(name);
+            this.title = assoc.optString(Dictionary.JSON_TITLE, null);
+            this.sourceClass = getStringValue(assoc, Dictionary.JSON_SOURCE, Dictionary.JSON_CLASS);
+            this.sourceRole = getStringValue(assoc, Dictionary.JSON_SOURCE, Dictionary.JSON_ROLE);
+            this.sourceIsMandatory = getBooleanValue(assoc, Dictionary.JSON_SOURCE, Dictionary.JSON_MANDATORY);
+            this.sourceIsMany = getBooleanValue(assoc, Dictionary.JSON_SOURCE, Dictionary.JSON_MANY);
+            this.targetClass = getStringValue(assoc, Dictionary.JSON_TARGET, Dictionary.JSON_CLASS);
+            this.targetRole = getStringValue(assoc, Dictionary.JSON_TARGET, Dictionary.JSON_ROLE);
+            this.targetIsMandatory = getBooleanValue(assoc, Dictionary.JSON_TARGET, Dictionary.JSON_MANDATORY);
+            this.targetIsMany = getBooleanValue(assoc, Dictionary.JSON_TARGET, Dictionary.JSON_MANY);
         }
         
         public String getTitle()
         {
-            return getStringValue(Dictionary.JSON_TITLE);
+            return this.title;
         }
         
         public String getSourceClass()
         {
-            return getStringValue(Dictionary.JSON_SOURCE, Dictionary.JSON_CLASS);
+            return this.sourceClass;
         }
         
         public String getSourceRole()
         {
-            return getStringValue(Dictionary.JSON_SOURCE, Dictionary.JSON_ROLE);
+            return this.sourceRole;
         }
         
         public boolean getSourceIsMandatory()
         {
-            return getBooleanValue(Dictionary.JSON_SOURCE, Dictionary.JSON_MANDATORY);
+            return this.sourceIsMandatory;
         }
         
         public boolean getSourceIsMany()
         {
-            return getBooleanValue(Dictionary.JSON_SOURCE, Dictionary.JSON_MANY);
+            return this.sourceIsMany;
         }
         
         public String getTargetClass()
         {
-            return getStringValue(Dictionary.JSON_TARGET, Dictionary.JSON_CLASS);
+            return this.targetClass;
         }
         
         public String getTargetRole()
         {
-            return getStringValue(Dictionary.JSON_TARGET, Dictionary.JSON_ROLE);
+            return this.targetRole;
         }
         
         public boolean getTargetIsMandatory()
         {
-            return getBooleanValue(Dictionary.JSON_TARGET, Dictionary.JSON_MANDATORY);
+            return this.targetIsMandatory;
         }
         
         public boolean getTargetIsMany()
         {
-            return getBooleanValue(Dictionary.JSON_TARGET, Dictionary.JSON_MANY);
+            return this.targetIsMany;
         }
     }
 }
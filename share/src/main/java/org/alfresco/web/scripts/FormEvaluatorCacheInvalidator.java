@@ -0,0 +1,142 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.alfresco.web.config.forms.ServiceBasedEvaluator;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.extensions.surf.ClusterMessageAware;
+import org.springframework.extensions.surf.ClusterService;
+
+/**
+ * Invalidates the service responses cached by the form config evaluators when repository data is changed
+ * through the proxy, on this node and all other nodes in the cluster.
+ * <p>
+ * Only the responses for the nodes and tasks referenced by the URL of the proxied request are removed. A
+ * request that does not reference a node or task removes the responses cached for the requesting user.
+ * 
+ * @see ServiceBasedEvaluator
+ */
+public class FormEvaluatorCacheInvalidator implements ClusterMessageAware
+{
+    private static Log logger = LogFactory.getLog(FormEvaluatorCacheInvalidator.class);
+    
+    private static final Pattern NODE_ID_PATTERN = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    private static final Pattern TASK_ID_PATTERN = Pattern.compile(".*/api/task(?:-instances)?/([^/]+)(?:/.*)?");
+    
+    private ClusterService clusterService;
+    
+    /**
+     * Invalidate the cached responses changed by a proxied request.
+     * 
+     * @param url       URL of the proxied request
+     * @param userId    User making the request, may be null
+     */
+    public void invalidate(URL url, String userId) throws UnsupportedEncodingException
+    {
+        final Set<String> ids = new LinkedHashSet<>();
+        final String path = URLDecoder.decode(url.getPath(), "UTF-8");
+        final Matcher task = TASK_ID_PATTERN.matcher(path);
+        if (task.matches())
+        {
+            ids.add(task.group(1));
+        }
+        findNodeIds(path, ids);
+        if (url.getQuery() != null)
+        {
+            findNodeIds(URLDecoder.decode(url.getQuery(), "UTF-8"), ids);
+        }
+        
+        ServiceBasedEvaluator.invalidateCachedResponses(ids, userId);
+        
+        // inform cluster of update
+        if (this.clusterService != null)
+        {
+            final Map<String, Serializable> params = new HashMap<>(4);
+            params.put(FormEvaluatorCacheMessage.PAYLOAD_IDS, new ArrayList<>(ids));
+            params.put(FormEvaluatorCacheMessage.PAYLOAD_USERID, userId);
+            this.clusterService.publishClusterMessage(FormEvaluatorCacheMessage.TYPE, params);
+        }
+    }
+    
+    private static void findNodeIds(String value, Set<String> ids)
+    {
+        final Matcher matcher = NODE_ID_PATTERN.matcher(value);
+        while (matcher.find())
+        {
+            ids.add(matcher.group().toLowerCase());
+        }
+    }
+    
+    /**
+     * Cluster message indicating that cached form config evaluator responses should be invalidated.
+     * The payload for this message is the list of node and task ids and the user.
+     */
+    static interface FormEvaluatorCacheMessage
+    {
+        static final String TYPE = "form-evaluator-invalidate";
+        static final String PAYLOAD_IDS = "ids";
+        static final String PAYLOAD_USERID = "user";
+    }
+    
+    @Override
+    public void setClusterService(ClusterService service)
+    {
+        this.clusterService = service;
+    }
+    
+    @Override
+    public String getClusterMessageType()
+    {
+        return FormEvaluatorCacheMessage.TYPE;
+    }
+    
+    @Override
+    @SuppressWarnings("unchecked")
+    public void onClusterMessage(Map<String, Serializable> payload)
+    {
+        final Object ids = payload.get(FormEvaluatorCacheMessage.PAYLOAD_IDS);
+        final String userId = (String)payload.get(FormEvaluatorCacheMessage.PAYLOAD_USERID);
+        if (logger.isDebugEnabled())
+            logger.debug("Cluster message to invalidate form evaluator responses - ids: " + ids + " user: " + userId);
+        ServiceBasedEvaluator.invalidateCachedResponses(
+                ids instanceof List ? (List<String>)ids : Collections.<String>emptyList(), userId);
+    }
+}
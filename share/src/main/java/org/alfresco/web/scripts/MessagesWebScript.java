@@ -30,9 +30,21 @@
 
 package org.alfresco.web.scripts;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import org.alfresco.web.site.EditionInfo;
 import org.alfresco.web.site.EditionInterceptor;
@@ -40,6 +52,8 @@ import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
 import org.springframework.extensions.surf.util.I18NUtil;
 import org.springframework.extensions.surf.util.StringBuilderWriter;
+import org.springframework.extensions.webscripts.Container;
+import org.springframework.extensions.webscripts.Description;
 import org.springframework.extensions.webscripts.WebScriptException;
 import org.springframework.extensions.webscripts.WebScriptRequest;
 import org.springframework.extensions.webscripts.WebScriptResponse;
@@ -53,11 +67,146 @@ import org.springframework.extensions.webscripts.json.JSONWriter;
  * <code>
  * var msg = Alfresco.messages["messageid"];
  * </code>
+ * <p>
+ * The GET response is generated by the standard WebScript implementation once for each locale, edition
+ * and protocol and held serialized and gzip compressed until the message bundles are reset by the POST
+ * method or the WebScripts are refreshed. It is served with a strong ETag so browsers revalidate with
+ * If-None-Match and receive a 304 while the messages are unchanged.
+ * <p>
+ * The page templates add the checksum of the last response generated for the locale and edition to
+ * the messages URL, see {@link #getChecksum(String)}. A request with a 'checksum' parameter matching
+ * the ETag value is served with a long cache lifetime, as the URL changes whenever the messages do.
  *
  * @author Kevin Roast
  */
 public class MessagesWebScript extends org.springframework.extensions.webscripts.MessagesWebScript
 {
+    private static final String PARAM_LOCALE = "locale";
+    private static final String PARAM_CHECKSUM = "checksum";
+    
+    /** Cache lifetime in seconds for a content-hashed messages URL */
+    private static final long CHECKSUM_MAX_AGE = 31536000L;
+    
+    /** Maximum number of cached responses - the least recently used response is discarded */
+    private static final int MAX_CACHED = 64;
+    
+    /** Generated responses keyed by locale, edition and protocol - shared by the GET and POST instances */
+    private static final Map<String, Messages> MESSAGES = createCache();
+    
+    /** Checksum of the last response generated keyed by locale and edition - used to build the page URLs */
+    private static final Map<String, String> CHECKSUMS = createCache();
+    
+    @Override
+    public void init(Container container, Description description)
+    {
+        super.init(container, description);
+        MESSAGES.clear();
+        CHECKSUMS.clear();
+    }
+    
+    /**
+     * Get the checksum to add to the messages URL of a page, so that the browser can cache the
+     * messages until they change.
+     * 
+     * @param locale    Java locale format - null or empty for the current locale
+     * 
+     * @return checksum of the messages last generated for the locale and edition, null if they have
+     *         not been generated yet
+     */
+    public static String getChecksum(String locale)
+    {
+        return CHECKSUMS.get(getLocaleKey(locale));
+    }
+    
+    private static String getLocaleKey(String locale)
+    {
+        // the key uses the parsed locale - the parameter is supplied by the client in any form
+        return (locale == null || locale.length() == 0 ? I18NUtil.getLocale() : I18NUtil.parseLocale(locale)) +
+                "|" + isCommunity();
+    }
+    
+    private static <V> Map<String, V> createCache()
+    {
+        return Collections.synchronizedMap(new LinkedHashMap<String, V>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest)
+            {
+                return size() > MAX_CACHED;
+            }
+        });
+    }
+    
+    @Override
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
+    {
+        if (!"GET".equalsIgnoreCase(getDescription().getMethod()))
+        {
+            // message bundles are reset - discard the generated responses
+            MESSAGES.clear();
+            CHECKSUMS.clear();
+            super.execute(req, res);
+            return;
+        }
+        
+        final String localeKey = getLocaleKey(req.getParameter(PARAM_LOCALE));
+        final String serverPath = req.getServerPath();
+        final String key = localeKey + '|' + (isCommunity() ? serverPath.substring(0, serverPath.indexOf(':')) : "");
+        Messages messages = MESSAGES.get(key);
+        if (messages == null)
+        {
+            final CapturedResponse captured = new CapturedResponse();
+            super.execute(req, captured.wrap(res));
+            if (captured.status != 0 && captured.status != 200)
+            {
+                // not a messages response - pass it on as generated
+                final OutputStream out = res.getOutputStream();
+                out.write(captured.getContent());
+                out.flush();
+                return;
+            }
+            messages = new Messages(captured.getContent());
+            MESSAGES.put(key, messages);
+        }
+        CHECKSUMS.put(localeKey, messages.checksum);
+        
+        final String etag = '"' + messages.checksum + '"';
+        res.setHeader("ETag", etag);
+        res.setHeader("Vary", "Accept-Encoding");
+        if (messages.checksum.equals(req.getParameter(PARAM_CHECKSUM)))
+        {
+            res.setHeader("Cache-Control", "public, max-age=" + CHECKSUM_MAX_AGE + ", immutable");
+        }
+        else
+        {
+            res.setHeader("Cache-Control", "no-cache");
+        }
+        
+        final String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*")))
+        {
+            res.setStatus(304);
+            return;
+        }
+        
+        res.setContentType("text/javascript");
+        res.setContentEncoding("UTF-8");
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        final byte[] content;
+        if (acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip"))
+        {
+            res.setHeader("Content-Encoding", "gzip");
+            content = messages.gzipped;
+        }
+        else
+        {
+            content = messages.content;
+        }
+        final OutputStream out = res.getOutputStream();
+        out.write(content);
+        out.flush();
+    }
+    
     /**
      * Generate the message for a given locale.
      *
@@ -143,7 +292,7 @@ public class MessagesWebScript extends org.springframework.extensions.webscripts
      * Verifies if the licence edition is community
      * @return true if the edition was successfuly retrieved and is UNKNOWN_EDITION , false otherwise
      */
-    private boolean isCommunity()
+    private static boolean isCommunity()
     {
         final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
         if (rc != null)
@@ -157,4 +306,103 @@ public class MessagesWebScript extends org.springframework.extensions.webscripts
         }
         return false;
     }
+    
+    /**
+     * Captures the content written to a response by the standard WebScript implementation so it can be
+     * cached - headers are passed on to the response, cache settings are replaced by the ETag headers.
+     */
+    private static final class CapturedResponse implements InvocationHandler
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        private StringBuilderWriter writer;
+        private WebScriptResponse res;
+        int status;
+        
+        WebScriptResponse wrap(WebScriptResponse res)
+        {
+            this.res = res;
+            return (WebScriptResponse)Proxy.newProxyInstance(WebScriptResponse.class.getClassLoader(),
+                    new Class<?>[] {WebScriptResponse.class}, this);
+        }
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+        {
+            final String name = method.getName();
+            if ("getOutputStream".equals(name))
+            {
+                return this.bytes;
+            }
+            if ("getWriter".equals(name))
+            {
+                if (this.writer == null)
+                {
+                    this.writer = new StringBuilderWriter(8192);
+                }
+                return this.writer;
+            }
+            if ("setCache".equals(name))
+            {
+                return null;
+            }
+            if ("setStatus".equals(name))
+            {
+                this.status = (Integer)args[0];
+            }
+            try
+            {
+                return method.invoke(this.res, args);
+            }
+            catch (InvocationTargetException err)
+            {
+                throw err.getCause();
+            }
+        }
+        
+        byte[] getContent() throws IOException
+        {
+            if (this.writer != null)
+            {
+                this.bytes.write(this.writer.toString().getBytes(StandardCharsets.UTF_8));
+                this.writer = null;
+            }
+            return this.bytes.toByteArray();
+        }
+    }
+    
+    /**
+     * A generated messages response, serialized and gzip compressed.
+     */
+    private static final class Messages
+    {
+        final byte[] content;
+        final byte[] gzipped;
+        final String checksum;
+        
+        Messages(byte[] content) throws IOException
+        {
+            this.content = content;
+            
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(this.content.length / 4);
+            final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(this.content);
+            gzip.close();
+            this.gzipped = bytes.toByteArray();
+            
+            try
+            {
+                final byte[] digest = MessageDigest.getInstance("MD5").digest(this.content);
+                final StringBuilder hex = new StringBuilder(digest.length * 2);
+                for (byte b : digest)
+                {
+                    hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+                }
+                this.checksum = hex.toString();
+            }
+            catch (NoSuchAlgorithmException err)
+            {
+                throw new WebScriptException("Unable to generate messages checksum.", err);
+            }
+        }
+    }
 }
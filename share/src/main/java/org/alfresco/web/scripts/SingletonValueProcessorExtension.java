@@ -25,23 +25,31 @@
  */
 package org.alfresco.web.scripts;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.error.AlfrescoRuntimeException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.extensions.surf.exception.ConnectorServiceException;
 import org.springframework.extensions.surf.site.AuthenticationUtil;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
 import org.springframework.extensions.webscripts.processor.BaseProcessorExtension;
 
 /**
- * Helper base class to wrap the thread-safe singleton locking pattern used to retrieve single
+ * Helper base class to wrap the thread-safe singleton loading pattern used to retrieve single
  * instance values from the repository. Example might be the Data Dictionary (used by all users,
  * different per tenant, only retrieved once) or the Sync Mode status (used by all users,
  * same per tenant, only retrieved once).
  * <p>
+ * Values are loaded once per store - concurrent callers for a store that is being loaded wait
+ * for that single retrieval, while callers for other stores (i.e. tenants) are not blocked.
+ * Optionally a time-to-live can be set, after which the first caller to see the expired value
+ * reloads it while other callers continue to be served the previous value.
+ * <p>
  * The implementing class only needs to provide method to perform the remote retrieval of the
  * value and indicate if the value needs to be stored per-tenant or not. 
  * 
@@ -49,12 +57,52 @@ import org.springframework.extensions.webscripts.processor.BaseProcessorExtensio
  */
 public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorExtension
 {
-    /** Map of store ID to value that has been retrieved for it */
-    private final Map<String, T> storeValues = new HashMap<String, T>(); 
+    private static Log logger = LogFactory.getLog(SingletonValueProcessorExtension.class);
+    
+    /** Map of store ID to value that has been or is being retrieved for it */
+    private final ConcurrentMap<String, StoreValue<T>> storeValues = new ConcurrentHashMap<String, StoreValue<T>>();
+    
+    /** Time in milliseconds after which a value is refreshed - zero or less to never refresh */
+    private volatile long timeToLive = 0L;
+    
+    /** Load statistics */
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+    private volatile long lastLoadTime = 0L;
+    
+    
+    /**
+     * @param timeToLive    Time in milliseconds after which a retrieved value is refreshed from the
+     *                      repository, zero or less (the default) to keep values until restart.
+     */
+    public void setTimeToLive(long timeToLive)
+    {
+        this.timeToLive = timeToLive;
+    }
+    
+    /**
+     * @return the number of successful value retrievals
+     */
+    public long getLoadCount()
+    {
+        return this.loadCount.get();
+    }
     
-    /** Lock for access to store values */
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * @return the total time in milliseconds spent in successful value retrievals
+     */
+    public long getTotalLoadTime()
+    {
+        return this.totalLoadTime.get();
+    }
     
+    /**
+     * @return the time in milliseconds taken by the most recent successful value retrieval
+     */
+    public long getLastLoadTime()
+    {
+        return this.lastLoadTime;
+    }
     
     /**
      * Thread-safe get of the singleton value.
@@ -87,57 +135,55 @@ public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorE
      */
     protected final T getSingletonValue(final boolean tenant, final String userId)
     {
-        T result;
-        
         final String storeId = tenant ? getTenantUserStore(userId) : "";
         
-        // NOTE: currently there is a single RRW lock for all values -
-        // in a heavily multi-tenant scenario (especially ones with new tenants
-        // being created often) the first access of a new tenant dictionary would
-        // potentially slow other tenant users access to their dictionary.
-        // In this situation a lock per tenant would be preferable.
-        this.lock.readLock().lock();
-        try
+        StoreValue<T> storeValue = this.storeValues.get(storeId);
+        if (storeValue == null)
         {
-            result = storeValues.get(storeId);
-            if (result == null)
+            final StoreValue<T> created = new StoreValue<T>();
+            storeValue = this.storeValues.putIfAbsent(storeId, created);
+            if (storeValue == null)
             {
-                this.lock.readLock().unlock();
-                this.lock.writeLock().lock();
+                // this thread is responsible for the retrieval - other callers for the same store wait for it
+                storeValue = created;
                 try
                 {
-                    // check again, as more than one thread could have been waiting on the Write lock 
-                    result = storeValues.get(storeId);
-                    if (result == null)
-                    {
-                        // call the retrieve implementation - probably going to do a remote call or similar
-                        result = retrieveValue(userId, storeId);
-                        
-                        // store result against the current store i.e. tenant
-                        storeValues.put(storeId, result);
-                    }
-                }
-                catch (ConnectorServiceException cerr)
-                {
-                    throw new AlfrescoRuntimeException("Unable to retrieve " + getValueName() + " configuration from Alfresco: " + cerr.getMessage());
+                    storeValue.set(load(userId, storeId));
                 }
-                catch (Exception err)
+                catch (RuntimeException err)
                 {
-                    throw new AlfrescoRuntimeException("Failed during processing of " + getValueName() + " configuration from Alfresco: " + err.getMessage());
+                    storeValue.fail(err);
                 }
                 finally
                 {
-                    this.lock.readLock().lock();
-                    this.lock.writeLock().unlock();
+                    if (!storeValue.isLoaded())
+                    {
+                        // do not keep the failure - the next caller will retry the retrieval. Any other
+                        // failure (i.e. an Error) must still release the callers waiting for the value
+                        this.storeValues.remove(storeId, storeValue);
+                        storeValue.fail(new AlfrescoRuntimeException("Unable to retrieve " + getValueName()));
+                    }
                 }
             }
         }
-        finally
+        else if (storeValue.isExpired(this.timeToLive) && storeValue.beginRefresh())
         {
-            this.lock.readLock().unlock();
+            // refresh the expired value - concurrent callers are served the previous value meanwhile
+            try
+            {
+                storeValue.set(load(userId, storeId));
+            }
+            catch (RuntimeException err)
+            {
+                logger.warn("Unable to refresh " + getValueName() + " - continuing with the previous value: " + err.getMessage());
+            }
+            finally
+            {
+                storeValue.endRefresh();
+            }
         }
         
-        return result;
+        return storeValue.get();
     }
     
     /**
@@ -150,18 +196,47 @@ public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorE
      */
     protected final boolean hasSingletonValue(final boolean tenant, final String userId)
     {
-        boolean result = false;
-        
         final String storeId = tenant ? getTenantUserStore(userId) : "";
-        this.lock.readLock().lock();
+        final StoreValue<T> storeValue = this.storeValues.get(storeId);
+        return (storeValue != null && storeValue.isLoaded());
+    }
+    
+    /**
+     * Retrieve the value for a store, recording the load statistics.
+     * 
+     * @param userId    Current user Id
+     * @param storeId   Current store Id
+     * 
+     * @return value from the remote endpoint
+     */
+    private T load(final String userId, final String storeId)
+    {
+        final long start = System.currentTimeMillis();
+        final T result;
         try
         {
-            result = (storeValues.get(storeId) != null);
+            // call the retrieve implementation - probably going to do a remote call or similar
+            result = retrieveValue(userId, storeId);
         }
-        finally
+        catch (ConnectorServiceException cerr)
         {
-            this.lock.readLock().unlock();
+            throw new AlfrescoRuntimeException("Unable to retrieve " + getValueName() + " configuration from Alfresco: " + cerr.getMessage());
         }
+        catch (Exception err)
+        {
+            throw new AlfrescoRuntimeException("Failed during processing of " + getValueName() + " configuration from Alfresco: " + err.getMessage());
+        }
+        if (result == null)
+        {
+            throw new AlfrescoRuntimeException("No " + getValueName() + " configuration was returned from Alfresco.");
+        }
+        
+        final long time = System.currentTimeMillis() - start;
+        this.loadCount.incrementAndGet();
+        this.totalLoadTime.addAndGet(time);
+        this.lastLoadTime = time;
+        if (logger.isDebugEnabled())
+            logger.debug("Retrieved " + getValueName() + (storeId.length() != 0 ? (" for domain: " + storeId) : "") + " in " + time + "ms");
         
         return result;
     }
@@ -209,4 +284,86 @@ public abstract class SingletonValueProcessorExtension<T> extends BaseProcessorE
         }
         return storeId;
     }
-}
\ No newline at end of file
+    
+    
+    /**
+     * Holder for the value of a single store. Callers block in {@link #get()} only until the
+     * first retrieval of the value completes.
+     */
+    private static final class StoreValue<T>
+    {
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile T value;
+        private volatile RuntimeException error;
+        private volatile long loadedTime;
+        
+        void set(T value)
+        {
+            this.loadedTime = System.currentTimeMillis();
+            this.value = value;
+            this.loaded.countDown();
+        }
+        
+        void fail(RuntimeException error)
+        {
+            if (this.loaded.getCount() != 0)
+            {
+                this.error = error;
+                this.loaded.countDown();
+            }
+        }
+        
+        boolean isLoaded()
+        {
+            return this.value != null;
+        }
+        
+        boolean isExpired(long timeToLive)
+        {
+            return timeToLive > 0 && this.value != null && System.currentTimeMillis() - this.loadedTime > timeToLive;
+        }
+        
+        boolean beginRefresh()
+        {
+            return this.refreshing.compareAndSet(false, true);
+        }
+        
+        void endRefresh()
+        {
+            this.refreshing.set(false);
+        }
+        
+        T get()
+        {
+            boolean interrupted = false;
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        this.loaded.await();
+                        break;
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (this.value == null)
+            {
+                throw this.error;
+            }
+            return this.value;
+        }
+    }
+}
@@ -25,17 +25,27 @@
  */
 package org.alfresco.web.scripts;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PushbackInputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
 import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletResponse;
 
+import org.alfresco.web.extensibility.SlingshotEvaluatorUtil;
 import org.apache.http.Header;
 import org.apache.http.HttpResponse;
 import org.htmlparser.Attribute;
@@ -45,10 +55,11 @@ import org.htmlparser.PrototypicalNodeFactory;
 import org.htmlparser.tags.DoctypeTag;
 import org.htmlparser.util.NodeIterator;
 import org.htmlparser.util.ParserException;
+import org.springframework.extensions.surf.RequestContext;
+import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
 import org.springframework.extensions.surf.util.I18NUtil;
 import org.springframework.extensions.webscripts.connector.HttpMethod;
 import org.springframework.extensions.webscripts.connector.RemoteClient;
-import org.springframework.extensions.webscripts.ui.common.StringUtils;
 
 /**
  * Override the Spring WebScripts impl of RemoteClient to provide additional security
@@ -63,26 +74,63 @@ public class SlingshotRemoteClient extends RemoteClient
     private static final Pattern CONTENT_PATTERN_TO_WHITE_LIST = Pattern.compile(".*/api/node/workspace/SpacesStore/[a-z0-9-]+/content/thumbnails/webpreview");
     private static final Pattern SLINGSHOT_WIKI_PAGE_PATTERN = Pattern.compile(".*/slingshot/wiki/page/.*");
     private static final Pattern SLINGSHOT_WIKI_VERSION_PATTERN = Pattern.compile(".*/slingshot/wiki/version/.*");
+    private static final Pattern ATTACHMENT_PATTERN = Pattern.compile("(attachment=)\\w+");
+    private static final Pattern SITE_MEMBERSHIPS_PATTERN = Pattern.compile(".*/api/sites/([^/]+)/memberships(?:/([^/]+))?/?");
+    private static final Pattern SITE_PATTERN = Pattern.compile(".*/api/sites/([^/]+)/?");
 
     private boolean swfEnabled = false;
     
+    private SlingshotEvaluatorUtil slingshotEvaluatorUtil;
+    
+    private FormEvaluatorCacheInvalidator formEvaluatorCacheInvalidator;
+    
     public void setSwfEnabled(boolean swfEnabled)
     {
         this.swfEnabled = swfEnabled;
     }
     
+    /**
+     * @param slingshotEvaluatorUtil    Evaluator utility whose cached site memberships are invalidated when
+     *                                  they are changed via a proxied request
+     */
+    public void setSlingshotEvaluatorUtil(SlingshotEvaluatorUtil slingshotEvaluatorUtil)
+    {
+        this.slingshotEvaluatorUtil = slingshotEvaluatorUtil;
+    }
+    
+    /**
+     * @param formEvaluatorCacheInvalidator     Invalidates the service responses cached by the form config
+     *                                          evaluators for the nodes changed via a proxied request
+     */
+    public void setFormEvaluatorCacheInvalidator(FormEvaluatorCacheInvalidator formEvaluatorCacheInvalidator)
+    {
+        this.formEvaluatorCacheInvalidator = formEvaluatorCacheInvalidator;
+    }
+    
     @Override
     protected void copyResponseStreamOutput(URL url, HttpServletResponse res, OutputStream out,
             HttpResponse response, String contentType, int bufferSize) throws IOException
     {
+        if (res != null && getRequestMethod() != HttpMethod.GET)
+        {
+            // a proxied request from the client may have changed repository data - such as the
+            // aspects or type of a node - so the form config evaluators must not use cached metadata
+            if (this.formEvaluatorCacheInvalidator != null)
+            {
+                final RequestContext rc = ThreadLocalRequestContext.getRequestContext();
+                this.formEvaluatorCacheInvalidator.invalidate(url, rc != null ? rc.getUserId() : null);
+            }
+            
+            invalidateSiteMemberships(url);
+        }
+        
         boolean processed = false;
         if (res != null && getRequestMethod() == HttpMethod.GET &&
                 response.getStatusLine().getStatusCode() >= 200 &&
                 response.getStatusLine().getStatusCode() < 300)
         {
             // get the attachment parameter from the url query
-            Pattern pattern = Pattern.compile("(attachment=)\\w+");
-            Matcher matcher = pattern.matcher(url.getQuery());
+            Matcher matcher = ATTACHMENT_PATTERN.matcher(url.getQuery() != null ? url.getQuery() : "");
             if (matcher.find())
             {
                 String param = matcher.group();
@@ -117,72 +165,73 @@ public class SlingshotRemoteClient extends RemoteClient
                     // examine the mimetype to see if additional processing is required
                     if (mimetype.contains("text/html") || mimetype.contains("application/xhtml+xml") || mimetype.contains("text/xml"))
                     {
-                        // found HTML content we need to process in-memory and perform stripping on
-                        ByteArrayOutputStream bos = new ByteArrayOutputStream(bufferSize);
+                        // found HTML content we need to process and perform stripping on - the content
+                        // is processed as it is streamed so the document is never held in memory
                         final InputStream input;
                         if (response.getEntity() != null && (input = response.getEntity().getContent()) != null)
                         {
-                            // get data into our byte buffer for processing
                             try
                             {
+                                // halt on binary file - we assume this is HTML - it might not be - effectively a DNS attack
+                                // the first buffer of the response is checked before anything is written, the rest of the
+                                // content is streamed and any later NUL characters are replaced by the sanitizer
+                                final PushbackInputStream content = new PushbackInputStream(input, bufferSize);
                                 final byte[] buffer = new byte[bufferSize];
-                                int read = input.read(buffer);
-                                while (read != -1)
+                                final int sniffed = readBuffer(content, buffer);
+                                if (containsNul(buffer, sniffed))
                                 {
-                                    // halt on binary file - we assume this is HTML - it might not be - effectively a DNS attack
-                                    for (int i=0; i<read; i++)
-                                    {
-                                        if (buffer[i] == 0x00)
-                                        {
-                                            res.setContentLength(0);
-                                            out.close();
-                                            return;
-                                        }
-                                    }
-                                    bos.write(buffer, 0, read);
-                                    read = input.read(buffer);
+                                    res.setContentLength(0);
                                 }
-                            }
-                            finally
-                            {
-                                input.close();
-                            }
-                            
-                            // convert to appropriate string format
-                            String content = encoding != null ? new String(bos.toByteArray(), encoding) : new String(bos.toByteArray());
+                                else if (mimetype.contains("text/html") || mimetype.contains("application/xhtml+xml"))
+                                {
+                                    // the size of the processed content is not known until it has been written
+                                    // so remove the size header - the response is sent using chunked encoding
+                                    res.setContentLength(-1);
+                                    content.unread(buffer, 0, sniffed);
 
-                            if (mimetype.contains("text/html") || mimetype.contains("application/xhtml+xml"))
-                            {
-                                // process with HTML stripper
-                                content = StringUtils.stripUnsafeHTMLDocument(content, false);
-                            }
-                            else if (mimetype.contains("text/xml"))
-                            {
-                                // we cannot be sure what we are processing here - it could be html embedded in XML
-                                // If docType is set to xml browsers (at least IE & Chrome) will treat it like it
-                                // does for a svg+xml document
-                                res.setContentType("text/plain");
-                            }
-                            else if (mimetype.contains("text/x-component"))
-                            {
-                                // IE supports "behaviour" which means that css can load a .htc file that could
-                                // contain XSS code in the form of jscript, vbscript etc, to stop it form being
-                                // evaluated we set the contient type to text/plain
-                                res.setContentType("text/plain");
-                            }
+                                    // process with HTML stripper
+                                    final Charset charset = getCharset(encoding);
+                                    final Writer writer = new BufferedWriter(new OutputStreamWriter(out, charset), bufferSize);
+                                    StreamingHTMLSanitizer.sanitize(new InputStreamReader(content, charset), writer);
+                                    writer.flush();
+                                }
+                                else
+                                {
+                                    if (mimetype.contains("text/xml"))
+                                    {
+                                        // we cannot be sure what we are processing here - it could be html embedded in XML
+                                        // If docType is set to xml browsers (at least IE & Chrome) will treat it like it
+                                        // does for a svg+xml document
+                                        res.setContentType("text/plain");
+                                    }
+                                    else if (mimetype.contains("text/x-component"))
+                                    {
+                                        // IE supports "behaviour" which means that css can load a .htc file that could
+                                        // contain XSS code in the form of jscript, vbscript etc, to stop it form being
+                                        // evaluated we set the contient type to text/plain
+                                        res.setContentType("text/plain");
+                                    }
 
-                            // push the modified response to the real outputstream
-                            try
-                            {
-                                byte[] bytes = encoding != null ? content.getBytes(encoding) : content.getBytes();
-                                // rewrite size header as it wil have changed
-                                res.setContentLength(bytes.length);
-                                // output the bytes
-                                out.write(bytes);
+                                    // push the unmodified response to the real outputstream
+                                    res.setContentLength(-1);
+                                    int read = sniffed;
+                                    while (read != -1)
+                                    {
+                                        out.write(buffer, 0, read);
+                                        read = content.read(buffer);
+                                    }
+                                }
                             }
                             finally
                             {
-                                out.close();
+                                try
+                                {
+                                    input.close();
+                                }
+                                finally
+                                {
+                                    out.close();
+                                }
                             }
                         }
                         processed = true;
@@ -215,6 +264,50 @@ public class SlingshotRemoteClient extends RemoteClient
         }
     }
 
+    /**
+     * Invalidate the cached site memberships changed by a proxied request - a change to the memberships of a
+     * site or the deletion of a site. A new membership is posted to the site's memberships collection, so the
+     * memberships of every user of the site are invalidated when the user is not part of the URL.
+     * 
+     * @param url   URL of the proxied request
+     */
+    private void invalidateSiteMemberships(URL url) throws UnsupportedEncodingException
+    {
+        if (this.slingshotEvaluatorUtil != null)
+        {
+            Matcher matcher = SITE_MEMBERSHIPS_PATTERN.matcher(url.getPath());
+            if (matcher.matches())
+            {
+                String userId = matcher.group(2) != null ? URLDecoder.decode(matcher.group(2), "UTF-8") : null;
+                this.slingshotEvaluatorUtil.invalidateSiteMembership(URLDecoder.decode(matcher.group(1), "UTF-8"), userId);
+            }
+            else if (getRequestMethod() == HttpMethod.DELETE && (matcher = SITE_PATTERN.matcher(url.getPath())).matches())
+            {
+                this.slingshotEvaluatorUtil.invalidateSiteMembership(URLDecoder.decode(matcher.group(1), "UTF-8"), null);
+            }
+        }
+    }
+
+    /**
+     * @param encoding  Character encoding from the content type - may be null for the platform default
+     * @return Charset for the encoding
+     */
+    private static Charset getCharset(String encoding) throws UnsupportedEncodingException
+    {
+        if (encoding == null)
+        {
+            return Charset.defaultCharset();
+        }
+        try
+        {
+            return Charset.forName(encoding);
+        }
+        catch (IllegalCharsetNameException | UnsupportedCharsetException err)
+        {
+            throw new UnsupportedEncodingException(encoding);
+        }
+    }
+
     protected boolean hasDocType(String content, String docType, boolean encode)
     {
         try
@@ -251,4 +344,37 @@ public class SlingshotRemoteClient extends RemoteClient
         }
         return false;
     }
+
+    /**
+     * Read from a stream until the buffer is full or the stream ends.
+     * 
+     * @param input     Stream to read
+     * @param buffer    Buffer to fill
+     * @return number of bytes read
+     */
+    private static int readBuffer(InputStream input, byte[] buffer) throws IOException
+    {
+        int total = 0;
+        int read;
+        while (total < buffer.length && (read = input.read(buffer, total, buffer.length - total)) != -1)
+        {
+            total += read;
+        }
+        return total;
+    }
+
+    /**
+     * @return true if the first length bytes of the buffer contain a NUL byte
+     */
+    private static boolean containsNul(byte[] buffer, int length)
+    {
+        for (int i=0; i<length; i++)
+        {
+            if (buffer[i] == 0x00)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -0,0 +1,802 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Removes unsafe markup from an HTML document as it is read, so documents of any size are sanitized
+ * using a fixed amount of memory - only a single tag is held at a time.
+ * <p>
+ * The document is split into text and tags. Text is passed through unchanged, tags are re-written from
+ * their parsed name and attributes so the browser sees exactly what was checked:
+ * <ul>
+ * <li>script, iframe, svg and math elements are removed with their content</li>
+ * <li>object, applet, embed, base, link, frame, frameset, animate and set tags and refresh meta tags are removed</li>
+ * <li>element and attribute names are checked by their local name, as documents served as XHTML can bind
+ *     any namespace prefix to the XHTML namespace e.g. "html:script"</li>
+ * <li>event handler attributes and attributes with script URL values are removed - the whole value of URL
+ *     attributes is checked after decoding character references, as some hold a list of URLs</li>
+ * <li>the content of style elements is removed if it imports, loads or evaluates anything</li>
+ * <li>comments are removed</li>
+ * <li>NUL characters are replaced with U+FFFD as they are by the browser</li>
+ * <li>'&lt;' is escaped in the content of raw text elements such as style and textarea, so their content
+ *     can never contain markup however the browser interprets the element</li>
+ * </ul>
+ */
+public final class StreamingHTMLSanitizer
+{
+    /** Maximum length of a single tag - longer tags are removed */
+    static final int MAX_TAG_LENGTH = 65536;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final Set<String> REMOVE_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "script", "iframe", "svg", "math"));
+    private static final Set<String> REMOVE_TAGS = new HashSet<String>(Arrays.asList(
+            "object", "applet", "embed", "base", "link", "frame", "frameset",
+            "animate", "animatemotion", "animatetransform", "set"));
+    private static final Set<String> RAW_TEXT_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "style", "textarea", "title", "xmp", "noembed", "noframes", "noscript", "plaintext"));
+    private static final Set<String> URL_ATTRIBUTES = new HashSet<String>(Arrays.asList(
+            "href", "src", "action", "formaction", "background", "data", "codebase", "poster",
+            "dynsrc", "lowsrc", "srcset", "imagesrcset", "ping", "cite", "longdesc",
+            "usemap", "manifest", "icon", "archive", "classid", "profile", "srcdoc"));
+    private static final String[] UNSAFE_SCHEMES = new String[] {
+            "javascript:", "vbscript:", "livescript:", "mocha:"};
+    private static final String[] UNSAFE_STYLES = new String[] {
+            "javascript:", "vbscript:", "expression(", "behavior:", "behaviour:", "-moz-binding", "\\", "/*"};
+    private static final String[] UNSAFE_STYLE_SHEETS = new String[] {"url(", "@import"};
+
+    private final Reader in;
+    private final Writer out;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int len = 0;
+    private int pushback = -1;
+
+    private StreamingHTMLSanitizer(Reader in, Writer out)
+    {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Sanitize an HTML document. Neither stream is closed.
+     *
+     * @param in    Reader for the HTML document
+     * @param out   Writer for the sanitized document
+     * @throws IOException on error reading or writing the document
+     */
+    public static void sanitize(Reader in, Writer out) throws IOException
+    {
+        new StreamingHTMLSanitizer(in, out).process();
+    }
+
+    private void process() throws IOException
+    {
+        int c;
+        while ((c = read()) != -1)
+        {
+            if (c == '<')
+            {
+                markup();
+            }
+            else
+            {
+                this.out.write(c);
+            }
+        }
+    }
+
+    /**
+     * Process the markup following a '&lt;' character
+     */
+    private void markup() throws IOException
+    {
+        final int c = read();
+        if (isLetter(c))
+        {
+            final Tag tag = readTag(c);
+            if (tag != null)
+            {
+                startTag(tag);
+            }
+        }
+        else if (c == '/')
+        {
+            final int next = read();
+            if (isLetter(next))
+            {
+                final Tag tag = readTag(next);
+                if (tag != null)
+                {
+                    endTag(tag);
+                }
+            }
+            else if (next != '>' && next != -1)
+            {
+                // bogus comment e.g. "</ foo>"
+                skipTo('>');
+            }
+        }
+        else if (c == '!')
+        {
+            declaration();
+        }
+        else if (c == '?')
+        {
+            // processing instruction or bogus comment
+            skipTo('>');
+        }
+        else
+        {
+            // not markup - a literal '<' in the text
+            this.out.write('<');
+            unread(c);
+        }
+    }
+
+    private void startTag(Tag tag) throws IOException
+    {
+        if (REMOVE_ELEMENTS.contains(tag.localName))
+        {
+            rawText(tag.lname, null);
+            return;
+        }
+        if (REMOVE_TAGS.contains(tag.localName) || ("meta".equals(tag.localName) && tag.hasAttribute("http-equiv")))
+        {
+            return;
+        }
+
+        this.out.write('<');
+        this.out.write(tag.name);
+        for (int i = 0; i < tag.attributes.size(); i++)
+        {
+            final String[] attr = tag.attributes.get(i);
+            if (isSafeAttribute(attr[0].toLowerCase(Locale.ENGLISH), attr[1]))
+            {
+                this.out.write(' ');
+                this.out.write(attr[0]);
+                if (attr[1] != null)
+                {
+                    this.out.write("=\"");
+                    this.out.write(attr[1].replace("\"", "&quot;"));
+                    this.out.write('"');
+                }
+            }
+        }
+        if (tag.selfClosing)
+        {
+            this.out.write(" /");
+        }
+        this.out.write('>');
+
+        if ("style".equals(tag.localName))
+        {
+            // the style sheet is held so it can be checked before it is written
+            final StyleSheet style = new StyleSheet();
+            final boolean closed = rawText(tag.lname, style);
+            if (!style.overflow && isSafeStyleSheet(style.toString()))
+            {
+                this.out.write(style.toString());
+            }
+            if (closed)
+            {
+                this.out.write("</");
+                this.out.write(tag.name);
+                this.out.write('>');
+            }
+        }
+        else if (RAW_TEXT_ELEMENTS.contains(tag.localName))
+        {
+            if (rawText(tag.lname, this.out))
+            {
+                this.out.write("</");
+                this.out.write(tag.name);
+                this.out.write('>');
+            }
+        }
+    }
+
+    private void endTag(Tag tag) throws IOException
+    {
+        if (!REMOVE_ELEMENTS.contains(tag.localName) && !REMOVE_TAGS.contains(tag.localName))
+        {
+            this.out.write("</");
+            this.out.write(tag.name);
+            this.out.write('>');
+        }
+    }
+
+    /**
+     * Process the content of a raw text element up to and including its end tag. The end tag is not written.
+     *
+     * @param lname     Lower case element name
+     * @param output    Writer for the content with '&lt;' escaped, or null to remove the content
+     * @return true if the end tag was found
+     */
+    private boolean rawText(String lname, Writer output) throws IOException
+    {
+        int c;
+        while ((c = read()) != -1)
+        {
+            if (c != '<')
+            {
+                if (output != null)
+                {
+                    output.write(c);
+                }
+                continue;
+            }
+
+            // check for the end tag - "</" followed by the element name and a delimiter
+            c = read();
+            int matched = -1;
+            if (c == '/')
+            {
+                matched = 0;
+                while (matched < lname.length() && Character.toLowerCase((char)(c = read())) == lname.charAt(matched))
+                {
+                    matched++;
+                }
+                if (matched == lname.length())
+                {
+                    c = read();
+                    if (c == '>' || c == '/' || isWhitespace(c))
+                    {
+                        unread(c);
+                        return readTag(-1) != null;
+                    }
+                }
+            }
+            if (output != null)
+            {
+                output.write("&lt;");
+                if (matched != -1)
+                {
+                    output.write('/');
+                    output.write(lname, 0, matched);
+                }
+            }
+            unread(c);
+        }
+        return false;
+    }
+
+    /**
+     * Process the markup following "&lt;!" - comments are removed, a doctype is kept and any other
+     * declaration is treated as a bogus comment and removed.
+     */
+    private void declaration() throws IOException
+    {
+        int c = read();
+        if (c == '-')
+        {
+            c = read();
+            if (c == '-')
+            {
+                comment();
+                return;
+            }
+            unread(c);
+            skipTo('>');
+            return;
+        }
+
+        final StringBuilder buf = new StringBuilder(64);
+        while (c != '>' && c != -1)
+        {
+            if (buf.length() < MAX_TAG_LENGTH)
+            {
+                buf.append((char)c);
+            }
+            c = read();
+        }
+        if (c == '>' && buf.length() < MAX_TAG_LENGTH && buf.length() >= 7 &&
+                buf.substring(0, 7).equalsIgnoreCase("doctype"))
+        {
+            this.out.write("<!");
+            this.out.write(buf.toString());
+            this.out.write('>');
+        }
+    }
+
+    /**
+     * Remove a comment - ended by "--&gt;", "--!&gt;" or the short forms "&lt;!--&gt;" and "&lt;!---&gt;"
+     */
+    private void comment() throws IOException
+    {
+        int dashes = 2;
+        int c;
+        while ((c = read()) != -1)
+        {
+            if (c == '-')
+            {
+                dashes++;
+            }
+            else if (c == '>' && dashes >= 2)
+            {
+                return;
+            }
+            else if (c == '!' && dashes >= 2)
+            {
+                c = read();
+                if (c == '>')
+                {
+                    return;
+                }
+                unread(c);
+                dashes = 0;
+            }
+            else
+            {
+                dashes = 0;
+            }
+        }
+    }
+
+    /**
+     * Read a tag up to and including the closing '&gt;'.
+     *
+     * @param first     First character of the tag name or -1 if the name has already been read
+     * @return the tag or null if the document ended within the tag or the tag was too long
+     */
+    private Tag readTag(int first) throws IOException
+    {
+        final Tag tag = new Tag();
+        final TagBuffer name = new TagBuffer();
+        int c = first;
+        if (c != -1)
+        {
+            while (c != '>' && c != '/' && c != -1 && !isWhitespace(c))
+            {
+                name.append(c);
+                c = read();
+            }
+        }
+        else
+        {
+            c = read();
+        }
+
+        final TagBuffer attrName = new TagBuffer();
+        final TagBuffer attrValue = new TagBuffer();
+        attrName.length = attrValue.length = name.length;
+        while (true)
+        {
+            while (isWhitespace(c))
+            {
+                c = read();
+            }
+            if (c == -1)
+            {
+                return null;
+            }
+            if (c == '>')
+            {
+                break;
+            }
+            if (c == '/')
+            {
+                c = read();
+                if (c == '>')
+                {
+                    tag.selfClosing = true;
+                    break;
+                }
+                continue;
+            }
+
+            // attribute name - an initial '=' is part of the name
+            attrName.reset(attrValue.length);
+            do
+            {
+                attrName.append(c);
+                c = read();
+            }
+            while (c != '>' && c != '/' && c != '=' && c != -1 && !isWhitespace(c));
+            while (isWhitespace(c))
+            {
+                c = read();
+            }
+
+            // attribute value
+            attrValue.reset(attrName.length);
+            boolean hasValue = false;
+            if (c == '=')
+            {
+                hasValue = true;
+                c = read();
+                while (isWhitespace(c))
+                {
+                    c = read();
+                }
+                if (c == '"' || c == '\'')
+                {
+                    final int quote = c;
+                    while ((c = read()) != quote)
+                    {
+                        if (c == -1)
+                        {
+                            return null;
+                        }
+                        attrValue.append(c);
+                    }
+                    c = read();
+                }
+                else
+                {
+                    while (c != '>' && c != -1 && !isWhitespace(c))
+                    {
+                        attrValue.append(c);
+                        c = read();
+                    }
+                }
+            }
+            tag.attributes.add(new String[] {attrName.toString(), hasValue ? attrValue.toString() : null});
+        }
+
+        if (attrValue.length >= MAX_TAG_LENGTH)
+        {
+            return null;
+        }
+        tag.name = name.toString();
+        tag.lname = tag.name.toLowerCase(Locale.ENGLISH);
+        tag.localName = localName(tag.lname);
+        return tag;
+    }
+
+    /**
+     * @return the name without any namespace prefix
+     */
+    private static String localName(String lname)
+    {
+        return lname.substring(lname.lastIndexOf(':') + 1);
+    }
+
+    /**
+     * @param lname     Lower case attribute name - checked by its local name
+     * @param value     Attribute value - may be null
+     * @return true if the attribute can be output
+     */
+    static boolean isSafeAttribute(String lname, String value)
+    {
+        lname = localName(lname);
+        if (lname.startsWith("on"))
+        {
+            return false;
+        }
+        if (value == null)
+        {
+            return true;
+        }
+        final String normalised = normalise(value);
+        if ("style".equals(lname))
+        {
+            for (String style : UNSAFE_STYLES)
+            {
+                if (normalised.contains(style))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (URL_ATTRIBUTES.contains(lname))
+        {
+            // check the whole value - attributes such as srcset and ping hold a list of URLs
+            for (String scheme : UNSAFE_SCHEMES)
+            {
+                if (normalised.contains(scheme))
+                {
+                    return false;
+                }
+            }
+            // only allow data URLs for raster images
+            for (int i = normalised.indexOf("data:"); i != -1; i = normalised.indexOf("data:", i + 1))
+            {
+                if (!normalised.startsWith("data:image/", i) || normalised.startsWith("data:image/svg", i))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (String scheme : UNSAFE_SCHEMES)
+        {
+            if (normalised.startsWith(scheme))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param style     Content of a style element
+     * @return true if the style sheet can be output - it may not import or load anything, or contain anything
+     *         that is unsafe in a style attribute
+     */
+    static boolean isSafeStyleSheet(String style)
+    {
+        final String normalised = normalise(style);
+        for (String unsafe : UNSAFE_STYLES)
+        {
+            if (normalised.contains(unsafe))
+            {
+                return false;
+            }
+        }
+        for (String unsafe : UNSAFE_STYLE_SHEETS)
+        {
+            if (normalised.contains(unsafe))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Normalise an attribute value for checking - decodes the character references that can be used to hide
+     * a script URL, removes whitespace and control characters and converts to lower case.
+     */
+    private static String normalise(String value)
+    {
+        final StringBuilder buf = new StringBuilder(value.length());
+        final int length = value.length();
+        for (int i = 0; i < length; i++)
+        {
+            final char c = value.charAt(i);
+            final int end = (c == '&' ? decodeReference(value, i, buf) : -1);
+            if (end != -1)
+            {
+                i = end;
+            }
+            else
+            {
+                buf.append(c);
+            }
+        }
+        // remove whitespace and control characters, including any from decoded references
+        final StringBuilder result = new StringBuilder(buf.length());
+        for (int i = 0; i < buf.length(); i++)
+        {
+            final char c = buf.charAt(i);
+            if (c > 0x20 && (c < 0x7f || c > 0x9f))
+            {
+                result.append(Character.toLowerCase(c));
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Decode a character reference starting at the given index.
+     *
+     * @return index of the last character of the reference or -1 if not a known reference
+     */
+    private static int decodeReference(String value, int start, StringBuilder buf)
+    {
+        final int length = value.length();
+        int i = start + 1;
+        if (i < length && value.charAt(i) == '#')
+        {
+            i++;
+            int radix = 10;
+            if (i < length && (value.charAt(i) == 'x' || value.charAt(i) == 'X'))
+            {
+                radix = 16;
+                i++;
+            }
+            final int digits = i;
+            long code = 0;
+            while (i < length && Character.digit(value.charAt(i), radix) != -1)
+            {
+                code = Math.min(code * radix + Character.digit(value.charAt(i), radix), Character.MAX_CODE_POINT + 1);
+                i++;
+            }
+            if (i == digits)
+            {
+                return -1;
+            }
+            if (code > 0 && code <= Character.MAX_CODE_POINT)
+            {
+                buf.appendCodePoint((int)code);
+            }
+            return (i < length && value.charAt(i) == ';') ? i : i - 1;
+        }
+
+        final int semi = value.indexOf(';', i);
+        if (semi == -1 || semi - i > 8)
+        {
+            return -1;
+        }
+        final String entity = value.substring(i, semi);
+        final char c;
+        if ("colon".equals(entity)) c = ':';
+        else if ("Tab".equals(entity)) c = '\t';
+        else if ("NewLine".equals(entity)) c = '\n';
+        else if ("lpar".equals(entity)) c = '(';
+        else if ("rpar".equals(entity)) c = ')';
+        else if ("bsol".equals(entity)) c = '\\';
+        else if ("sol".equals(entity)) c = '/';
+        else if ("ast".equals(entity) || "midast".equals(entity)) c = '*';
+        else if ("amp".equals(entity)) c = '&';
+        else return -1;
+        buf.append(c);
+        return semi;
+    }
+
+    private void skipTo(int end) throws IOException
+    {
+        int c;
+        while ((c = read()) != end && c != -1)
+        {
+        }
+    }
+
+    private int read() throws IOException
+    {
+        if (this.pushback != -1)
+        {
+            final int c = this.pushback;
+            this.pushback = -1;
+            return c;
+        }
+        if (this.pos == this.len)
+        {
+            do
+            {
+                this.len = this.in.read(this.buffer, 0, this.buffer.length);
+            }
+            while (this.len == 0);
+            this.pos = 0;
+            if (this.len < 0)
+            {
+                this.len = 0;
+                return -1;
+            }
+        }
+        final char c = this.buffer[this.pos++];
+        return c != '\0' ? c : '\uFFFD';
+    }
+
+    private void unread(int c)
+    {
+        this.pushback = c;
+    }
+
+    private static boolean isLetter(int c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWhitespace(int c)
+    {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    /**
+     * Buffer for part of a tag that stops storing characters once the tag reaches the maximum length.
+     */
+    private static final class TagBuffer
+    {
+        private final StringBuilder buf = new StringBuilder(32);
+        int length;
+
+        void append(int c)
+        {
+            if (++this.length < MAX_TAG_LENGTH)
+            {
+                this.buf.append((char)c);
+            }
+        }
+
+        void reset(int length)
+        {
+            this.buf.setLength(0);
+            this.length = length;
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.buf.toString();
+        }
+    }
+
+    /**
+     * Holds the content of a style element while it is read - up to the maximum tag length.
+     */
+    private static final class StyleSheet extends Writer
+    {
+        private final StringBuilder buf = new StringBuilder(256);
+        boolean overflow;
+
+        @Override
+        public void write(char[] cbuf, int off, int len)
+        {
+            if (this.buf.length() + len > MAX_TAG_LENGTH)
+            {
+                this.overflow = true;
+            }
+            else
+            {
+                this.buf.append(cbuf, off, len);
+            }
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+
+        @Override
+        public String toString()
+        {
+            return this.buf.toString();
+        }
+    }
+
+    /**
+     * A parsed tag.
+     */
+    private static final class Tag
+    {
+        String name;
+        String lname;
+        String localName;
+        boolean selfClosing;
+        final List<String[]> attributes = new ArrayList<String[]>(4);
+
+        boolean hasAttribute(String lname)
+        {
+            for (int i = 0; i < this.attributes.size(); i++)
+            {
+                if (lname.equalsIgnoreCase(this.attributes.get(i)[0]))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -25,15 +25,32 @@
  */
 package org.alfresco.web.site;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.util.GUID;
+import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.simple.parser.ContainerFactory;
@@ -68,6 +85,17 @@ import com.hazelcast.core.MessageListener;
  * should implement the ClusterMessageAware interface. This service will automatically find all
  * beans that implement those interfaces and provide them with cluster messages when appropriate.
  * Beans implementing that interface can also publish messages to the cluster.
+ * <p>
+ * Published messages are buffered for a short flush window and sent to the topic as a single
+ * batch in a compact binary encoding. Identical messages (same type and payload) published within
+ * the window are coalesced so that only the latest one is sent. Receivers discard their own batches
+ * after reading the sender only.
+ * <p>
+ * The topic still carries JSON strings so that nodes running an earlier version do not fail on the
+ * messages: a batch is sent as a JSON message of a dedicated type with the encoded batch as a Base64
+ * string. The single JSON message format is still accepted from nodes that have not been upgraded.
+ * Those nodes ignore batches, so set <code>legacyMessageFormat</code> while upgrading a cluster one
+ * node at a time, which sends every message in the single JSON message format instead.
  * 
  * @author Kevin Roast
  */
@@ -90,6 +118,33 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
     /** Node identifier - to ensure multicast messages aren't processed by the sender */
     private static final String clusterNodeId = GUID.generate();
     
+    /** Type of the JSON message that carries a batch of messages */
+    static final String BATCH_MESSAGE_TYPE = "cluster-message-batch";
+    
+    /** Payload key of the Base64 encoded batch in a batch message */
+    static final String BATCH_DATA = "data";
+    
+    /** True to send each message in the single JSON message format understood by earlier versions */
+    private boolean legacyMessageFormat = false;
+    
+    /** Time in milliseconds that published messages are buffered before being sent - zero to send immediately */
+    private long flushDelay = 50L;
+    
+    /** Number of buffered messages that causes an immediate send */
+    private int maxBatchSize = 100;
+    
+    /** Executor used to send the buffered messages when the flush window ends */
+    private volatile ScheduledExecutorService flushExecutor = null;
+    
+    /** Buffered messages waiting to be sent - keyed by message so that duplicates are coalesced */
+    private final Map<MessageKey, PendingMessage> pending = new LinkedHashMap<>();
+    
+    /** True when a flush of the buffered messages has been scheduled */
+    private boolean flushScheduled = false;
+    
+    /** Statistics per message type */
+    private final ConcurrentMap<String, MessageStatistics> statistics = new ConcurrentHashMap<>();
+    
     
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Setters and Spring properties
@@ -110,15 +165,50 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
         this.hazelcastTopicName = hazelcastTopicName;
     }
     
+    /**
+     * @param flushDelay    Time in milliseconds that published messages are buffered before being sent to
+     *                      the cluster, zero to send each message immediately. Default is 50ms.
+     */
+    public void setFlushDelay(long flushDelay)
+    {
+        this.flushDelay = flushDelay;
+    }
+    
+    /**
+     * @param maxBatchSize  Number of buffered messages that causes the batch to be sent immediately. Default is 100.
+     */
+    public void setMaxBatchSize(int maxBatchSize)
+    {
+        this.maxBatchSize = maxBatchSize;
+    }
+    
+    /**
+     * @param legacyMessageFormat   True to send each message on its own in the JSON message format understood by
+     *                              nodes running an earlier version, for use while the cluster is being upgraded.
+     *                              Messages are still buffered and coalesced. Default is false.
+     */
+    public void setLegacyMessageFormat(boolean legacyMessageFormat)
+    {
+        this.legacyMessageFormat = legacyMessageFormat;
+    }
+    
+    /**
+     * @return read-only map of message type to the publish and receive statistics for that type
+     */
+    public Map<String, MessageStatistics> getStatistics()
+    {
+        return Collections.unmodifiableMap(this.statistics);
+    }
+    
     
     //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Spring Init
     
     private ApplicationContext applicationContext = null;
-
+    
     /**
      * Set ApplicationContext
-     *
+     * 
      * @param applicationContext    The Spring ApplicationContext
      */
     public void setApplicationContext(ApplicationContext applicationContext) throws BeansException
@@ -150,7 +240,37 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
         }
         
         // find the beans that are interested in cluster messages and register them with the service
-        Map<String, ClusterMessageAware> beans = this.applicationContext.getBeansOfType(ClusterMessageAware.class);
+        registerClusterBeans(this.applicationContext.getBeansOfType(ClusterMessageAware.class));
+        
+        // executor to send batches at the end of the flush window
+        if (this.flushDelay > 0)
+        {
+            this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "ClusterTopicService-flush");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        // start listening for cluster messages
+        this.clusterTopic = topic;
+        this.clusterTopic.addMessageListener(this);
+        
+        logger.info("Init complete for Hazelcast cluster - listening on topic: " + hazelcastTopicName);
+    }
+    
+    /**
+     * Register the beans that handle cluster messages and give every bean a reference to this service.
+     * 
+     * @param beans     ClusterMessageAware beans keyed by bean ID
+     */
+    void registerClusterBeans(Map<String, ClusterMessageAware> beans)
+    {
         this.clusterBeans = new HashMap<>();
         for (final String id: beans.keySet())
         {
@@ -177,12 +297,19 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
                 logger.debug(id + " [" + beans.get(id).getClusterMessageType() + "]");
             }
         }
-        
-        // start listening for cluster messages
-        this.clusterTopic = topic;
-        this.clusterTopic.addMessageListener(this);
-        
-        logger.info("Init complete for Hazelcast cluster - listening on topic: " + hazelcastTopicName);
+    }
+    
+    /**
+     * Bean destroy method - sends any buffered messages and stops the flush executor.
+     */
+    public void destroy()
+    {
+        if (this.flushExecutor != null)
+        {
+            this.flushExecutor.shutdown();
+            this.flushExecutor = null;
+        }
+        flush();
     }
     
     
@@ -191,50 +318,216 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
     
     /**
      * Push message out to the cluster - multicast or direct TCP depending on Hazelcast config.
+     * <p>
+     * The message is buffered and sent with any other messages published within the flush window.
      */
     @Override
     public void publishClusterMessage(String messageType, Map<String, Serializable> payload)
     {
-        // construct the message object from the payload
-        final ClusterMessage msg = new ClusterMessageImpl(messageType, payload);
+        // take a copy of the payload - the caller is free to reuse the map once the message is published
+        final Map<String, Serializable> payloadCopy = payload != null ? new HashMap<>(payload) : null;
+        final PendingMessage msg = new PendingMessage(new ClusterMessageImpl(messageType, payloadCopy), System.currentTimeMillis());
+        final MessageKey key = new MessageKey(messageType, payloadCopy);
         
-        // serialise it to plain text for transmission
-        final String serialised = msg.toString();
-        if (logger.isDebugEnabled())
-            logger.debug("Pushing message:\r\n" + serialised);
+        final ScheduledExecutorService executor = this.flushExecutor;
+        boolean flushNow = (executor == null);
+        synchronized (this.pending)
+        {
+            // coalesce with an identical message already in the batch - only the latest one is sent
+            if (this.pending.remove(key) != null)
+            {
+                getStatistics(messageType).coalesced.incrementAndGet();
+            }
+            this.pending.put(key, msg);
+            if (this.pending.size() >= this.maxBatchSize)
+            {
+                flushNow = true;
+            }
+            else if (!flushNow && !this.flushScheduled)
+            {
+                try
+                {
+                    executor.schedule(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            flush();
+                        }
+                    }, this.flushDelay, TimeUnit.MILLISECONDS);
+                    this.flushScheduled = true;
+                }
+                catch (RejectedExecutionException err)
+                {
+                    // service is shutting down - send directly
+                    flushNow = true;
+                }
+            }
+        }
+        if (flushNow)
+        {
+            flush();
+        }
+    }
+    
+    /**
+     * Send all buffered messages to the cluster topic as a single batch.
+     */
+    void flush()
+    {
+        final List<PendingMessage> batch;
+        synchronized (this.pending)
+        {
+            this.flushScheduled = false;
+            if (this.pending.isEmpty())
+            {
+                return;
+            }
+            batch = new ArrayList<>(this.pending.values());
+            this.pending.clear();
+        }
         
-        // push the message out to the Hazelcast topic cluster
-        this.clusterTopic.publish(serialised);
+        try
+        {
+            final List<ClusterMessage> messages = new ArrayList<>(batch.size());
+            for (final PendingMessage msg : batch)
+            {
+                messages.add(msg.message);
+                if (logger.isDebugEnabled())
+                    logger.debug("Pushing message:\r\n" + msg.message.toString());
+            }
+            if (this.legacyMessageFormat)
+            {
+                for (final ClusterMessage msg : messages)
+                {
+                    this.clusterTopic.publish(msg.toString());
+                }
+            }
+            else
+            {
+                // push the batch out to the Hazelcast topic cluster
+                this.clusterTopic.publish(encodeBatch(messages));
+            }
+            
+            final long now = System.currentTimeMillis();
+            for (final PendingMessage msg : batch)
+            {
+                getStatistics(msg.message.getType()).published(now - msg.queued);
+            }
+        }
+        catch (Throwable err)
+        {
+            // must not kill the flush thread - the messages in this batch are lost, as they would have been before batching
+            logger.error("Failed to publish batch of " + batch.size() + " cluster messages: " + err.getMessage(), err);
+        }
+    }
+    
+    /**
+     * Encode a batch of messages as a JSON message carrying the binary encoded batch.
+     * 
+     * @param messages  Messages in the batch
+     * 
+     * @return JSON message string
+     */
+    static String encodeBatch(final List<ClusterMessage> messages) throws IOException
+    {
+        final Map<String, Serializable> payload = new HashMap<>(2);
+        payload.put(BATCH_DATA, Base64.encodeBase64String(BinaryMessageCodec.encode(clusterNodeId, messages)));
+        return new ClusterMessageImpl(BATCH_MESSAGE_TYPE, payload).toString();
     }
     
     /**
      * Hazelcast MessageListener implementation - called when a message is received from a cluster node
      * 
-     * @param message   Cluster message JSON string
+     * @param message   Cluster message JSON string, either a single message or a batch
      */
     @Override
     public void onMessage(final Message<String> message)
+    {
+        receive(message.getMessageObject());
+    }
+    
+    /**
+     * Process a message received from the cluster topic.
+     * 
+     * @param msg   Cluster message JSON string, either a single message or a batch
+     */
+    void receive(final String msg)
     {
         final boolean debug = logger.isDebugEnabled();
+        final long received = System.currentTimeMillis();
         
-        // process message objects and extract the payload
-        final String msg = message.getMessageObject();
+        // the sender is always the first value - discard our own messages without parsing them
+        if (MessageProcessor.isSenderMessage(msg))
+        {
+            return;
+        }
         final MessageProcessor proc = new MessageProcessor(msg);
-        if (!proc.isSender())
+        if (proc.isSender())
+        {
+            return;
+        }
+        if (BATCH_MESSAGE_TYPE.equals(proc.getMessageType()))
+        {
+            final byte[] data = Base64.decodeBase64((String)proc.getMessagePayload().get(BATCH_DATA));
+            final BinaryMessageCodec.Batch batch = BinaryMessageCodec.decode(data, clusterNodeId);
+            if (batch != null)
+            {
+                for (final MessageProcessor batched : batch.getMessages())
+                {
+                    if (debug) logger.debug("Received message of type:" + batched.getMessageType());
+                    dispatch(batched, received - batch.getSent());
+                }
+            }
+        }
+        else
         {
             if (debug) logger.debug("Received message of type:" + proc.getMessageType() + "\r\n" + msg);
-            
-            // call an implementation of a message handler bean
-            final ClusterMessageAware bean = this.clusterBeans.get(proc.getMessageType());
-            if (bean != null)
+            dispatch(proc, -1L);
+        }
+    }
+    
+    /**
+     * Call an implementation of a message handler bean for a received message. A failure in the handler
+     * is logged so that it does not stop the other messages in a batch being handled.
+     * 
+     * @param proc      Processor holding the received message
+     * @param latency   Time in milliseconds between the message being sent and received, -1 if unknown
+     */
+    private void dispatch(final MessageProcessor proc, final long latency)
+    {
+        final ClusterMessageAware bean = this.clusterBeans.get(proc.getMessageType());
+        if (bean != null)
+        {
+            getStatistics(proc.getMessageType()).received(latency);
+            try
             {
                 bean.onClusterMessage(proc.getMessagePayload());
             }
-            else
+            catch (Throwable err)
+            {
+                logger.error("Failed to handle cluster message of type: " + proc.getMessageType() + " - " + err.getMessage(), err);
+            }
+        }
+        else
+        {
+            logger.warn("Received message of unknown type - no handler bean found: " + proc.getMessageType());
+        }
+    }
+    
+    private MessageStatistics getStatistics(final String messageType)
+    {
+        MessageStatistics stats = this.statistics.get(messageType);
+        if (stats == null)
+        {
+            final MessageStatistics created = new MessageStatistics();
+            stats = this.statistics.putIfAbsent(messageType, created);
+            if (stats == null)
             {
-                logger.warn("Received message of unknown type - no handler bean found: " + proc.getMessageType());
+                stats = created;
             }
         }
+        return stats;
     }
     
     
@@ -300,7 +593,7 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
         {
             return this.payload;
         }
-
+        
         /**
          * @return the unique ID for the cluster node in the message
          */
@@ -308,7 +601,7 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
         {
             return clusterNodeId;
         }
-
+        
         /**
          * @return the message type
          */
@@ -462,6 +755,16 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
         private final String type;
         private final Map<String, Serializable> payload;
         
+        /** maximum length of the JSON message start before the sender ID value e.g. <code>{"sender": "</code> */
+        private static final int SENDER_PREFIX_LENGTH = 16;
+        
+        MessageProcessor(String sender, String type, Map<String, Serializable> payload)
+        {
+            this.sender = sender;
+            this.type = type;
+            this.payload = payload;
+        }
+        
         MessageProcessor(String msg)
         {
             // deserialise the message to retrieve the sender, type and payload objects
@@ -495,6 +798,20 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
             return clusterNodeId.equals(this.sender);
         }
         
+        /**
+         * Test if a JSON message string was sent by this node without parsing it. The sender is the
+         * first value written to the message, so a message from this node has its ID at the start.
+         * 
+         * @param msg   Cluster message JSON string
+         * 
+         * @return true if the message was sent by this node
+         */
+        static boolean isSenderMessage(String msg)
+        {
+            final String start = msg.substring(0, Math.min(msg.length(), SENDER_PREFIX_LENGTH + clusterNodeId.length()));
+            return start.contains("\"" + ClusterMessage.JSON_SENDER + "\"") && start.contains(clusterNodeId);
+        }
+        
         String getMessageType()
         {
             return this.type;
@@ -505,4 +822,346 @@ public class ClusterTopicService implements MessageListener<String>, ClusterServ
             return this.payload;
         }
     }
-}
\ No newline at end of file
+    
+    /**
+     * A message waiting in the flush window.
+     */
+    private static final class PendingMessage
+    {
+        final ClusterMessage message;
+        final long queued;
+        
+        PendingMessage(ClusterMessage message, long queued)
+        {
+            this.message = message;
+            this.queued = queued;
+        }
+    }
+    
+    /**
+     * Key used to coalesce identical messages within a flush window - the message type and payload.
+     */
+    private static final class MessageKey
+    {
+        private final String type;
+        private final Map<String, Serializable> payload;
+        
+        MessageKey(String type, Map<String, Serializable> payload)
+        {
+            this.type = type;
+            this.payload = payload;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(new Object[] {this.type, this.payload});
+        }
+        
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof MessageKey))
+            {
+                return false;
+            }
+            final MessageKey other = (MessageKey)obj;
+            return (this.type == null ? other.type == null : this.type.equals(other.type)) &&
+                   (this.payload == null ? other.payload == null : this.payload.equals(other.payload));
+        }
+    }
+    
+    /**
+     * Publish and receive counters and latency for a single message type.
+     * <p>
+     * Publish latency is the time a message spent in the flush window until the batch was sent to
+     * the topic. Receive latency is the time between the sending node flushing the batch and this
+     * node receiving it - it relies on the node clocks being in step.
+     */
+    public static final class MessageStatistics
+    {
+        private final AtomicLong publishCount = new AtomicLong();
+        private final AtomicLong publishLatency = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong receiveCount = new AtomicLong();
+        private final AtomicLong receiveLatency = new AtomicLong();
+        private final AtomicLong receiveLatencyCount = new AtomicLong();
+        
+        void published(long latency)
+        {
+            this.publishCount.incrementAndGet();
+            this.publishLatency.addAndGet(latency);
+        }
+        
+        void received(long latency)
+        {
+            this.receiveCount.incrementAndGet();
+            if (latency >= 0)
+            {
+                this.receiveLatency.addAndGet(latency);
+                this.receiveLatencyCount.incrementAndGet();
+            }
+        }
+        
+        /**
+         * @return number of messages sent to the cluster
+         */
+        public long getPublishCount()
+        {
+            return this.publishCount.get();
+        }
+        
+        /**
+         * @return number of messages that were coalesced with an identical message and not sent
+         */
+        public long getCoalescedCount()
+        {
+            return this.coalesced.get();
+        }
+        
+        /**
+         * @return average time in milliseconds between a message being published and sent to the cluster
+         */
+        public long getAveragePublishLatency()
+        {
+            final long count = this.publishCount.get();
+            return count != 0 ? this.publishLatency.get() / count : 0L;
+        }
+        
+        /**
+         * @return number of messages received from other cluster nodes
+         */
+        public long getReceiveCount()
+        {
+            return this.receiveCount.get();
+        }
+        
+        /**
+         * @return average time in milliseconds between a message being sent and received
+         */
+        public long getAverageReceiveLatency()
+        {
+            final long count = this.receiveLatencyCount.get();
+            return count != 0 ? this.receiveLatency.get() / count : 0L;
+        }
+        
+        @Override
+        public String toString()
+        {
+            return "published: " + getPublishCount() + " (coalesced: " + getCoalescedCount() + ", avg " + getAveragePublishLatency() +
+                   "ms), received: " + getReceiveCount() + " (avg " + getAverageReceiveLatency() + "ms)";
+        }
+    }
+    
+    /**
+     * Compact binary encoding of a batch of cluster messages.
+     * <p>
+     * The batch starts with a header of format version, sender ID and send time so that a receiver can
+     * discard its own batches without decoding the messages. Payload values are encoded with a type tag
+     * and decoded to the same Java types that the JSON message format produces: maps, lists, strings,
+     * longs, booleans and nulls - dates and any other values are transmitted as strings.
+     */
+    static final class BinaryMessageCodec
+    {
+        private static final byte VERSION = 1;
+        
+        private static final byte TAG_NULL = 0;
+        private static final byte TAG_STRING = 1;
+        private static final byte TAG_LONG = 2;
+        private static final byte TAG_BOOLEAN = 3;
+        private static final byte TAG_MAP = 4;
+        private static final byte TAG_LIST = 5;
+        
+        /**
+         * Encode a batch of messages.
+         * 
+         * @param sender    Sender node ID
+         * @param messages  Messages in the batch
+         * 
+         * @return encoded batch
+         */
+        static byte[] encode(final String sender, final List<ClusterMessage> messages) throws IOException
+        {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(VERSION);
+            writeString(out, sender);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(messages.size());
+            for (final ClusterMessage msg : messages)
+            {
+                writeString(out, msg.getType());
+                writeValue(out, (Serializable)msg.getPayload());
+            }
+            out.flush();
+            return bytes.toByteArray();
+        }
+        
+        /**
+         * Decode a batch of messages.
+         * 
+         * @param data      Encoded batch
+         * @param nodeId    ID of the receiving node - batches sent by this node are not decoded
+         * 
+         * @return the decoded batch or null if the batch was sent by the receiving node
+         */
+        static Batch decode(final byte[] data, final String nodeId)
+        {
+            try
+            {
+                final DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+                final byte version = in.readByte();
+                if (version != VERSION)
+                {
+                    throw new IllegalArgumentException("Unsupported cluster message format version: " + version);
+                }
+                final String sender = readString(in);
+                if (nodeId.equals(sender))
+                {
+                    return null;
+                }
+                final long sent = in.readLong();
+                final int count = in.readInt();
+                final List<MessageProcessor> messages = new ArrayList<>(count);
+                for (int i=0; i<count; i++)
+                {
+                    final String type = readString(in);
+                    messages.add(new MessageProcessor(sender, type, (Map<String, Serializable>)readValue(in)));
+                }
+                return new Batch(sent, messages);
+            }
+            catch (IOException e)
+            {
+                throw new IllegalArgumentException("Unable to decode cluster message batch: " + e.getMessage(), e);
+            }
+        }
+        
+        private static void writeString(final DataOutputStream out, final String value) throws IOException
+        {
+            // not writeUTF() - string values such as dictionary class definitions can exceed 64KB
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        
+        private static String readString(final DataInputStream in) throws IOException
+        {
+            final byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        
+        private static void writeValue(final DataOutputStream out, final Serializable obj) throws IOException
+        {
+            if (obj instanceof Map)
+            {
+                final Map<String, Serializable> map = (Map<String, Serializable>)obj;
+                out.writeByte(TAG_MAP);
+                out.writeInt(map.size());
+                for (final Map.Entry<String, Serializable> entry : map.entrySet())
+                {
+                    writeString(out, entry.getKey());
+                    writeValue(out, entry.getValue());
+                }
+            }
+            else if (obj instanceof List)
+            {
+                final List<?> list = (List<?>)obj;
+                out.writeByte(TAG_LIST);
+                out.writeInt(list.size());
+                for (final Object item : list)
+                {
+                    writeValue(out, (Serializable)item);
+                }
+            }
+            else if (obj instanceof Integer || obj instanceof Long)
+            {
+                out.writeByte(TAG_LONG);
+                out.writeLong(((Number)obj).longValue());
+            }
+            else if (obj instanceof Boolean)
+            {
+                out.writeByte(TAG_BOOLEAN);
+                out.writeBoolean((Boolean)obj);
+            }
+            else if (obj instanceof Date)
+            {
+                out.writeByte(TAG_STRING);
+                writeString(out, ISO8601DateFormat.format((Date)obj));
+            }
+            else if (obj == null)
+            {
+                out.writeByte(TAG_NULL);
+            }
+            else
+            {
+                out.writeByte(TAG_STRING);
+                writeString(out, obj.toString());
+            }
+        }
+        
+        private static Serializable readValue(final DataInputStream in) throws IOException
+        {
+            final byte tag = in.readByte();
+            switch (tag)
+            {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString(in);
+                case TAG_LONG:
+                    return in.readLong();
+                case TAG_BOOLEAN:
+                    return in.readBoolean();
+                case TAG_MAP:
+                {
+                    final int size = in.readInt();
+                    final HashMap<String, Serializable> map = new HashMap<>(size * 2);
+                    for (int i=0; i<size; i++)
+                    {
+                        final String key = readString(in);
+                        map.put(key, readValue(in));
+                    }
+                    return map;
+                }
+                case TAG_LIST:
+                {
+                    final int size = in.readInt();
+                    final ArrayList<Serializable> list = new ArrayList<>(size);
+                    for (int i=0; i<size; i++)
+                    {
+                        list.add(readValue(in));
+                    }
+                    return list;
+                }
+                default:
+                    throw new IOException("Unknown value tag: " + tag);
+            }
+        }
+        
+        /**
+         * A decoded batch of messages.
+         */
+        static final class Batch
+        {
+            private final long sent;
+            private final List<MessageProcessor> messages;
+            
+            Batch(long sent, List<MessageProcessor> messages)
+            {
+                this.sent = sent;
+                this.messages = messages;
+            }
+            
+            long getSent()
+            {
+                return this.sent;
+            }
+            
+            List<MessageProcessor> getMessages()
+            {
+                return this.messages;
+            }
+        }
+    }
+}
@@ -156,7 +156,8 @@ var DocList =
             }
          }
 
-         var itemJSON = jsonUtils.toJSONObject(item);
+         var itemJSON = jsonUtils.toJSONObject(item),
+            itemContext = evaluatorHelper.createContext(itemJSON, metaJSON, args);
 
          /**
           * Actions
@@ -202,7 +203,7 @@ var DocList =
                   for (index in action.evaluators)
                   {
                      evaluator = action.evaluators[index].evaluator;
-                     if (evaluator.evaluate(itemJSON, metaJSON, args) != action.evaluators[index].qualify)
+                     if (evaluator.evaluate(itemContext) != action.evaluators[index].qualify)
                      {
                         // No need to run any more evaluators for this action
                         evaluatorQualified = false;
@@ -249,7 +250,7 @@ var DocList =
                   for (index in indicator.evaluators)
                   {
                      evaluator = indicator.evaluators[index].evaluator;
-                     if (evaluator.evaluate(itemJSON, metaJSON, args) != indicator.evaluators[index].qualify)
+                     if (evaluator.evaluate(itemContext) != indicator.evaluators[index].qualify)
                      {
                         // No need to run any more evaluators for this indicator
                         evaluatorQualified = false;
@@ -297,7 +298,7 @@ var DocList =
                      for (index in template.evaluators)
                      {
                         evaluator = template.evaluators[index].evaluator;
-                        if (evaluator.evaluate(itemJSON, metaJSON, args) != template.evaluators[index].qualify)
+                        if (evaluator.evaluate(itemContext) != template.evaluators[index].qualify)
                         {
                            // No need to run any more evaluators for this template
                            evaluatorQualified = false;
@@ -329,7 +330,7 @@ var DocList =
                   continue;
                }
 
-               if (!banner.evaluator || banner.evaluator.evaluate(itemJSON, metaJSON, args))
+               if (!banner.evaluator || banner.evaluator.evaluate(itemContext))
                {
                   // Add display banner for this item
                   banners.push(
@@ -352,7 +353,7 @@ var DocList =
                   continue;
                }
 
-               if (!line.evaluator || line.evaluator.evaluate(itemJSON, metaJSON, args))
+               if (!line.evaluator || line.evaluator.evaluate(itemContext))
                {
                   // Add display line for this item
                   lines.push(
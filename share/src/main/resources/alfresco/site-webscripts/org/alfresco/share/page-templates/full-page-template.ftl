@@ -29,7 +29,8 @@
    <title><@region id="head-title" scope="global" chromeless="true"/></title>
    <meta http-equiv="X-UA-Compatible" content="IE=Edge" />
 
-   <@generateMessages type="text/javascript" src="${url.context}/noauth/messages.js" locale="${locale}"/>
+   <#assign messagesUrlChecksum = messagesChecksum.getChecksum(locale)!"">
+   <script type="text/javascript" src="${url.context}/noauth/messages.js?locale=${locale?url}<#if messagesUrlChecksum?has_content>&amp;checksum=${messagesUrlChecksum}</#if>"></script>
    
    <#-- Bootstrap Dojo -->
    <@createComponent scope="global" regionId="bootstrap" sourceId="global" uri="/surf/dojo/bootstrap"/>
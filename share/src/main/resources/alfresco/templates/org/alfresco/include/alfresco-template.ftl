@@ -32,7 +32,8 @@
         gets setup before any of the other Alfresco JavaScript dependencies try to make use of it. -->
    <@markup id="messages">
       <#-- Common i18n msg properties -->
-      <@generateMessages type="text/javascript" src="${url.context}/noauth/messages.js" locale="${locale}"/>
+      <#assign messagesUrlChecksum = messagesChecksum.getChecksum(locale)!"">
+      <script type="text/javascript" src="${url.context}/noauth/messages.js?locale=${locale?url}<#if messagesUrlChecksum?has_content>&amp;checksum=${messagesUrlChecksum}</#if>"></script>
    </@markup>
    <@markup id="dojoBootstrap">
       <@region scope="global" id="bootstrap" chromeless="true"/>
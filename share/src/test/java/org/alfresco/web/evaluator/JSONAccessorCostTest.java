@@ -0,0 +1,149 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.evaluator;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+/**
+ * Compares the cost of walking a record with a compiled {@link JSONAccessor} and with the accessor split for every
+ * record, as BaseEvaluator.getJSONValue() did before accessors were compiled. Both must give the same values.
+ * <p>
+ * The timings are only logged. The iteration counts are kept low so the test is cheap enough for the default test run.
+ */
+public class JSONAccessorCostTest
+{
+    private static final Log log = LogFactory.getLog(JSONAccessorCostTest.class);
+
+    private static final int WARM_UP_ITERATIONS = 10000;
+    private static final int ITERATIONS = 100000;
+
+    private static final String[] ACCESSORS = new String[] {
+        "node.properties.cm:name",
+        "node.aspects.1",
+        "node.permissions.user.Write",
+        "node.type.length"
+    };
+
+    @Test
+    public void testAccessorCost()
+    {
+        final JSONObject record = record();
+        final JSONAccessor[] compiled = new JSONAccessor[ACCESSORS.length];
+        for (int i = 0; i < ACCESSORS.length; i++)
+        {
+            compiled[i] = JSONAccessor.compile(ACCESSORS[i]);
+            assertEquals(ACCESSORS[i], split(record, ACCESSORS[i]), compiled[i].getValue(record));
+        }
+
+        long splitNanos = time(new Walk()
+        {
+            public Object walk(int i)
+            {
+                return split(record, ACCESSORS[i]);
+            }
+        });
+        long compiledNanos = time(new Walk()
+        {
+            public Object walk(int i)
+            {
+                return compiled[i].getValue(record);
+            }
+        });
+
+        log.info("Split per record: " + (splitNanos / ITERATIONS) + "ns per value");
+        log.info("Compiled: " + (compiledNanos / ITERATIONS) + "ns per value");
+    }
+
+    private interface Walk
+    {
+        Object walk(int i);
+    }
+
+    private long time(Walk walk)
+    {
+        int found = 0;
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++)
+        {
+            found += walk.walk(i % ACCESSORS.length) != null ? 1 : 0;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            found += walk.walk(i % ACCESSORS.length) != null ? 1 : 0;
+        }
+        long nanos = System.nanoTime() - start;
+        assertEquals((WARM_UP_ITERATIONS + ITERATIONS) / 2, found);
+        return nanos;
+    }
+
+    /**
+     * Walk a record splitting the accessor, as getJSONValue() did before accessors were compiled
+     */
+    private static Object split(JSONObject jsonObject, String accessor)
+    {
+        String[] keys = accessor.split("\\.");
+        Object record = jsonObject;
+        for (String key : keys)
+        {
+            if (record instanceof JSONObject)
+            {
+                record = ((JSONObject)record).get(key);
+            }
+            else if (record instanceof JSONArray)
+            {
+                record = ((JSONArray)record).get(Integer.parseInt(key));
+            }
+            else
+            {
+                return null;
+            }
+        }
+        return record;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JSONObject record()
+    {
+        JSONObject properties = new JSONObject();
+        properties.put("cm:name", "report.pdf");
+        JSONArray aspects = new JSONArray();
+        aspects.add("cm:titled");
+        aspects.add("cm:versionable");
+        JSONObject node = new JSONObject();
+        node.put("properties", properties);
+        node.put("aspects", aspects);
+        node.put("type", "cm:content");
+        JSONObject record = new JSONObject();
+        record.put("node", node);
+        return record;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.evaluator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+/**
+ * Tests for the path syntax of the {@link JSONAccessor} class.
+ */
+public class JSONAccessorTest
+{
+    @SuppressWarnings("unchecked")
+    private static JSONObject record()
+    {
+        JSONObject properties = new JSONObject();
+        properties.put("cm:name", "report.pdf");
+        properties.put("cm:title", "Report");
+        JSONArray aspects = new JSONArray();
+        aspects.add("cm:titled");
+        aspects.add("cm:versionable");
+        JSONObject version = new JSONObject();
+        version.put("label", "1.1");
+        JSONArray versions = new JSONArray();
+        versions.add(version);
+        JSONObject node = new JSONObject();
+        node.put("properties", properties);
+        node.put("aspects", aspects);
+        node.put("versions", versions);
+        node.put("type", "cm:content");
+        JSONObject record = new JSONObject();
+        record.put("node", node);
+        return record;
+    }
+
+    @Test
+    public void nestedKeys()
+    {
+        JSONObject record = record();
+        assertEquals("report.pdf", JSONAccessor.compile("node.properties.cm:name").getValue(record));
+        assertEquals("cm:content", JSONAccessor.compile("node.type").getValue(record));
+        assertSame(record.get("node"), JSONAccessor.compile("node").getValue(record));
+    }
+
+    @Test
+    public void arrayIndexes()
+    {
+        JSONObject record = record();
+        assertEquals("cm:titled", JSONAccessor.compile("node.aspects.0").getValue(record));
+        assertEquals("cm:versionable", JSONAccessor.compile("node.aspects.1").getValue(record));
+        assertEquals("1.1", JSONAccessor.compile("node.versions.0.label").getValue(record));
+    }
+
+    @Test
+    public void numericKeysOfObjectsAreKeys()
+    {
+        JSONObject record = record();
+        ((JSONObject) record.get("node")).put("0", "zero");
+        assertEquals("zero", JSONAccessor.compile("node.0").getValue(record));
+    }
+
+    @Test
+    public void missingSegments()
+    {
+        JSONObject record = record();
+        assertNull(JSONAccessor.compile("node.properties.cm:description").getValue(record));
+        assertNull(JSONAccessor.compile("node.permissions.user.Write").getValue(record));
+        assertNull(JSONAccessor.compile("parent.node").getValue(record));
+    }
+
+    @Test
+    public void nonObjectIntermediates()
+    {
+        JSONObject record = record();
+        assertNull(JSONAccessor.compile("node.type.length").getValue(record));
+        assertNull(JSONAccessor.compile("node.aspects.0.name").getValue(record));
+        assertNull(JSONAccessor.compile("node.properties.cm:name.0").getValue(record));
+    }
+
+    @Test
+    public void arraysRequireIndexes()
+    {
+        JSONObject record = record();
+        try
+        {
+            JSONAccessor.compile("node.aspects.first").getValue(record);
+            fail("A key that is not an index cannot be used with an array");
+        }
+        catch (NumberFormatException expected)
+        {
+        }
+        try
+        {
+            JSONAccessor.compile("node.aspects.2").getValue(record);
+            fail("An index outside an array cannot be used");
+        }
+        catch (IndexOutOfBoundsException expected)
+        {
+        }
+    }
+
+    @Test
+    public void propertyNamesAreNotSplit()
+    {
+        JSONObject record = record();
+        ((JSONObject) ((JSONObject) record.get("node")).get("properties")).put("app:editInline.flag", Boolean.TRUE);
+        assertEquals(Boolean.TRUE, JSONAccessor.forProperty("app:editInline.flag").getValue(record));
+        assertEquals("Report", JSONAccessor.forProperty("cm:title").getValue(record));
+        assertEquals("node.properties.cm:title", JSONAccessor.forProperty("cm:title").toString());
+    }
+
+    @Test
+    public void compiledAccessorsAreReused()
+    {
+        assertSame(JSONAccessor.get("node.properties.cm:name"), JSONAccessor.get("node.properties.cm:name"));
+        assertEquals("node.properties.cm:name", JSONAccessor.get("node.properties.cm:name").toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void accessorIsMandatory()
+    {
+        JSONAccessor.compile(null);
+    }
+}
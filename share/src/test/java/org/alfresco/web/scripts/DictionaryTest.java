@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software.
+ * If the software was purchased under a paid Alfresco license, the terms of
+ * the paid license agreement will prevail.  Otherwise, the software is
+ * provided under the following open source license terms:
+ *
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.alfresco.web.scripts.Dictionary.DictionaryItem;
+import org.alfresco.web.scripts.Dictionary.DictionaryProperty;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the precomputed type and aspect hierarchy of the {@link Dictionary} class.
+ */
+public class DictionaryTest
+{
+    private Dictionary dictionary;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Map<String, DictionaryItem> types = new HashMap<>();
+        addClass(types, "cm:cmobject", null, false);
+        addClass(types, "cm:content", "cm:cmobject", false);
+        addClass(types, "cm:folder", "cm:cmobject", true);
+        addClass(types, "my:doc", "cm:content", false);
+        addClass(types, "my:report", "my:doc", false);
+        // parent is not known to the dictionary - ends the chain
+        addClass(types, "ext:orphan", "ext:unknown", false);
+
+        Map<String, DictionaryItem> aspects = new HashMap<>();
+        addClass(aspects, "cm:titled", null, false);
+        addClass(aspects, "my:titledExtra", "cm:titled", false);
+
+        dictionary = new Dictionary(types, aspects);
+    }
+
+    private static void addClass(Map<String, DictionaryItem> classes, String name, String parent, boolean container) throws Exception
+    {
+        classes.put(name, new DictionaryItem(name, new JSONObject(classJSON(name, parent, container, false))));
+    }
+
+    private static String classJSON(String name, String parent, boolean container, boolean aspect)
+    {
+        return "{\"name\":\"" + name + "\",\"title\":\"" + name + " title\",\"isAspect\":" + aspect +
+               ",\"isContainer\":" + container +
+               ",\"parent\":{" + (parent != null ? "\"name\":\"" + parent + "\"" : "") + "}" +
+               ",\"defaultAspects\":{\"cm:titled\":{}}" +
+               ",\"properties\":{\"" + name + "Prop\":{\"title\":\"Prop\",\"dataType\":\"d:text\",\"mandatory\":true}}" +
+               ",\"associations\":{},\"childassociations\":{}}";
+    }
+
+    @Test
+    public void isSubTypeUsesWholeAncestorChain()
+    {
+        assertTrue(dictionary.isSubType("my:report", "cm:cmobject"));
+        assertTrue(dictionary.isSubType("my:report", "cm:content"));
+        assertTrue(dictionary.isSubType("my:doc", "cm:content"));
+        assertFalse(dictionary.isSubType("cm:content", "my:doc"));
+        assertFalse(dictionary.isSubType("cm:folder", "cm:content"));
+        assertFalse(dictionary.isSubType("my:doc", "my:doc"));
+        assertFalse(dictionary.isSubType("ext:orphan", "ext:unknown"));
+        assertFalse(dictionary.isSubType("missing", "cm:cmobject"));
+    }
+
+    @Test
+    public void getSubTypesReturnsTransitiveSubTypes()
+    {
+        String[] subTypes = dictionary.getSubTypes("cm:content");
+        Arrays.sort(subTypes);
+        assertArrayEquals(new String[] {"my:doc", "my:report"}, subTypes);
+        assertEquals(4, dictionary.getSubTypes("cm:cmobject").length);
+        assertEquals(0, dictionary.getSubTypes("my:report").length);
+        assertArrayEquals(new String[] {"my:titledExtra"}, dictionary.getSubTypes("cm:titled"));
+        assertEquals(0, dictionary.getSubTypes("missing").length);
+
+        String[] childTypes = dictionary.getChildTypes("cm:cmobject");
+        Arrays.sort(childTypes);
+        assertArrayEquals(new String[] {"cm:content", "cm:folder"}, childTypes);
+        assertArrayEquals(new String[] {"my:doc"}, dictionary.getChildTypes("cm:content"));
+    }
+
+    @Test
+    public void typedDescriptors()
+    {
+        assertEquals("cm:content", dictionary.getParent("my:doc"));
+        assertEquals("my:doc title", dictionary.getTitle("my:doc"));
+        assertTrue(dictionary.isContainer("cm:folder"));
+        assertTrue(dictionary.hasDefaultAspect("my:doc", "cm:titled"));
+
+        DictionaryProperty prop = dictionary.getProperty("my:doc", "my:docProp", false);
+        assertNotNull(prop);
+        assertEquals("d:text", prop.getDataType());
+        assertTrue(prop.getIsMandatory());
+        assertFalse(prop.getIsMultiValued());
+
+        assertNull(dictionary.getProperty("my:doc", "cm:titledProp", false));
+        assertNotNull(dictionary.getProperty("my:doc", "cm:titledProp", true));
+        assertEquals(2, dictionary.getProperties("my:doc", true).length);
+    }
+
+    @Test
+    public void updatesRebuildHierarchy()
+    {
+        dictionary.updateAddClasses("[" + classJSON("my:memo", "my:doc", false, false) + "]");
+        assertTrue(dictionary.isSubType("my:memo", "cm:content"));
+        assertEquals(3, dictionary.getSubTypes("cm:content").length);
+
+        // re-parent an existing type
+        dictionary.updateAddClasses("[" + classJSON("my:report", "cm:folder", false, false) + "]");
+        assertFalse(dictionary.isSubType("my:report", "cm:content"));
+        assertTrue(dictionary.isSubType("my:report", "cm:folder"));
+        assertArrayEquals(new String[] {"my:report"}, dictionary.getSubTypes("cm:folder"));
+
+        dictionary.updateRemoveClasses("[" + classJSON("my:doc", "cm:content", false, false) + "]");
+        assertNull(dictionary.getType("my:doc"));
+        assertFalse(dictionary.isSubType("my:memo", "cm:content"));
+        assertEquals(0, dictionary.getSubTypes("cm:content").length);
+    }
+}
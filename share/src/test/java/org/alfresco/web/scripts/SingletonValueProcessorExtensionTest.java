@@ -0,0 +1,220 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.error.AlfrescoRuntimeException;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests for the single retrieval of a value by concurrent callers of the
+ * {@link SingletonValueProcessorExtension} class.
+ */
+public class SingletonValueProcessorExtensionTest
+{
+    private final TestExtension extension = new TestExtension();
+    private final List<Object> results = new ArrayList<Object>();
+    private final List<Throwable> failures = new ArrayList<Throwable>();
+    
+    @After
+    public void tearDown()
+    {
+        extension.release.countDown();
+    }
+    
+    @Test
+    public void concurrentCallersShareOneRetrieval() throws Exception
+    {
+        List<Thread> callers = startCallers(8);
+        assertTrue(extension.retrieving.await(5, TimeUnit.SECONDS));
+        // Give the other callers time to find the retrieval in progress
+        Thread.sleep(200L);
+        extension.release.countDown();
+        join(callers);
+        
+        assertEquals(1, extension.retrievals.get());
+        assertEquals(8, results.size());
+        for (Object result : results)
+        {
+            assertSame(results.get(0), result);
+        }
+        assertSame(results.get(0), extension.getSingletonValue(false, "admin"));
+        assertEquals(1, extension.getLoadCount());
+    }
+    
+    @Test
+    public void failureIsPassedToWaitingCallersAndRetried() throws Exception
+    {
+        extension.failure = new IllegalStateException("retrieval failed");
+        List<Thread> callers = startCallers(4);
+        assertTrue(extension.retrieving.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200L);
+        extension.release.countDown();
+        join(callers);
+        
+        assertEquals(1, extension.retrievals.get());
+        assertTrue(results.isEmpty());
+        assertEquals(4, failures.size());
+        for (Throwable failure : failures)
+        {
+            assertTrue(failure instanceof AlfrescoRuntimeException);
+        }
+        
+        // The failure is not kept - the next caller retrieves the value again
+        extension.failure = null;
+        assertEquals("value 2", extension.getSingletonValue(false, "admin"));
+        assertEquals(2, extension.retrievals.get());
+    }
+    
+    @Test
+    public void errorReleasesWaitingCallers() throws Exception
+    {
+        extension.error = new TestError();
+        List<Thread> callers = startCallers(4);
+        assertTrue(extension.retrieving.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200L);
+        extension.release.countDown();
+        join(callers);
+        
+        assertEquals(4, failures.size());
+        int errors = 0;
+        for (Throwable failure : failures)
+        {
+            if (failure instanceof TestError)
+            {
+                errors++;
+            }
+            else
+            {
+                assertTrue(failure instanceof AlfrescoRuntimeException);
+            }
+        }
+        assertEquals(1, errors);
+        
+        extension.error = null;
+        assertEquals("value 2", extension.getSingletonValue(false, "admin"));
+    }
+    
+    private List<Thread> startCallers(int count)
+    {
+        List<Thread> callers = new ArrayList<Thread>();
+        for (int i = 0; i < count; i++)
+        {
+            Thread caller = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        String value = extension.getSingletonValue(false, "admin");
+                        synchronized (results)
+                        {
+                            results.add(value);
+                        }
+                    }
+                    catch (RuntimeException | TestError err)
+                    {
+                        synchronized (failures)
+                        {
+                            failures.add(err);
+                        }
+                    }
+                }
+            };
+            caller.start();
+            callers.add(caller);
+        }
+        return callers;
+    }
+    
+    private static void join(List<Thread> callers) throws InterruptedException
+    {
+        for (Thread caller : callers)
+        {
+            caller.join(5000L);
+            assertFalse("Caller did not finish", caller.isAlive());
+        }
+    }
+    
+    private static class TestError extends Error
+    {
+        private static final long serialVersionUID = 1L;
+    }
+    
+    /**
+     * Extension that holds the first retrieval until released
+     */
+    private static class TestExtension extends SingletonValueProcessorExtension<String>
+    {
+        final AtomicInteger retrievals = new AtomicInteger();
+        final CountDownLatch retrieving = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile RuntimeException failure;
+        volatile Error error;
+        
+        @Override
+        protected String retrieveValue(String userId, String storeId)
+        {
+            int retrieval = retrievals.incrementAndGet();
+            retrieving.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null)
+            {
+                throw error;
+            }
+            if (failure != null)
+            {
+                throw failure;
+            }
+            return "value " + retrieval;
+        }
+        
+        @Override
+        protected String getValueName()
+        {
+            return "test value";
+        }
+    }
+}
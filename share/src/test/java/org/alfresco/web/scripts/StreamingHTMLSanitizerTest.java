@@ -0,0 +1,170 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.scripts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+/**
+ * Tests for the {@link StreamingHTMLSanitizer} class.
+ */
+public class StreamingHTMLSanitizerTest
+{
+    private static String sanitize(String html) throws IOException
+    {
+        StringWriter out = new StringWriter();
+        StreamingHTMLSanitizer.sanitize(new StringReader(html), out);
+        return out.toString();
+    }
+
+    @Test
+    public void safeMarkupIsUnchanged() throws IOException
+    {
+        String html = "<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>A &amp; B</title></head>" +
+                      "<body><p class=\"x\">Text with a < b</p><img src=\"a.png\" alt=\"\" /><br></body></html>";
+        assertEquals(html, sanitize(html));
+    }
+
+    @Test
+    public void scriptsAreRemoved() throws IOException
+    {
+        assertEquals("<p>ab</p>", sanitize("<p>a<script type=\"text/javascript\">if (a < b) { x = \"</p>\"; }</script>b</p>"));
+        assertEquals("<p>ab</p>", sanitize("<p>a<SCRIPT>alert(1)</SCRIPT >b</p>"));
+        assertEquals("<p>a</p>", sanitize("<p>a<iframe src=\"x\"><p>b</p></iframe></p>"));
+        assertEquals("fallback", sanitize("<object data=\"x.swf\"><embed src=\"x.swf\">fallback</object>"));
+        assertEquals("<head></head>", sanitize("<head><base href=\"http://evil\"><meta http-equiv=\"refresh\" content=\"0;url=x\"></head>"));
+        assertEquals("ab", sanitize("a<!-- <script>alert(1)</script> -->b"));
+        assertEquals("ab", sanitize("a<!--[if IE]><script>alert(1)</script><![endif]-->b"));
+    }
+
+    @Test
+    public void unsafeAttributesAreRemoved() throws IOException
+    {
+        assertEquals("<img src=\"x\">", sanitize("<img src=\"x\" onerror=\"alert(1)\">"));
+        assertEquals("<img src=\"x\">", sanitize("<img src=x OnError=alert(1)>"));
+        assertEquals("<a>x</a>", sanitize("<a href=\"javascript:alert(1)\">x</a>"));
+        assertEquals("<a>x</a>", sanitize("<a href=\" &#x6A;ava&#9;script&colon;alert(1)\">x</a>"));
+        assertEquals("<a>x</a>", sanitize("<a href='&#0000106avascript:alert(1)'>x</a>"));
+        assertEquals("<a>x</a>", sanitize("<a href=\"data:text/html;base64,PHNjcmlwdD4=\">x</a>"));
+        assertEquals("<img src=\"data:image/png;base64,AAAA\">", sanitize("<img src=\"data:image/png;base64,AAAA\">"));
+        assertEquals("<div>x</div>", sanitize("<div style=\"width: expression(alert(1))\">x</div>"));
+        assertEquals("<div style=\"color: red\">x</div>", sanitize("<div style=\"color: red\">x</div>"));
+        assertEquals("<p title=\"a &quot;b&quot;\">x</p>", sanitize("<p title='a \"b\"'>x</p>"));
+        assertEquals("<img>", sanitize("<img srcset=\"a.png 1x, javascript:alert(1) 2x\">"));
+        assertEquals("<img>", sanitize("<img srcset=\"data:image/png;base64,AAAA 1x, data:text/html,x 2x\">"));
+    }
+
+    @Test
+    public void foreignContentIsRemoved() throws IOException
+    {
+        assertEquals("<p>ab</p>", sanitize("<p>a<svg><a xlink:href=\"x\"><animate attributeName=\"href\" " +
+                "values=\"javascript:alert(1)\" /><text>x</text></a></svg>b</p>"));
+        assertEquals("<p>ab</p>", sanitize("<p>a<math><mtext><img src=x onerror=alert(1)></mtext></math>b</p>"));
+        assertEquals("<a>x</a>", sanitize("<a><set attributeName=\"href\" to=\"javascript:alert(1)\" />x</a>"));
+        assertEquals("<head></head>", sanitize("<head><link rel=\"import\" href=\"http://evil\"></head>"));
+    }
+
+    @Test
+    public void prefixedElementsAreChecked() throws IOException
+    {
+        assertEquals("<html:p>ab</html:p>", sanitize("<html:p>a<html:script xmlns:html=\"http://www.w3.org/1999/xhtml\">" +
+                "alert(1)</html:script>b</html:p>"));
+        assertEquals("<p>ab</p>", sanitize("<p>a<h:iframe src=\"x\"><h:p>b</h:p></h:iframe>b</p>"));
+        assertEquals("<p>ab</p>", sanitize("<p>a<svg:svg><svg:a xlink:href=\"x\">x</svg:a></svg:svg>b</p>"));
+        assertEquals("<h:img src=\"x\">", sanitize("<h:img src=\"x\" foo:onerror=\"alert(1)\">"));
+        assertEquals("<a>x</a>", sanitize("<a xlink:href=\"javascript:alert(1)\">x</a>"));
+        assertEquals("<h:head></h:head>", sanitize("<h:head><h:meta http-equiv=\"refresh\" content=\"0;url=x\"><h:base href=\"x\"></h:head>"));
+    }
+
+    @Test
+    public void unsafeStyleSheetsAreRemoved() throws IOException
+    {
+        assertEquals("<style>p { color: red }</style>", sanitize("<style>p { color: red }</style>"));
+        assertEquals("<style></style>", sanitize("<style>@import 'http://evil/x.css';</style>"));
+        assertEquals("<style></style>", sanitize("<style>p { background: URL( 'x.png' ) }</style>"));
+        assertEquals("<style></style>", sanitize("<style>p { width: expr/**/ession(alert(1)) }</style>"));
+        assertEquals("<h:style></h:style>", sanitize("<h:style>p { behavior: url(x.htc) }</h:style>"));
+        assertEquals("<style></style>", sanitize("<style>p { background: u&#114;l(x) }</style>"));
+    }
+
+    @Test
+    public void nulCharactersAreReplaced() throws IOException
+    {
+        StringBuilder html = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+        {
+            html.append('a');
+        }
+        html.append("\u0000<p>b</p>");
+        String result = sanitize(html.toString());
+        assertEquals(10000 + 9, result.length());
+        assertTrue(result.endsWith("\uFFFD<p>b</p>"));
+    }
+
+    @Test
+    public void rawTextCannotContainMarkup() throws IOException
+    {
+        assertEquals("<noscript>&lt;p title=\"</noscript><img src=\"x\">\"></noscript>",
+                sanitize("<noscript><p title=\"</noscript><img src=x onerror=alert(1)>\"></noscript>"));
+        assertEquals("<style>&lt;img src=x onerror=alert(1)></style>",
+                sanitize("<style><img src=x onerror=alert(1)></style>"));
+        assertEquals("<textarea>&lt;/textareax></textarea>", sanitize("<textarea></textareax></textarea>"));
+    }
+
+    @Test
+    public void incompleteAndOversizedTagsAreRemoved() throws IOException
+    {
+        assertEquals("text", sanitize("text<img src=\"x\" onerror=\"alert(1)"));
+        StringBuilder big = new StringBuilder("<p title=\"");
+        for (int i = 0; i < StreamingHTMLSanitizer.MAX_TAG_LENGTH; i++)
+        {
+            big.append('a');
+        }
+        big.append("\">x</p>");
+        assertEquals("x</p>", sanitize(big.toString()));
+    }
+
+    @Test
+    public void safeAttributeValues()
+    {
+        assertTrue(StreamingHTMLSanitizer.isSafeAttribute("title", "Data: 2020"));
+        assertTrue(StreamingHTMLSanitizer.isSafeAttribute("href", "/share/page/site/x"));
+        assertFalse(StreamingHTMLSanitizer.isSafeAttribute("xlink:href", "vbscript:x"));
+        assertFalse(StreamingHTMLSanitizer.isSafeAttribute("formaction", "JaVaScRiPt:x"));
+        assertFalse(StreamingHTMLSanitizer.isSafeAttribute("ping", "/a /b javascript&#58;x"));
+        assertTrue(StreamingHTMLSanitizer.isSafeAttribute("srcset", "a.png 1x, data:image/png;base64,AAAA 2x"));
+        assertFalse(StreamingHTMLSanitizer.isSafeAttribute("foo:onload", "x()"));
+        assertFalse(StreamingHTMLSanitizer.isSafeAttribute("xl:href", "javascript:x"));
+        assertTrue(StreamingHTMLSanitizer.isSafeAttribute("xml:lang", "en"));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * #%L
+ * Alfresco Share WAR
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.web.site;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.web.site.ClusterTopicService.BinaryMessageCodec;
+import org.alfresco.web.site.ClusterTopicService.ClusterMessage;
+import org.alfresco.web.site.ClusterTopicService.ClusterMessageImpl;
+import org.alfresco.web.site.ClusterTopicService.MessageProcessor;
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+import org.springframework.extensions.surf.ClusterMessageAware;
+import org.springframework.extensions.surf.ClusterService;
+
+/**
+ * Tests for the cluster message encodings and message handling of the {@link ClusterTopicService} class.
+ */
+public class ClusterTopicServiceTest
+{
+    @Test
+    public void binaryBatchRoundTrip() throws Exception
+    {
+        Map<String, Serializable> payload = new HashMap<>();
+        payload.put("add", "[{\"name\":\"my:doc\"}]");
+        payload.put("user", "admin@tenant");
+        payload.put("count", 3);
+        payload.put("flag", Boolean.TRUE);
+        payload.put("missing", null);
+        payload.put("paths", new ArrayList<>(Arrays.asList("a", "b")));
+
+        List<ClusterMessage> messages = new ArrayList<>();
+        messages.add(new ClusterMessageImpl("dictionary-update", payload));
+        messages.add(new ClusterMessageImpl("path-invalidate", new HashMap<String, Serializable>()));
+
+        byte[] data = BinaryMessageCodec.encode("other-node", messages);
+        BinaryMessageCodec.Batch batch = BinaryMessageCodec.decode(data, "this-node");
+
+        assertEquals(2, batch.getMessages().size());
+        MessageProcessor first = batch.getMessages().get(0);
+        assertEquals("dictionary-update", first.getMessageType());
+        Map<String, Serializable> decoded = first.getMessagePayload();
+        assertEquals("[{\"name\":\"my:doc\"}]", decoded.get("add"));
+        assertEquals("admin@tenant", decoded.get("user"));
+        // numbers are decoded as Long - the same as the JSON message format
+        assertEquals(3L, decoded.get("count"));
+        assertEquals(Boolean.TRUE, decoded.get("flag"));
+        assertTrue(decoded.containsKey("missing"));
+        assertNull(decoded.get("missing"));
+        assertEquals(Arrays.asList("a", "b"), decoded.get("paths"));
+        assertEquals("path-invalidate", batch.getMessages().get(1).getMessageType());
+        assertTrue(batch.getMessages().get(1).getMessagePayload().isEmpty());
+    }
+
+    @Test
+    public void ownBatchIsNotDecoded() throws Exception
+    {
+        List<ClusterMessage> messages = new ArrayList<>();
+        messages.add(new ClusterMessageImpl("dictionary-update", new HashMap<String, Serializable>()));
+        byte[] data = BinaryMessageCodec.encode("this-node", messages);
+        assertNull(BinaryMessageCodec.decode(data, "this-node"));
+    }
+
+    @Test
+    public void ownJSONMessageIsDetectedWithoutParsing()
+    {
+        String own = new ClusterMessageImpl("dictionary-update", new HashMap<String, Serializable>()).toString();
+        assertTrue(MessageProcessor.isSenderMessage(own));
+        assertTrue(new MessageProcessor(own).isSender());
+
+        String other = own.replaceFirst("\"sender\":\"[^\"]*\"", "\"sender\":\"other-node\"");
+        assertFalse(MessageProcessor.isSenderMessage(other));
+        assertFalse(new MessageProcessor(other).isSender());
+    }
+
+    @Test
+    public void ownBatchMessageIsDetectedWithoutParsing() throws Exception
+    {
+        List<ClusterMessage> messages = new ArrayList<>();
+        messages.add(new ClusterMessageImpl("dictionary-update", new HashMap<String, Serializable>()));
+        assertTrue(MessageProcessor.isSenderMessage(ClusterTopicService.encodeBatch(messages)));
+    }
+
+    @Test
+    public void failingHandlerDoesNotDropRestOfBatch() throws Exception
+    {
+        final List<Serializable> handled = new ArrayList<>();
+        Map<String, ClusterMessageAware> beans = new HashMap<>();
+        beans.put("failing", new TestHandler("fail", handled)
+        {
+            @Override
+            public void onClusterMessage(Map<String, Serializable> payload)
+            {
+                super.onClusterMessage(payload);
+                throw new IllegalStateException("handler failure");
+            }
+        });
+        beans.put("working", new TestHandler("work", handled));
+        ClusterTopicService service = new ClusterTopicService();
+        service.registerClusterBeans(beans);
+
+        List<ClusterMessage> messages = new ArrayList<>();
+        messages.add(new ClusterMessageImpl("work", payload(1)));
+        messages.add(new ClusterMessageImpl("fail", payload(2)));
+        messages.add(new ClusterMessageImpl("work", payload(3)));
+        Map<String, Serializable> batchPayload = new HashMap<>();
+        batchPayload.put(ClusterTopicService.BATCH_DATA,
+                Base64.encodeBase64String(BinaryMessageCodec.encode("other-node", messages)));
+        String batch = new ClusterMessageImpl(ClusterTopicService.BATCH_MESSAGE_TYPE, batchPayload).toString()
+                .replaceFirst("\"sender\":\"[^\"]*\"", "\"sender\":\"other-node\"");
+
+        service.receive(batch);
+
+        assertEquals(Arrays.<Serializable>asList(1L, 2L, 3L), handled);
+    }
+
+    private static Map<String, Serializable> payload(int id)
+    {
+        Map<String, Serializable> payload = new HashMap<>();
+        payload.put("id", id);
+        return payload;
+    }
+
+    private static class TestHandler implements ClusterMessageAware
+    {
+        private final String messageType;
+        private final List<Serializable> handled;
+
+        TestHandler(String messageType, List<Serializable> handled)
+        {
+            this.messageType = messageType;
+            this.handled = handled;
+        }
+
+        @Override
+        public void setClusterService(ClusterService service)
+        {
+        }
+
+        @Override
+        public String getClusterMessageType()
+        {
+            return this.messageType;
+        }
+
+        @Override
+        public void onClusterMessage(Map<String, Serializable> payload)
+        {
+            this.handled.add(payload.get("id"));
+        }
+    }
+}
@@ -26,14 +26,20 @@
 package org.alfresco.wcm.client.impl;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.alfresco.wcm.client.AssetFactory;
 import org.alfresco.wcm.client.CollectionFactory;
 import org.alfresco.wcm.client.DictionaryService;
+import org.alfresco.wcm.client.Resource;
 import org.alfresco.wcm.client.Section;
 import org.alfresco.wcm.client.SectionFactory;
 import org.alfresco.wcm.client.Tag;
@@ -43,6 +49,12 @@ import org.apache.commons.logging.LogFactory;
 /**
  * Factory class for creating Sections from the repository. This abstract implementation handles all the necessary caching logic.
  * Concrete implementations just need to implement the findSectionWithChildren(String) operation.
+ * <p>
+ * An expired section tree is refreshed by one thread while other threads carry on using the cached tree. Implementations
+ * that also implement findSectionVersions(String) and findSections(Collection) have the tree refreshed incrementally: only
+ * sections that have been added, modified, moved or retagged since the last refresh are loaded, and the new tree is
+ * swapped in once it is complete. Every refresh builds a new tree, so the asset lookups held by the sections last no
+ * longer than the refresh interval.
  * 
  * @author Chris Lack
  * @author Brian Remmington
@@ -65,7 +77,8 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
     /** Cache of all sections under a website */
     private Map<String, SectionCache> rootSectionsByWebsite = new ConcurrentSkipListMap<String, SectionCache>();
 
-    private ConcurrentMap<String, String> sectionsBeingLoaded = new ConcurrentSkipListMap<String, String>();
+    /** Locks held while the section tree of a website is loaded */
+    private ConcurrentMap<String, ReentrantLock> websiteLocks = new ConcurrentSkipListMap<String, ReentrantLock>();
 
     private AssetFactory assetFactory;
     private DictionaryService dictionaryService;
@@ -189,7 +202,8 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
     }
 
     /**
-     * Refreshes the section cache if empty or expired.
+     * Refreshes the section cache if empty or expired. Only one thread refreshes the section tree of a website, other
+     * threads use the cached tree meanwhile - or wait for it if the website is not cached yet.
      * 
      * @param rootSectionId
      *            the id of the parent web root
@@ -197,93 +211,189 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
     private void refreshCacheIfRequired(String rootSectionId)
     {
         SectionCache cache = rootSectionsByWebsite.get(rootSectionId);
-        while (cache == null || cache.isExpired())
+        if (cache != null && !cache.isExpired())
         {
-            String existingSectionToken = sectionsBeingLoaded.putIfAbsent(rootSectionId, rootSectionId);
-            if (existingSectionToken == null)
+            return;
+        }
+        ReentrantLock lock = getWebsiteLock(rootSectionId);
+        if (cache != null)
+        {
+            if (!lock.tryLock())
             {
-                try
-                {
-                    //It looks like we have to load this section tree, 
-                    //but before we do, let's just check that another thread hasn't got in between us checking the cache
-                    //and checking whether it's already being loaded...
-                    cache = rootSectionsByWebsite.get(rootSectionId);
-                    if (cache != null && !cache.isExpired())
-                    {
-                        //This section is now in the cache, so we don't need to do anything 
-                        return;
-                    }
-                    if (log.isDebugEnabled())
-                    {
-                        log.debug(Thread.currentThread().getName() + " started refreshing tree cache for section " + rootSectionId);
-                    }
-
-                    //This section isn't currently being loaded. Load it.
-                    Map<String, Section> sections = findSectionWithChildren(rootSectionId);
-                    Section rootSection = sections.get(rootSectionId);
-                    SectionCache cachedRootSection = new SectionCache(rootSection);
-                    rootSectionsByWebsite.put(rootSectionId, cachedRootSection);
-                    sectionsById.putAll(sections);
-                    if (log.isDebugEnabled())
-                    {
-                        log.debug(Thread.currentThread().getName() + " finished refreshing tree cache for section " + rootSectionId);
-                    }
-                    return;
-                }
-                finally
-                {
-                    //There may be other threads waiting for us to finish loading this section tree.
-                    //Let them know that we've finished
-                    synchronized (rootSectionId)
-                    {
-                        sectionsBeingLoaded.remove(rootSectionId);
-                        rootSectionId.notifyAll();
-                    }
-                }
+                //The section tree is being refreshed by another thread, so let the caller use the cached copy 
+                return;
             }
-            else
+        }
+        else
+        {
+            if (log.isDebugEnabled())
             {
-                //This section is currently being loaded
-                if (cache != null)
-                {
-                    //We are currently refreshing the cache, but the requested section does already 
-                    //appear in the cache. Therefore we'll let the caller simply use the currently-cached 
-                    //copy
-                    return;
-                }
-                else
+                log.debug(Thread.currentThread().getName() + " started waiting for section tree to be loaded " + rootSectionId);
+            }
+            lock.lock();
+        }
+        try
+        {
+            //Check that another thread hasn't refreshed the tree while we were getting the lock
+            cache = rootSectionsByWebsite.get(rootSectionId);
+            if (cache != null && !cache.isExpired())
+            {
+                return;
+            }
+            if (log.isDebugEnabled())
+            {
+                log.debug(Thread.currentThread().getName() + " started refreshing tree cache for section " + rootSectionId);
+            }
+            SectionCache refreshedCache = (cache == null ? null : refreshSectionTree(rootSectionId, cache));
+            if (refreshedCache == null)
+            {
+                Map<String, Section> sections = findSectionWithChildren(rootSectionId);
+                refreshedCache = new SectionCache(sections.get(rootSectionId));
+                sectionsById.putAll(sections);
+            }
+            rootSectionsByWebsite.put(rootSectionId, refreshedCache);
+            if (log.isDebugEnabled())
+            {
+                log.debug(Thread.currentThread().getName() + " finished refreshing tree cache for section " + rootSectionId);
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock getWebsiteLock(String rootSectionId)
+    {
+        ReentrantLock lock = websiteLocks.get(rootSectionId);
+        if (lock == null)
+        {
+            ReentrantLock newLock = new ReentrantLock();
+            lock = websiteLocks.putIfAbsent(rootSectionId, newLock);
+            if (lock == null)
+            {
+                lock = newLock;
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Refresh a cached section tree by loading only the sections that have been added, modified, moved or retagged since
+     * it was loaded. Unchanged sections are copied from the cached tree, which is left untouched for the threads still
+     * using it.
+     * 
+     * @param rootSectionId
+     *            the id of the parent web root
+     * @param cache
+     *            the cached section tree
+     * @return the refreshed section tree or null if the whole tree has to be loaded
+     */
+    private SectionCache refreshSectionTree(String rootSectionId, SectionCache cache)
+    {
+        List<SectionVersion> versions = findSectionVersions(rootSectionId);
+        if (versions == null)
+        {
+            return null;
+        }
+
+        Map<String, SectionImpl> cachedSections = new HashMap<String, SectionImpl>();
+        collectSections(cache.rootSection, cachedSections);
+        List<String> changedIds = new ArrayList<String>();
+        for (SectionVersion version : versions)
+        {
+            SectionImpl cached = cachedSections.get(version.id);
+            if (cached == null || version.modifiedTime == null
+                    || !version.modifiedTime.equals(cached.getProperty(Resource.PROPERTY_MODIFIED_TIME))
+                    || !equals(version.parentId, cached.getPrimarySectionId())
+                    || !sameTags(version.tags, cached.getTags()))
+            {
+                changedIds.add(version.id);
+            }
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Loading " + changedIds.size() + " changed sections of section tree " + rootSectionId);
+        }
+
+        Map<String, SectionImpl> changedSections = changedIds.isEmpty() ? new HashMap<String, SectionImpl>()
+                : findSections(changedIds);
+        if (changedSections == null)
+        {
+            return null;
+        }
+        Map<String, SectionImpl> sections = new LinkedHashMap<String, SectionImpl>();
+        for (SectionVersion version : versions)
+        {
+            SectionImpl section = changedSections.get(version.id);
+            if (section == null)
+            {
+                SectionImpl cached = cachedSections.get(version.id);
+                if (cached == null)
                 {
-                    //This section isn't currently cached, but is already being loaded
-                    //Wait for it to be loaded...
-                    synchronized (existingSectionToken)
-                    {
-                        if (sectionsBeingLoaded.containsKey(existingSectionToken))
-                        {
-                            try
-                            {
-                                if (log.isDebugEnabled())
-                                {
-                                    log.debug(Thread.currentThread().getName() + 
-                                            " started waiting for section tree to be loaded " + 
-                                            rootSectionId);
-                                }
-                                existingSectionToken.wait();
-                            }
-                            catch (InterruptedException e)
-                            {
-                            }
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug(Thread.currentThread().getName() + 
-                                        " finished waiting for section tree to be loaded " + 
-                                        rootSectionId);
-                            }
-                        }
-                    }
+                    //Deleted since the versions were fetched
+                    continue;
                 }
+                section = cached.copyWithoutChildren();
             }
-            cache = rootSectionsByWebsite.get(rootSectionId);
+            sections.put(version.id, section);
+        }
+        SectionImpl rootSection = sections.get(rootSectionId);
+        if (rootSection == null)
+        {
+            return null;
+        }
+        for (SectionVersion version : versions)
+        {
+            SectionImpl section = sections.get(version.id);
+            SectionImpl parent = sections.get(version.parentId);
+            if (section != null && parent != null && !version.id.equals(rootSectionId))
+            {
+                parent.addChild(section);
+            }
+        }
+
+        sectionsById.putAll(sections);
+        for (String cachedId : cachedSections.keySet())
+        {
+            if (!sections.containsKey(cachedId))
+            {
+                sectionsById.remove(cachedId);
+            }
+        }
+        return new SectionCache(rootSection);
+    }
+
+    private static void collectSections(Section section, Map<String, SectionImpl> sections)
+    {
+        sections.put(section.getId(), (SectionImpl) section);
+        for (Section child : section.getSections())
+        {
+            collectSections(child, sections);
+        }
+    }
+
+    private static boolean equals(String a, String b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static boolean sameTags(List<Tag> a, List<Tag> b)
+    {
+        if (a.size() != b.size())
+        {
+            return false;
         }
+        for (int i = 0; i < a.size(); i++)
+        {
+            Tag tagA = a.get(i);
+            Tag tagB = b.get(i);
+            if (!tagA.getName().equals(tagB.getName()) || tagA.getCount() != tagB.getCount())
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -295,6 +405,34 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
      */
     protected abstract Map<String,Section> findSectionWithChildren(String topSectionId);
 
+    /**
+     * Fetch the id, parent id, modified time and tags of a section and its descendants in the order used by
+     * findSectionWithChildren(String). The same sections must be returned as by findSectionWithChildren(String),
+     * otherwise the tree is considered changed on every refresh. This base implementation returns null, so that section trees are always
+     * loaded whole. Override together with findSections(Collection) to refresh section trees incrementally.
+     * 
+     * @param topSectionId
+     *            the section id to start from
+     * @return the versions of the sections or null if not supported
+     */
+    protected List<SectionVersion> findSectionVersions(String topSectionId)
+    {
+        return null;
+    }
+
+    /**
+     * Fetch sections without their children. This base implementation returns null, so that section trees are
+     * loaded whole.
+     * 
+     * @param sectionIds
+     *            the ids of the sections
+     * @return the sections found by id or null if not supported
+     */
+    protected Map<String, SectionImpl> findSections(Collection<String> sectionIds)
+    {
+        return null;
+    }
+
     public void setSectionsRefreshAfter(int seconds)
     {
         this.sectionsRefreshAfter = seconds * 1000;
@@ -310,13 +448,34 @@ public abstract class AbstractCachingSectionFactoryImpl implements SectionFactor
         String parentId;
     }
 
+    /**
+     * The identity, position, modified time and tags of a section. Used to find the sections that changed since the
+     * section tree was cached. Tags are compared separately because updating the tag scope of a section does not change
+     * its modified time.
+     */
+    protected static class SectionVersion
+    {
+        String id;
+        String parentId;
+        Date modifiedTime;
+        List<Tag> tags;
+
+        public SectionVersion(String id, String parentId, Date modifiedTime, List<Tag> tags)
+        {
+            this.id = id;
+            this.parentId = parentId;
+            this.modifiedTime = modifiedTime;
+            this.tags = tags;
+        }
+    }
+
     /**
      * A root section and the time the data was cached.
      */
     private class SectionCache
     {
-        Section rootSection;
-        long sectionsRefeshedAt;
+        final Section rootSection;
+        final long sectionsRefeshedAt;
 
         SectionCache(Section root)
         {
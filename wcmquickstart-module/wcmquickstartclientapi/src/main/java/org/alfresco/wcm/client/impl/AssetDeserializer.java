@@ -0,0 +1,51 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.Serializable;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+/**
+ * Reads the assets returned by the Alfresco asset web scripts
+ */
+public interface AssetDeserializer extends WebscriptResponseHandler
+{
+    /**
+     * The value of the "format" web script argument that asks for the response this deserializer reads
+     */
+    String getFormat();
+
+    /**
+     * Retrieve the list of assets that were deserialized. Never null, may be empty.
+     */
+    LinkedList<TreeMap<String, Serializable>> getAssets();
+
+    /**
+     * Retrieve any properties that were deserialized from the header of the response. Never null, may be empty.
+     */
+    TreeMap<String, Serializable> getHeader();
+}
@@ -0,0 +1,60 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+/**
+ * Creates the deserializers for the response format used by the asset web scripts
+ */
+public class AssetDeserializerFactory
+{
+    public static final String FORMAT_XML = "xml";
+    public static final String FORMAT_JSON = "json";
+
+    private String format = FORMAT_XML;
+
+    /**
+     * Set the response format, either "xml" or "json". Defaults to "xml".
+     * @param format
+     */
+    public void setFormat(String format)
+    {
+        if (!FORMAT_XML.equals(format) && !FORMAT_JSON.equals(format))
+        {
+            throw new IllegalArgumentException("Unsupported asset response format: " + format);
+        }
+        this.format = format;
+    }
+
+    public String getFormat()
+    {
+        return format;
+    }
+
+    public AssetDeserializer getAssetDeserializer()
+    {
+        return FORMAT_JSON.equals(format) ? new AssetDeserializerJsonImpl() : new AssetDeserializerXmlImpl();
+    }
+}
@@ -0,0 +1,525 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Reads the JSON asset format written by the repository's AssetSerializerJsonImpl.
+ * <p>
+ * The response is read in a single pass straight into the property maps, without building
+ * an intermediate JSON object tree. Property names are interned so that the maps of all
+ * assets share a single copy of each name.
+ */
+public class AssetDeserializerJsonImpl implements AssetDeserializer
+{
+    private static final Log log = LogFactory.getLog(AssetDeserializerJsonImpl.class);
+
+    /** Property names come from the content model, so there are few of them. This only guards against abuse. */
+    private static final int MAX_INTERNED_NAMES = 10000;
+    private static final ConcurrentMap<String, String> internedNames = new ConcurrentHashMap<String, String>();
+
+    private static final String TIME_VALUE = "@time";
+    private static final String CONTENT_VALUE = "@content";
+
+    private LinkedList<TreeMap<String, Serializable>> assets = new LinkedList<TreeMap<String, Serializable>>();
+    private TreeMap<String, Serializable> headerProperties = new TreeMap<String, Serializable>();
+
+    private Reader reader;
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private StringBuilder stringBuilder;
+
+    public LinkedList<TreeMap<String, Serializable>> deserialize(InputStream in)
+    {
+        assets = new LinkedList<TreeMap<String, Serializable>>();
+        headerProperties = new TreeMap<String, Serializable>();
+        reader = null;
+        try
+        {
+            reader = new InputStreamReader(in, "UTF-8");
+            buffer = new char[4096];
+            position = 0;
+            limit = 0;
+            stringBuilder = new StringBuilder(64);
+            readResponse();
+        }
+        catch (Exception ex)
+        {
+            log.error("Failed to parse asset response from Alfresco", ex);
+        }
+        finally
+        {
+            reader = null;
+            buffer = null;
+        }
+        return assets;
+    }
+
+    @Override
+    public void handleResponse(InputStream in)
+    {
+        deserialize(in);
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return AssetDeserializerFactory.FORMAT_JSON;
+    }
+
+    @Override
+    public LinkedList<TreeMap<String, Serializable>> getAssets()
+    {
+        return assets;
+    }
+
+    @Override
+    public TreeMap<String, Serializable> getHeader()
+    {
+        return headerProperties;
+    }
+
+    private void readResponse() throws IOException
+    {
+        expect('{');
+        if (nextToken() == '}')
+        {
+            return;
+        }
+        pushBack();
+        do
+        {
+            String name = readName();
+            if ("header".equals(name))
+            {
+                expect('{');
+                readProperties(headerProperties);
+            }
+            else if ("assets".equals(name))
+            {
+                readAssets();
+            }
+            else
+            {
+                readValue();
+            }
+        }
+        while (nextToken() == ',');
+        expectCurrent('}');
+    }
+
+    private void readAssets() throws IOException
+    {
+        expect('[');
+        if (nextToken() == ']')
+        {
+            return;
+        }
+        do
+        {
+            expectCurrent('{');
+            TreeMap<String, Serializable> asset = new TreeMap<String, Serializable>();
+            String id = null;
+            String type = null;
+            if (nextToken() != '}')
+            {
+                pushBack();
+                do
+                {
+                    String name = readName();
+                    if ("id".equals(name))
+                    {
+                        id = (String) readValue();
+                    }
+                    else if ("type".equals(name))
+                    {
+                        type = intern((String) readValue());
+                    }
+                    else if ("props".equals(name))
+                    {
+                        expect('{');
+                        readProperties(asset);
+                    }
+                    else
+                    {
+                        readValue();
+                    }
+                }
+                while (nextToken() == ',');
+                expectCurrent('}');
+            }
+            asset.put("id", id);
+            asset.put("type", type);
+            assets.add(asset);
+            nextToken();
+        }
+        while (current() == ',' && nextToken() == '{');
+        expectCurrent(']');
+    }
+
+    /**
+     * Read the members of an object into a property map. The opening brace has been read.
+     */
+    private void readProperties(TreeMap<String, Serializable> properties) throws IOException
+    {
+        if (nextToken() == '}')
+        {
+            return;
+        }
+        pushBack();
+        do
+        {
+            String name = intern(readName());
+            properties.put(name, readValue());
+        }
+        while (nextToken() == ',');
+        expectCurrent('}');
+    }
+
+    /**
+     * Read a value, starting with the next token
+     */
+    private Serializable readValue() throws IOException
+    {
+        char ch = nextToken();
+        switch (ch)
+        {
+        case '"':
+            return readString();
+
+        case '{':
+            return readObjectValue();
+
+        case '[':
+            ArrayList<Serializable> list = new ArrayList<Serializable>();
+            if (nextToken() == ']')
+            {
+                return list;
+            }
+            pushBack();
+            do
+            {
+                list.add(readValue());
+            }
+            while (nextToken() == ',');
+            expectCurrent(']');
+            return list;
+
+        case 't':
+            readLiteral("rue");
+            return Boolean.TRUE;
+
+        case 'f':
+            readLiteral("alse");
+            return Boolean.FALSE;
+
+        case 'n':
+            readLiteral("ull");
+            return null;
+
+        default:
+            return readNumber(ch);
+        }
+    }
+
+    /**
+     * Read an object value - either a time, content or a map of properties. The opening brace has been read.
+     */
+    private Serializable readObjectValue() throws IOException
+    {
+        TreeMap<String, Serializable> map = new TreeMap<String, Serializable>();
+        if (nextToken() == '}')
+        {
+            return map;
+        }
+        pushBack();
+        String name = readName();
+        if (TIME_VALUE.equals(name))
+        {
+            Serializable time = readValue();
+            expect('}');
+            return (time == null) ? null : new Date(((Number) time).longValue());
+        }
+        else if (CONTENT_VALUE.equals(name))
+        {
+            expect('{');
+            TreeMap<String, Serializable> contentProperties = new TreeMap<String, Serializable>();
+            readProperties(contentProperties);
+            expect('}');
+            ContentInfo info = new ContentInfo();
+            info.setMimeType((String) contentProperties.get("mime"));
+            info.setEncoding((String) contentProperties.get("enc"));
+            Number size = (Number) contentProperties.get("size");
+            info.setSize(size == null ? 0L : size.longValue());
+            return info;
+        }
+        map.put(intern(name), readValue());
+        while (nextToken() == ',')
+        {
+            map.put(intern(readName()), readValue());
+        }
+        expectCurrent('}');
+        return map;
+    }
+
+    /**
+     * Read a member name and the colon that follows it
+     */
+    private String readName() throws IOException
+    {
+        expect('"');
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * Read the rest of a string. The opening quote has been read.
+     */
+    private String readString() throws IOException
+    {
+        StringBuilder sb = stringBuilder;
+        sb.setLength(0);
+        while (true)
+        {
+            if (position == limit && !fill())
+            {
+                throw new IOException("Unterminated string");
+            }
+            // Copy unescaped runs of characters in one go
+            int start = position;
+            while (position < limit)
+            {
+                char ch = buffer[position];
+                if (ch == '"' || ch == '\\')
+                {
+                    break;
+                }
+                position++;
+            }
+            sb.append(buffer, start, position - start);
+            if (position == limit)
+            {
+                continue;
+            }
+            char ch = buffer[position++];
+            if (ch == '"')
+            {
+                return sb.toString();
+            }
+            char escaped = nextChar();
+            switch (escaped)
+            {
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; ++i)
+                {
+                    int digit = Character.digit(nextChar(), 16);
+                    if (digit < 0)
+                    {
+                        throw new IOException("Invalid unicode escape");
+                    }
+                    code = (code << 4) | digit;
+                }
+                sb.append((char) code);
+                break;
+            default:
+                // quote, backslash and solidus
+                sb.append(escaped);
+                break;
+            }
+        }
+    }
+
+    private Serializable readNumber(char first) throws IOException
+    {
+        StringBuilder sb = stringBuilder;
+        sb.setLength(0);
+        sb.append(first);
+        boolean integer = true;
+        while (true)
+        {
+            if (position == limit && !fill())
+            {
+                break;
+            }
+            char ch = buffer[position];
+            if ((ch >= '0' && ch <= '9') || ch == '-' || ch == '+')
+            {
+                sb.append(ch);
+            }
+            else if (ch == '.' || ch == 'e' || ch == 'E')
+            {
+                sb.append(ch);
+                integer = false;
+            }
+            else
+            {
+                break;
+            }
+            position++;
+        }
+        try
+        {
+            String text = sb.toString();
+            return integer ? (Serializable) Long.valueOf(text) : (Serializable) Double.valueOf(text);
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new IOException("Invalid value: " + sb);
+        }
+    }
+
+    private void readLiteral(String rest) throws IOException
+    {
+        for (int i = 0; i < rest.length(); ++i)
+        {
+            if (nextChar() != rest.charAt(i))
+            {
+                throw new IOException("Invalid literal");
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException
+    {
+        nextToken();
+        expectCurrent(expected);
+    }
+
+    private void expectCurrent(char expected) throws IOException
+    {
+        if (current() != expected)
+        {
+            throw new IOException("Expected '" + expected + "' but found '" + current() + "'");
+        }
+    }
+
+    /**
+     * Read the next character that isn't whitespace
+     */
+    private char nextToken() throws IOException
+    {
+        char ch;
+        do
+        {
+            ch = nextChar();
+        }
+        while (ch == ' ' || ch == '\n' || ch == '\r' || ch == '\t');
+        return ch;
+    }
+
+    private char nextChar() throws IOException
+    {
+        if (position == limit && !fill())
+        {
+            throw new IOException("Unexpected end of response");
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * @return the most recently read character
+     */
+    private char current()
+    {
+        return buffer[position - 1];
+    }
+
+    private void pushBack()
+    {
+        position--;
+    }
+
+    private boolean fill() throws IOException
+    {
+        // Keep the last character so that current() and pushBack() still work
+        if (limit > 0)
+        {
+            buffer[0] = buffer[limit - 1];
+            position = 1;
+        }
+        else
+        {
+            position = 0;
+        }
+        int read = reader.read(buffer, position, buffer.length - position);
+        limit = position + Math.max(read, 0);
+        return read > 0;
+    }
+
+    private static String intern(String name)
+    {
+        if (name == null)
+        {
+            return null;
+        }
+        String interned = internedNames.get(name);
+        if (interned == null)
+        {
+            if (internedNames.size() >= MAX_INTERNED_NAMES)
+            {
+                return name;
+            }
+            interned = internedNames.putIfAbsent(name, name);
+            if (interned == null)
+            {
+                interned = name;
+            }
+        }
+        return interned;
+    }
+}
@@ -36,13 +36,12 @@ import java.util.Stack;
 import java.util.TreeMap;
 
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-public class AssetDeserializerXmlImpl extends DefaultHandler implements WebscriptResponseHandler
+public class AssetDeserializerXmlImpl extends DefaultHandler implements AssetDeserializer
 {
     private static enum State
     {
@@ -100,9 +99,15 @@ public class AssetDeserializerXmlImpl extends DefaultHandler implements Webscrip
         try
         {
             reset();
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            SAXParser parser = saxParserFactory.newSAXParser();
-            parser.parse(in, this);
+            SAXParser parser = SaxParserPool.borrowParser();
+            try
+            {
+                parser.parse(in, this);
+            }
+            finally
+            {
+                SaxParserPool.returnParser(parser);
+            }
         }
         catch (Exception ex)
         {
@@ -111,6 +116,12 @@ public class AssetDeserializerXmlImpl extends DefaultHandler implements Webscrip
         return assets;
     }
 
+    @Override
+    public String getFormat()
+    {
+        return AssetDeserializerFactory.FORMAT_XML;
+    }
+
     @Override
     public void handleResponse(InputStream in)
     {
@@ -72,6 +72,10 @@ public class AssetFactoryCmisImpl implements AssetFactory
     private SectionFactory sectionFactory;
     private CollectionFactory collectionFactory;
 
+    /** Properties needed to fetch the content of a document */
+    private final static String CONTENT_FILTER = "cmis:objectId,cmis:objectTypeId,cmis:baseTypeId,cmis:name,"
+            + "cmis:contentStreamLength,cmis:contentStreamMimeType,cmis:contentStreamFileName";
+
     private final static String COMMON_ASSET_SELECT_CLAUSE = "SELECT d.cmis:objectId, d.cmis:objectTypeId, d.cmis:name, d.cmis:contentStreamLength, "
             + "d.cmis:contentStreamMimeType, d.cmis:lastModificationDate, t.cm:title, t.cm:description, wa.ws:parentSections, wa.ws:publishedTime, "
             + "wa.ws:derivedCommentCount, wa.ws:derivedAverageRating, wa.ws:tags, a.cm:author ";
@@ -343,7 +347,7 @@ public class AssetFactoryCmisImpl implements AssetFactory
             throw new IllegalArgumentException("assetId = " + assetId);
         }
         Session session = CmisSessionHelper.getSession();
-        OperationContext oc = session.createOperationContext();
+        OperationContext oc = CmisSessionHelper.createOperationContext(session, PropertyIds.OBJECT_ID);
         oc.setRenditionFilterString("*");
         List<Rendition> renditions = session.getObject(session.createObjectId(assetId), oc).getRenditions();
         for (Rendition rendition : renditions)
@@ -459,7 +463,8 @@ public class AssetFactoryCmisImpl implements AssetFactory
         Session session = CmisSessionHelper.getSession();
 
         // Fetch the Document object for this asset
-        CmisObject object = session.getObject(new ObjectIdImpl(assetId));
+        CmisObject object = session.getObject(new ObjectIdImpl(assetId),
+                CmisSessionHelper.createOperationContext(session, CONTENT_FILTER));
         if (!(object instanceof Document))
         {
             throw new IllegalArgumentException("Object referenced by the uuid is not a document");
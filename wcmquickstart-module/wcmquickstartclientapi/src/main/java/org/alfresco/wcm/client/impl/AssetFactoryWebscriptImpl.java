@@ -53,6 +53,7 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
     private SectionFactory sectionFactory;
     private CollectionFactory collectionFactory;
     private AssetFactory supportingAssetFactory;
+    private AssetDeserializerFactory assetDeserializerFactory = new AssetDeserializerFactory();
     
     private ThreadLocal<List<WebscriptParam>> localParamList = new ThreadLocal<List<WebscriptParam>>() 
     {
@@ -92,6 +93,11 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
         this.supportingAssetFactory = supportingAssetFactory;
     }
 
+    public void setAssetDeserializerFactory(AssetDeserializerFactory assetDeserializerFactory)
+    {
+        this.assetDeserializerFactory = assetDeserializerFactory;
+    }
+
     @Override
     public SearchResults findByQuery(Query query)
     {
@@ -263,8 +269,8 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
     private LinkedList<TreeMap<String, Serializable>> getAssetsFromRepo(List<WebscriptParam> params,
             Map<String, Serializable> header)
     {
-        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
-        webscriptCaller.post("webasset", deserializer, params);
+        AssetDeserializer deserializer = assetDeserializerFactory.getAssetDeserializer();
+        webscriptCaller.post("webasset", deserializer, withFormat(params, deserializer));
         LinkedList<TreeMap<String, Serializable>> assetList = deserializer.getAssets();
         if (header != null)
         {
@@ -276,8 +282,8 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
     private LinkedList<TreeMap<String, Serializable>> searchAssetsInRepo(List<WebscriptParam> params,
             Map<String, Serializable> header)
     {
-        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
-        webscriptCaller.get("webassetsearch", deserializer, params);
+        AssetDeserializer deserializer = assetDeserializerFactory.getAssetDeserializer();
+        webscriptCaller.get("webassetsearch", deserializer, withFormat(params, deserializer));
         LinkedList<TreeMap<String, Serializable>> assetList = deserializer.getAssets();
         if (header != null && deserializer.getHeader() != null)
         {
@@ -286,6 +292,14 @@ public class AssetFactoryWebscriptImpl implements AssetFactory
         return assetList;
     }
 
+    private List<WebscriptParam> withFormat(List<WebscriptParam> params, AssetDeserializer deserializer)
+    {
+        List<WebscriptParam> formatParams = new ArrayList<WebscriptParam>(params.size() + 1);
+        formatParams.addAll(params);
+        formatParams.add(new WebscriptParam("format", deserializer.getFormat()));
+        return formatParams;
+    }
+
     @SuppressWarnings("unchecked")
     protected Asset buildAsset(TreeMap<String, Serializable> props)
     {
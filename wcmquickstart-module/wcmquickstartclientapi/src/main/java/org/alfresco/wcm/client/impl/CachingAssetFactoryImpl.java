@@ -30,9 +30,21 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.alfresco.wcm.client.Asset;
 import org.alfresco.wcm.client.AssetFactory;
@@ -42,13 +54,26 @@ import org.alfresco.wcm.client.Rendition;
 import org.alfresco.wcm.client.SearchResults;
 import org.alfresco.wcm.client.WebSite;
 import org.alfresco.wcm.client.WebSiteService;
+import org.alfresco.wcm.client.impl.cache.DiskContentCache;
 import org.alfresco.wcm.client.impl.cache.SimpleCache;
+import org.alfresco.wcm.client.util.CmisSessionHelper;
+import org.apache.chemistry.opencmis.client.api.Session;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * A proxying implementation of the {@link AssetFactory} interface that caches
  * loaded assets
+ * <p>
+ * Concurrent requests for an asset that is not cached wait for a single load from the
+ * delegate factory. Once a cached asset is older than the minimum cache time its modified
+ * time is checked in the repository. By default the check is made by the requesting thread.
+ * In stale-while-revalidate mode the cached asset is returned immediately and the checks
+ * for all expired assets are batched into one call by a background thread, which also
+ * reloads any assets that have been modified.
+ * <p>
+ * Content and renditions are copied to a {@link DiskContentCache}, keyed by the asset id and
+ * modified time so that modified content is never served from the cache.
  * 
  * @author Brian
  * 
@@ -59,9 +84,22 @@ public class CachingAssetFactoryImpl implements AssetFactory
 
     private AssetFactory delegate;
     private SimpleCache<String, CacheEntry> cache;
+    private DiskContentCache contentCache;
     private long minimumCacheMilliseconds = 30000L;
     private boolean cacheContent = true;
     private boolean cacheRelationships = true;
+    private boolean staleWhileRevalidate = false;
+    private int revalidationBatchSize = 100;
+    private int maxPendingRevalidations = 10000;
+
+    /** Assets currently being loaded from the delegate - concurrent requests wait for the load */
+    private final ConcurrentMap<String, AssetLoad> assetsBeingLoaded = new ConcurrentHashMap<String, AssetLoad>();
+
+    /** Cached assets waiting for their modified time to be checked in the background */
+    private final ConcurrentLinkedQueue<Revalidation> pendingRevalidations = new ConcurrentLinkedQueue<Revalidation>();
+    private final AtomicInteger pendingRevalidationCount = new AtomicInteger();
+    private final AtomicBoolean revalidationScheduled = new AtomicBoolean();
+    private volatile ExecutorService revalidationExecutor;
 
     public void setDelegate(AssetFactory delegate)
     {
@@ -73,6 +111,27 @@ public class CachingAssetFactoryImpl implements AssetFactory
         this.cache = newCache;
     }
 
+    /**
+     * Set the cache that content and renditions are copied to. Defaults to
+     * {@link DiskContentCache#getDefaultInstance()}.
+     * 
+     * @param contentCache
+     *            disk content cache
+     */
+    public void setContentCache(DiskContentCache contentCache)
+    {
+        this.contentCache = contentCache;
+    }
+
+    private DiskContentCache getContentCache()
+    {
+        if (contentCache == null)
+        {
+            contentCache = DiskContentCache.getDefaultInstance();
+        }
+        return contentCache;
+    }
+
     public void setMinimumCacheSeconds(int seconds)
     {
         minimumCacheMilliseconds = seconds * 1000L;
@@ -88,6 +147,53 @@ public class CachingAssetFactoryImpl implements AssetFactory
         this.cacheRelationships = cacheRelationships;
     }
 
+    /**
+     * Set whether an expired asset is returned from the cache while its modified time is
+     * checked in the background, rather than checked before the asset is returned.
+     * 
+     * @param staleWhileRevalidate
+     *            true to revalidate expired assets in the background, default false
+     */
+    public void setStaleWhileRevalidate(boolean staleWhileRevalidate)
+    {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * Set the maximum number of assets whose modified times are checked with a single call
+     * 
+     * @param revalidationBatchSize
+     *            batch size, default 100
+     */
+    public void setRevalidationBatchSize(int revalidationBatchSize)
+    {
+        this.revalidationBatchSize = revalidationBatchSize;
+    }
+
+    /**
+     * Set the maximum number of assets waiting for a background check. When the limit is
+     * reached expired assets are checked by the requesting thread.
+     * 
+     * @param maxPendingRevalidations
+     *            maximum number of waiting checks, default 10000
+     */
+    public void setMaxPendingRevalidations(int maxPendingRevalidations)
+    {
+        this.maxPendingRevalidations = maxPendingRevalidations;
+    }
+
+    /**
+     * Stop the background revalidation thread
+     */
+    public void shutdown()
+    {
+        ExecutorService executor = revalidationExecutor;
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
     public SearchResults findByQuery(Query query)
     {
         return delegate.findByQuery(query);
@@ -104,24 +210,74 @@ public class CachingAssetFactoryImpl implements AssetFactory
         CacheEntry cacheEntry = getCacheEntry(id);
         if (cacheEntry == null)
         {
-            // We have not found the asset in the cache. Load it using our
-            // delegated factory and cache the result
-            if (log.isDebugEnabled())
+            AssetLoad load = new AssetLoad();
+            AssetLoad existingLoad = assetsBeingLoaded.putIfAbsent(id, load);
+            if (existingLoad != null)
             {
-                log.debug("Missed cache for asset: " + id);
+                // Another thread is already loading this asset. Wait for it rather than
+                // loading it again
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Waiting for asset to be loaded: " + id);
+                }
+                cacheEntry = existingLoad.await();
+                if (cacheEntry != null)
+                {
+                    return cacheEntry;
+                }
+                // The asset was not found by another thread's batch load - try loading it by id
+                cacheEntry = new CacheEntry(attachAsset(delegate.getAssetById(id, deferredLoad)));
+                cache.put(id, cacheEntry);
+                return cacheEntry;
+            }
+            try
+            {
+                // Another thread may have loaded the asset between us checking the cache
+                // and starting the load
+                cacheEntry = cache.get(id);
+                if (cacheEntry == null)
+                {
+                    // We have not found the asset in the cache. Load it using our
+                    // delegated factory and cache the result
+                    if (log.isDebugEnabled())
+                    {
+                        log.debug("Missed cache for asset: " + id);
+                    }
+                    cacheEntry = new CacheEntry(attachAsset(delegate.getAssetById(id, deferredLoad)));
+                    cache.put(id, cacheEntry);
+                }
+                load.set(cacheEntry);
             }
-            Asset asset = delegate.getAssetById(id, deferredLoad);
-            //Make sure that subsequent requests from this asset come through this asset factory
-            if (AssetImpl.class.isAssignableFrom(asset.getClass()))
+            catch (RuntimeException ex)
             {
-                ((AssetImpl)asset).setAssetFactory(this);
+                load.fail(ex);
+                throw ex;
+            }
+            finally
+            {
+                // Any other failure releases waiting threads with no asset, so they load it themselves
+                load.set(null);
+                assetsBeingLoaded.remove(id, load);
             }
-            cacheEntry = new CacheEntry(asset);
-            cache.put(id, cacheEntry);
         }
         return cacheEntry;
     }
 
+    /**
+     * Make sure that subsequent requests from the given asset come through this asset factory
+     * 
+     * @param asset Asset
+     * @return the asset
+     */
+    private Asset attachAsset(Asset asset)
+    {
+        if (AssetImpl.class.isAssignableFrom(asset.getClass()))
+        {
+            ((AssetImpl)asset).setAssetFactory(this);
+        }
+        return asset;
+    }
+
     private CacheEntry getCacheEntry(String id)
     {
         if (log.isDebugEnabled())
@@ -137,8 +293,9 @@ public class CachingAssetFactoryImpl implements AssetFactory
             // If it has been there
             // longer than the minimum cache time then we'll check its modified
             // time in the repo
-            // to ensure it hasn't become out of date
-            if (cacheEntry.cacheTime < refreshCutoffTime)
+            // to ensure it hasn't become out of date (unless that check is made
+            // in the background, in which case we use the cached asset meanwhile)
+            if (cacheEntry.cacheTime < refreshCutoffTime && !scheduleRevalidation(id, cacheEntry))
             {
                 Asset asset = cacheEntry.asset;
                 Date currentModifiedTime = delegate.getModifiedTimeOfAsset(id);
@@ -190,7 +347,7 @@ public class CachingAssetFactoryImpl implements AssetFactory
                 // modified time in the repo.
                 // This is the case if we last checked it longer ago than the
                 // "minimumCacheMilliseconds"
-                if (cacheEntry.cacheTime < refreshCutoffTime)
+                if (cacheEntry.cacheTime < refreshCutoffTime && !scheduleRevalidation(id, cacheEntry))
                 {
                     // Yes, we need to check this one. Record it in our
                     // collection of assets to check
@@ -249,16 +406,66 @@ public class CachingAssetFactoryImpl implements AssetFactory
         // modified since being cached)
         if (!idsToLoad.isEmpty())
         {
-            List<Asset> assets = delegate.getAssetsById(idsToLoad, deferredLoad);
-            for (Asset asset : assets)
+            // Assets that another thread is already loading are not loaded again - we wait for
+            // them once our own load has finished
+            Map<String, AssetLoad> loads = new TreeMap<String, AssetLoad>();
+            Map<String, AssetLoad> otherLoads = new TreeMap<String, AssetLoad>();
+            for (String id : idsToLoad)
+            {
+                AssetLoad load = new AssetLoad();
+                AssetLoad existingLoad = assetsBeingLoaded.putIfAbsent(id, load);
+                if (existingLoad == null)
+                {
+                    loads.put(id, load);
+                }
+                else
+                {
+                    otherLoads.put(id, existingLoad);
+                }
+            }
+            if (!loads.isEmpty())
             {
-                //Make sure that subsequent requests from this asset come through this asset factory
-                if (AssetImpl.class.isAssignableFrom(asset.getClass()))
+                try
                 {
-                    ((AssetImpl)asset).setAssetFactory(this);
+                    List<Asset> assets = delegate.getAssetsById(new ArrayList<String>(loads.keySet()), deferredLoad);
+                    for (Asset asset : assets)
+                    {
+                        attachAsset(asset);
+                        foundAssets.put(asset.getId(), asset);
+                        CacheEntry cacheEntry = new CacheEntry(asset);
+                        cache.put(asset.getId(), cacheEntry);
+                        AssetLoad load = loads.get(asset.getId());
+                        if (load != null)
+                        {
+                            load.set(cacheEntry);
+                        }
+                    }
+                }
+                catch (RuntimeException ex)
+                {
+                    for (AssetLoad load : loads.values())
+                    {
+                        load.fail(ex);
+                    }
+                    throw ex;
+                }
+                finally
+                {
+                    for (Map.Entry<String, AssetLoad> load : loads.entrySet())
+                    {
+                        // Assets that were not found release any waiting threads with no asset
+                        load.getValue().set(null);
+                        assetsBeingLoaded.remove(load.getKey(), load.getValue());
+                    }
+                }
+            }
+            for (Map.Entry<String, AssetLoad> load : otherLoads.entrySet())
+            {
+                CacheEntry cacheEntry = load.getValue().await();
+                if (cacheEntry != null)
+                {
+                    foundAssets.put(load.getKey(), cacheEntry.asset);
                 }
-                foundAssets.put(asset.getId(), asset);
-                cache.put(asset.getId(), new CacheEntry(asset));
             }
         }
 
@@ -299,34 +506,61 @@ public class CachingAssetFactoryImpl implements AssetFactory
             log.debug("Checking cache for renditions: " + assetId);
         }
         CacheEntry cacheEntry = loadCacheEntry(assetId, false);
-        if (cacheEntry.renditions == null)
+        Date modifiedTime = (Date) cacheEntry.asset.getProperty(Asset.PROPERTY_MODIFIED_TIME);
+        Map<String, Rendition> renditions = cacheEntry.renditions;
+        if (renditions == null || !isContentCached(assetId, modifiedTime, renditions))
         {
             synchronized (cacheEntry.mutex)
             {
-                if (cacheEntry.renditions == null)
+                renditions = cacheEntry.renditions;
+                if (renditions == null || !isContentCached(assetId, modifiedTime, renditions))
                 {
                     if (log.isDebugEnabled())
                     {
                         log.debug("Missed cache for renditions: " + assetId);
                     }
+                    DiskContentCache diskCache = getContentCache();
                     Map<String, Rendition> returnRenditions = new TreeMap<String, Rendition>();
                     Map<String,Rendition> sourceRenditions = delegate.getRenditions(assetId);
                     for (Map.Entry<String, Rendition> entry : sourceRenditions.entrySet())
                     {
+                        String key = DiskContentCache.getKey(assetId, modifiedTime, entry.getKey());
+                        CachingContentStreamImpl cached = diskCache.get(key);
                         try
                         {
-                            returnRenditions.put(entry.getKey(), new CachingRenditionImpl(entry.getValue()));
+                            if (!(cached instanceof Rendition))
+                            {
+                                cached = diskCache.put(key, entry.getValue());
+                            }
+                            returnRenditions.put(entry.getKey(), (Rendition) cached);
                         }
                         catch(IOException ex)
                         {
+                            log.warn("Failed to cache rendition " + entry.getKey() + " of asset " + assetId, ex);
                         }
                     }
-                    returnRenditions = Collections.unmodifiableMap(returnRenditions);
-                    cacheEntry.renditions = returnRenditions;
+                    renditions = Collections.unmodifiableMap(returnRenditions);
+                    cacheEntry.renditions = renditions;
                 }
             }
         }
-        return cacheEntry.renditions;
+        return renditions;
+    }
+
+    /**
+     * @return true if all the given renditions are still held by the disk content cache
+     */
+    private boolean isContentCached(String assetId, Date modifiedTime, Map<String, Rendition> renditions)
+    {
+        DiskContentCache diskCache = getContentCache();
+        for (Map.Entry<String, Rendition> entry : renditions.entrySet())
+        {
+            if (diskCache.get(DiskContentCache.getKey(assetId, modifiedTime, entry.getKey())) != entry.getValue())
+            {
+                return false;
+            }
+        }
+        return true;
     }
 
     public Asset getSectionAsset(String sectionId, String assetName, boolean wildcardsAllowedInName)
@@ -379,6 +613,212 @@ public class CachingAssetFactoryImpl implements AssetFactory
         return results;
     }
 
+    /**
+     * Queue a background check of the modified time of an expired cached asset, if
+     * stale-while-revalidate is enabled.
+     * 
+     * @param id
+     *            asset id
+     * @param cacheEntry
+     *            the expired cache entry
+     * @return true if the cached asset can be used while it is checked in the
+     *         background, false if it must be checked by the caller
+     */
+    private boolean scheduleRevalidation(String id, CacheEntry cacheEntry)
+    {
+        if (!staleWhileRevalidate)
+        {
+            return false;
+        }
+        if (!cacheEntry.revalidating.compareAndSet(false, true))
+        {
+            // A check of this asset is already waiting or running
+            return true;
+        }
+        if (pendingRevalidationCount.incrementAndGet() > maxPendingRevalidations)
+        {
+            pendingRevalidationCount.decrementAndGet();
+            cacheEntry.revalidating.set(false);
+            return false;
+        }
+        pendingRevalidations.add(new Revalidation(id, cacheEntry, CmisSessionHelper.getSession()));
+        if (revalidationScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                getRevalidationExecutor().execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        revalidatePending();
+                    }
+                });
+            }
+            catch (RuntimeException ex)
+            {
+                // The executor has been shut down - the entry stays queued
+                revalidationScheduled.set(false);
+                log.warn("Unable to schedule revalidation of cached assets", ex);
+            }
+        }
+        return true;
+    }
+
+    private ExecutorService getRevalidationExecutor()
+    {
+        ExecutorService executor = revalidationExecutor;
+        if (executor == null)
+        {
+            synchronized (this)
+            {
+                executor = revalidationExecutor;
+                if (executor == null)
+                {
+                    executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory()
+                            {
+                                public Thread newThread(Runnable runnable)
+                                {
+                                    Thread thread = new Thread(runnable, "AssetCacheRevalidation");
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+                    ((ThreadPoolExecutor)executor).allowCoreThreadTimeOut(true);
+                    revalidationExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Check the modified times of all queued assets in batches. Runs on the background
+     * revalidation thread.
+     */
+    private void revalidatePending()
+    {
+        while (true)
+        {
+            List<Revalidation> batch = new ArrayList<Revalidation>(revalidationBatchSize);
+            Revalidation revalidation;
+            while (batch.size() < revalidationBatchSize && (revalidation = pendingRevalidations.poll()) != null)
+            {
+                pendingRevalidationCount.decrementAndGet();
+                batch.add(revalidation);
+            }
+            if (batch.isEmpty())
+            {
+                revalidationScheduled.set(false);
+                // Check for entries queued after the queue was found empty but before the flag was cleared
+                if (pendingRevalidations.isEmpty() || !revalidationScheduled.compareAndSet(false, true))
+                {
+                    return;
+                }
+                continue;
+            }
+
+            // The assets may have been requested using different CMIS sessions
+            Map<Session, List<Revalidation>> batchesBySession = new IdentityHashMap<Session, List<Revalidation>>();
+            for (Revalidation item : batch)
+            {
+                List<Revalidation> sessionBatch = batchesBySession.get(item.session);
+                if (sessionBatch == null)
+                {
+                    sessionBatch = new ArrayList<Revalidation>();
+                    batchesBySession.put(item.session, sessionBatch);
+                }
+                sessionBatch.add(item);
+            }
+            for (Map.Entry<Session, List<Revalidation>> sessionBatch : batchesBySession.entrySet())
+            {
+                CmisSessionHelper.setSession(sessionBatch.getKey());
+                try
+                {
+                    revalidate(sessionBatch.getValue());
+                }
+                catch (Throwable ex)
+                {
+                    log.warn("Failed to revalidate cached assets", ex);
+                }
+                finally
+                {
+                    CmisSessionHelper.setSession(null);
+                    for (Revalidation item : sessionBatch.getValue())
+                    {
+                        item.cacheEntry.revalidating.set(false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check the modified times of the given cached assets with a single call, and reload
+     * those that have been modified.
+     * 
+     * @param batch
+     *            the assets to check
+     */
+    private void revalidate(List<Revalidation> batch)
+    {
+        Map<String, Revalidation> revalidationsById = new TreeMap<String, Revalidation>();
+        for (Revalidation item : batch)
+        {
+            revalidationsById.put(item.id, item);
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Revalidating cached assets: " + revalidationsById.keySet());
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, Date> currentModifiedTimes = delegate.getModifiedTimesOfAssets(revalidationsById.keySet());
+        List<String> modifiedIds = new ArrayList<String>();
+        for (Revalidation item : revalidationsById.values())
+        {
+            Date currentModifiedTime = currentModifiedTimes.get(item.id);
+            if (currentModifiedTime == null)
+            {
+                // This asset is no longer in the repository
+                cache.remove(item.id);
+                continue;
+            }
+            Date cachedModifiedTime = (Date) item.cacheEntry.asset.getProperty(Asset.PROPERTY_MODIFIED_TIME);
+            if (currentModifiedTime.after(cachedModifiedTime))
+            {
+                modifiedIds.add(item.id);
+            }
+            else
+            {
+                item.cacheEntry.cacheTime = now;
+            }
+        }
+        if (!modifiedIds.isEmpty())
+        {
+            if (log.isDebugEnabled())
+            {
+                log.debug("Reloading modified assets: " + modifiedIds);
+            }
+            try
+            {
+                for (Asset asset : delegate.getAssetsById(modifiedIds, false))
+                {
+                    cache.put(asset.getId(), new CacheEntry(attachAsset(asset)));
+                    modifiedIds.remove(asset.getId());
+                }
+            }
+            finally
+            {
+                // Any modified asset that could not be reloaded is loaded again on its next request
+                for (String id : modifiedIds)
+                {
+                    cache.remove(id);
+                }
+            }
+        }
+    }
+
     private long getMinimumCacheMilliseconds()
     {
         long result = 0L;
@@ -401,11 +841,16 @@ public class CachingAssetFactoryImpl implements AssetFactory
                 log.debug("Checking cache for content stream: " + assetId);
             }
             CacheEntry cacheEntry = loadCacheEntry(assetId, false);
-            if (cacheEntry.contentStream == null)
+            DiskContentCache diskCache = getContentCache();
+            String key = DiskContentCache.getKey(assetId,
+                    (Date) cacheEntry.asset.getProperty(Asset.PROPERTY_MODIFIED_TIME), null);
+            contentStream = diskCache.get(key);
+            if (contentStream == null)
             {
                 synchronized (cacheEntry.mutex)
                 {
-                    if (cacheEntry.contentStream == null)
+                    contentStream = diskCache.get(key);
+                    if (contentStream == null)
                     {
                         if (log.isDebugEnabled())
                         {
@@ -414,8 +859,10 @@ public class CachingAssetFactoryImpl implements AssetFactory
                         contentStream = delegate.getContentStream(assetId);
                         try
                         {
-                            cacheEntry.contentStream = new CachingContentStreamImpl(contentStream);
-                            contentStream = cacheEntry.contentStream;
+                            if (contentStream != null)
+                            {
+                                contentStream = diskCache.put(key, contentStream);
+                            }
                         }
                         catch (Exception ex)
                         {
@@ -430,7 +877,6 @@ public class CachingAssetFactoryImpl implements AssetFactory
                 {
                     log.debug("Hit cache for content stream: " + assetId);
                 }
-                contentStream = cacheEntry.contentStream;
             }
         }
         else
@@ -442,9 +888,9 @@ public class CachingAssetFactoryImpl implements AssetFactory
 
     private static class CacheEntry
     {
-        public long cacheTime;
+        public volatile long cacheTime;
         public final Asset asset;
-        public volatile CachingContentStreamImpl contentStream;
+        public final AtomicBoolean revalidating = new AtomicBoolean();
         public volatile Map<String, Rendition> renditions;
         public volatile Map<String,List<String>> sourceRelationships;
         public final Object mutex = new Object();
@@ -455,4 +901,83 @@ public class CachingAssetFactoryImpl implements AssetFactory
             this.cacheTime = System.currentTimeMillis();
         }
     }
+
+    /**
+     * A load of an asset from the delegate factory. Threads that request the asset while it
+     * is being loaded wait in {@link #await()} for the load to finish.
+     */
+    private static class AssetLoad
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile CacheEntry cacheEntry;
+        private volatile RuntimeException error;
+
+        void set(CacheEntry cacheEntry)
+        {
+            if (done.getCount() != 0)
+            {
+                this.cacheEntry = cacheEntry;
+                done.countDown();
+            }
+        }
+
+        void fail(RuntimeException error)
+        {
+            if (done.getCount() != 0)
+            {
+                this.error = error;
+                done.countDown();
+            }
+        }
+
+        CacheEntry await()
+        {
+            boolean interrupted = false;
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        done.await();
+                        break;
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (error != null)
+            {
+                throw error;
+            }
+            return cacheEntry;
+        }
+    }
+
+    /**
+     * A cached asset waiting for its modified time to be checked, with the CMIS session of
+     * the request that found it had expired
+     */
+    private static class Revalidation
+    {
+        final String id;
+        final CacheEntry cacheEntry;
+        final Session session;
+
+        Revalidation(String id, CacheEntry cacheEntry, Session session)
+        {
+            this.id = id;
+            this.cacheEntry = cacheEntry;
+            this.session = session;
+        }
+    }
 }
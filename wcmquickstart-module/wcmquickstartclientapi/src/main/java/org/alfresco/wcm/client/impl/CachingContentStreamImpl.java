@@ -34,78 +34,137 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.alfresco.wcm.client.ContentStream;
+import org.alfresco.wcm.client.impl.cache.DiskContentCache;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 public class CachingContentStreamImpl implements ContentStream
 {
     private static final Log log = LogFactory.getLog(CachingContentStreamImpl.class);
-    private static final String SYSTEM_PROPERTY_TEMP_DIR = "java.io.tmpdir";
     private static String WQS_TEMP_FOLDER_NAME = "alfresco-wqs";
         
     private final String fileName;
     private final String mimeType;
     private final long length;
     private transient final File cacheFile;
+    /** Number of open readers of the cache file - the cache does not delete the file while it is read */
+    private transient final AtomicInteger readers = new AtomicInteger();
 
+    /**
+     * Copy content to a file in the directory of the default content cache. The file is not
+     * managed by the cache, it is deleted along with the cache directory.
+     * 
+     * @deprecated use {@link DiskContentCache#put(String, ContentStream)}
+     */
+    @Deprecated
     public CachingContentStreamImpl(ContentStream contentStream) throws IOException
+    {
+        this(contentStream, DiskContentCache.getDefaultInstance().createFile("wqscontent-"));
+    }
+
+    /**
+     * Copy content to the given file
+     * 
+     * @param contentStream
+     *            the content to copy
+     * @param cacheFile
+     *            the file to copy the content to
+     * @throws IOException
+     */
+    public CachingContentStreamImpl(ContentStream contentStream, File cacheFile) throws IOException
     {
         this.fileName = contentStream.getFileName();
         this.length = contentStream.getLength();
         this.mimeType = contentStream.getMimeType();
-        File tempFile = File.createTempFile("wqscontent-", null, getTempDir());
-        tempFile.deleteOnExit();
-        log.debug("Created temp cache file: " + tempFile.getPath());
-        OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile));
-        contentStream.output(os);
-        os.flush();
-        os.close();
-        this.cacheFile = tempFile;
+        log.debug("Created cache file: " + cacheFile.getPath());
+        OutputStream os = new BufferedOutputStream(new FileOutputStream(cacheFile));
+        try
+        {
+            contentStream.output(os);
+            os.flush();
+        }
+        finally
+        {
+            os.close();
+        }
+        this.cacheFile = cacheFile;
     }
 
     public static void setTempFolderName(String folderName)
     {
         WQS_TEMP_FOLDER_NAME = folderName;
     }
-    
-    private File getSystemTempDir() throws IOException
+
+    public static String getTempFolderName()
+    {
+        return WQS_TEMP_FOLDER_NAME;
+    }
+
+    /**
+     * @return the file holding the cached content
+     */
+    public File getCacheFile()
     {
-        String systemTempDirPath = System.getProperty(SYSTEM_PROPERTY_TEMP_DIR);
-        if (systemTempDirPath == null)
-        {
-            throw new IOException("System property not available: " + SYSTEM_PROPERTY_TEMP_DIR);
-        }
-        return new File(systemTempDirPath);
+        return cacheFile;
     }
-    
-    private File getTempDir() throws IOException
+
+    /**
+     * @return true if the cache file is open for reading
+     */
+    public boolean isInUse()
     {
-        File systemTempDir = getSystemTempDir();
-        // append the Alfresco directory
-        File tempDir = new File(systemTempDir, WQS_TEMP_FOLDER_NAME);
-        // ensure that the temp directory exists
-        if (tempDir.exists())
+        return readers.get() > 0;
+    }
+
+    /**
+     * Open the cache file for reading. The file is counted as in use until the stream is closed.
+     * 
+     * @return input stream for the cache file
+     * @throws FileNotFoundException
+     */
+    private FileInputStream open() throws FileNotFoundException
+    {
+        readers.incrementAndGet();
+        try
         {
-            // nothing to do
+            return new FileInputStream(cacheFile)
+            {
+                private boolean closed;
+
+                @Override
+                public void close() throws IOException
+                {
+                    try
+                    {
+                        super.close();
+                    }
+                    finally
+                    {
+                        synchronized (this)
+                        {
+                            if (!closed)
+                            {
+                                closed = true;
+                                readers.decrementAndGet();
+                            }
+                        }
+                    }
+                }
+            };
         }
-        else
+        catch (FileNotFoundException e)
         {
-            // not there yet
-            if (!tempDir.mkdirs())
-            {
-                throw new IOException("Failed to create temp directory: " + tempDir);
-            }
-            if (log.isDebugEnabled())
-            {
-                log.debug("Created temp directory: " + tempDir);
-            }
+            readers.decrementAndGet();
+            throw e;
         }
-        // done
-        return tempDir;
     }
-    
+
     @Override
     public String getFileName()
     {
@@ -129,7 +188,7 @@ public class CachingContentStreamImpl implements ContentStream
     {
         try
         {
-            return new FileInputStream(cacheFile);
+            return open();
         }
         catch (FileNotFoundException e)
         {
@@ -141,10 +200,37 @@ public class CachingContentStreamImpl implements ContentStream
     @Override
     public void output(OutputStream output) throws IOException
     {
-        InputStream is = new FileInputStream(cacheFile);
+        output(output, 0L, cacheFile.length());
+    }
+
+    /**
+     * Output a range of the content. The file is read at the given position rather than
+     * read from its start.
+     * 
+     * @param output
+     *            output stream
+     * @param offset
+     *            position of the first byte to output
+     * @param length
+     *            number of bytes to output
+     * @throws IOException
+     */
+    public void output(OutputStream output, long offset, long length) throws IOException
+    {
+        FileInputStream is = open();
         try
         {
-            StreamUtils.output(is, output);
+            // Let the file channel transfer the content without copying it through a heap buffer
+            // where the platform allows. The target channel is not closed as that closes the output.
+            FileChannel channel = is.getChannel();
+            WritableByteChannel target = Channels.newChannel(output);
+            long end = Math.min(offset + length, channel.size());
+            long position = offset;
+            while (position < end)
+            {
+                position += channel.transferTo(position, end - position, target);
+            }
+            output.flush();
         }
         finally
         {
@@ -155,7 +241,7 @@ public class CachingContentStreamImpl implements ContentStream
     @Override
     public void write(Writer writer) throws IOException
     {
-        InputStream is = new FileInputStream(cacheFile);
+        InputStream is = open();
         try
         {
             StreamUtils.write(is, writer, "UTF-8");
@@ -169,7 +255,7 @@ public class CachingContentStreamImpl implements ContentStream
     @Override
     public void write(Writer writer, String encoding) throws IOException
     {
-        InputStream is = new FileInputStream(cacheFile);
+        InputStream is = open();
         try
         {
             StreamUtils.write(is, writer, encoding);
@@ -179,16 +265,4 @@ public class CachingContentStreamImpl implements ContentStream
             is.close();
         }
     }
-
-    public void finalize()
-    {
-        if (cacheFile != null)
-        {
-            if (log.isDebugEnabled())
-            {
-                log.debug("Attempting to delete temp cache file " + cacheFile.getPath());
-            }
-            cacheFile.delete();
-        }
-    }
 }
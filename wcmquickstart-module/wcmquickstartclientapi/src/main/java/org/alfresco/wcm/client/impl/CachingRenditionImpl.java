@@ -25,6 +25,7 @@
  */
 package org.alfresco.wcm.client.impl;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.alfresco.wcm.client.Rendition;
@@ -34,6 +35,10 @@ public class CachingRenditionImpl extends CachingContentStreamImpl implements Re
     private final long height;
     private final long width;
     
+    /**
+     * @deprecated use {@link org.alfresco.wcm.client.impl.cache.DiskContentCache#put(String, org.alfresco.wcm.client.ContentStream)}
+     */
+    @Deprecated
     public CachingRenditionImpl(Rendition rendition) throws IOException
     {
         super(rendition);
@@ -41,6 +46,13 @@ public class CachingRenditionImpl extends CachingContentStreamImpl implements Re
         this.width = rendition.getWidth();
     }
 
+    public CachingRenditionImpl(Rendition rendition, File cacheFile) throws IOException
+    {
+        super(rendition, cacheFile);
+        this.height = rendition.getHeight();
+        this.width = rendition.getWidth();
+    }
+
     @Override
     public long getHeight()
     {
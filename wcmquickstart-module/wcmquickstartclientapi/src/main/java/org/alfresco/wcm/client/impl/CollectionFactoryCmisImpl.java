@@ -119,7 +119,7 @@ public class CollectionFactoryCmisImpl implements CollectionFactory
 		log.debug("Querying "+cquery);
 		
 		// Include relationships
-        OperationContext oc = session.createOperationContext();
+        OperationContext oc = CmisSessionHelper.createOperationContext(session, null);
         oc.setIncludeRelationships(IncludeRelationships.SOURCE);
 		
 		ItemIterable<QueryResult> cresults = session.query(cquery, false, oc);	
@@ -54,6 +54,7 @@ public class CollectionFactoryWebserviceImpl implements AssetCollectionFactory
 {
     private AssetFactory assetFactory;
     private WebScriptCaller webscriptCaller;
+    private AssetDeserializerFactory assetDeserializerFactory = new AssetDeserializerFactory();
 
     private ThreadLocal<List<WebscriptParam>> localParamList = new ThreadLocal<List<WebscriptParam>>() 
     {
@@ -102,10 +103,11 @@ public class CollectionFactoryWebserviceImpl implements AssetCollectionFactory
         try
         {
             String scriptUri = "assetcollections/" + URLEncoder.encode(collectionName, "UTF-8");
+            AssetDeserializer deserializer = assetDeserializerFactory.getAssetDeserializer();
             WebscriptParam[] params = new WebscriptParam[] { 
                     new WebscriptParam("sectionid", sectionId),
+                    new WebscriptParam("format", deserializer.getFormat()),
             };
-            AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
             webscriptCaller.get(scriptUri, deserializer, params);
             LinkedList<TreeMap<String, Serializable>> assetCollectionList = deserializer.getAssets();
 
@@ -154,7 +156,8 @@ public class CollectionFactoryWebserviceImpl implements AssetCollectionFactory
         paramList.add(new WebscriptParam("assetcollectionid", assetCollectionId));
         paramList.add(new WebscriptParam("modifiedTimeOnly", "true"));
         String scriptUri = "assetcollections";
-        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
+        AssetDeserializer deserializer = assetDeserializerFactory.getAssetDeserializer();
+        paramList.add(new WebscriptParam("format", deserializer.getFormat()));
         webscriptCaller.get(scriptUri, deserializer, paramList);
 
         LinkedList<TreeMap<String, Serializable>> assetCollectionList = deserializer.getAssets();
@@ -184,4 +187,9 @@ public class CollectionFactoryWebserviceImpl implements AssetCollectionFactory
     {
         this.webscriptCaller = webscriptCaller;
     }
+
+    public void setAssetDeserializerFactory(AssetDeserializerFactory assetDeserializerFactory)
+    {
+        this.assetDeserializerFactory = assetDeserializerFactory;
+    }
 }
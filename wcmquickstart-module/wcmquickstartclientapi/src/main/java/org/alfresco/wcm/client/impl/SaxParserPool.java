@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Pool of SAX parsers shared by the web script response handlers, so that a parser factory
+ * lookup and a new parser aren't needed for every response.
+ */
+final class SaxParserPool
+{
+    private static final int MAX_POOLED_PARSERS = 16;
+
+    private static final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+    private static final ConcurrentLinkedQueue<SAXParser> parsers = new ConcurrentLinkedQueue<SAXParser>();
+    private static final AtomicInteger pooledCount = new AtomicInteger();
+
+    private SaxParserPool()
+    {
+    }
+
+    /**
+     * Take a parser from the pool, creating one if the pool is empty. It must be handed back with
+     * {@link #returnParser(SAXParser)} once the document has been parsed.
+     */
+    static SAXParser borrowParser() throws ParserConfigurationException, SAXException
+    {
+        SAXParser parser = parsers.poll();
+        if (parser != null)
+        {
+            pooledCount.decrementAndGet();
+            return parser;
+        }
+        // SAXParserFactory is not guaranteed to be thread safe
+        synchronized (saxParserFactory)
+        {
+            return saxParserFactory.newSAXParser();
+        }
+    }
+
+    /**
+     * Reset a parser and put it back in the pool, unless the pool is full
+     */
+    static void returnParser(SAXParser parser)
+    {
+        try
+        {
+            parser.reset();
+        }
+        catch (UnsupportedOperationException ex)
+        {
+            // The parser can't be reused
+            return;
+        }
+        if (pooledCount.incrementAndGet() <= MAX_POOLED_PARSERS)
+        {
+            parsers.offer(parser);
+        }
+        else
+        {
+            pooledCount.decrementAndGet();
+        }
+    }
+}
@@ -28,10 +28,12 @@ package org.alfresco.wcm.client.impl;
 import java.io.Serializable;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import org.alfresco.wcm.client.Resource;
 import org.alfresco.wcm.client.Section;
 import org.alfresco.wcm.client.util.CmisSessionHelper;
 import org.alfresco.wcm.client.util.SqlUtils;
@@ -51,7 +53,8 @@ import org.apache.commons.logging.LogFactory;
 public class SectionFactoryCmisImpl extends AbstractCachingSectionFactoryImpl
 {
     private static final String COLUMNS = " f.cmis:objectId, f.cmis:name, t.cm:title, t.cm:description, f.cmis:objectTypeId, "
-            + "f.cmis:parentId, f.ws:sectionConfig, f.ws:excludeFromNavigation, ts.cm:tagScopeSummary ";
+            + "f.cmis:parentId, f.ws:sectionConfig, f.ws:excludeFromNavigation, ts.cm:tagScopeSummary, "
+            + "f.cmis:lastModificationDate ";
 
     private final static Log log = LogFactory.getLog(SectionFactoryCmisImpl.class);
 
@@ -60,6 +63,21 @@ public class SectionFactoryCmisImpl extends AbstractCachingSectionFactoryImpl
             + "join ws:ordered as o on o.cmis:objectId = f.cmis:objectId "
             + "join cm:tagscope as ts on ts.cmis:objectId = f.cmis:objectId "
             + "where (in_tree(f, {0}) or f.cmis:objectId = {1}) " + "order by ord";
+
+    private static final String QUERY_SECTION_VERSIONS = "select f.cmis:objectId, f.cmis:objectTypeId, f.cmis:parentId, "
+            + "f.cmis:lastModificationDate, ts.cm:tagScopeSummary, o.ws:orderIndex as ord "
+            + "from ws:section as f " + "join cm:titled as t on t.cmis:objectId = f.cmis:objectId "
+            + "join ws:ordered as o on o.cmis:objectId = f.cmis:objectId "
+            + "join cm:tagscope as ts on ts.cmis:objectId = f.cmis:objectId "
+            + "where (in_tree(f, {0}) or f.cmis:objectId = {1}) " + "order by ord";
+
+    private static final String QUERY_SECTIONS_BY_ID = "select " + COLUMNS
+            + "from ws:section as f " + "join cm:titled as t on t.cmis:objectId = f.cmis:objectId "
+            + "join cm:tagscope as ts on ts.cmis:objectId = f.cmis:objectId "
+            + "where f.cmis:objectId in ({0})";
+
+    /** Maximum number of ids in a single query for changed sections */
+    private static final int MAX_SECTIONS_PER_QUERY = 100;
     /*
      * private static final String QUERY_COLLECTION_FOLDERS =
      * "select f.cmis:objectId, f.cmis:parentId "+ "from cmis:folder as f " +
@@ -88,6 +106,7 @@ public class SectionFactoryCmisImpl extends AbstractCachingSectionFactoryImpl
                 (String) result.getPropertyValueById(Section.PROPERTY_DESCRIPTION));
         properties.put(Section.PROPERTY_EXCLUDE_FROM_NAV, 
                 (Boolean) result.getPropertyValueById(Section.PROPERTY_EXCLUDE_FROM_NAV));
+        properties.put(Resource.PROPERTY_MODIFIED_TIME, SqlUtils.getDateProperty(result, Resource.PROPERTY_MODIFIED_TIME));
 
         List<String> configList = result.getPropertyMultivalueById(Section.PROPERTY_SECTION_CONFIG);
         properties.put(Section.PROPERTY_SECTION_CONFIG, (Serializable) configList);
@@ -193,4 +212,66 @@ public class SectionFactoryCmisImpl extends AbstractCachingSectionFactoryImpl
         }
         return loadedSections;
     }
+
+    /**
+     * @see org.alfresco.wcm.client.impl.AbstractCachingSectionFactoryImpl#findSectionVersions(java.lang.String)
+     */
+    @Override
+    protected List<SectionVersion> findSectionVersions(String topSectionId)
+    {
+        Session session = CmisSessionHelper.getSession();
+        String query = MessageFormat.format(QUERY_SECTION_VERSIONS, SqlUtils.encloseSQLString(topSectionId),
+                SqlUtils.encloseSQLString(topSectionId));
+        log.debug("About to run CMIS query: " + query);
+        ItemIterable<QueryResult> results = session.query(query, false);
+
+        List<SectionVersion> versions = new ArrayList<SectionVersion>();
+        for (QueryResult result : results)
+        {
+            String objectTypeId = (String) result.getPropertyValueById(PropertyIds.OBJECT_TYPE_ID);
+            boolean webroot = objectTypeId.equals("F:ws:webroot");
+            if (!webroot && !objectTypeId.equals("F:ws:section"))
+                continue;
+
+            // Webroot has no parent section, as in buildSection
+            versions.add(new SectionVersion((String) result.getPropertyValueById(PropertyIds.OBJECT_ID),
+                    webroot ? null : (String) result.getPropertyValueById(PropertyIds.PARENT_ID),
+                    SqlUtils.getDateProperty(result, Resource.PROPERTY_MODIFIED_TIME),
+                    createTags(result.<String> getPropertyMultivalueById(PROPERTY_TAG_SUMMARY))));
+        }
+        return versions;
+    }
+
+    /**
+     * @see org.alfresco.wcm.client.impl.AbstractCachingSectionFactoryImpl#findSections(java.util.Collection)
+     */
+    @Override
+    protected Map<String, SectionImpl> findSections(Collection<String> sectionIds)
+    {
+        Session session = CmisSessionHelper.getSession();
+        Map<String, SectionImpl> sections = new TreeMap<String, SectionImpl>();
+
+        List<String> ids = new ArrayList<String>(sectionIds);
+        for (int start = 0; start < ids.size(); start += MAX_SECTIONS_PER_QUERY)
+        {
+            StringBuilder idList = new StringBuilder();
+            for (String id : ids.subList(start, Math.min(ids.size(), start + MAX_SECTIONS_PER_QUERY)))
+            {
+                if (idList.length() > 0)
+                {
+                    idList.append(',');
+                }
+                idList.append(SqlUtils.encloseSQLString(id));
+            }
+            String query = MessageFormat.format(QUERY_SECTIONS_BY_ID, idList.toString());
+            log.debug("About to run CMIS query: " + query);
+            ItemIterable<QueryResult> results = session.query(query, false);
+            for (QueryResult result : results)
+            {
+                SectionDetails sectionDetails = buildSection(result);
+                sections.put(sectionDetails.section.getId(), sectionDetails.section);
+            }
+        }
+        return sections;
+    }
 }
@@ -66,12 +66,18 @@ public class SectionFactoryWebscriptImpl extends AbstractCachingSectionFactoryIm
     private final static Log log = LogFactory.getLog(SectionFactoryWebscriptImpl.class);
 
     private WebScriptCaller webscriptCaller;
+    private AssetDeserializerFactory assetDeserializerFactory = new AssetDeserializerFactory();
 
     public void setWebscriptCaller(WebScriptCaller webscriptCaller)
     {
         this.webscriptCaller = webscriptCaller;
     }
 
+    public void setAssetDeserializerFactory(AssetDeserializerFactory assetDeserializerFactory)
+    {
+        this.assetDeserializerFactory = assetDeserializerFactory;
+    }
+
     /**
      * Create a Section from a QueryResult
      * 
@@ -131,7 +137,8 @@ public class SectionFactoryWebscriptImpl extends AbstractCachingSectionFactoryIm
         {
             params.add(new WebscriptParam("siteId", currentSite.getId()));
         }
-        AssetDeserializerXmlImpl deserializer = new AssetDeserializerXmlImpl();
+        AssetDeserializer deserializer = assetDeserializerFactory.getAssetDeserializer();
+        params.add(new WebscriptParam("format", deserializer.getFormat()));
         webscriptCaller.post("websection", deserializer, params);
         LinkedList<TreeMap<String, Serializable>> sectionList = deserializer.getAssets();
 
@@ -216,6 +216,26 @@ public class SectionImpl extends ResourceBaseImpl implements Section
     }
 
     
+    /**
+     * Copy the section without its children. Package visibility since this is only used
+     * when the section hierarchy is refreshed. The copy starts with no asset lookups, so
+     * that assets renamed, replaced or deleted since the last refresh are looked up again.
+     * 
+     * @return copy of the section
+     */
+    /* package */SectionImpl copyWithoutChildren()
+    {
+        SectionImpl copy = new SectionImpl();
+        copy.setProperties(getProperties());
+        copy.setPrimarySectionId(getPrimarySectionId());
+        copy.setTags(tags);
+        copy.setSectionFactory(getSectionFactory());
+        copy.setAssetFactory(getAssetFactory());
+        copy.setCollectionFactory(getCollectionFactory());
+        copy.setDictionaryService(dictionaryService);
+        return copy;
+    }
+
     /**
      * Add child to a section
      * 
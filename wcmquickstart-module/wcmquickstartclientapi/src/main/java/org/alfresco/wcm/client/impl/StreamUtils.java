@@ -26,6 +26,7 @@
 package org.alfresco.wcm.client.impl;
 
 import java.io.BufferedWriter;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -65,6 +66,35 @@ public class StreamUtils
         output.flush();
     }
 
+    /**
+     * Copy a number of bytes from the current position of the input stream
+     * 
+     * @param input
+     *            input stream
+     * @param output
+     *            output stream
+     * @param length
+     *            number of bytes to copy
+     * @throws IOException
+     *             if the input stream ends before the bytes have been copied
+     */
+    public static void output(InputStream input, OutputStream output, long length) throws IOException
+    {
+        byte[] buf = byteBuffer.get();
+        long remaining = length;
+        while (remaining > 0)
+        {
+            int count = input.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (count == -1)
+            {
+                throw new EOFException("Content ended " + remaining + " bytes before the expected length");
+            }
+            output.write(buf, 0, count);
+            remaining -= count;
+        }
+        output.flush();
+    }
+
     public static void write(InputStream input, Writer writer, String encoding) throws IOException
     {
         Reader reader = new InputStreamReader(input, encoding);
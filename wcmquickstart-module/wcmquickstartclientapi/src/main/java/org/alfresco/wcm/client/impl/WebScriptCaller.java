@@ -26,6 +26,7 @@
 package org.alfresco.wcm.client.impl;
 
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.json.JSONObject;
 
@@ -43,4 +44,25 @@ public interface WebScriptCaller
 
     public void post(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params);
 
+    /**
+     * Make a GET request on a background thread
+     * 
+     * @return a future giving the parsed response, or null if the request failed
+     */
+    Future<JSONObject> getJsonObjectAsync(String servicePath, List<WebscriptParam> params);
+
+    /**
+     * Make a GET request on a background thread
+     * 
+     * @return a future giving the handler once it has processed the response
+     */
+    <T extends WebscriptResponseHandler> Future<T> getAsync(String servicePath, T handler, List<WebscriptParam> params);
+
+    /**
+     * Make a POST request on a background thread
+     * 
+     * @return a future giving the handler once it has processed the response
+     */
+    <T extends WebscriptResponseHandler> Future<T> postAsync(String servicePath, T handler, List<WebscriptParam> params);
+
 }
\ No newline at end of file
@@ -25,6 +25,8 @@
  */
 package org.alfresco.wcm.client.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -32,10 +34,23 @@ import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 
 import org.apache.commons.httpclient.Credentials;
 import org.apache.commons.httpclient.HttpClient;
@@ -46,6 +61,7 @@ import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.json.JSONException;
@@ -55,6 +71,16 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
+/**
+ * Calls Alfresco web scripts over a pool of HTTP connections.
+ * <p>
+ * Identical GET or POST requests (same method, service path and parameters) made while one is
+ * already in flight wait for that request and are given a copy of its response rather than
+ * making their own call. When a request is rejected as unauthorised a new ticket is fetched
+ * by one thread only - the others wait for it and then retry with the new ticket.
+ * <p>
+ * Request counts, errors and latency are recorded per service path.
+ */
 public class WebScriptCallerImpl implements WebScriptCaller
 {
     static Log log = LogFactory.getLog(WebScriptCallerImpl.class);
@@ -70,10 +96,27 @@ public class WebScriptCallerImpl implements WebScriptCaller
 
     private String baseUrl;
     HttpClient httpClient;
+    private boolean defaultHttpClient = true;
     private AuthScope authScope = new AuthScope(AuthScope.ANY_HOST, AuthScope.ANY_PORT, AuthScope.ANY_REALM);
-    
+
     private String username = null;
-    private String password = null;;
+    private String password = null;
+
+    private int maxConnectionsPerHost = 20;
+    private int maxTotalConnections = 40;
+    private int connectionTimeout = 10000;
+    private int socketTimeout = 60000;
+    private long connectionManagerTimeout = 30000L;
+    private boolean coalesceRequests = true;
+    private int asyncThreads = 4;
+
+    private final ConcurrentMap<RequestKey, InFlightRequest> inFlightRequests = new ConcurrentHashMap<RequestKey, InFlightRequest>();
+    private final ConcurrentMap<String, EndpointStatistics> statistics = new ConcurrentHashMap<String, EndpointStatistics>();
+    private volatile ExecutorService asyncExecutor;
+
+    private final Object ticketLock = new Object();
+    private final AtomicInteger ticketGeneration = new AtomicInteger();
+    private final AtomicLong ticketRenewals = new AtomicLong();
 
     public WebScriptCallerImpl()
     {
@@ -82,12 +125,14 @@ public class WebScriptCallerImpl implements WebScriptCaller
     }
 
     /**
-     * Method that allows the default HttpClient instance to be replaced with one that is configured differently
+     * Method that allows the default HttpClient instance to be replaced with one that is configured differently.
+     * The connection pool settings of this class are not applied to a replacement client.
      * @param httpClient
      */
     public void setHttpClient(HttpClient httpClient)
     {
         this.httpClient = httpClient;
+        this.defaultHttpClient = false;
     }
 
     public void setBaseUrl(String serviceLocation) throws URISyntaxException
@@ -112,8 +157,96 @@ public class WebScriptCallerImpl implements WebScriptCaller
         this.password = password;
      }
 
+    /**
+     * Set the maximum number of pooled connections to the Alfresco server. Defaults to 20.
+     * @param maxConnectionsPerHost
+     */
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost)
+    {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Set the maximum number of pooled connections to all hosts. Defaults to 40.
+     * @param maxTotalConnections
+     */
+    public void setMaxTotalConnections(int maxTotalConnections)
+    {
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    /**
+     * Set the time in milliseconds allowed to open a connection, 0 for no limit. Defaults to 10 seconds.
+     * @param connectionTimeout
+     */
+    public void setConnectionTimeout(int connectionTimeout)
+    {
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /**
+     * Set the time in milliseconds to wait for response data, 0 for no limit. Defaults to 60 seconds.
+     * @param socketTimeout
+     */
+    public void setSocketTimeout(int socketTimeout)
+    {
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * Set the time in milliseconds to wait for a free pooled connection, 0 for no limit. Defaults to 30 seconds.
+     * @param connectionManagerTimeout
+     */
+    public void setConnectionManagerTimeout(long connectionManagerTimeout)
+    {
+        this.connectionManagerTimeout = connectionManagerTimeout;
+    }
+
+    /**
+     * Set whether identical requests made while one is in flight share its response. Defaults to true.
+     * @param coalesceRequests
+     */
+    public void setCoalesceRequests(boolean coalesceRequests)
+    {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    /**
+     * Set the number of threads that run asynchronous requests. Defaults to 4.
+     * @param asyncThreads
+     */
+    public void setAsyncThreads(int asyncThreads)
+    {
+        this.asyncThreads = asyncThreads;
+    }
+
     public void init()
     {
+        if (defaultHttpClient)
+        {
+            HttpConnectionManagerParams params = httpClient.getHttpConnectionManager().getParams();
+            params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+            params.setMaxTotalConnections(maxTotalConnections);
+            params.setConnectionTimeout(connectionTimeout);
+            params.setSoTimeout(socketTimeout);
+            httpClient.getParams().setConnectionManagerTimeout(connectionManagerTimeout);
+        }
+    }
+
+    /**
+     * Stop the asynchronous request threads and close the pooled connections
+     */
+    public void shutdown()
+    {
+        ExecutorService executor = asyncExecutor;
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+        if (httpClient.getHttpConnectionManager() instanceof MultiThreadedHttpConnectionManager)
+        {
+            ((MultiThreadedHttpConnectionManager)httpClient.getHttpConnectionManager()).shutdown();
+        }
     }
 
     public String getTicket(String user, String password)
@@ -123,71 +256,182 @@ public class WebScriptCallerImpl implements WebScriptCaller
         paramList.add(new WebscriptParam("u", user));
         paramList.add(new WebscriptParam("pw", password));
         get("login", responseHandler, paramList, true);
-        Credentials credentials = new UsernamePasswordCredentials(user, password); 
+        Credentials credentials = new UsernamePasswordCredentials(user, password);
         if (responseHandler.ticket != null)
         {
             credentials = new UsernamePasswordCredentials("", responseHandler.ticket);
         }
         httpClient.getState().setCredentials(authScope, credentials);
         httpClient.getParams().setAuthenticationPreemptive(true);
+        ticketGeneration.incrementAndGet();
+        ticketRenewals.incrementAndGet();
         return responseHandler.ticket;
     }
-    
+
     /* (non-Javadoc)
      * @see org.alfresco.wcm.client.impl.WebScriptCaller#getJsonObject(java.lang.String, java.util.List)
      */
     public JSONObject getJsonObject(String servicePath, List<WebscriptParam> params)
     {
-        GetMethod getMethod = getGETMethod(servicePath, params);
         JsonResponseHandler handler = new JsonResponseHandler();
-        executeRequest(handler, getMethod);
+        execute(GetMethod.class, servicePath, params, handler, false);
         return handler.jsonObject;
     }
-    
+
     public void get(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params)
     {
         get(servicePath, handler, params, false);
     }
-    
+
     private void get(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params, boolean ignoreUnauthorized)
     {
-        GetMethod getMethod = getGETMethod(servicePath, params);
-        executeRequest(handler, getMethod, ignoreUnauthorized);
+        execute(GetMethod.class, servicePath, params, handler, ignoreUnauthorized);
     }
-    
+
     public void post(String servicePath, WebscriptResponseHandler handler, List<WebscriptParam> params)
     {
-        PostMethod postMethod = getPOSTMethod(servicePath, params);
-        executeRequest(handler, postMethod);
+        execute(PostMethod.class, servicePath, params, handler, false);
     }
 
-    private void executeRequest(WebscriptResponseHandler handler, HttpMethod httpMethod)
+    @Override
+    public Future<JSONObject> getJsonObjectAsync(final String servicePath, final List<WebscriptParam> params)
     {
-        executeRequest(handler, httpMethod, false);
+        return getAsyncExecutor().submit(new Callable<JSONObject>()
+        {
+            public JSONObject call()
+            {
+                return getJsonObject(servicePath, params);
+            }
+        });
     }
 
-    private void executeRequest(WebscriptResponseHandler handler, HttpMethod httpMethod, boolean ignoreUnauthorized)
+    @Override
+    public <T extends WebscriptResponseHandler> Future<T> getAsync(final String servicePath, final T handler,
+            final List<WebscriptParam> params)
     {
-        long startTime = 0L;
-        if (log.isDebugEnabled())
+        return getAsyncExecutor().submit(new Callable<T>()
+        {
+            public T call()
+            {
+                get(servicePath, handler, params);
+                return handler;
+            }
+        });
+    }
+
+    @Override
+    public <T extends WebscriptResponseHandler> Future<T> postAsync(final String servicePath, final T handler,
+            final List<WebscriptParam> params)
+    {
+        return getAsyncExecutor().submit(new Callable<T>()
         {
-            startTime = System.currentTimeMillis();
+            public T call()
+            {
+                post(servicePath, handler, params);
+                return handler;
+            }
+        });
+    }
+
+    /**
+     * @return request statistics keyed by web script service path
+     */
+    public Map<String, EndpointStatistics> getEndpointStatistics()
+    {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * @return number of tickets fetched for the configured user
+     */
+    public long getTicketRenewalCount()
+    {
+        return ticketRenewals.get();
+    }
+
+    /**
+     * Make a request, or wait for an identical request that is already in flight and hand its response
+     * to the handler.
+     */
+    private void execute(Class<? extends HttpMethod> methodType, String servicePath, List<WebscriptParam> params,
+            WebscriptResponseHandler handler, boolean ignoreUnauthorized)
+    {
+        // Ticket requests are never shared
+        if (!coalesceRequests || ignoreUnauthorized)
+        {
+            executeRequest(servicePath, handler, createMethod(methodType, servicePath, params), ignoreUnauthorized);
+            return;
+        }
+
+        RequestKey key = new RequestKey(methodType, servicePath, params);
+        InFlightRequest request = new InFlightRequest();
+        InFlightRequest inFlight = inFlightRequests.putIfAbsent(key, request);
+        if (inFlight == null)
+        {
+            BufferingResponseHandler buffer = new BufferingResponseHandler();
+            try
+            {
+                executeRequest(servicePath, buffer, createMethod(methodType, servicePath, params), false);
+                request.response = buffer.response;
+            }
+            catch (RuntimeException ex)
+            {
+                request.failure = ex;
+                throw ex;
+            }
+            finally
+            {
+                inFlightRequests.remove(key, request);
+                request.done.countDown();
+            }
+            inFlight = request;
         }
+        else
+        {
+            getStatistics(servicePath).coalesced.incrementAndGet();
+            try
+            {
+                inFlight.done.await();
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while waiting for request to " + servicePath);
+                return;
+            }
+            if (inFlight.failure != null)
+            {
+                throw inFlight.failure;
+            }
+        }
+
+        if (inFlight.response != null)
+        {
+            handler.handleResponse(new ByteArrayInputStream(inFlight.response));
+        }
+    }
+
+    private void executeRequest(String servicePath, WebscriptResponseHandler handler, HttpMethod httpMethod, boolean ignoreUnauthorized)
+    {
+        long startTime = System.currentTimeMillis();
+        boolean success = false;
         try
         {
+            int generation = ticketGeneration.get();
             httpClient.executeMethod(httpMethod);
-            
+
             if ((httpMethod.getStatusCode() == 401 || httpMethod.getStatusCode() == 403) && !ignoreUnauthorized)
             {
                 discardResponse(httpMethod);
-                
-                this.getTicket(username, password);
+
+                renewTicket(generation);
                 httpClient.executeMethod(httpMethod);
             }
-            
+
             if (httpMethod.getStatusCode() == 200)
             {
                 handler.handleResponse(httpMethod.getResponseBodyAsStream());
+                success = true;
             }
             else
             {
@@ -206,21 +450,39 @@ public class WebScriptCallerImpl implements WebScriptCaller
         }
         finally
         {
+            long duration = System.currentTimeMillis() - startTime;
+            getStatistics(servicePath).completed(duration, success);
             if (log.isDebugEnabled())
             {
-                log.debug(httpMethod.getName() + " request to " + httpMethod.getPath() + "?" + 
-                        httpMethod.getQueryString() + " completed in " + 
-                        (System.currentTimeMillis() - startTime) + "ms");
+                log.debug(httpMethod.getName() + " request to " + httpMethod.getPath() + "?" +
+                        httpMethod.getQueryString() + " completed in " + duration + "ms");
             }
             httpMethod.releaseConnection();
         }
     }
 
+    /**
+     * Fetch a new ticket unless another thread has already done so since the rejected request was made
+     *
+     * @param rejectedGeneration
+     *            the ticket generation that the rejected request was made with
+     */
+    private void renewTicket(int rejectedGeneration)
+    {
+        synchronized (ticketLock)
+        {
+            if (ticketGeneration.get() == rejectedGeneration)
+            {
+                getTicket(username, password);
+            }
+        }
+    }
+
     void discardResponse(HttpMethod httpMethod) throws IOException
     {
         if (log.isDebugEnabled())
         {
-            log.debug("Received non-OK response when invoking method on path " + httpMethod.getPath() + 
+            log.debug("Received non-OK response when invoking method on path " + httpMethod.getPath() +
                     ". Response was:\n" + httpMethod.getResponseBodyAsString());
         }
         else
@@ -231,6 +493,11 @@ public class WebScriptCallerImpl implements WebScriptCaller
         }
     }
 
+    private HttpMethod createMethod(Class<? extends HttpMethod> methodType, String servicePath, List<WebscriptParam> params)
+    {
+        return methodType == PostMethod.class ? getPOSTMethod(servicePath, params) : getGETMethod(servicePath, params);
+    }
+
     GetMethod getGETMethod(String servicePath, List<WebscriptParam> params)
     {
         GetMethod getMethod = new GetMethod(this.baseUrl + servicePath);
@@ -275,10 +542,209 @@ public class WebScriptCallerImpl implements WebScriptCaller
         get(servicePath, handler, Arrays.asList(params));
     }
 
+    private EndpointStatistics getStatistics(String servicePath)
+    {
+        EndpointStatistics endpoint = statistics.get(servicePath);
+        if (endpoint == null)
+        {
+            endpoint = new EndpointStatistics();
+            EndpointStatistics existing = statistics.putIfAbsent(servicePath, endpoint);
+            if (existing != null)
+            {
+                endpoint = existing;
+            }
+        }
+        return endpoint;
+    }
+
+    private ExecutorService getAsyncExecutor()
+    {
+        ExecutorService executor = asyncExecutor;
+        if (executor == null)
+        {
+            synchronized (this)
+            {
+                executor = asyncExecutor;
+                if (executor == null)
+                {
+                    final AtomicInteger threadNumber = new AtomicInteger();
+                    executor = new ThreadPoolExecutor(asyncThreads, asyncThreads, 60L, TimeUnit.SECONDS,
+                            new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+                            {
+                                public Thread newThread(Runnable runnable)
+                                {
+                                    Thread thread = new Thread(runnable, "WebScriptCaller-" + threadNumber.incrementAndGet());
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+                    ((ThreadPoolExecutor)executor).allowCoreThreadTimeOut(true);
+                    asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Request counters and latency for a single web script service path
+     */
+    public static final class EndpointStatistics
+    {
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong errorCount = new AtomicLong();
+        private final AtomicLong coalesced = new AtomicLong();
+        private final AtomicLong totalMillis = new AtomicLong();
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        void completed(long millis, boolean success)
+        {
+            requestCount.incrementAndGet();
+            if (!success)
+            {
+                errorCount.incrementAndGet();
+            }
+            totalMillis.addAndGet(millis);
+            long max = maxMillis.get();
+            while (millis > max && !maxMillis.compareAndSet(max, millis))
+            {
+                max = maxMillis.get();
+            }
+        }
+
+        /**
+         * @return number of requests sent to the service
+         */
+        public long getRequestCount()
+        {
+            return requestCount.get();
+        }
+
+        /**
+         * @return number of requests that failed or returned a status other than 200
+         */
+        public long getErrorCount()
+        {
+            return errorCount.get();
+        }
+
+        /**
+         * @return number of calls that were given the response of an identical request in flight
+         */
+        public long getCoalescedCount()
+        {
+            return coalesced.get();
+        }
+
+        /**
+         * @return average request time in milliseconds
+         */
+        public long getAverageLatency()
+        {
+            long count = requestCount.get();
+            return count != 0 ? totalMillis.get() / count : 0L;
+        }
+
+        /**
+         * @return longest request time in milliseconds
+         */
+        public long getMaxLatency()
+        {
+            return maxMillis.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "requests: " + getRequestCount() + " (errors: " + getErrorCount() + ", coalesced: " +
+                    getCoalescedCount() + "), avg " + getAverageLatency() + "ms, max " + getMaxLatency() + "ms";
+        }
+    }
+
+    /**
+     * Identifies requests that can share a response - the method, service path and parameters
+     */
+    private static final class RequestKey
+    {
+        private final Class<? extends HttpMethod> methodType;
+        private final String servicePath;
+        private final List<String> params;
+
+        RequestKey(Class<? extends HttpMethod> methodType, String servicePath, List<WebscriptParam> params)
+        {
+            this.methodType = methodType;
+            this.servicePath = servicePath;
+            this.params = new ArrayList<String>(params == null ? 0 : params.size() * 2);
+            if (params != null)
+            {
+                for (WebscriptParam param : params)
+                {
+                    this.params.add(param.getName());
+                    this.params.add(param.getValue());
+                }
+            }
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(new Object[] {methodType, servicePath, params});
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof RequestKey))
+            {
+                return false;
+            }
+            RequestKey other = (RequestKey)obj;
+            return methodType == other.methodType && servicePath.equals(other.servicePath) && params.equals(other.params);
+        }
+    }
+
+    /**
+     * A request that identical requests can wait for
+     */
+    private static final class InFlightRequest
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile byte[] response;
+        private volatile RuntimeException failure;
+    }
+
+    /**
+     * Reads a response into memory so that it can be handed to every caller waiting for it
+     */
+    private static class BufferingResponseHandler implements WebscriptResponseHandler
+    {
+        private byte[] response;
+
+        @Override
+        public void handleResponse(InputStream in)
+        {
+            try
+            {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+                byte[] buf = localBuffer.get();
+                int read;
+                while ((read = in.read(buf)) != -1)
+                {
+                    out.write(buf, 0, read);
+                }
+                response = out.toByteArray();
+            }
+            catch (IOException ex)
+            {
+                log.error("Failed to read response from Alfresco", ex);
+            }
+        }
+    }
+
     private static class JsonResponseHandler implements WebscriptResponseHandler
     {
         public JSONObject jsonObject;
-        
+
         @Override
         public void handleResponse(InputStream in)
         {
@@ -296,7 +762,7 @@ public class WebScriptCallerImpl implements WebScriptCaller
                 //UTF-8 is always supported
             }
         }
-        
+
     }
 
     private static class TicketResponseHandler extends DefaultHandler implements WebscriptResponseHandler
@@ -307,12 +773,17 @@ public class WebScriptCallerImpl implements WebScriptCaller
         @Override
         public void handleResponse(InputStream in)
         {
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            SAXParser parser;
             try
             {
-                parser = saxParserFactory.newSAXParser();
-                parser.parse(in, this);
+                SAXParser parser = SaxParserPool.borrowParser();
+                try
+                {
+                    parser.parse(in, this);
+                }
+                finally
+                {
+                    SaxParserPool.returnParser(parser);
+                }
             }
             catch (Exception e)
             {
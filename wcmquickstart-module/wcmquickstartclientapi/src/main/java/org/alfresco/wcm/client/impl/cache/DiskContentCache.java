@@ -0,0 +1,510 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.wcm.client.ContentStream;
+import org.alfresco.wcm.client.Rendition;
+import org.alfresco.wcm.client.impl.CachingContentStreamImpl;
+import org.alfresco.wcm.client.impl.CachingRenditionImpl;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A bounded on-disk cache of asset content.
+ * <p>
+ * Each entry is keyed by the asset id, its modified time and the rendition name, and its
+ * content is stored in a file named by a digest of the key - so modified content never
+ * replaces the content of an earlier version in place. The total size of the files is bounded,
+ * the least recently used entries are evicted when it is exceeded.
+ * <p>
+ * An entry may still be served after it has been evicted, as it can be obtained from the cache just
+ * before. The file of an evicted entry is therefore kept for a delay and is never deleted while it is
+ * open for reading.
+ * <p>
+ * Each cache uses its own directory below the root directory, locked for the lifetime of the
+ * cache. Directories left behind by earlier runs are deleted when the cache is initialised.
+ * 
+ * @see #getKey(String, Date, String)
+ */
+public class DiskContentCache
+{
+    private static final Log log = LogFactory.getLog(DiskContentCache.class);
+    private static final String SYSTEM_PROPERTY_TEMP_DIR = "java.io.tmpdir";
+    private static final String CACHE_DIRECTORY_PREFIX = "content-";
+    private static final String LOCK_FILE_NAME = "cache.lock";
+
+    private static DiskContentCache defaultInstance;
+
+    /** Directories of the caches in this JVM - their lock files must not be opened by another cache */
+    private static final Set<File> LOCKED_DIRECTORIES = new HashSet<File>();
+
+    private String rootDirectory;
+    private long maxBytes = 512L * 1024L * 1024L;
+    private long deleteDelay = 60000L;
+
+    private File directory;
+    private RandomAccessFile lockFile;
+    private FileLock lock;
+
+    /** Entries in least recently used order */
+    private final LinkedHashMap<String, CachingContentStreamImpl> entries = new LinkedHashMap<String, CachingContentStreamImpl>(
+            256, 0.75f, true);
+    private long totalBytes;
+
+    /** Evicted entries whose files have not been deleted yet */
+    private final List<PendingDelete> pendingDeletes = new ArrayList<PendingDelete>();
+
+    /**
+     * Set the directory below which the cache directory is created. Defaults to the WQS temp
+     * folder in the system temp directory.
+     * 
+     * @param rootDirectory
+     *            root directory path
+     */
+    public void setRootDirectory(String rootDirectory)
+    {
+        this.rootDirectory = rootDirectory;
+    }
+
+    /**
+     * Set the maximum total size of the cached content
+     * 
+     * @param maxMegabytes
+     *            maximum size in megabytes, default 512
+     */
+    public void setMaxMegabytes(long maxMegabytes)
+    {
+        this.maxBytes = maxMegabytes * 1024L * 1024L;
+    }
+
+    /**
+     * Set the time the file of an evicted entry is kept, so that it can still be read by requests that
+     * obtained the entry before it was evicted. A file is never deleted while it is open for reading.
+     * 
+     * @param deleteDelaySeconds
+     *            delay in seconds, default 60
+     */
+    public void setDeleteDelaySeconds(long deleteDelaySeconds)
+    {
+        this.deleteDelay = deleteDelaySeconds * 1000L;
+    }
+
+    /**
+     * @return the cache shared by the caching factories that have not been given their own
+     */
+    public static synchronized DiskContentCache getDefaultInstance()
+    {
+        if (defaultInstance == null)
+        {
+            DiskContentCache cache = new DiskContentCache();
+            try
+            {
+                cache.init();
+            }
+            catch (IOException e)
+            {
+                throw new CacheException("Failed to initialise content cache", e);
+            }
+            defaultInstance = cache;
+        }
+        return defaultInstance;
+    }
+
+    /**
+     * Create the cache directory and delete those left behind by earlier runs
+     * 
+     * @throws IOException
+     */
+    public synchronized void init() throws IOException
+    {
+        File root = rootDirectory != null ? new File(rootDirectory) : new File(
+                System.getProperty(SYSTEM_PROPERTY_TEMP_DIR), CachingContentStreamImpl.getTempFolderName());
+        if (!root.isDirectory() && !root.mkdirs())
+        {
+            throw new IOException("Failed to create content cache directory: " + root);
+        }
+
+        File dir;
+        synchronized (LOCKED_DIRECTORIES)
+        {
+            deleteStaleDirectories(root);
+
+            dir = File.createTempFile(CACHE_DIRECTORY_PREFIX, "", root);
+            if (!dir.delete() || !dir.mkdir())
+            {
+                throw new IOException("Failed to create content cache directory in: " + root);
+            }
+            lockFile = new RandomAccessFile(new File(dir, LOCK_FILE_NAME), "rw");
+            lock = lockFile.getChannel().lock();
+            LOCKED_DIRECTORIES.add(dir.getCanonicalFile());
+        }
+        directory = dir;
+        if (log.isDebugEnabled())
+        {
+            log.debug("Created content cache directory: " + dir);
+        }
+    }
+
+    /**
+     * Delete the cached content and the cache directory
+     */
+    public synchronized void destroy()
+    {
+        for (CachingContentStreamImpl entry : entries.values())
+        {
+            entry.getCacheFile().delete();
+        }
+        for (PendingDelete pending : pendingDeletes)
+        {
+            pending.entry.getCacheFile().delete();
+        }
+        entries.clear();
+        pendingDeletes.clear();
+        totalBytes = 0L;
+        synchronized (LOCKED_DIRECTORIES)
+        {
+            try
+            {
+                if (lock != null)
+                {
+                    lock.release();
+                    lockFile.close();
+                }
+            }
+            catch (IOException e)
+            {
+                log.warn("Failed to release content cache lock", e);
+            }
+            if (directory != null)
+            {
+                try
+                {
+                    LOCKED_DIRECTORIES.remove(directory.getCanonicalFile());
+                }
+                catch (IOException e)
+                {
+                    log.warn("Failed to resolve content cache directory", e);
+                }
+                deleteDirectory(directory);
+            }
+        }
+    }
+
+    /**
+     * Build the key of an entry
+     * 
+     * @param assetId
+     *            asset id
+     * @param modifiedTime
+     *            modified time of the asset
+     * @param rendition
+     *            rendition name or null for the content of the asset
+     * @return entry key
+     */
+    public static String getKey(String assetId, Date modifiedTime, String rendition)
+    {
+        StringBuilder key = new StringBuilder(assetId.length() + 32);
+        key.append(assetId).append('|');
+        if (modifiedTime != null)
+        {
+            key.append(modifiedTime.getTime());
+        }
+        if (rendition != null)
+        {
+            key.append('|').append(rendition);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get a cached entry
+     * 
+     * @param key
+     *            entry key
+     * @return the cached content or null if it is not cached
+     */
+    public synchronized CachingContentStreamImpl get(String key)
+    {
+        return entries.get(key);
+    }
+
+    /**
+     * Copy content into the cache
+     * 
+     * @param key
+     *            entry key
+     * @param content
+     *            the content to copy - a {@link Rendition} is cached as a rendition
+     * @return the cached content
+     * @throws IOException
+     */
+    public CachingContentStreamImpl put(String key, ContentStream content) throws IOException
+    {
+        File file = createFile(digest(key));
+        CachingContentStreamImpl cached;
+        try
+        {
+            if (content instanceof Rendition)
+            {
+                cached = new CachingRenditionImpl((Rendition) content, file);
+            }
+            else
+            {
+                cached = new CachingContentStreamImpl(content, file);
+            }
+        }
+        catch (IOException e)
+        {
+            file.delete();
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            file.delete();
+            throw e;
+        }
+
+        synchronized (this)
+        {
+            CachingContentStreamImpl previous = entries.put(key, cached);
+            if (previous != null)
+            {
+                // Another thread cached the same content meanwhile
+                totalBytes -= previous.getCacheFile().length();
+                deleteLater(previous);
+            }
+            totalBytes += file.length();
+            evict();
+        }
+        return cached;
+    }
+
+    /**
+     * Create a file in the cache directory. The file is not managed by the cache.
+     * 
+     * @param prefix
+     *            file name prefix
+     * @return new empty file
+     * @throws IOException
+     */
+    public File createFile(String prefix) throws IOException
+    {
+        File dir;
+        synchronized (this)
+        {
+            dir = directory;
+        }
+        if (dir == null)
+        {
+            throw new IOException("Content cache has not been initialised");
+        }
+        return File.createTempFile(prefix, null, dir);
+    }
+
+    /**
+     * @return the total size in bytes of the cached content
+     */
+    public synchronized long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    private void evict()
+    {
+        Iterator<Map.Entry<String, CachingContentStreamImpl>> iterator = entries.entrySet().iterator();
+        // The most recently added entry is kept even if it exceeds the limit on its own
+        while (totalBytes > maxBytes && entries.size() > 1 && iterator.hasNext())
+        {
+            CachingContentStreamImpl entry = iterator.next().getValue();
+            iterator.remove();
+            totalBytes -= entry.getCacheFile().length();
+            if (log.isDebugEnabled())
+            {
+                log.debug("Evicting cached content file: " + entry.getCacheFile().getPath());
+            }
+            deleteLater(entry);
+        }
+        deletePending();
+    }
+
+    /**
+     * Delete the file of an entry that is no longer in the cache once the delete delay has passed
+     */
+    private void deleteLater(CachingContentStreamImpl entry)
+    {
+        pendingDeletes.add(new PendingDelete(entry, System.currentTimeMillis() + deleteDelay));
+    }
+
+    private void deletePending()
+    {
+        long now = System.currentTimeMillis();
+        for (Iterator<PendingDelete> iterator = pendingDeletes.iterator(); iterator.hasNext();)
+        {
+            PendingDelete pending = iterator.next();
+            File file = pending.entry.getCacheFile();
+            if (pending.deleteAfter <= now && !pending.entry.isInUse() && (!file.exists() || file.delete()))
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    private void deleteStaleDirectories(File root)
+    {
+        File[] dirs = root.listFiles();
+        if (dirs == null)
+        {
+            return;
+        }
+        for (File dir : dirs)
+        {
+            if (dir.isDirectory() && dir.getName().startsWith(CACHE_DIRECTORY_PREFIX) && !isLocked(dir))
+            {
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Deleting content cache directory of an earlier run: " + dir);
+                }
+                deleteDirectory(dir);
+            }
+        }
+    }
+
+    /**
+     * @return true if the given cache directory is in use by another cache
+     */
+    private static boolean isLocked(File dir)
+    {
+        File file = new File(dir, LOCK_FILE_NAME);
+        if (!file.exists())
+        {
+            return false;
+        }
+        RandomAccessFile raf = null;
+        try
+        {
+            // Closing any channel to a file releases the locks this JVM holds on it, so the lock
+            // file of a cache in this JVM must not be opened
+            if (LOCKED_DIRECTORIES.contains(dir.getCanonicalFile()))
+            {
+                return true;
+            }
+
+            raf = new RandomAccessFile(file, "rw");
+            FileLock fileLock = raf.getChannel().tryLock();
+            if (fileLock == null)
+            {
+                return true;
+            }
+            fileLock.release();
+            return false;
+        }
+        catch (OverlappingFileLockException e)
+        {
+            return true;
+        }
+        catch (IOException e)
+        {
+            return true;
+        }
+        finally
+        {
+            if (raf != null)
+            {
+                try
+                {
+                    raf.close();
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+    }
+
+    private static void deleteDirectory(File dir)
+    {
+        File[] files = dir.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * An evicted entry whose file is to be deleted
+     */
+    private static final class PendingDelete
+    {
+        final CachingContentStreamImpl entry;
+        final long deleteAfter;
+
+        PendingDelete(CachingContentStreamImpl entry, long deleteAfter)
+        {
+            this.entry = entry;
+            this.deleteAfter = deleteAfter;
+        }
+    }
+
+    private static String digest(String key)
+    {
+        try
+        {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(hash.length * 2 + 1);
+            for (byte b : hash)
+            {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.append('-').toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new CacheException(e);
+        }
+    }
+}
@@ -25,7 +25,9 @@
  */
 package org.alfresco.wcm.client.util;
 
+import org.apache.chemistry.opencmis.client.api.OperationContext;
 import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.chemistry.opencmis.commons.enums.IncludeRelationships;
 
 /** 
  * Wrapper for ThreadLocal variable to hold the current CMIS session
@@ -45,4 +47,24 @@ public abstract class CmisSessionHelper
      {
          sessionPerThread.set(session);
      }
+
+     /**
+      * Create an operation context that fetches no ACLs, allowable actions, policies, relationships or
+      * renditions, as none of these are used to render a website.
+      * @param session CMIS session
+      * @param filter comma-separated ids of the properties to fetch, or null for all
+      * @return operation context
+      */
+     public static OperationContext createOperationContext(Session session, String filter)
+     {
+         OperationContext context = session.createOperationContext();
+         context.setFilterString(filter);
+         context.setIncludeAcls(false);
+         context.setIncludeAllowableActions(false);
+         context.setIncludePolicies(false);
+         context.setIncludeRelationships(IncludeRelationships.NONE);
+         context.setRenditionFilterString("cmis:none");
+         context.setIncludePathSegments(false);
+         return context;
+     }
 }
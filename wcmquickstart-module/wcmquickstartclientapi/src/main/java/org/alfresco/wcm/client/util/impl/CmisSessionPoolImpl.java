@@ -25,28 +25,57 @@
  */
 package org.alfresco.wcm.client.util.impl;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.alfresco.wcm.client.util.CmisSessionPool;
 import org.apache.chemistry.opencmis.client.api.Session;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.commons.pool.ObjectPool;
+import org.apache.commons.pool.impl.GenericObjectPool;
 
 /**
  * Facade for CMIS collection pool implementations
+ * <p>
+ * CMIS sessions are thread-safe, so a small number of guest sessions are "borrowed" permanently from the backing pool
+ * and handed out in turn. A guest session is replaced once it has not been used for the ticket duration. In proactive
+ * renewal mode a session is also replaced by a background thread once it is older than the ticket duration less the
+ * renewal margin - the current session is handed out until the replacement is ready.
  * 
  * @author Chris Lack
  * @author Brian
  */
 public class CmisSessionPoolImpl implements CmisSessionPool
 {
+    private final static Log log = LogFactory.getLog(CmisSessionPoolImpl.class);
+
     private ObjectPool guestSessionPool;
-    private Session session;
-    private ReadWriteLock sessionLock = new ReentrantReadWriteLock(true);
     
     private long ticketDuration = 60*60*1000;
-    private AtomicLong sessionLastTouched = new AtomicLong(System.currentTimeMillis());
+    private int guestSessionCount = 1;
+    private boolean proactiveRenewal = false;
+    private long renewalMargin = 5*60*1000;
+
+    private volatile AtomicReferenceArray<GuestSession> guestSessions;
+    private volatile ReentrantLock[] guestSessionLocks;
+    private final AtomicInteger nextGuestSession = new AtomicInteger();
+    private volatile ExecutorService renewalExecutor;
+
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong borrowWaitNanos = new AtomicLong();
+    private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+    private final AtomicLong renewalCount = new AtomicLong();
+    private final AtomicLong renewalMillis = new AtomicLong();
+    private volatile long lastRenewalMillis;
 
     public CmisSessionPoolImpl(ObjectPool guestSessionPool, long ticketDuration)
     {
@@ -54,15 +83,62 @@ public class CmisSessionPoolImpl implements CmisSessionPool
         this.ticketDuration = ticketDuration;
     }
 
+    /**
+     * Set the number of guest sessions handed out in turn. The backing pool must allow this many active sessions, plus
+     * one if sessions are renewed proactively - the maximum active sessions of a GenericObjectPool is raised to that
+     * number when the first guest session is requested.
+     * 
+     * @param guestSessionCount
+     *            number of guest sessions, default 1
+     */
+    public void setGuestSessionCount(int guestSessionCount)
+    {
+        this.guestSessionCount = Math.max(1, guestSessionCount);
+    }
+
+    /**
+     * Set whether guest sessions are replaced in the background before the ticket duration has passed
+     * 
+     * @param proactiveRenewal
+     *            true to renew sessions in the background, default false
+     */
+    public void setProactiveRenewal(boolean proactiveRenewal)
+    {
+        this.proactiveRenewal = proactiveRenewal;
+    }
+
+    /**
+     * Set how long before the end of the ticket duration a guest session is renewed in proactive renewal mode
+     * 
+     * @param renewalMargin
+     *            margin in milliseconds, default 5 minutes
+     */
+    public void setRenewalMargin(long renewalMargin)
+    {
+        this.renewalMargin = renewalMargin;
+    }
+
+    /**
+     * Stop the background renewal thread
+     */
+    public void shutdown()
+    {
+        ExecutorService executor = renewalExecutor;
+        if (executor != null)
+        {
+            executor.shutdownNow();
+        }
+    }
+
     /**
      * @see org.alfresco.wcm.client.util.CmisSessionPool#closeSession(Session)
      */
     @Override
-    public synchronized void closeSession(Session session) throws Exception
+    public void closeSession(Session session) throws Exception
     {
         //Do nothing. CMIS sessions no longer need to be pooled - they are fully thread-safe - so we
-        //now permanently "borrow" just one session from the backing pool and provide it to
-        //our clients. We never return it to the pool.
+        //now permanently "borrow" a few sessions from the backing pool and provide them to
+        //our clients. We never return them to the pool.
     }
 
     /**
@@ -71,42 +147,50 @@ public class CmisSessionPoolImpl implements CmisSessionPool
     @Override
     public Session getGuestSession() throws Exception
     {
-        sessionLock.readLock().lock();
-        
-        boolean refreshSession = System.currentTimeMillis() >= sessionLastTouched.get() + ticketDuration;
-        
-        try
+        long start = System.nanoTime();
+        AtomicReferenceArray<GuestSession> sessions = getGuestSessions();
+        int index = (nextGuestSession.getAndIncrement() & Integer.MAX_VALUE) % sessions.length();
+        GuestSession guestSession = sessions.get(index);
+        long now = System.currentTimeMillis();
+        if (guestSession == null || guestSession.isExpired(now))
         {
-            if (refreshSession || session == null)
+            ReentrantLock lock = guestSessionLocks[index];
+            lock.lock();
+            try
             {
-                sessionLock.readLock().unlock();
-                sessionLock.writeLock().lock();
-                try
+                guestSession = sessions.get(index);
+                if (guestSession == null || guestSession.isExpired(now))
                 {
-                    refreshSession = System.currentTimeMillis() >= sessionLastTouched.get() + ticketDuration;
-                    if (refreshSession || session == null)
+                    if (guestSession != null)
                     {
-                        if (session != null)
-                        {
-                            guestSessionPool.invalidateObject(session);
-                        }
-                        
-                        session = (Session) guestSessionPool.borrowObject();
+                        sessions.set(index, null);
+                        guestSessionPool.invalidateObject(guestSession.session);
                     }
-                }
-                finally
-                {
-                    sessionLock.readLock().lock();
-                    sessionLock.writeLock().unlock();
+                    guestSession = createGuestSession();
+                    sessions.set(index, guestSession);
                 }
             }
-            sessionLastTouched.set(System.currentTimeMillis());
-            return session;
+            finally
+            {
+                lock.unlock();
+            }
         }
-        finally
+        else if (proactiveRenewal && now >= guestSession.created + ticketDuration - renewalMargin
+                && guestSession.renewing.compareAndSet(false, true))
+        {
+            scheduleRenewal(index, guestSession);
+        }
+        guestSession.lastTouched = now;
+
+        long wait = System.nanoTime() - start;
+        borrowCount.incrementAndGet();
+        borrowWaitNanos.addAndGet(wait);
+        long max = maxBorrowWaitNanos.get();
+        while (wait > max && !maxBorrowWaitNanos.compareAndSet(max, wait))
         {
-            sessionLock.readLock().unlock();
+            max = maxBorrowWaitNanos.get();
         }
+        return guestSession.session;
     }
 
     /**
@@ -118,4 +202,249 @@ public class CmisSessionPoolImpl implements CmisSessionPool
     {
         throw new UnsupportedOperationException("Custom authenticated sessions not yet supported by this class");
     }
+
+    /**
+     * @return number of guest sessions handed out
+     */
+    public long getBorrowCount()
+    {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return average time in microseconds taken to hand out a guest session, including any session renewal the
+     *         caller had to wait for
+     */
+    public long getAverageBorrowWaitMicros()
+    {
+        long count = borrowCount.get();
+        return count != 0 ? borrowWaitNanos.get() / count / 1000L : 0L;
+    }
+
+    /**
+     * @return longest time in milliseconds taken to hand out a guest session
+     */
+    public long getMaxBorrowWaitMillis()
+    {
+        return maxBorrowWaitNanos.get() / 1000000L;
+    }
+
+    /**
+     * @return number of guest sessions created
+     */
+    public long getRenewalCount()
+    {
+        return renewalCount.get();
+    }
+
+    /**
+     * @return average time in milliseconds taken to create a guest session
+     */
+    public long getAverageRenewalMillis()
+    {
+        long count = renewalCount.get();
+        return count != 0 ? renewalMillis.get() / count : 0L;
+    }
+
+    /**
+     * @return time in milliseconds taken to create the latest guest session
+     */
+    public long getLastRenewalMillis()
+    {
+        return lastRenewalMillis;
+    }
+
+    /**
+     * @return age in milliseconds of the oldest guest session, 0 if none have been created
+     */
+    public long getOldestSessionAgeMillis()
+    {
+        AtomicReferenceArray<GuestSession> sessions = guestSessions;
+        long now = System.currentTimeMillis();
+        long oldest = 0L;
+        for (int i = 0; sessions != null && i < sessions.length(); i++)
+        {
+            GuestSession guestSession = sessions.get(i);
+            if (guestSession != null)
+            {
+                oldest = Math.max(oldest, now - guestSession.created);
+            }
+        }
+        return oldest;
+    }
+
+    private AtomicReferenceArray<GuestSession> getGuestSessions()
+    {
+        AtomicReferenceArray<GuestSession> sessions = guestSessions;
+        if (sessions == null)
+        {
+            synchronized (this)
+            {
+                sessions = guestSessions;
+                if (sessions == null)
+                {
+                    ReentrantLock[] locks = new ReentrantLock[guestSessionCount];
+                    for (int i = 0; i < locks.length; i++)
+                    {
+                        locks[i] = new ReentrantLock();
+                    }
+                    guestSessionLocks = locks;
+                    sessions = new AtomicReferenceArray<GuestSession>(guestSessionCount);
+                    ensurePoolCapacity();
+                    guestSessions = sessions;
+                }
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Raise the maximum active sessions of the backing pool to the number needed by the guest sessions, so that
+     * creating a session never fails because the pool is exhausted
+     */
+    private void ensurePoolCapacity()
+    {
+        int required = guestSessionCount + (proactiveRenewal ? 1 : 0);
+        if (guestSessionPool instanceof GenericObjectPool)
+        {
+            GenericObjectPool pool = (GenericObjectPool) guestSessionPool;
+            int maxActive = pool.getMaxActive();
+            if (maxActive > 0 && maxActive < required)
+            {
+                log.info("Raising the maximum active sessions of the guest session pool from " + maxActive + " to "
+                        + required + " for " + guestSessionCount + " guest sessions"
+                        + (proactiveRenewal ? " with proactive renewal" : ""));
+                pool.setMaxActive(required);
+            }
+        }
+    }
+
+    private GuestSession createGuestSession() throws Exception
+    {
+        long start = System.currentTimeMillis();
+        Session session = (Session) guestSessionPool.borrowObject();
+        long now = System.currentTimeMillis();
+        lastRenewalMillis = now - start;
+        renewalMillis.addAndGet(now - start);
+        renewalCount.incrementAndGet();
+        if (log.isDebugEnabled())
+        {
+            log.debug("Created guest session in " + (now - start) + "ms");
+        }
+        return new GuestSession(session, now);
+    }
+
+    private void scheduleRenewal(final int index, final GuestSession guestSession)
+    {
+        Runnable renewal = new Runnable()
+        {
+            public void run()
+            {
+                renew(index, guestSession);
+            }
+        };
+        try
+        {
+            getRenewalExecutor().execute(renewal);
+        }
+        catch (RuntimeException e)
+        {
+            guestSession.renewing.set(false);
+            log.warn("Failed to schedule guest session renewal", e);
+        }
+    }
+
+    /**
+     * Replace a guest session by a new one, unless it has been replaced already
+     */
+    private void renew(int index, GuestSession guestSession)
+    {
+        GuestSession newSession;
+        try
+        {
+            newSession = createGuestSession();
+        }
+        catch (Exception e)
+        {
+            // The session is replaced when it is next requested after it has expired
+            guestSession.renewing.set(false);
+            log.warn("Failed to renew guest session: " + e.getMessage());
+            return;
+        }
+
+        ReentrantLock lock = guestSessionLocks[index];
+        lock.lock();
+        try
+        {
+            Session obsoleteSession = newSession.session;
+            if (guestSessions.compareAndSet(index, guestSession, newSession))
+            {
+                obsoleteSession = guestSession.session;
+            }
+            guestSessionPool.invalidateObject(obsoleteSession);
+        }
+        catch (Exception e)
+        {
+            log.warn("Failed to invalidate guest session", e);
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private ExecutorService getRenewalExecutor()
+    {
+        ExecutorService executor = renewalExecutor;
+        if (executor == null)
+        {
+            synchronized (this)
+            {
+                executor = renewalExecutor;
+                if (executor == null)
+                {
+                    executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                            new ThreadFactory()
+                            {
+                                public Thread newThread(Runnable runnable)
+                                {
+                                    Thread thread = new Thread(runnable, "GuestSessionRenewal");
+                                    thread.setDaemon(true);
+                                    return thread;
+                                }
+                            });
+                    ((ThreadPoolExecutor)executor).allowCoreThreadTimeOut(true);
+                    renewalExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * A guest session and the times it was created and last handed out
+     */
+    private class GuestSession
+    {
+        final Session session;
+        final long created;
+        volatile long lastTouched;
+        final AtomicBoolean renewing = new AtomicBoolean();
+
+        GuestSession(Session session, long created)
+        {
+            this.session = session;
+            this.created = created;
+            this.lastTouched = created;
+        }
+
+        /**
+         * @return true if the session has not been used for the ticket duration, or is older than the ticket
+         *         duration in proactive renewal mode
+         */
+        boolean isExpired(long now)
+        {
+            return now >= lastTouched + ticketDuration || (proactiveRenewal && now >= created + ticketDuration);
+        }
+    }
 }
@@ -30,7 +30,10 @@ import java.util.List;
 import java.util.Map;
 
 import org.alfresco.wcm.client.exception.RepositoryUnavailableException;
+import org.alfresco.wcm.client.util.CmisSessionHelper;
+import org.apache.chemistry.opencmis.client.api.OperationContext;
 import org.apache.chemistry.opencmis.client.api.Repository;
+import org.apache.chemistry.opencmis.client.api.Session;
 import org.apache.chemistry.opencmis.client.bindings.spi.AbstractAuthenticationProvider;
 import org.apache.chemistry.opencmis.client.runtime.SessionFactoryImpl;
 import org.apache.chemistry.opencmis.commons.SessionParameter;
@@ -45,6 +48,9 @@ import org.apache.commons.pool.PoolableObjectFactory;
  * sessions. It uses a thread which periodically tries to reach the repository.
  * This allows for the repository not being available at application start-up
  * without re-trying on every request.
+ * <p>
+ * Sessions use the AtomPub binding by default. The Browser binding, which transfers compact JSON rather than Atom
+ * XML, is used if the binding type is set to "browser" and a browser binding URL is set.
  * 
  * @author Chris Lack
  */
@@ -59,6 +65,9 @@ public class GuestSessionFactoryImpl implements PoolableObjectFactory, Runnable
     private Exception lastException;
     private AbstractAuthenticationProvider authenticationProvider;
     private String repoUrl;
+    private String browserUrl;
+    private BindingType bindingType = BindingType.ATOMPUB;
+    private int maxItemsPerPage = 1000;
     private String username;
     private String password;
 
@@ -85,6 +94,43 @@ public class GuestSessionFactoryImpl implements PoolableObjectFactory, Runnable
         this.repoUrl = repoUrl;
     }
 
+    /**
+     * Set the URL of the CMIS Browser binding of the repository
+     * 
+     * @param browserUrl
+     *            browser binding URL
+     */
+    public void setBrowserUrl(String browserUrl)
+    {
+        this.browserUrl = browserUrl;
+    }
+
+    /**
+     * Set the CMIS binding used by guest sessions
+     * 
+     * @param bindingType
+     *            "atompub" (default) or "browser"
+     */
+    public void setBindingType(String bindingType)
+    {
+        this.bindingType = BindingType.fromValue(bindingType);
+        if (this.bindingType != BindingType.ATOMPUB && this.bindingType != BindingType.BROWSER)
+        {
+            throw new IllegalArgumentException("Unsupported CMIS binding type: " + bindingType);
+        }
+    }
+
+    /**
+     * Set the number of query results fetched per request
+     * 
+     * @param maxItemsPerPage
+     *            results per page, default 1000
+     */
+    public void setMaxItemsPerPage(int maxItemsPerPage)
+    {
+        this.maxItemsPerPage = maxItemsPerPage;
+    }
+
     public void setUsername(String username)
     {
         this.username = username;
@@ -126,8 +172,16 @@ public class GuestSessionFactoryImpl implements PoolableObjectFactory, Runnable
             parameters.put(SessionParameter.PASSWORD, password);
 
             // connection settings
-            parameters.put(SessionParameter.ATOMPUB_URL, repoUrl);
-            parameters.put(SessionParameter.BINDING_TYPE, BindingType.ATOMPUB.value());
+            if (bindingType == BindingType.BROWSER)
+            {
+                parameters.put(SessionParameter.BROWSER_URL, browserUrl);
+                parameters.put(SessionParameter.BROWSER_SUCCINCT, "true");
+            }
+            else
+            {
+                parameters.put(SessionParameter.ATOMPUB_URL, repoUrl);
+            }
+            parameters.put(SessionParameter.BINDING_TYPE, bindingType.value());
 
             // Create session factory
             this.sessionFactory = (SessionFactoryImpl) SessionFactoryImpl.newInstance();
@@ -207,7 +261,13 @@ public class GuestSessionFactoryImpl implements PoolableObjectFactory, Runnable
         {
             throw new RepositoryUnavailableException(lastException);
         }
-        return repository.createSession();
+        Session session = repository.createSession();
+
+        // Don't fetch anything the website doesn't use with query results and objects
+        OperationContext context = CmisSessionHelper.createOperationContext(session, null);
+        context.setMaxItemsPerPage(maxItemsPerPage);
+        session.setDefaultContext(context);
+        return session;
     }
 
     /**
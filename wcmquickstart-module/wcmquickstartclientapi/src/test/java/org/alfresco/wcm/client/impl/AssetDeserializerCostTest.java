@@ -0,0 +1,178 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+/**
+ * Compares the cost of reading the XML and JSON asset formats for responses of 1, 50 and 500 assets. The
+ * responses are generated in the form written by the repository's asset serializers, so no repository is needed.
+ * <p>
+ * This is a benchmark, so it is not in the default surefire includes. Run it with -Dtest=AssetDeserializerCostTest.
+ * AssetSerializerRoundTripTest in the repository module checks the formats against the real serializers.
+ */
+public class AssetDeserializerCostTest
+{
+    private static final Log log = LogFactory.getLog(AssetDeserializerCostTest.class);
+
+    private static final int[] ASSET_COUNTS = { 1, 50, 500 };
+    private static final int WARM_UP_ASSETS = 50000;
+    private static final int MEASURED_ASSETS = 100000;
+
+    private static final long MODIFIED = 1302002042054L;
+    private static final String TEXT = "The <cat> sat on the \"mat\": first on one side, then on the other";
+
+    @Test
+    public void testDeserializeCost() throws Exception
+    {
+        for (int assetCount : ASSET_COUNTS)
+        {
+            final byte[] xml = createXml(assetCount).getBytes("UTF-8");
+            final byte[] json = createJson(assetCount).getBytes("UTF-8");
+
+            LinkedList<TreeMap<String, Serializable>> xmlAssets = new AssetDeserializerXmlImpl().deserialize(
+                    new ByteArrayInputStream(xml));
+            LinkedList<TreeMap<String, Serializable>> jsonAssets = new AssetDeserializerJsonImpl().deserialize(
+                    new ByteArrayInputStream(json));
+            assertEquals(assetCount, xmlAssets.size());
+            assertEquals(removeContent(xmlAssets), removeContent(jsonAssets));
+            assertEquals(xmlAssets, jsonAssets);
+            assertEquals(new Date(MODIFIED), jsonAssets.getFirst().get("cm:modified"));
+            assertTrue("JSON response should be smaller", json.length < xml.length);
+
+            int iterations = Math.max(1, MEASURED_ASSETS / assetCount);
+            long xmlNanos = time(new AssetDeserializerXmlImpl(), xml, iterations, assetCount);
+            long jsonNanos = time(new AssetDeserializerJsonImpl(), json, iterations, assetCount);
+
+            log.info(assetCount + " assets - XML: " + xml.length + " bytes, " + (xmlNanos / iterations / 1000) +
+                    "us per response; JSON: " + json.length + " bytes, " + (jsonNanos / iterations / 1000) + "us per response");
+        }
+    }
+
+    /**
+     * ContentInfo doesn't implement equals, so compare its fields and remove it from the assets
+     */
+    private String removeContent(LinkedList<TreeMap<String, Serializable>> assets)
+    {
+        StringBuilder contents = new StringBuilder();
+        for (TreeMap<String, Serializable> asset : assets)
+        {
+            ContentInfo content = (ContentInfo) asset.remove("cm:content");
+            contents.append(content.getMimeType()).append(',').append(content.getSize()).append(',')
+                    .append(content.getEncoding()).append(';');
+        }
+        return contents.toString();
+    }
+
+    private long time(AssetDeserializer deserializer, byte[] response, int iterations, int assetCount)
+    {
+        for (int i = 0; i < WARM_UP_ASSETS / assetCount; i++)
+        {
+            deserializer.handleResponse(new ByteArrayInputStream(response));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+        {
+            deserializer.handleResponse(new ByteArrayInputStream(response));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private String createXml(int assetCount)
+    {
+        String modified = new SimpleDateFormat("yyyyMMdd-HH:mm:ss.SSSZ").format(new Date(MODIFIED));
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><assets>");
+        for (int i = 0; i < assetCount; i++)
+        {
+            xml.append("<asset id=\"workspace://SpacesStore/asset-").append(i).append("\" type=\"ws:article\">");
+            xml.append("<property name=\"cm:name\"><value type=\"text\"><![CDATA[asset-").append(i)
+                    .append(".html]]></value></property>");
+            xml.append("<property name=\"cm:title\"><value type=\"text\"><![CDATA[").append(TEXT)
+                    .append("]]></value></property>");
+            xml.append("<property name=\"cm:description\"><value type=\"text\"><![CDATA[").append(TEXT)
+                    .append("]]></value></property>");
+            xml.append("<property name=\"cm:modified\"><value type=\"time\">").append(modified)
+                    .append("</value></property>");
+            xml.append("<property name=\"cm:created\"><value type=\"time\">").append(modified)
+                    .append("</value></property>");
+            xml.append("<property name=\"ws:available\"><value type=\"bool\">true</value></property>");
+            xml.append("<property name=\"ws:orderIndex\"><value type=\"integer\">").append(i)
+                    .append("</value></property>");
+            xml.append("<property name=\"ws:rating\"><value type=\"number\">3.5</value></property>");
+            xml.append("<property name=\"ws:primarySection\"><value type=\"id\">workspace://SpacesStore/section")
+                    .append("</value></property>");
+            xml.append("<property name=\"ws:parentSections\"><list>")
+                    .append("<value type=\"id\">workspace://SpacesStore/section</value>")
+                    .append("<value type=\"id\">workspace://SpacesStore/other-section</value></list></property>");
+            xml.append("<property name=\"cm:content\"><value type=\"content\">")
+                    .append("<content mime=\"text/html\" size=\"12345\" enc=\"UTF-8\"></content></value></property>");
+            xml.append("<property name=\"ws:tags\"><list><value type=\"text\"><![CDATA[news]]></value>")
+                    .append("<value type=\"text\"><![CDATA[featured]]></value></list></property>");
+            xml.append("</asset>");
+        }
+        return xml.append("</assets>").toString();
+    }
+
+    private String createJson(int assetCount)
+    {
+        String escapedText = TEXT.replace("\"", "\\\"");
+        StringBuilder json = new StringBuilder("{\"assets\":[");
+        for (int i = 0; i < assetCount; i++)
+        {
+            if (i > 0)
+            {
+                json.append(',');
+            }
+            json.append("{\"id\":\"workspace://SpacesStore/asset-").append(i).append("\",\"type\":\"ws:article\",\"props\":{");
+            json.append("\"cm:name\":\"asset-").append(i).append(".html\",");
+            json.append("\"cm:title\":\"").append(escapedText).append("\",");
+            json.append("\"cm:description\":\"").append(escapedText).append("\",");
+            json.append("\"cm:modified\":{\"@time\":").append(MODIFIED).append("},");
+            json.append("\"cm:created\":{\"@time\":").append(MODIFIED).append("},");
+            json.append("\"ws:available\":true,");
+            json.append("\"ws:orderIndex\":").append(i).append(',');
+            json.append("\"ws:rating\":3.5,");
+            json.append("\"ws:primarySection\":\"workspace://SpacesStore/section\",");
+            json.append("\"ws:parentSections\":[\"workspace://SpacesStore/section\",\"workspace://SpacesStore/other-section\"],");
+            json.append("\"cm:content\":{\"@content\":{\"mime\":\"text/html\",\"size\":12345,\"enc\":\"UTF-8\"}},");
+            json.append("\"ws:tags\":[\"news\",\"featured\"]");
+            json.append("}}");
+        }
+        return json.append("]}").toString();
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.alfresco.wcm.client.Asset;
+import org.alfresco.wcm.client.AssetFactory;
+import org.alfresco.wcm.client.ContentStream;
+import org.alfresco.wcm.client.Query;
+import org.alfresco.wcm.client.Rendition;
+import org.alfresco.wcm.client.SearchResults;
+import org.alfresco.wcm.client.impl.cache.SimpleCache;
+import org.apache.chemistry.opencmis.commons.PropertyIds;
+
+/**
+ * Tests the single load of assets requested concurrently and the background revalidation of
+ * expired assets by {@link CachingAssetFactoryImpl}, against an in-memory delegate factory.
+ */
+public class CachingAssetFactoryImplTest extends TestCase
+{
+    private TestAssetFactory delegate;
+    private CachingAssetFactoryImpl factory;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        delegate = new TestAssetFactory();
+        factory = new CachingAssetFactoryImpl();
+        factory.setDelegate(delegate);
+        factory.setCache(TestCache.create());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        factory.shutdown();
+        delegate.release.countDown();
+    }
+
+    public void testConcurrentRequestsShareOneLoad() throws Exception
+    {
+        delegate.blockLoads();
+        final List<Asset> results = new ArrayList<Asset>();
+        List<Thread> threads = startRequests(8, results);
+        assertTrue(delegate.loading.await(5, TimeUnit.SECONDS));
+        // Give the other requests time to find the load in progress
+        Thread.sleep(200L);
+        delegate.release.countDown();
+        join(threads);
+
+        assertEquals(1, delegate.loadCount.get());
+        assertEquals(8, results.size());
+        for (Asset asset : results)
+        {
+            assertSame(results.get(0), asset);
+        }
+        assertSame(results.get(0), factory.getAssetById("a"));
+        assertEquals(1, delegate.loadCount.get());
+    }
+
+    public void testFailedLoadIsPassedToWaitingRequests() throws Exception
+    {
+        delegate.blockLoads();
+        delegate.failure = new IllegalStateException("load failed");
+        final List<Asset> results = new ArrayList<Asset>();
+        List<Thread> threads = startRequests(4, results);
+        assertTrue(delegate.loading.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200L);
+        delegate.release.countDown();
+        join(threads);
+
+        assertEquals(1, delegate.loadCount.get());
+        assertTrue(results.isEmpty());
+        assertEquals(4, delegate.failures.get());
+    }
+
+    public void testErrorDoesNotHangWaitingRequests() throws Exception
+    {
+        delegate.blockLoads();
+        delegate.error = new TestError();
+        final List<Asset> results = new ArrayList<Asset>();
+        List<Thread> threads = startRequests(4, results);
+        assertTrue(delegate.loading.await(5, TimeUnit.SECONDS));
+        Thread.sleep(200L);
+        delegate.release.countDown();
+        join(threads);
+
+        // The failed request throws the error, the waiting requests load the asset themselves
+        assertEquals(1, delegate.errors.get());
+        assertEquals(3, results.size());
+    }
+
+    public void testStaleWhileRevalidate() throws Exception
+    {
+        factory.setMinimumCacheSeconds(0);
+        factory.setStaleWhileRevalidate(true);
+        Asset cached = factory.getAssetById("a");
+        delegate.modifiedTime = new Date(2000L);
+        Thread.sleep(10L);
+
+        // The expired asset is returned while its modified time is checked in the background
+        assertSame(cached, factory.getAssetById("a"));
+        long giveUp = System.currentTimeMillis() + 5000L;
+        Asset reloaded = cached;
+        while (reloaded == cached && System.currentTimeMillis() < giveUp)
+        {
+            Thread.sleep(10L);
+            reloaded = factory.getAssetById("a");
+        }
+        assertNotSame(cached, reloaded);
+        assertEquals(new Date(2000L), reloaded.getProperty(Asset.PROPERTY_MODIFIED_TIME));
+        assertEquals("AssetCacheRevalidation", delegate.checkThread);
+        assertEquals(1, delegate.loadCount.get());
+    }
+
+    private List<Thread> startRequests(int count, final List<Asset> results)
+    {
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < count; i++)
+        {
+            Thread thread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        Asset asset = factory.getAssetById("a");
+                        synchronized (results)
+                        {
+                            results.add(asset);
+                        }
+                    }
+                    catch (IllegalStateException e)
+                    {
+                        delegate.failures.incrementAndGet();
+                    }
+                    catch (TestError e)
+                    {
+                        delegate.errors.incrementAndGet();
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        return threads;
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException
+    {
+        for (Thread thread : threads)
+        {
+            thread.join(5000L);
+            assertFalse("Request did not finish", thread.isAlive());
+        }
+    }
+
+    private static Asset createAsset(String id, Date modifiedTime)
+    {
+        Map<String, Serializable> properties = new HashMap<String, Serializable>();
+        properties.put(PropertyIds.OBJECT_ID, id);
+        properties.put(Asset.PROPERTY_MODIFIED_TIME, modifiedTime);
+        AssetImpl asset = new AssetImpl();
+        asset.setProperties(properties);
+        return asset;
+    }
+
+    private static class TestError extends Error
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Delegate factory that can hold the first load until released, then fail it
+     */
+    private static class TestAssetFactory implements AssetFactory
+    {
+        final AtomicInteger loadCount = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        volatile CountDownLatch release = new CountDownLatch(0);
+        volatile RuntimeException failure;
+        volatile Error error;
+        volatile Date modifiedTime = new Date(1000L);
+        volatile String checkThread;
+
+        void blockLoads()
+        {
+            release = new CountDownLatch(1);
+        }
+
+        public Asset getAssetById(String id, boolean deferredLoad)
+        {
+            loadCount.incrementAndGet();
+            loading.countDown();
+            try
+            {
+                release.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            Error loadError = error;
+            if (loadError != null)
+            {
+                error = null;
+                throw loadError;
+            }
+            if (failure != null)
+            {
+                throw failure;
+            }
+            return createAsset(id, modifiedTime);
+        }
+
+        public Asset getAssetById(String id)
+        {
+            return getAssetById(id, false);
+        }
+
+        public List<Asset> getAssetsById(Collection<String> ids, boolean deferredLoad)
+        {
+            List<Asset> assets = new ArrayList<Asset>();
+            for (String id : ids)
+            {
+                assets.add(createAsset(id, modifiedTime));
+            }
+            return assets;
+        }
+
+        public List<Asset> getAssetsById(Collection<String> ids)
+        {
+            return getAssetsById(ids, false);
+        }
+
+        public Date getModifiedTimeOfAsset(String assetId)
+        {
+            return modifiedTime;
+        }
+
+        public Map<String, Date> getModifiedTimesOfAssets(Collection<String> assetIds)
+        {
+            checkThread = Thread.currentThread().getName();
+            Map<String, Date> modifiedTimes = new TreeMap<String, Date>();
+            for (String id : assetIds)
+            {
+                modifiedTimes.put(id, modifiedTime);
+            }
+            return modifiedTimes;
+        }
+
+        public Asset getSectionAsset(String sectionId, String assetName)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Asset getSectionAsset(String sectionId, String assetName, boolean wildcardsAllowedInName)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public SearchResults findByQuery(Query query)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Map<String, List<String>> getSourceRelationships(String assetId)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public Map<String, Rendition> getRenditions(String assetId)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public ContentStream getContentStream(String assetId)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Asset cache held in a map
+     */
+    private static class TestCache<K extends Serializable, V> implements SimpleCache<K, V>
+    {
+        private final Map<K, V> map = new ConcurrentHashMap<K, V>();
+
+        static <K extends Serializable, V> TestCache<K, V> create()
+        {
+            return new TestCache<K, V>();
+        }
+
+        public boolean contains(K key)
+        {
+            return map.containsKey(key);
+        }
+
+        public Collection<K> getKeys()
+        {
+            return map.keySet();
+        }
+
+        public V get(K key)
+        {
+            return map.get(key);
+        }
+
+        public void put(K key, V value)
+        {
+            map.put(key, value);
+        }
+
+        public void remove(K key)
+        {
+            map.remove(key);
+        }
+
+        public void clear()
+        {
+            map.clear();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.impl.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.alfresco.wcm.client.ContentStream;
+import org.alfresco.wcm.client.impl.CachingContentStreamImpl;
+
+public class DiskContentCacheTest extends TestCase
+{
+    private File root;
+    private DiskContentCache cache;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        root = File.createTempFile("wqs-cache-test-", "");
+        root.delete();
+        cache = new DiskContentCache();
+        cache.setRootDirectory(root.getPath());
+        cache.setMaxMegabytes(1);
+        cache.init();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        cache.destroy();
+        root.delete();
+    }
+
+    public void testKeyIncludesModifiedTimeAndRendition()
+    {
+        Date modified = new Date(1000L);
+        assertEquals(DiskContentCache.getKey("id", modified, null), DiskContentCache.getKey("id", new Date(1000L), null));
+        assertFalse(DiskContentCache.getKey("id", modified, null).equals(DiskContentCache.getKey("id", new Date(2000L), null)));
+        assertFalse(DiskContentCache.getKey("id", modified, null).equals(DiskContentCache.getKey("id", modified, "thumbnail")));
+    }
+
+    public void testPutAndGet() throws Exception
+    {
+        CachingContentStreamImpl cached = cache.put("a", new TestContent(new byte[] { 1, 2, 3 }));
+        assertSame(cached, cache.get("a"));
+        assertEquals(3L, cache.getTotalBytes());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cached.output(out);
+        assertEquals(3, out.toByteArray().length);
+        assertEquals(3, out.toByteArray()[2]);
+    }
+
+    public void testLeastRecentlyUsedEviction() throws Exception
+    {
+        cache.setDeleteDelaySeconds(0);
+        byte[] content = new byte[400 * 1024];
+        CachingContentStreamImpl a = cache.put("a", new TestContent(content));
+        cache.put("b", new TestContent(content));
+        cache.get("a");
+        CachingContentStreamImpl b = cache.get("b");
+        cache.get("a");
+        cache.put("c", new TestContent(content));
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertTrue(a.getCacheFile().exists());
+        assertFalse(b.getCacheFile().exists());
+        assertEquals(2L * content.length, cache.getTotalBytes());
+    }
+
+    public void testEvictedContentCanStillBeServed() throws Exception
+    {
+        byte[] content = new byte[600 * 1024];
+        CachingContentStreamImpl a = cache.put("a", new TestContent(content));
+        cache.put("b", new TestContent(content));
+        assertNull(cache.get("a"));
+
+        // Obtained before the eviction - the file is kept for the delete delay
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        a.output(out);
+        assertEquals(content.length, out.size());
+    }
+
+    public void testOpenContentIsNotDeleted() throws Exception
+    {
+        cache.setDeleteDelaySeconds(0);
+        byte[] content = new byte[600 * 1024];
+        CachingContentStreamImpl a = cache.put("a", new TestContent(content));
+        InputStream in = a.getStream();
+        try
+        {
+            cache.put("b", new TestContent(content));
+            assertNull(cache.get("a"));
+            assertTrue(a.getCacheFile().exists());
+        }
+        finally
+        {
+            in.close();
+        }
+        assertFalse(a.isInUse());
+
+        cache.put("c", new TestContent(content));
+        assertFalse(a.getCacheFile().exists());
+    }
+
+    public void testStaleDirectoriesDeletedOnInit() throws Exception
+    {
+        CachingContentStreamImpl cached = cache.put("a", new TestContent(new byte[] { 1 }));
+        File stale = new File(root, "content-stale");
+        assertTrue(stale.mkdir());
+        assertTrue(new File(stale, "leftover").createNewFile());
+
+        DiskContentCache other = new DiskContentCache();
+        other.setRootDirectory(root.getPath());
+        other.init();
+        try
+        {
+            assertFalse(stale.exists());
+            // The directory of a running cache is locked and kept
+            assertTrue(cached.getCacheFile().exists());
+        }
+        finally
+        {
+            other.destroy();
+        }
+    }
+
+    private static class TestContent implements ContentStream
+    {
+        private final byte[] content;
+
+        TestContent(byte[] content)
+        {
+            this.content = content;
+        }
+
+        public String getFileName()
+        {
+            return "test.bin";
+        }
+
+        public long getLength()
+        {
+            return content.length;
+        }
+
+        public String getMimeType()
+        {
+            return "application/octet-stream";
+        }
+
+        public InputStream getStream()
+        {
+            return new ByteArrayInputStream(content);
+        }
+
+        public void output(OutputStream output) throws IOException
+        {
+            output.write(content);
+        }
+
+        public void write(Writer writer) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        public void write(Writer writer, String encoding) throws IOException
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * #%L
+ * Alfresco WCMQS Client API
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.util.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.chemistry.opencmis.client.bindings.spi.atompub.AtomPubParser;
+import org.apache.chemistry.opencmis.client.bindings.spi.atompub.objects.AtomElement;
+import org.apache.chemistry.opencmis.client.bindings.spi.atompub.objects.AtomEntry;
+import org.apache.chemistry.opencmis.client.bindings.spi.atompub.objects.AtomFeed;
+import org.apache.chemistry.opencmis.commons.data.ObjectData;
+import org.apache.chemistry.opencmis.commons.data.PropertyData;
+import org.apache.chemistry.opencmis.commons.definitions.PropertyDefinition;
+import org.apache.chemistry.opencmis.commons.definitions.TypeDefinition;
+import org.apache.chemistry.opencmis.commons.enums.Cardinality;
+import org.apache.chemistry.opencmis.commons.enums.PropertyType;
+import org.apache.chemistry.opencmis.commons.impl.JSONConverter;
+import org.apache.chemistry.opencmis.commons.impl.TypeCache;
+import org.apache.chemistry.opencmis.commons.impl.dataobjects.AbstractPropertyDefinition;
+import org.apache.chemistry.opencmis.commons.impl.dataobjects.PropertyBooleanDefinitionImpl;
+import org.apache.chemistry.opencmis.commons.impl.dataobjects.PropertyDateTimeDefinitionImpl;
+import org.apache.chemistry.opencmis.commons.impl.dataobjects.PropertyIdDefinitionImpl;
+import org.apache.chemistry.opencmis.commons.impl.dataobjects.PropertyIntegerDefinitionImpl;
+import org.apache.chemistry.opencmis.commons.impl.dataobjects.PropertyStringDefinitionImpl;
+import org.apache.chemistry.opencmis.commons.impl.json.parser.JSONParser;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Test;
+
+/**
+ * Compares the cost of parsing the same recorded query results returned by the AtomPub and the Browser binding. Both
+ * responses are parsed into CMIS objects, as each binding does, and must give the same objects. The responses are
+ * those of the section tree query, so no repository is needed.
+ * <p>
+ * The timings are only logged. The test is not part of the default test run.
+ */
+public class CmisBindingParseCostTest
+{
+    private static final Log log = LogFactory.getLog(CmisBindingParseCostTest.class);
+
+    private static final int WARM_UP_ITERATIONS = 200;
+    private static final int ITERATIONS = 1000;
+    private static final int RESULTS = 6;
+    private static final int PROPERTIES_PER_RESULT = 11;
+
+    private final TypeCache typeCache = new QueryTypeCache();
+
+    @Test
+    public void testParseCost() throws Exception
+    {
+        final byte[] atomPub = load("query-results-atompub.xml");
+        final byte[] browser = load("query-results-browser.json");
+
+        List<ObjectData> atomPubObjects = parseAtomPub(atomPub);
+        List<ObjectData> browserObjects = parseBrowser(browser);
+        assertEquals(RESULTS, atomPubObjects.size());
+        assertEquals(RESULTS, browserObjects.size());
+        for (int i = 0; i < RESULTS; i++)
+        {
+            Map<String, List<Object>> properties = getProperties(atomPubObjects.get(i));
+            assertEquals(PROPERTIES_PER_RESULT, properties.size());
+            assertEquals(properties, getProperties(browserObjects.get(i)));
+        }
+        assertTrue("Browser binding response should be smaller", browser.length < atomPub.length);
+
+        long atomPubNanos = time(new Parse()
+        {
+            public List<ObjectData> parse(byte[] response) throws Exception
+            {
+                return parseAtomPub(response);
+            }
+        }, atomPub);
+        long browserNanos = time(new Parse()
+        {
+            public List<ObjectData> parse(byte[] response) throws Exception
+            {
+                return parseBrowser(response);
+            }
+        }, browser);
+
+        log.info("AtomPub: " + atomPub.length + " bytes, " + (atomPubNanos / ITERATIONS / 1000) + "us per response");
+        log.info("Browser: " + browser.length + " bytes, " + (browserNanos / ITERATIONS / 1000) + "us per response");
+    }
+
+    private interface Parse
+    {
+        List<ObjectData> parse(byte[] response) throws Exception;
+    }
+
+    private long time(Parse parse, byte[] response) throws Exception
+    {
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++)
+        {
+            parse.parse(response);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            parse.parse(response);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Parse an AtomPub feed into CMIS objects, as the AtomPub binding does
+     */
+    private List<ObjectData> parseAtomPub(byte[] response) throws Exception
+    {
+        AtomPubParser parser = new AtomPubParser(new ByteArrayInputStream(response));
+        parser.parse();
+        AtomFeed feed = (AtomFeed) parser.getResults();
+        List<ObjectData> objects = new ArrayList<ObjectData>();
+        for (AtomEntry entry : feed.getEntries())
+        {
+            for (AtomElement element : entry.getElements())
+            {
+                if (element.getObject() instanceof ObjectData)
+                {
+                    objects.add((ObjectData) element.getObject());
+                }
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Parse a succinct Browser binding response into CMIS objects, as the Browser binding does
+     */
+    @SuppressWarnings("unchecked")
+    private List<ObjectData> parseBrowser(byte[] response) throws Exception
+    {
+        Map<String, Object> json = (Map<String, Object>) new JSONParser().parse(new InputStreamReader(
+                new ByteArrayInputStream(response), "UTF-8"));
+        List<ObjectData> objects = new ArrayList<ObjectData>();
+        for (Object result : (List<Object>) json.get("results"))
+        {
+            objects.add(JSONConverter.convertObject((Map<String, Object>) result, typeCache));
+        }
+        return objects;
+    }
+
+    /**
+     * @return the property values of an object keyed by query name, with dates as milliseconds
+     */
+    private static Map<String, List<Object>> getProperties(ObjectData object)
+    {
+        Map<String, List<Object>> properties = new HashMap<String, List<Object>>();
+        for (PropertyData<?> property : object.getProperties().getPropertyList())
+        {
+            List<Object> values = new ArrayList<Object>();
+            for (Object value : property.getValues())
+            {
+                values.add(value instanceof Calendar ? ((Calendar) value).getTimeInMillis() : value);
+            }
+            properties.put(property.getQueryName() != null ? property.getQueryName() : property.getId(), values);
+        }
+        return properties;
+    }
+
+    private byte[] load(String name) throws Exception
+    {
+        InputStream is = getClass().getResourceAsStream(name);
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = is.read(buffer)) != -1)
+            {
+                bytes.write(buffer, 0, count);
+            }
+            return bytes.toByteArray();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    /**
+     * Type cache holding the definitions of the query columns, which the Browser binding needs to convert succinct
+     * property values
+     */
+    private static class QueryTypeCache implements TypeCache
+    {
+        private final Map<String, PropertyDefinition<?>> definitions = new HashMap<String, PropertyDefinition<?>>();
+
+        QueryTypeCache()
+        {
+            define(new PropertyIdDefinitionImpl(), "f.cmis:objectId", PropertyType.ID, Cardinality.SINGLE);
+            define(new PropertyStringDefinitionImpl(), "f.cmis:name", PropertyType.STRING, Cardinality.SINGLE);
+            define(new PropertyStringDefinitionImpl(), "t.cm:title", PropertyType.STRING, Cardinality.SINGLE);
+            define(new PropertyStringDefinitionImpl(), "t.cm:description", PropertyType.STRING, Cardinality.SINGLE);
+            define(new PropertyIdDefinitionImpl(), "f.cmis:objectTypeId", PropertyType.ID, Cardinality.SINGLE);
+            define(new PropertyIdDefinitionImpl(), "f.cmis:parentId", PropertyType.ID, Cardinality.SINGLE);
+            define(new PropertyStringDefinitionImpl(), "f.ws:sectionConfig", PropertyType.STRING, Cardinality.MULTI);
+            define(new PropertyBooleanDefinitionImpl(), "f.ws:excludeFromNavigation", PropertyType.BOOLEAN,
+                    Cardinality.SINGLE);
+            define(new PropertyStringDefinitionImpl(), "ts.cm:tagScopeSummary", PropertyType.STRING, Cardinality.MULTI);
+            define(new PropertyDateTimeDefinitionImpl(), "f.cmis:lastModificationDate", PropertyType.DATETIME,
+                    Cardinality.SINGLE);
+            define(new PropertyIntegerDefinitionImpl(), "o.ws:orderIndex", PropertyType.INTEGER, Cardinality.SINGLE);
+        }
+
+        private void define(AbstractPropertyDefinition<?> definition, String queryName, PropertyType type,
+                Cardinality cardinality)
+        {
+            definition.setId(queryName);
+            definition.setQueryName(queryName);
+            definition.setPropertyType(type);
+            definition.setCardinality(cardinality);
+            definitions.put(queryName, definition);
+        }
+
+        public TypeDefinition getTypeDefinition(String typeId)
+        {
+            return null;
+        }
+
+        public TypeDefinition reloadTypeDefinition(String typeId)
+        {
+            return null;
+        }
+
+        public TypeDefinition getTypeDefinitionForObject(String objectId)
+        {
+            return null;
+        }
+
+        public PropertyDefinition<?> getPropertyDefinition(String propId)
+        {
+            return definitions.get(propId);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+<#escape x as jsonUtils.encodeJSONString(x)>
+{
+    "running": ${running?string},
+    "pendingSections": ${pendingSections?c},
+    "propagationStartTime": <#if propagationStartTime??>"${xmldate(propagationStartTime)}"<#else>null</#if>,
+    "sectionsProcessed": ${sectionsProcessed?c},
+    "nodesUpdated": ${nodesUpdated?c},
+    "lastPropagationTime": ${lastPropagationTime?c},
+    "failedSections":
+    [
+    <#list failedSections as section>
+        {
+            "id": "${section.id}",
+            "failures": ${section.failures?c}
+        }<#if section_has_next>,</#if>
+    </#list>
+    ]
+}
+</#escape>
@@ -25,24 +25,19 @@
  */
 package org.alfresco.module.org_alfresco_module_wcmquickstart.jobs;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.jobs.NodeBatchExecutor.NodeWorker;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.repo.admin.RepositoryState;
 import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
 import org.alfresco.repo.lock.LockAcquisitionException;
 import org.alfresco.repo.policy.BehaviourFilter;
-import org.alfresco.repo.security.authentication.AuthenticationUtil;
-import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
-import org.alfresco.repo.transaction.RetryingTransactionHelper;
-import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
-import org.alfresco.service.cmr.repository.StoreRef;
-import org.alfresco.service.cmr.search.ResultSet;
-import org.alfresco.service.cmr.search.ResultSetRow;
-import org.alfresco.service.cmr.search.SearchService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.util.VmShutdownListener.VmShutdownException;
@@ -59,8 +54,7 @@ public class AvailabilityProcessor
 {
     private static final Log log = LogFactory.getLog(AvailabilityProcessor.class);
     
-    private RetryingTransactionHelper txHelper;
-    private SearchService searchService;
+    private NodeBatchExecutor batchExecutor;
     private NodeService nodeService;
     private BehaviourFilter behaviourFilter;
     private RepositoryState repositoryState;
@@ -122,7 +116,7 @@ public class AvailabilityProcessor
 
             jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL, lockCallback);
 
-            runInternal();
+            runInternal(lockCallback);
 
             // Done
             if (log.isDebugEnabled())
@@ -157,76 +151,57 @@ public class AvailabilityProcessor
         }
     }
 
-    private void runInternal()
+    private void runInternal(LockCallback lockCallback)
     {
-        txHelper.doInTransaction(new RetryingTransactionCallback<Object>()
+        //Find all web assets that are due to become available today
+        List<NodeRef> assets = batchExecutor.findNodes("+@ws\\:availableFromDate:today +@ws\\:published:\"false\"");
+
+        if (log.isDebugEnabled())
         {
-            @Override
-            public Object execute() throws Throwable
-            {
-                return AuthenticationUtil.runAs(new RunAsWork<Object>()
-                {
-                    @Override
-                    public Object doWork() throws Exception
-                    {
-                        behaviourFilter.disableBehaviour(ContentModel.ASPECT_AUDITABLE);
-                        ResultSet rs = null;
-                        try
-                        {
-                            //Find all web assets that are due to become available today
-                            rs = searchService.query(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, 
-                                    SearchService.LANGUAGE_LUCENE, "+@ws\\:availableFromDate:today +@ws\\:published:\"false\"");
-                         
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug("Number of assets found that are due to become available: " + rs.length());
-                            }
-                            for (ResultSetRow row : rs)
-                            {
-                                nodeService.setProperty(row.getNodeRef(), WebSiteModel.PROP_AVAILABLE, Boolean.TRUE);
-                            }
-                        }
-                        finally
-                        {
-                            if (rs != null) {rs.close();}
-                        }
-                        rs = null;
-
-                        try
-                        {
-                            //Find all web assets that are due to expire today
-                            rs = searchService.query(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, 
-                                    SearchService.LANGUAGE_LUCENE, "+@ws\\:availableToDate:today +@ws\\:published:\"true\"");
-                         
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug("Number of assets found that are due to expire: " + rs.length());
-                            }
-                            for (ResultSetRow row : rs)
-                            {
-                                nodeService.setProperty(row.getNodeRef(), WebSiteModel.PROP_AVAILABLE, Boolean.FALSE);
-                            }
-                        }
-                        finally
-                        {
-                            behaviourFilter.enableBehaviour(ContentModel.ASPECT_AUDITABLE);
-                            rs.close();
-                        }
-                        return null;
-                    }
-                }, AuthenticationUtil.SYSTEM_USER_NAME);
-            }
-        });
+            log.debug("Number of assets found that are due to become available: " + assets.size());
+        }
+        batchExecutor.process("AvailabilityProcessor", assets, lockCallback, new AvailabilityWorker(Boolean.TRUE), log);
+
+        //Find all web assets that are due to expire today
+        assets = batchExecutor.findNodes("+@ws\\:availableToDate:today +@ws\\:published:\"true\"");
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Number of assets found that are due to expire: " + assets.size());
+        }
+        batchExecutor.process("AvailabilityProcessor", assets, lockCallback, new AvailabilityWorker(Boolean.FALSE), log);
     }
-    
-    public void setTxHelper(RetryingTransactionHelper txHelper)
+
+    /**
+     * Sets the "available" flag of each asset without touching its auditable properties
+     */
+    private class AvailabilityWorker implements NodeWorker
     {
-        this.txHelper = txHelper;
+        private final Boolean available;
+
+        public AvailabilityWorker(Boolean available)
+        {
+            this.available = available;
+        }
+
+        @Override
+        public void process(NodeRef asset) throws Throwable
+        {
+            behaviourFilter.disableBehaviour(asset, ContentModel.ASPECT_AUDITABLE);
+            try
+            {
+                nodeService.setProperty(asset, WebSiteModel.PROP_AVAILABLE, available);
+            }
+            finally
+            {
+                behaviourFilter.enableBehaviour(asset, ContentModel.ASPECT_AUDITABLE);
+            }
+        }
     }
 
-    public void setSearchService(SearchService searchService)
+    public void setBatchExecutor(NodeBatchExecutor batchExecutor)
     {
-        this.searchService = searchService;
+        this.batchExecutor = batchExecutor;
     }
 
     public void setNodeService(NodeService nodeService)
@@ -27,26 +27,22 @@ package org.alfresco.module.org_alfresco_module_wcmquickstart.jobs;
 
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.jobs.NodeBatchExecutor.NodeWorker;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.util.WebassetCollectionHelper;
 import org.alfresco.repo.admin.RepositoryState;
 import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
 import org.alfresco.repo.lock.LockAcquisitionException;
-import org.alfresco.repo.security.authentication.AuthenticationUtil;
-import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
-import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
-import org.alfresco.service.cmr.repository.StoreRef;
-import org.alfresco.service.cmr.search.ResultSet;
-import org.alfresco.service.cmr.search.SearchService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
-import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.VmShutdownListener.VmShutdownException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -68,15 +64,12 @@ public class DynamicCollectionProcessor implements WebSiteModel
     /** The name of the lock used to ensure that feedback processor does not run on more than one node at the same time */
     private static final QName LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI, "org.alfresco.module.org_alfresco_module_wcmquickstart.jobs.DynamicCollectionProcessor");
 
-	/** Transaction service */
-    private TransactionService transactionService;
+    /** Batch executor */
+    private NodeBatchExecutor batchExecutor;
     
     /** Node service */
     private NodeService nodeService;
     
-    /** Search service */
-    private SearchService searchService;
-    
     /** Webasset Collection Helper */
     private WebassetCollectionHelper collectionHelper;
     
@@ -105,12 +98,12 @@ public class DynamicCollectionProcessor implements WebSiteModel
     }
     
     /**
-     * Set search service
-     * @param searchService search service
+     * Set batch executor
+     * @param batchExecutor batch executor
      */
-    public void setSearchService(SearchService searchService)
+    public void setBatchExecutor(NodeBatchExecutor batchExecutor)
     {
-        this.searchService = searchService;
+        this.batchExecutor = batchExecutor;
     }
     
     /**
@@ -122,15 +115,6 @@ public class DynamicCollectionProcessor implements WebSiteModel
         this.nodeService = nodeService;
     }
 
-    /**
-     * Set transaction service
-     * @param transactionService    transaction service
-     */
-    public void setTransactionService(TransactionService transactionService)
-    {
-        this.transactionService = transactionService;
-    }
-    
     /**
      * Set collection helper
      * @param collectionHelper  collection helper
@@ -197,7 +181,7 @@ public class DynamicCollectionProcessor implements WebSiteModel
 
             jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL, lockCallback);
 
-            runInternal();
+            runInternal(lockCallback);
 
             // Done
             if (log.isDebugEnabled())
@@ -232,73 +216,58 @@ public class DynamicCollectionProcessor implements WebSiteModel
         }
     }
 
-    private void runInternal()
+    private void runInternal(LockCallback lockCallback)
     {
-        AuthenticationUtil.runAs(new RunAsWork<Object>()
+        List<NodeRef> collections = batchExecutor.findNodes(QUERY);
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running dynamic collection refresh processor across " + collections.size() + " dynamic collection nodes");
+        }
+
+        // Get the current date
+        final Calendar now = Calendar.getInstance();
+        final AtomicInteger refreshed = new AtomicInteger();
+        final AtomicInteger changed = new AtomicInteger();
+
+        // Iterate over the dynamic queries, each batch in its own transaction
+        batchExecutor.process("DynamicCollectionProcessor", collections, lockCallback, new NodeWorker()
         {
             @Override
-            public Object doWork() throws Exception
+            public void process(NodeRef collection) throws Throwable
             {
-                transactionService.getRetryingTransactionHelper().doInTransaction(
-                        new RetryingTransactionCallback<Object>()
+                Date refreshAtDate = (Date)nodeService.getProperty(collection, PROP_REFRESH_AT);
+                Calendar refreshAt = Calendar.getInstance();
+                if (refreshAtDate != null)
                 {
-                    @Override
-                    public Object execute() throws Throwable
+                    // Convert the date to calendar
+                    refreshAt.setTime(refreshAtDate);
+                }
+
+                if ((refreshAtDate == null) || now.after(refreshAt))
+                {
+                    if (log.isDebugEnabled() == true)
+                    {
+                        String collectionName = (String)nodeService.getProperty(collection, ContentModel.PROP_NAME);
+                        if (collectionName != null)
+                        {
+                            log.debug("Refreshing dynamic collection " + collectionName);
+                        }
+                    }
+
+                    // Refresh the collection
+                    refreshed.incrementAndGet();
+                    if (collectionHelper.refreshCollection(collection))
                     {
-                    	ResultSet rs = null;
-                    	
-                    	try
-                    	{
-                            //Find all web root nodes
-                            rs = searchService.query(
-                        				StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, 
-                        				SearchService.LANGUAGE_LUCENE, 
-                        				QUERY);
-                     
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug("Running dynamic collection refresh processor across " + rs.length() + " dynamic collection nodes");
-                            }
-                        
-                            // Get the current date
-                            Calendar now = Calendar.getInstance();
-                        
-                            // Interate over the dynamic queries 
-                            for (NodeRef collection : rs.getNodeRefs())
-                            {
-                                Date refreshAtDate = (Date)nodeService.getProperty(collection, PROP_REFRESH_AT);
-                                Calendar refreshAt = Calendar.getInstance();
-                                if (refreshAtDate != null)
-                                {
-                                    // Convert the date to calendar
-                                    refreshAt.setTime(refreshAtDate);
-                                }
-                                
-                                if ((refreshAtDate == null) || now.after(refreshAt))
-                                {
-                                    if (log.isDebugEnabled() == true)
-                                    {
-                                        String collectionName = (String)nodeService.getProperty(collection, ContentModel.PROP_NAME);
-                                        if (collectionName != null)
-                                        {
-                                            log.debug("Refreshing dynamic collection " + collectionName);
-                                        }
-                                    }                                    
-                                
-                                    // Refresh the collection
-                                    collectionHelper.refreshCollection(collection);
-                                }
-                            }
-                    	}
-                    	finally
-                    	{
-                    		if (rs != null) {rs.close();}
-                    	}
-                        return null;
-                    }   
-                });
-                return null;
+                        changed.incrementAndGet();
+                    }
+                }
             }
-        }, AuthenticationUtil.SYSTEM_USER_NAME);
+        }, log);
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Refreshed " + refreshed.get() + " dynamic collections, of which " + changed.get() + " changed");
+        }
     }
 }
@@ -25,26 +25,22 @@
  */
 package org.alfresco.module.org_alfresco_module_wcmquickstart.jobs;
 
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.alfresco.module.org_alfresco_module_wcmquickstart.jobs.NodeBatchExecutor.NodeWorker;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.jobs.feedback.FeedbackProcessorHandler;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.repo.admin.RepositoryState;
 import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
 import org.alfresco.repo.lock.LockAcquisitionException;
-import org.alfresco.repo.security.authentication.AuthenticationUtil;
-import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
-import org.alfresco.repo.transaction.RetryingTransactionHelper;
-import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
-import org.alfresco.service.cmr.repository.StoreRef;
-import org.alfresco.service.cmr.search.ResultSet;
-import org.alfresco.service.cmr.search.ResultSetRow;
-import org.alfresco.service.cmr.search.SearchService;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.util.VmShutdownListener.VmShutdownException;
@@ -55,6 +51,10 @@ import org.apache.commons.logging.LogFactory;
  * This class is designed to be run periodically. It finds any visitor feedback
  * that has not been processed yet and, for each item it finds, invokes the feedback handler that has been
  * registered for that type of feedback.
+ * <p>
+ * Feedback is processed in batches, each in its own transaction. The handlers' callbacks are run at the end
+ * of each batch's transaction, so that the summaries they maintain are committed along with the feedback
+ * that has been counted in them.
  * 
  * @author Brian
  */
@@ -63,11 +63,8 @@ public class FeedbackProcessor
     /** Logger */
     private static final Log log = LogFactory.getLog(FeedbackProcessor.class);
 
-    /** Retrying transaction helper */
-    private RetryingTransactionHelper txHelper;
-    
-    /** Search service */
-    private SearchService searchService;
+    /** Batch executor */
+    private NodeBatchExecutor batchExecutor;
     
     /** Node service */
     private NodeService nodeService;
@@ -75,6 +72,23 @@ public class FeedbackProcessor
     /** Map of feedback processors */
     private Map<String, FeedbackProcessorHandler> handlers = new TreeMap<String, FeedbackProcessorHandler>();
 
+    /** Runs the feedback processor callbacks before each batch's transaction commits */
+    private final TransactionListenerAdapter callbackListener = new TransactionListenerAdapter()
+    {
+        @Override
+        public void beforeCommit(boolean readOnly)
+        {
+            for (FeedbackProcessorHandler handler : handlers.values())
+            {
+                if (log.isDebugEnabled() == true)
+                {
+                    log.debug("Executing feedback handler callback for feedback type " + handler.getFeedbackType());
+                }
+                handler.processorCallback();
+            }
+        }
+    };
+
     /** Repository State */
     private RepositoryState repositoryState;
 
@@ -153,7 +167,7 @@ public class FeedbackProcessor
 
             jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL, lockCallback);
 
-            runInternal();
+            runInternal(lockCallback);
 
             // Done
             if (log.isDebugEnabled())
@@ -188,118 +202,77 @@ public class FeedbackProcessor
         }
     }
 
-    private void runInternal()
+    private void runInternal(LockCallback lockCallback)
     {
-        AuthenticationUtil.runAs(new RunAsWork<Object>()
+        //Find all visitor feedback nodes that have not yet been processed
+        List<NodeRef> feedbackNodes = batchExecutor.findNodes("@ws\\:ratingProcessed:\"false\"");
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running feedback processor across " + feedbackNodes.size() + " feedback nodes");
+        }
+        batchExecutor.process("FeedbackProcessor", feedbackNodes, lockCallback, new NodeWorker()
         {
             @Override
-            public Object doWork() throws Exception
+            public void process(NodeRef feedback) throws Throwable
             {
-                txHelper.doInTransaction(new RetryingTransactionCallback<Object>()
-                {
-                    @Override
-                    public Object execute() throws Throwable
-                    {                   
-                    	ResultSet rs = null;
-                    	
-                    	try
-                    	{
-                            //Find all visitor feedback nodes that have not yet been processed
-                            rs = searchService.query(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, 
-                                SearchService.LANGUAGE_LUCENE, "@ws\\:ratingProcessed:\"false\"");
-                     
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug("Running feedback processor across " + rs.length() + " feedback nodes");
-                            }
-                            for (ResultSetRow row : rs)
-                            {                 
-                                // Get the feedback node and feedback type
-                                NodeRef feedback = row.getNodeRef();
-                                String feedbackType = (String)nodeService.getProperty(feedback, WebSiteModel.PROP_FEEDBACK_TYPE);
-                            
-                                if (feedbackType != null)
-                                {
-                                    // Get the feedback processor handler
-                                    FeedbackProcessorHandler handler = handlers.get(feedbackType);
-                                    if (handler != null)
-                                    {
-                                        //Make sure that node wasn't processed on another cluster node. see MNT-10481
-                                        if (Boolean.FALSE.equals((Boolean)nodeService.getProperty(feedback, WebSiteModel.PROP_RATING_PROCESSED)))
-                                        {
-                                            /// TODO wrap into sub transaction
-                                     
-                                            // Process the feedback
-                                            if (log.isDebugEnabled() == true)
-                                            {
-                                                log.debug("Processing feedback node " + feedback.toString() + " of feedback type " + feedbackType);                                        
-                                            }
-                                            handler.processFeedback(feedback);
-                                        
-                                            // END
-                                            // TODO Log exception                                    
-                                    
-                                            //Set the "ratingProcessed" flag to true on this feedback node so we don't process it again
-                                            nodeService.setProperty(feedback, WebSiteModel.PROP_RATING_PROCESSED, Boolean.TRUE);
-                                        }
-                                    }
-                                    else
-                                    {
-                                        // Record that a feedback processor could not be found
-                                        if (log.isDebugEnabled() == true)
-                                        {
-                                            log.debug("Feedback processor handler can not be found for feedback type " + feedbackType + " on feedback node " + feedback.toString());
-                                        }
-                                    }
-                                }
-                                else
-                                {
-                                    // Record that no feedback type has been set for this feedback
-                                    if (log.isDebugEnabled() == true)
-                                    {
-                                        log.debug("Feedback type not specified for feedback node " + feedback.toString());
-                                    }
-                                }                                
-                            }
-                        
-                            // Execute feedback processor callbacks
-                            for (FeedbackProcessorHandler handler : handlers.values())
-                            {
-                                if (log.isDebugEnabled() == true)
-                                {
-                                    log.debug("Executing feedback handler callback for feedback type " + handler.getFeedbackType());
-                                }
-                                handler.processorCallback();
-                            }
-                      	}
-                    	finally
-                    	{
-                    		if (rs != null) {rs.close();}
-                    	}
-                        return null;
-                    }   
-                });
-                return null;
+                AlfrescoTransactionSupport.bindListener(callbackListener);
+                processFeedback(feedback);
             }
-        }, AuthenticationUtil.SYSTEM_USER_NAME);
+        }, log);
     }
 
-    /**
-     * Sets the transaction helper
-     * @param txHelper  transaction helper
-     */
-    public void setTxHelper(RetryingTransactionHelper txHelper)
+    private void processFeedback(NodeRef feedback)
     {
-        this.txHelper = txHelper;
+        // Get the feedback type
+        String feedbackType = (String)nodeService.getProperty(feedback, WebSiteModel.PROP_FEEDBACK_TYPE);
+
+        if (feedbackType != null)
+        {
+            // Get the feedback processor handler
+            FeedbackProcessorHandler handler = handlers.get(feedbackType);
+            if (handler != null)
+            {
+                //Make sure that node wasn't processed on another cluster node. see MNT-10481
+                if (Boolean.FALSE.equals((Boolean)nodeService.getProperty(feedback, WebSiteModel.PROP_RATING_PROCESSED)))
+                {
+                    // Process the feedback
+                    if (log.isDebugEnabled() == true)
+                    {
+                        log.debug("Processing feedback node " + feedback.toString() + " of feedback type " + feedbackType);
+                    }
+                    handler.processFeedback(feedback);
+
+                    //Set the "ratingProcessed" flag to true on this feedback node so we don't process it again
+                    nodeService.setProperty(feedback, WebSiteModel.PROP_RATING_PROCESSED, Boolean.TRUE);
+                }
+            }
+            else
+            {
+                // Record that a feedback processor could not be found
+                if (log.isDebugEnabled() == true)
+                {
+                    log.debug("Feedback processor handler can not be found for feedback type " + feedbackType + " on feedback node " + feedback.toString());
+                }
+            }
+        }
+        else
+        {
+            // Record that no feedback type has been set for this feedback
+            if (log.isDebugEnabled() == true)
+            {
+                log.debug("Feedback type not specified for feedback node " + feedback.toString());
+            }
+        }
     }
 
     /**
-     * Sets the search service
-     * @param searchService search service
+     * Sets the batch executor
+     * @param batchExecutor batch executor
      */
-    public void setSearchService(SearchService searchService)
+    public void setBatchExecutor(NodeBatchExecutor batchExecutor)
     {
-        this.searchService = searchService;
+        this.batchExecutor = batchExecutor;
     }
 
     /**
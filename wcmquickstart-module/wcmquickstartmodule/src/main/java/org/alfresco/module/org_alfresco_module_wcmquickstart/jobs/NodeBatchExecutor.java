@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.jobs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.alfresco.repo.batch.BatchProcessWorkProvider;
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.cmr.search.ResultSet;
+import org.alfresco.service.cmr.search.SearchService;
+import org.apache.commons.logging.Log;
+
+/**
+ * Runs the work of a background job over a set of nodes. The nodes are handed out in batches to a pool of
+ * worker threads, and each batch is processed as the system user in its own retrying transaction. If a batch
+ * fails, its nodes are retried one at a time so that a single bad node is logged and skipped rather than
+ * rolling back the whole run.
+ */
+public class NodeBatchExecutor
+{
+    /**
+     * The work done for each node
+     */
+    public interface NodeWorker
+    {
+        void process(NodeRef nodeRef) throws Throwable;
+    }
+
+    private RetryingTransactionHelper txHelper;
+    private SearchService searchService;
+    private int batchSize = 20;
+    private int workerThreads = 2;
+    private int loggingInterval = 100;
+
+    public void setTxHelper(RetryingTransactionHelper txHelper)
+    {
+        this.txHelper = txHelper;
+    }
+
+    public void setSearchService(SearchService searchService)
+    {
+        this.searchService = searchService;
+    }
+
+    /**
+     * @param batchSize the number of nodes processed in each transaction
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param workerThreads the number of batches processed in parallel
+     */
+    public void setWorkerThreads(int workerThreads)
+    {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * @param loggingInterval the number of nodes processed between progress messages
+     */
+    public void setLoggingInterval(int loggingInterval)
+    {
+        this.loggingInterval = loggingInterval;
+    }
+
+    /**
+     * Find the nodes that match a Lucene query. The query is run as the system user in a read-only transaction.
+     * 
+     * @param query Lucene query
+     * @return the matching nodes
+     */
+    public List<NodeRef> findNodes(final String query)
+    {
+        return AuthenticationUtil.runAs(new RunAsWork<List<NodeRef>>()
+        {
+            @Override
+            public List<NodeRef> doWork() throws Exception
+            {
+                return txHelper.doInTransaction(new RetryingTransactionCallback<List<NodeRef>>()
+                {
+                    @Override
+                    public List<NodeRef> execute() throws Throwable
+                    {
+                        ResultSet rs = null;
+                        try
+                        {
+                            rs = searchService.query(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE,
+                                    SearchService.LANGUAGE_LUCENE, query);
+                            return new ArrayList<NodeRef>(rs.getNodeRefs());
+                        }
+                        finally
+                        {
+                            if (rs != null) {rs.close();}
+                        }
+                    }
+                }, true);
+            }
+        }, AuthenticationUtil.SYSTEM_USER_NAME);
+    }
+
+    /**
+     * Process the nodes in batches. No further batches are started once the job's lock has been released, so
+     * a job that loses its lock part way through a long run stops rather than racing another cluster node.
+     * 
+     * @param processName   name of the job, used in log messages and for the worker threads
+     * @param nodes         nodes to process
+     * @param lockCallback  refresh callback of the job's lock
+     * @param worker        the work done for each node
+     * @param log           log to report progress and failures to
+     * @return the batch processor, which holds the statistics for the run
+     */
+    public BatchProcessor<NodeRef> process(String processName, final List<NodeRef> nodes,
+            final JobLockRefreshCallback lockCallback, final NodeWorker worker, Log log)
+    {
+        BatchProcessWorkProvider<NodeRef> workProvider = new BatchProcessWorkProvider<NodeRef>()
+        {
+            private int position = 0;
+
+            @Override
+            public int getTotalEstimatedWorkSize()
+            {
+                return nodes.size();
+            }
+
+            @Override
+            public Collection<NodeRef> getNextWork()
+            {
+                if (position >= nodes.size() || !lockCallback.isActive())
+                {
+                    return Collections.emptyList();
+                }
+                int end = Math.min(position + batchSize, nodes.size());
+                List<NodeRef> batch = new ArrayList<NodeRef>(nodes.subList(position, end));
+                position = end;
+                return batch;
+            }
+        };
+
+        BatchProcessor<NodeRef> batchProcessor = new BatchProcessor<NodeRef>(processName, txHelper, workProvider,
+                workerThreads, batchSize, null, log, loggingInterval);
+        batchProcessor.process(new BatchProcessWorkerAdaptor<NodeRef>()
+        {
+            @Override
+            public void beforeProcess() throws Throwable
+            {
+                AuthenticationUtil.setRunAsUserSystem();
+            }
+
+            @Override
+            public void process(NodeRef nodeRef) throws Throwable
+            {
+                worker.process(nodeRef);
+            }
+
+            @Override
+            public void afterProcess() throws Throwable
+            {
+                AuthenticationUtil.clearCurrentSecurityContext();
+            }
+        }, true);
+
+        if (batchProcessor.getTotalErrors() > 0)
+        {
+            log.warn(processName + " processed " + batchProcessor.getSuccessfullyProcessedEntries() + " of "
+                    + nodes.size() + " nodes with " + batchProcessor.getTotalErrors() + " errors. Last error on "
+                    + batchProcessor.getLastErrorEntryId() + ": " + batchProcessor.getLastError());
+        }
+        else if (log.isDebugEnabled())
+        {
+            log.debug(processName + " processed " + batchProcessor.getSuccessfullyProcessedEntries() + " of "
+                    + nodes.size() + " nodes");
+        }
+        return batchProcessor;
+    }
+}
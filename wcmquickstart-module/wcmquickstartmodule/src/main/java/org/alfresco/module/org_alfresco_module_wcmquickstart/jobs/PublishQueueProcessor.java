@@ -25,31 +25,27 @@
  */
 package org.alfresco.module.org_alfresco_module_wcmquickstart.jobs;
 
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.alfresco.module.org_alfresco_module_wcmquickstart.jobs.NodeBatchExecutor.NodeWorker;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.publish.PublishService;
 import org.alfresco.repo.admin.RepositoryState;
 import org.alfresco.repo.lock.JobLockService;
 import org.alfresco.repo.lock.JobLockService.JobLockRefreshCallback;
 import org.alfresco.repo.lock.LockAcquisitionException;
-import org.alfresco.repo.security.authentication.AuthenticationUtil;
-import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
-import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
-import org.alfresco.service.cmr.repository.StoreRef;
-import org.alfresco.service.cmr.search.ResultSet;
-import org.alfresco.service.cmr.search.ResultSetRow;
-import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
-import org.alfresco.service.transaction.TransactionService;
 import org.alfresco.util.VmShutdownListener.VmShutdownException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
  * This class is designed to be run periodically. It looks for all web sites in the repository
- * and publishes any nodes that are waiting in each one's publishing queue
+ * and publishes any nodes that are waiting in each one's publishing queue. Each web site's queue is
+ * published in its own transaction.
  * 
  * @author Brian
  * 
@@ -58,8 +54,7 @@ public class PublishQueueProcessor
 {
     private static final Log log = LogFactory.getLog(PublishQueueProcessor.class);
 
-    private TransactionService transactionService;
-    private SearchService searchService;
+    private NodeBatchExecutor batchExecutor;
     private PublishService publishService;
     private RepositoryState repositoryState;
     private JobLockService jobLockService;
@@ -120,7 +115,7 @@ public class PublishQueueProcessor
 
             jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL, lockCallback);
 
-            runInternal();
+            runInternal(lockCallback);
 
             // Done
             if (log.isDebugEnabled())
@@ -155,56 +150,28 @@ public class PublishQueueProcessor
         }
     }
 
-    private void runInternal()
+    private void runInternal(LockCallback lockCallback)
     {
-        AuthenticationUtil.runAs(new RunAsWork<Object>()
+        //Find all web root nodes
+        List<NodeRef> webSites = batchExecutor.findNodes("TYPE:\"" + WebSiteModel.TYPE_WEB_SITE + "\"");
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Running publish queue processor across " + webSites.size() + " website nodes");
+        }
+        batchExecutor.process("PublishQueueProcessor", webSites, lockCallback, new NodeWorker()
         {
             @Override
-            public Object doWork() throws Exception
+            public void process(NodeRef webSite) throws Throwable
             {
-                transactionService.getRetryingTransactionHelper().doInTransaction(
-                        new RetryingTransactionCallback<Object>()
-                {
-                    @Override
-                    public Object execute() throws Throwable
-                    {
-                    	ResultSet rs = null;
-                    	
-                    	try
-                    	{
-                            //Find all web root nodes
-                            rs = searchService.query(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, 
-                                SearchService.LANGUAGE_LUCENE, "TYPE:\"" + WebSiteModel.TYPE_WEB_SITE + "\"");
-                     
-                            if (log.isDebugEnabled())
-                            {
-                                log.debug("Running publish queue processor across " + rs.length() + " website nodes");
-                            }
-                            for (ResultSetRow row : rs)
-                            {
-                                publishService.publishQueue(row.getNodeRef());
-                            }
-                    	}
-                    	finally
-                    	{
-                    		if (rs != null) {rs.close();}
-                    	}
-                        return null;
-                    }   
-                });
-                return null;
+                publishService.publishQueue(webSite);
             }
-        }, AuthenticationUtil.SYSTEM_USER_NAME);
-    }
-
-    public void setSearchService(SearchService searchService)
-    {
-        this.searchService = searchService;
+        }, log);
     }
 
-    public void setTransactionService(TransactionService transactionService)
+    public void setBatchExecutor(NodeBatchExecutor batchExecutor)
     {
-        this.transactionService = transactionService;
+        this.batchExecutor = batchExecutor;
     }
 
     public void setPublishService(PublishService publishService)
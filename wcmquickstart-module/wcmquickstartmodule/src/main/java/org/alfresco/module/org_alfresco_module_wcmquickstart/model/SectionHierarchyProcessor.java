@@ -25,18 +25,33 @@
  */
 package org.alfresco.module.org_alfresco_module_wcmquickstart.model;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.alfresco.model.ContentModel;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.lock.LockAcquisitionException;
 import org.alfresco.repo.policy.BehaviourFilter;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
 import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
@@ -45,28 +60,106 @@ import org.alfresco.service.cmr.repository.StoreRef;
 import org.alfresco.service.cmr.search.ResultSet;
 import org.alfresco.service.cmr.search.ResultSetRow;
 import org.alfresco.service.cmr.search.SearchService;
+import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.namespace.RegexQNamePattern;
 import org.alfresco.service.transaction.TransactionService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ApplicationContextEvent;
+import org.springframework.extensions.surf.util.AbstractLifecycleBean;
 
 /**
  * This class is responsible for processing section hierarchies to calculate ancestor and parent sections.
+ * <p>
+ * The sections whose subtrees need recalculating are recorded as pending in the attribute service, and
+ * are worked through in the background a batch at a time, each batch in its own transaction. As each section
+ * is processed it is replaced in the pending set by its subsections, so the work survives a restart and is
+ * resumed when the repository starts up again. Sections and web assets whose values are already correct are
+ * not updated, and the subtree below a section whose ancestors haven't changed is skipped.
+ * <p>
+ * If a batch fails, its sections are processed again one at a time so that a failing section doesn't hold
+ * back the others. A section that keeps failing is removed from the pending set once it has been tried
+ * maxAttempts times, and its failure count is kept so that it can be reported.
+ * <p>
+ * Only one server in a cluster processes the pending sections at a time. The server that holds the lock checks
+ * for pending sections again after releasing it, so that sections recorded by a server that found the lock held
+ * are not left waiting. A server that finds the lock held also tries again once the lock would have expired, in
+ * case the server holding it has stopped.
  * @author Brian
  *
  */
-public class SectionHierarchyProcessor implements WebSiteModel
+public class SectionHierarchyProcessor implements WebSiteModel, ApplicationContextAware,
+        ApplicationListener<ApplicationContextEvent>
 {
     private static Log log = LogFactory.getLog(SectionHierarchyProcessor.class);
 
+    private static final String ATTR_APPLICATION = SectionHierarchyProcessor.class.getName();
+    private static final String ATTR_PENDING = "pending";
+    private static final String ATTR_STARTED_AT = "startedAt";
+    private static final String ATTR_FAILED = "failed";
+
+    private static final long LOCK_TTL = 60000L;
+    private static final QName LOCK_QNAME = QName.createQName(NamespaceService.SYSTEM_MODEL_1_0_URI,
+            "org.alfresco.module.org_alfresco_module_wcmquickstart.model.SectionHierarchyProcessor");
+
     private BehaviourFilter behaviourFilter;
     private NodeService nodeService;
     private DictionaryService dictionaryService;
     private SearchService searchService;
     private TransactionService transactionService;
+    private AttributeService attributeService;
+    private JobLockService jobLockService;
+    private int batchSize = 500;
+    private int maxAttempts = 3;
     private boolean initialised = false;
 
+    private final Lifecycle lifecycle = new Lifecycle();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicBoolean retryScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private final AtomicLong sectionsProcessed = new AtomicLong();
+    private final AtomicLong nodesUpdated = new AtomicLong();
+    private volatile long lastPropagationTime = -1L;
+    private ScheduledThreadPoolExecutor executor;
+
+    /** The lock held while the pending sections are processed, and when it was last refreshed */
+    private String lockToken;
+    private long lockRefreshedAt;
+
+    private final Runnable processTask = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            scheduled.set(false);
+            try
+            {
+                processPending();
+            }
+            catch (Throwable ex)
+            {
+                log.error("Failed to process section hierarchy changes. They will be resumed on restart or "
+                        + "when the next change is made.", ex);
+            }
+        }
+    };
+
+    /** Schedules processing of the pending sections once the transaction that recorded them has committed */
+    private final TransactionListenerAdapter scheduleListener = new TransactionListenerAdapter()
+    {
+        @Override
+        public void afterCommit()
+        {
+            schedule();
+        }
+    };
+
     public SectionHierarchyProcessor()
     {
     }
@@ -96,140 +189,673 @@ public class SectionHierarchyProcessor implements WebSiteModel
         this.transactionService = transactionService;
     }
 
-    @SuppressWarnings("unchecked")
+    public void setAttributeService(AttributeService attributeService)
+    {
+        this.attributeService = attributeService;
+    }
+
+    public void setJobLockService(JobLockService jobLockService)
+    {
+        this.jobLockService = jobLockService;
+    }
+
+    /**
+     * @param batchSize the number of sections and web assets examined in each transaction
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param maxAttempts the number of times a failing section is tried before it is removed from the pending
+     *            sections
+     */
+    public void setMaxAttempts(int maxAttempts)
+    {
+        this.maxAttempts = maxAttempts;
+    }
+
+    @Override
+    public void setApplicationContext(ApplicationContext applicationContext) throws BeansException
+    {
+        lifecycle.setApplicationContext(applicationContext);
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationContextEvent event)
+    {
+        lifecycle.onApplicationEvent(event);
+    }
+
+    /**
+     * Record that the ancestors of the specified sections and everything below them need recalculating. This
+     * must be called in a transaction; the sections are processed in the background once it has committed.
+     * 
+     * @param affectedSections the sections whose ancestors may have changed
+     */
     public void process(Set<NodeRef> affectedSections)
     {
-        List<SectionAncestorRecord> sectionsToProcess = new LinkedList<SectionAncestorRecord>();
+        if (affectedSections.isEmpty())
+        {
+            return;
+        }
+        if (!attributeService.exists(ATTR_APPLICATION, ATTR_STARTED_AT))
+        {
+            attributeService.setAttribute(Long.valueOf(System.currentTimeMillis()), ATTR_APPLICATION, ATTR_STARTED_AT);
+        }
         for (NodeRef sectionId : affectedSections)
         {
-            sectionsToProcess.add(new SectionAncestorRecord(sectionId, null));
+            addPending(sectionId, true);
         }
+        AlfrescoTransactionSupport.bindListener(scheduleListener);
+    }
 
-        Set<NodeRef> processedSections = new HashSet<NodeRef>(89);
-        while (!sectionsToProcess.isEmpty())
+    /**
+     * Process the pending sections in the calling thread until there are none left. This does nothing if
+     * the sections are already being processed elsewhere in the cluster.
+     */
+    public void processPending()
+    {
+        AuthenticationUtil.runAs(new RunAsWork<Object>()
         {
-            SectionAncestorRecord record = sectionsToProcess.remove(0);
-            NodeRef currentSection = record.getSectionId();
-            Set<NodeRef> thisSectionsAncestors = record.getAncestorSections();
-
-            if (thisSectionsAncestors == null)
+            @Override
+            public Object doWork() throws Exception
             {
-                thisSectionsAncestors = new HashSet<NodeRef>();
-                NodeRef sectionParent = nodeService.getPrimaryParent(currentSection).getParentRef();
+                processPendingInternal();
+                return null;
+            }
+        }, AuthenticationUtil.SYSTEM_USER_NAME);
+    }
 
-                if (dictionaryService.isSubClass(nodeService.getType(sectionParent), WebSiteModel.TYPE_SECTION))
+    /**
+     * @return true if pending sections are being processed by this server
+     */
+    public boolean isRunning()
+    {
+        return running.get();
+    }
+
+    /**
+     * @return the number of sections waiting to be processed
+     */
+    public int getPendingSectionCount()
+    {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(
+                new RetryingTransactionHelper.RetryingTransactionCallback<Integer>()
+        {
+            public Integer execute() throws Throwable
+            {
+                final AtomicInteger count = new AtomicInteger();
+                attributeService.getAttributes(new AttributeQueryCallback()
                 {
-                    thisSectionsAncestors.add(sectionParent);
+                    @Override
+                    public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
+                    {
+                        count.incrementAndGet();
+                        return true;
+                    }
+                }, ATTR_APPLICATION, ATTR_PENDING);
+                return count.get();
+            }
+        }, true);
+    }
 
-                    Collection<NodeRef> ancestors = (Collection<NodeRef>) nodeService.getProperty(sectionParent,
-                            PROP_ANCESTOR_SECTIONS);
-                    if (ancestors != null)
+    /**
+     * @return the sections that have failed to be processed, with the number of times each has failed. A
+     *         section that has failed maxAttempts times is no longer pending.
+     */
+    public Map<NodeRef, Integer> getFailedSections()
+    {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(
+                new RetryingTransactionHelper.RetryingTransactionCallback<Map<NodeRef, Integer>>()
+        {
+            public Map<NodeRef, Integer> execute() throws Throwable
+            {
+                final Map<NodeRef, Integer> failed = new LinkedHashMap<NodeRef, Integer>();
+                attributeService.getAttributes(new AttributeQueryCallback()
+                {
+                    @Override
+                    public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
                     {
-                        thisSectionsAncestors.addAll(ancestors);
+                        failed.put(new NodeRef((String) keys[2]), (Integer) value);
+                        return true;
                     }
+                }, ATTR_APPLICATION, ATTR_FAILED);
+                return failed;
+            }
+        }, true);
+    }
+
+    /**
+     * @return when the changes that are still being processed were first recorded, or null if there are none
+     */
+    public Date getPropagationStartTime()
+    {
+        Long startedAt = transactionService.getRetryingTransactionHelper().doInTransaction(
+                new RetryingTransactionHelper.RetryingTransactionCallback<Long>()
+        {
+            public Long execute() throws Throwable
+            {
+                return (Long) attributeService.getAttribute(ATTR_APPLICATION, ATTR_STARTED_AT);
+            }
+        }, true);
+        return startedAt == null ? null : new Date(startedAt);
+    }
+
+    /**
+     * @return the number of sections processed by this server since it started
+     */
+    public long getSectionsProcessed()
+    {
+        return sectionsProcessed.get();
+    }
+
+    /**
+     * @return the number of sections and web assets updated by this server since it started
+     */
+    public long getNodesUpdated()
+    {
+        return nodesUpdated.get();
+    }
+
+    /**
+     * @return how long, in milliseconds, the most recently completed set of changes took to propagate from
+     *         being recorded to being fully processed, or -1 if none has completed on this server
+     */
+    public long getLastPropagationTime()
+    {
+        return lastPropagationTime;
+    }
+
+    private void schedule()
+    {
+        if (scheduled.compareAndSet(false, true))
+        {
+            getExecutor().execute(processTask);
+        }
+    }
+
+    /**
+     * Schedule processing once the lock held by another server would have expired
+     */
+    private void scheduleRetry()
+    {
+        if (retryScheduled.compareAndSet(false, true))
+        {
+            getExecutor().schedule(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    retryScheduled.set(false);
+                    schedule();
                 }
+            }, LOCK_TTL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized ScheduledThreadPoolExecutor getExecutor()
+    {
+        if (executor == null)
+        {
+            executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "SectionHierarchyProcessor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setKeepAliveTime(60L, TimeUnit.SECONDS);
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    private synchronized void shutdown()
+    {
+        if (executor != null)
+        {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private void processPendingInternal()
+    {
+        do
+        {
+            try
+            {
+                lockToken = jobLockService.getLock(LOCK_QNAME, LOCK_TTL);
+                lockRefreshedAt = System.currentTimeMillis();
             }
+            catch (LockAcquisitionException e)
+            {
+                // Another server is processing the pending sections, and will check for any that we have added
+                // once it has released the lock. Try again once the lock would have expired in case it has stopped.
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Section hierarchy changes are already being processed");
+                }
+                scheduleRetry();
+                return;
+            }
+
+            running.set(true);
             try
             {
-                behaviourFilter.disableBehaviour(currentSection, TYPE_SECTION);
-                behaviourFilter.disableBehaviour(currentSection, ContentModel.ASPECT_AUDITABLE);
-                nodeService.setProperty(currentSection, PROP_ANCESTOR_SECTIONS, new ArrayList<NodeRef>(
-                        thisSectionsAncestors));
+                processAllPending();
             }
             finally
             {
-                behaviourFilter.enableBehaviour(currentSection, ContentModel.ASPECT_AUDITABLE);
-                behaviourFilter.enableBehaviour(currentSection, TYPE_SECTION);
+                running.set(false);
+                jobLockService.releaseLock(lockToken, LOCK_QNAME);
+                lockToken = null;
+            }
+        }
+        // Sections recorded by another server while we held the lock are processed by us
+        while (hasPending());
+    }
+
+    /**
+     * Process pending sections until there are none left. Called while holding the lock.
+     */
+    private void processAllPending()
+    {
+        RetryingTransactionHelper txHelper = transactionService.getRetryingTransactionHelper();
+        boolean more = true;
+        while (more)
+        {
+            refreshLock();
+            try
+            {
+                more = txHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Boolean>()
+                {
+                    public Boolean execute() throws Throwable
+                    {
+                        return processBatch();
+                    }
+                }, false, true);
             }
+            catch (RuntimeException e)
+            {
+                log.warn("Failed to process a batch of section hierarchy changes. Processing its sections one at a time.", e);
+                processBatchBySection();
+            }
+        }
+    }
 
-            ArrayList<NodeRef> childrensAncestors = new ArrayList<NodeRef>(thisSectionsAncestors);
-            childrensAncestors.add(currentSection);
+    /**
+     * Refresh the lock if half of its time to live has passed since it was last refreshed. Called while holding
+     * the lock, including part way through processing a section, as a section may have many web assets.
+     */
+    private void refreshLock()
+    {
+        long now = System.currentTimeMillis();
+        if (now - lockRefreshedAt > LOCK_TTL / 2)
+        {
+            jobLockService.refreshLock(lockToken, LOCK_QNAME, LOCK_TTL);
+            lockRefreshedAt = now;
+        }
+    }
 
-            List<ChildAssociationRef> childAssets = nodeService.getChildAssocsByPropertyValue(currentSection,
-                    PROP_PARENT_SECTIONS, currentSection);
-            for (ChildAssociationRef childAssoc : childAssets)
+    /**
+     * @return true if there are sections waiting to be processed
+     */
+    private boolean hasPending()
+    {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(
+                new RetryingTransactionHelper.RetryingTransactionCallback<Boolean>()
+        {
+            public Boolean execute() throws Throwable
+            {
+                final AtomicBoolean pending = new AtomicBoolean();
+                attributeService.getAttributes(new AttributeQueryCallback()
+                {
+                    @Override
+                    public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
+                    {
+                        pending.set(true);
+                        return false;
+                    }
+                }, ATTR_APPLICATION, ATTR_PENDING);
+                return pending.get();
+            }
+        }, true, true);
+    }
+
+    /**
+     * Process the next batch of pending sections, each section in a transaction of its own. A section that
+     * fails has its failure count incremented, and is removed from the pending sections once it has failed
+     * maxAttempts times.
+     */
+    private void processBatchBySection()
+    {
+        RetryingTransactionHelper txHelper = transactionService.getRetryingTransactionHelper();
+        Map<NodeRef, Boolean> batch = txHelper.doInTransaction(
+                new RetryingTransactionHelper.RetryingTransactionCallback<Map<NodeRef, Boolean>>()
+        {
+            public Map<NodeRef, Boolean> execute() throws Throwable
             {
-                processWebAssetsSections(childAssoc.getChildRef(), childrensAncestors);
+                return readBatch();
             }
+        }, true, true);
 
-            Set<QName> sectionTypes = new HashSet<QName>(dictionaryService.getSubTypes(TYPE_SECTION, true));
-            List<ChildAssociationRef> subsections = nodeService.getChildAssocs(currentSection, sectionTypes);
-            for (ChildAssociationRef subsection : subsections)
+        for (final Map.Entry<NodeRef, Boolean> pending : batch.entrySet())
+        {
+            refreshLock();
+            try
             {
-                NodeRef child = subsection.getChildRef();
-                if (!processedSections.contains(child))
+                txHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Object>()
                 {
-                    sectionsToProcess.add(new SectionAncestorRecord(child, childrensAncestors));
-                }
+                    public Object execute() throws Throwable
+                    {
+                        processPendingSection(pending.getKey(), pending.getValue());
+                        return null;
+                    }
+                }, false, true);
+                sectionsProcessed.incrementAndGet();
+            }
+            catch (RuntimeException e)
+            {
+                recordFailure(pending.getKey(), e);
             }
-            processedSections.add(currentSection);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    public void processWebAssetsSections(NodeRef childNode, ArrayList<NodeRef> knownAncestors)
+    private void recordFailure(final NodeRef section, final RuntimeException cause)
     {
-        if (childNode != null && nodeService.hasAspect(childNode, ASPECT_WEBASSET))
+        transactionService.getRetryingTransactionHelper().doInTransaction(
+                new RetryingTransactionHelper.RetryingTransactionCallback<Object>()
         {
-            List<ChildAssociationRef> parentAssocs = nodeService.getParentAssocs(childNode,
-                    ContentModel.ASSOC_CONTAINS, RegexQNamePattern.MATCH_ALL);
-            ArrayList<NodeRef> parentSections = new ArrayList<NodeRef>(parentAssocs.size());
-            Set<NodeRef> ancestorSections = new HashSet<NodeRef>();
-            if (parentAssocs.size() == 1 && knownAncestors != null)
+            public Object execute() throws Throwable
             {
-                parentSections.add(parentAssocs.get(0).getParentRef());
-                try
+                String key = section.toString();
+                Integer failures = (Integer) attributeService.getAttribute(ATTR_APPLICATION, ATTR_FAILED, key);
+                failures = (failures == null) ? 1 : failures + 1;
+                attributeService.setAttribute(failures, ATTR_APPLICATION, ATTR_FAILED, key);
+                if (failures >= maxAttempts)
                 {
-                    behaviourFilter.disableBehaviour(childNode, ASPECT_WEBASSET);
-                    behaviourFilter.disableBehaviour(childNode, ContentModel.ASPECT_AUDITABLE);
-                    nodeService.setProperty(childNode, PROP_PARENT_SECTIONS, parentSections);
-                    nodeService.setProperty(childNode, PROP_ANCESTOR_SECTIONS, knownAncestors);
+                    attributeService.removeAttribute(ATTR_APPLICATION, ATTR_PENDING, key);
+                    log.error("Failed to process section " + section + " " + failures
+                            + " times. It is no longer pending, and the sections below it may have incorrect ancestors.", cause);
                 }
-                finally
+                else
                 {
-                    behaviourFilter.enableBehaviour(childNode, ContentModel.ASPECT_AUDITABLE);
-                    behaviourFilter.enableBehaviour(childNode, ASPECT_WEBASSET);
+                    log.warn("Failed to process section " + section + ". It will be retried.", cause);
                 }
+                return null;
             }
-            else
+        }, false, true);
+    }
+
+    /**
+     * Read the next batch of pending sections, with whether each one is a root
+     */
+    private Map<NodeRef, Boolean> readBatch()
+    {
+        final Map<NodeRef, Boolean> batch = new LinkedHashMap<NodeRef, Boolean>();
+        attributeService.getAttributes(new AttributeQueryCallback()
+        {
+            @Override
+            public boolean handleAttribute(Long id, Serializable value, Serializable[] keys)
             {
-                for (ChildAssociationRef assoc : parentAssocs)
+                batch.put(new NodeRef((String) keys[2]), Boolean.TRUE.equals(value));
+                return batch.size() < batchSize;
+            }
+        }, ATTR_APPLICATION, ATTR_PENDING);
+        return batch;
+    }
+
+    /**
+     * Process the next batch of pending sections
+     * 
+     * @return true if there may be more to process, false if there were no pending sections
+     */
+    private boolean processBatch()
+    {
+        // Take a batch of pending sections. Each section needs at least one node examined.
+        Map<NodeRef, Boolean> batch = readBatch();
+
+        if (batch.isEmpty())
+        {
+            Long startedAt = (Long) attributeService.getAttribute(ATTR_APPLICATION, ATTR_STARTED_AT);
+            if (startedAt != null)
+            {
+                attributeService.removeAttribute(ATTR_APPLICATION, ATTR_STARTED_AT);
+                lastPropagationTime = System.currentTimeMillis() - startedAt;
+                if (log.isInfoEnabled())
                 {
-                    NodeRef parentNode = assoc.getParentRef();
-                    if (dictionaryService.isSubClass(nodeService.getType(parentNode), WebSiteModel.TYPE_SECTION))
-                    {
-                        parentSections.add(parentNode);
-                        Collection<NodeRef> ancestors = (Collection<NodeRef>) nodeService.getProperty(parentNode,
-                                PROP_ANCESTOR_SECTIONS);
-                        if (ancestors != null)
-                        {
-                            ancestorSections.addAll(ancestors);
-                        }
-                    }
-                    ancestorSections.addAll(parentSections);
-                    try
-                    {
-                        behaviourFilter.disableBehaviour(childNode, ASPECT_WEBASSET);
-                        behaviourFilter.disableBehaviour(childNode, ContentModel.ASPECT_AUDITABLE);
-                        if (log.isDebugEnabled())
-                        {
-                            log.debug("Section child is a web asset (" + childNode + "). Setting parent section ids:  "
-                                    + parentSections);
-                        }
-                        nodeService.setProperty(childNode, PROP_PARENT_SECTIONS, parentSections);
-                        nodeService.setProperty(childNode, PROP_ANCESTOR_SECTIONS, new ArrayList<NodeRef>(
-                                ancestorSections));
-                    }
-                    finally
+                    log.info("Section hierarchy changes have been fully propagated in " + lastPropagationTime
+                            + "ms. Sections processed: " + sectionsProcessed.get() + "; nodes updated: "
+                            + nodesUpdated.get());
+                }
+            }
+            return false;
+        }
+
+        int examined = 0;
+        int processed = 0;
+        for (Map.Entry<NodeRef, Boolean> pending : batch.entrySet())
+        {
+            if (examined >= batchSize)
+            {
+                break;
+            }
+            examined += processPendingSection(pending.getKey(), pending.getValue());
+            processed++;
+        }
+        sectionsProcessed.addAndGet(processed);
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("Processed a batch of " + processed + " sections, examining " + examined + " nodes");
+        }
+        return true;
+    }
+
+    /**
+     * Process a pending section and remove it from the pending sections
+     * 
+     * @return the number of nodes examined
+     */
+    private int processPendingSection(NodeRef section, boolean root)
+    {
+        String key = section.toString();
+        int examined = processSection(section, root);
+        attributeService.removeAttribute(ATTR_APPLICATION, ATTR_PENDING, key);
+        if (attributeService.exists(ATTR_APPLICATION, ATTR_FAILED, key))
+        {
+            attributeService.removeAttribute(ATTR_APPLICATION, ATTR_FAILED, key);
+        }
+        return examined;
+    }
+
+    /**
+     * Recalculate the ancestors of a section from those of its parent, update the web assets in it and
+     * mark its subsections as pending.
+     * 
+     * @param currentSection the section
+     * @param root true if this section is one of the sections affected by a change, false if it has been
+     *            reached from its parent section. The subtree below a section that isn't a root is skipped if
+     *            its ancestors were already correct.
+     * @return the number of nodes examined
+     */
+    @SuppressWarnings("unchecked")
+    private int processSection(NodeRef currentSection, boolean root)
+    {
+        if (!nodeService.exists(currentSection))
+        {
+            return 1;
+        }
+
+        Set<NodeRef> thisSectionsAncestors = new HashSet<NodeRef>();
+        NodeRef sectionParent = nodeService.getPrimaryParent(currentSection).getParentRef();
+        if (sectionParent != null
+                && dictionaryService.isSubClass(nodeService.getType(sectionParent), WebSiteModel.TYPE_SECTION))
+        {
+            thisSectionsAncestors.add(sectionParent);
+
+            Collection<NodeRef> ancestors = (Collection<NodeRef>) nodeService.getProperty(sectionParent,
+                    PROP_ANCESTOR_SECTIONS);
+            if (ancestors != null)
+            {
+                thisSectionsAncestors.addAll(ancestors);
+            }
+        }
+
+        boolean changed = !sameNodes(nodeService.getProperty(currentSection, PROP_ANCESTOR_SECTIONS),
+                thisSectionsAncestors);
+        if (changed)
+        {
+            try
+            {
+                behaviourFilter.disableBehaviour(currentSection, TYPE_SECTION);
+                behaviourFilter.disableBehaviour(currentSection, ContentModel.ASPECT_AUDITABLE);
+                nodeService.setProperty(currentSection, PROP_ANCESTOR_SECTIONS, new ArrayList<NodeRef>(
+                        thisSectionsAncestors));
+            }
+            finally
+            {
+                behaviourFilter.enableBehaviour(currentSection, ContentModel.ASPECT_AUDITABLE);
+                behaviourFilter.enableBehaviour(currentSection, TYPE_SECTION);
+            }
+            nodesUpdated.incrementAndGet();
+        }
+        else if (!root)
+        {
+            // This section's ancestors were already correct, so everything below it is too
+            return 1;
+        }
+
+        ArrayList<NodeRef> childrensAncestors = new ArrayList<NodeRef>(thisSectionsAncestors);
+        childrensAncestors.add(currentSection);
+
+        List<ChildAssociationRef> childAssets = nodeService.getChildAssocsByPropertyValue(currentSection,
+                PROP_PARENT_SECTIONS, currentSection);
+        for (ChildAssociationRef childAssoc : childAssets)
+        {
+            refreshLock();
+            if (processWebAssetsSections(childAssoc.getChildRef(), childrensAncestors))
+            {
+                nodesUpdated.incrementAndGet();
+            }
+        }
+
+        Set<QName> sectionTypes = new HashSet<QName>(dictionaryService.getSubTypes(TYPE_SECTION, true));
+        List<ChildAssociationRef> subsections = nodeService.getChildAssocs(currentSection, sectionTypes);
+        for (ChildAssociationRef subsection : subsections)
+        {
+            addPending(subsection.getChildRef(), false);
+        }
+        return 1 + childAssets.size() + subsections.size();
+    }
+
+    /**
+     * Set the parent and ancestor sections of a web asset, if they aren't correct already
+     * 
+     * @param childNode the web asset
+     * @param knownAncestors the ancestors of the asset's section, including that section, if known
+     * @return true if the web asset has been updated
+     */
+    @SuppressWarnings("unchecked")
+    public boolean processWebAssetsSections(NodeRef childNode, ArrayList<NodeRef> knownAncestors)
+    {
+        if (childNode == null || !nodeService.hasAspect(childNode, ASPECT_WEBASSET))
+        {
+            return false;
+        }
+        List<ChildAssociationRef> parentAssocs = nodeService.getParentAssocs(childNode,
+                ContentModel.ASSOC_CONTAINS, RegexQNamePattern.MATCH_ALL);
+        ArrayList<NodeRef> parentSections = new ArrayList<NodeRef>(parentAssocs.size());
+        Collection<NodeRef> ancestorSections;
+        if (parentAssocs.size() == 1 && knownAncestors != null)
+        {
+            parentSections.add(parentAssocs.get(0).getParentRef());
+            ancestorSections = knownAncestors;
+        }
+        else
+        {
+            Set<NodeRef> ancestors = new HashSet<NodeRef>();
+            for (ChildAssociationRef assoc : parentAssocs)
+            {
+                NodeRef parentNode = assoc.getParentRef();
+                if (dictionaryService.isSubClass(nodeService.getType(parentNode), WebSiteModel.TYPE_SECTION))
+                {
+                    parentSections.add(parentNode);
+                    Collection<NodeRef> parentsAncestors = (Collection<NodeRef>) nodeService.getProperty(parentNode,
+                            PROP_ANCESTOR_SECTIONS);
+                    if (parentsAncestors != null)
                     {
-                        behaviourFilter.enableBehaviour(childNode, ContentModel.ASPECT_AUDITABLE);
-                        behaviourFilter.enableBehaviour(childNode, ASPECT_WEBASSET);
+                        ancestors.addAll(parentsAncestors);
                     }
                 }
             }
+            ancestors.addAll(parentSections);
+            ancestorSections = ancestors;
+        }
+
+        if (sameNodes(nodeService.getProperty(childNode, PROP_PARENT_SECTIONS), parentSections)
+                && sameNodes(nodeService.getProperty(childNode, PROP_ANCESTOR_SECTIONS), ancestorSections))
+        {
+            return false;
+        }
+        try
+        {
+            behaviourFilter.disableBehaviour(childNode, ASPECT_WEBASSET);
+            behaviourFilter.disableBehaviour(childNode, ContentModel.ASPECT_AUDITABLE);
+            if (log.isDebugEnabled())
+            {
+                log.debug("Section child is a web asset (" + childNode + "). Setting parent section ids:  "
+                        + parentSections);
+            }
+            nodeService.setProperty(childNode, PROP_PARENT_SECTIONS, parentSections);
+            nodeService.setProperty(childNode, PROP_ANCESTOR_SECTIONS, new ArrayList<NodeRef>(ancestorSections));
+        }
+        finally
+        {
+            behaviourFilter.enableBehaviour(childNode, ContentModel.ASPECT_AUDITABLE);
+            behaviourFilter.enableBehaviour(childNode, ASPECT_WEBASSET);
+        }
+        return true;
+    }
+
+    /**
+     * Mark a section as pending. A section that is pending as a root stays that way.
+     */
+    private void addPending(NodeRef sectionId, boolean root)
+    {
+        String key = sectionId.toString();
+        if (root)
+        {
+            attributeService.setAttribute(Boolean.TRUE, ATTR_APPLICATION, ATTR_PENDING, key);
+        }
+        else if (!attributeService.exists(ATTR_APPLICATION, ATTR_PENDING, key))
+        {
+            attributeService.setAttribute(Boolean.FALSE, ATTR_APPLICATION, ATTR_PENDING, key);
         }
     }
 
+    /**
+     * @return true if the property value holds the same nodes as the collection, in any order
+     */
+    private static boolean sameNodes(Serializable value, Collection<NodeRef> nodes)
+    {
+        if (value == null)
+        {
+            return false;
+        }
+        if (!(value instanceof Collection))
+        {
+            return false;
+        }
+        return new HashSet<Object>((Collection<?>) value).equals(new HashSet<NodeRef>(nodes));
+    }
+
     public void init()
     {
         if (!initialised)
@@ -276,38 +902,27 @@ public class SectionHierarchyProcessor implements WebSiteModel
                 }
             }, AuthenticationUtil.SYSTEM_USER_NAME);
             
+            // Searches rely on the ancestors being set, so don't leave these to the background
+            processPending();
             initialised = true;
         }
     }
 
-    private static class SectionAncestorRecord
+    private class Lifecycle extends AbstractLifecycleBean
     {
-        private final NodeRef sectionId;
-        private final Set<NodeRef> ancestorSections;
-
-        public SectionAncestorRecord(NodeRef sectionId, Collection<NodeRef> ancestorSections)
+        /**
+         * Resume processing any sections that were left pending when the repository was last shut down
+         */
+        @Override
+        protected void onBootstrap(ApplicationEvent event)
         {
-            super();
-            this.sectionId = sectionId;
-            if (ancestorSections == null)
-            {
-                this.ancestorSections = null;
-            }
-            else
-            {
-                this.ancestorSections = new HashSet<NodeRef>(ancestorSections);
-            }
+            schedule();
         }
 
-        public NodeRef getSectionId()
+        @Override
+        protected void onShutdown(ApplicationEvent event)
         {
-            return sectionId;
+            shutdown();
         }
-
-        public Set<NodeRef> getAncestorSections()
-        {
-            return ancestorSections;
-        }
-
     }
 }
@@ -38,6 +38,7 @@ import java.util.TreeSet;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.publish.PublishService;
+import org.alfresco.module.org_alfresco_module_wcmquickstart.rendition.RenditionHelper;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.util.contextparser.ContextParserService;
 import org.alfresco.repo.content.ContentServicePolicies;
 import org.alfresco.repo.content.MimetypeMap;
@@ -71,6 +72,7 @@ import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.namespace.RegexQNamePattern;
 import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.EqualsHelper;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -102,6 +104,7 @@ public class SectionType extends TransactionListenerAdapter implements WebSiteMo
     private NamespaceService namespaceService;
     private MimetypeMap mimetypeMap;
     private SectionHierarchyProcessor sectionHierarchyProcessor;
+    private RenditionHelper renditionHelper;
     
     /** The section index page name */
     private String sectionIndexPageName = "index.html";
@@ -264,6 +267,17 @@ public class SectionType extends TransactionListenerAdapter implements WebSiteMo
         this.sectionHierarchyProcessor = sectionHierarchyProcessor;
     }
 
+    /**
+     * Set the rendition helper
+     * 
+     * @param renditionHelper
+     *            rendition helper
+     */
+    public void setRenditionHelper(RenditionHelper renditionHelper)
+    {
+        this.renditionHelper = renditionHelper;
+    }
+
     /**
      * When a new content node is added into a section, behaviours configured by
      * this class normally cause it to be specialised to either an article or an
@@ -311,6 +325,9 @@ public class SectionType extends TransactionListenerAdapter implements WebSiteMo
         policyComponent.bindClassBehaviour(ContentServicePolicies.OnContentPropertyUpdatePolicy.QNAME,
                 WebSiteModel.TYPE_SECTION, new JavaBehaviour(this, "onContentPropertyUpdate"));
 
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnUpdatePropertiesPolicy.QNAME,
+                WebSiteModel.TYPE_SECTION, new JavaBehaviour(this, "onUpdateProperties"));
+
         policyComponent.bindClassBehaviour(CopyServicePolicies.OnCopyNodePolicy.QNAME, WebSiteModel.TYPE_SECTION,
                 new JavaBehaviour(this, "getCopyCallback", NotificationFrequency.EVERY_EVENT));
 
@@ -352,10 +369,32 @@ public class SectionType extends TransactionListenerAdapter implements WebSiteMo
             // Fire create section code
             processCreateNode(childNode);
         }
+        else if (!isNewNode && dictionaryService.isSubClass(childNodeType, TYPE_SECTION))
+        {
+            // A section has been moved, so the rendition configuration it inherits may have changed
+            renditionHelper.invalidateRenditionConfig();
+        }
 
         recordAffectedChild(childAssoc);
     }
 
+    /**
+     * Discards the compiled rendition configuration when a section's rendition configuration changes
+     * 
+     * @param nodeRef NodeRef
+     * @param before Map<QName, Serializable>
+     * @param after Map<QName, Serializable>
+     */
+    public void onUpdateProperties(NodeRef nodeRef, Map<QName, Serializable> before, Map<QName, Serializable> after)
+    {
+        if (!EqualsHelper.nullSafeEquals(before.get(PROP_RENDITION_CONFIG), after.get(PROP_RENDITION_CONFIG))
+                || !EqualsHelper.nullSafeEquals(before.get(PROP_INHERIT_RENDITION_CONFIG),
+                        after.get(PROP_INHERIT_RENDITION_CONFIG)))
+        {
+            renditionHelper.invalidateRenditionConfig();
+        }
+    }
+
     /**
      * 
      * @param childAssoc ChildAssociationRef
@@ -666,7 +705,8 @@ public class SectionType extends TransactionListenerAdapter implements WebSiteMo
             // adjust any webassets directly
             // below it and any sections directly below it. We then need to
             // process all the affected subsections
-            // in the same way
+            // in the same way. The sections are recorded here and processed
+            // in batches in the background.
             final RetryingTransactionHelper.RetryingTransactionCallback<Object> work = 
                 new RetryingTransactionHelper.RetryingTransactionCallback<Object>()
             {
@@ -214,7 +214,7 @@ public class WebAssetAspect implements WebSiteModel, CopyServicePolicies.OnCopyN
     {
         if (newContent && nodeService.exists(nodeRef))
         {
-            renditionHelper.createRenditions(nodeRef);
+            renditionHelper.scheduleRenditions(nodeRef);
         }
     }
 
@@ -229,7 +229,7 @@ public class WebAssetAspect implements WebSiteModel, CopyServicePolicies.OnCopyN
         {
             nodeService.setProperty(nodeRef, PROP_AVAILABLE, Boolean.TRUE);
             nodeService.setProperty(nodeRef, PROP_PUBLISHED_TIME, new Date());
-            renditionHelper.createRenditions(nodeRef);
+            renditionHelper.scheduleRenditions(nodeRef);
         }
     }
 
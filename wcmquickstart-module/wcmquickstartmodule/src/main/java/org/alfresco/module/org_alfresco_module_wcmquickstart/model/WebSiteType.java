@@ -37,6 +37,7 @@ import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.site.SiteInfo;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.util.EqualsHelper;
 
 /**
  * ws:website type behaviours.
@@ -89,6 +90,11 @@ public class WebSiteType implements WebSiteModel
     public void onUpdatePropertiesEveryEvent(NodeRef nodeRef, Map<QName, Serializable> before,
             Map<QName, Serializable> after)
     {
+        if (!EqualsHelper.nullSafeEquals(before.get(PROP_SITE_LOCALES), after.get(PROP_SITE_LOCALES)))
+        {
+            siteHelper.invalidateWebSiteLocales(nodeRef);
+        }
+
         // Only process this node if its name property has changed.
         String nameBefore = (String) before.get(ContentModel.PROP_NAME);
         String nameAfter = (String) after.get(ContentModel.PROP_NAME);
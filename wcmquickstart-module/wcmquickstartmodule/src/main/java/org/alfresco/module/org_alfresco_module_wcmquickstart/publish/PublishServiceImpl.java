@@ -26,10 +26,14 @@
 package org.alfresco.module.org_alfresco_module_wcmquickstart.publish;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,6 +47,7 @@ import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
 import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
 import org.alfresco.service.cmr.repository.AssociationRef;
 import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.DuplicateChildNodeNameException;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.cmr.repository.Path;
@@ -55,10 +60,20 @@ import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
 import org.alfresco.service.namespace.RegexQNamePattern;
 import org.alfresco.service.transaction.TransactionService;
-import org.alfresco.util.GUID;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.dao.ConcurrencyFailureException;
 
+/**
+ * Publishes the nodes queued in a web site's publishing queue to its publishing target.
+ * <p>
+ * The queue holds one entry for each queued node, named after the node, so that queueing a node again
+ * replaces its entry rather than adding another. Entries stay as separate nodes, rather than being packed into
+ * a shared node, so that concurrent enqueues of different nodes don't contend for the same node and each entry
+ * keeps its own failed attempts count. The queue is published in chunks of a bounded number of
+ * entries. Each chunk is a separate transfer, and its entries are removed (or their failure counts
+ * incremented) in a transaction of their own, so one failing chunk doesn't hold back the rest of the queue.
+ */
 public class PublishServiceImpl implements PublishService
 {
     private final static Log log = LogFactory.getLog(PublishServiceImpl.class);
@@ -81,6 +96,7 @@ public class PublishServiceImpl implements PublishService
     private String transferTargetName = "Internal Target";
     private Set<String> aspectsToExclude = DEFAULT_ASPECTS_TO_EXCLUDE;
     private int maxPublishAttempts = 3;
+    private int publishChunkSize = 500;
 
     public void setSiteHelper(SiteHelper siteHelper)
     {
@@ -145,6 +161,18 @@ public class PublishServiceImpl implements PublishService
         this.maxPublishAttempts = maxPublishAttempts;
     }
 
+    /**
+     * @param publishChunkSize the maximum number of queued nodes published in a single transfer. Must be at least 1.
+     */
+    public void setPublishChunkSize(int publishChunkSize)
+    {
+        if (publishChunkSize < 1)
+        {
+            throw new IllegalArgumentException("publishChunkSize must be at least 1: " + publishChunkSize);
+        }
+        this.publishChunkSize = publishChunkSize;
+    }
+
     public void enqueuePublishedNodes(final NodeRef... nodes)
     {
         enqueueNodes(false, nodes);
@@ -183,16 +211,32 @@ public class PublishServiceImpl implements PublishService
             NodeRef publishingQueue = siteHelper.getWebSiteContainer(nodes[0], PUBLISH_QUEUE_NAME);
             if (publishingQueue != null && !nodeService.hasAspect(publishingQueue, ContentModel.ASPECT_PENDING_DELETE)) // DW
             {
-                for (NodeRef node : nodes)
+                for (NodeRef node : new LinkedHashSet<NodeRef>(Arrays.asList(nodes)))
                 {
+                    // Replace any existing entry for this node. It is replaced rather than updated because a
+                    // publish that is already under way will delete the entry it read once it has finished.
+                    String name = node.getId();
+                    NodeRef existingEntry = nodeService.getChildByName(publishingQueue, ContentModel.ASSOC_CONTAINS, name);
+                    if (existingEntry != null)
+                    {
+                        nodeService.deleteNode(existingEntry);
+                    }
                     Map<QName, Serializable> props = new HashMap<QName, Serializable>();
-                    String name = GUID.generate();
                     props.put(ContentModel.PROP_NAME, name);
                     //Storing noderefs of deleted nodes doesn't work, so we'll store a text representation instead...
                     props.put(WebSiteModel.PROP_QUEUED_NODE, node.toString());
                     props.put(WebSiteModel.PROP_QUEUED_NODE_FOR_REMOVAL, remove);
-                    nodeService.createNode(publishingQueue, ContentModel.ASSOC_CONTAINS, QName.createQName(
-                            WebSiteModel.NAMESPACE, name), WebSiteModel.TYPE_PUBLISH_QUEUE_ENTRY, props);
+                    try
+                    {
+                        nodeService.createNode(publishingQueue, ContentModel.ASSOC_CONTAINS, QName.createQName(
+                                WebSiteModel.NAMESPACE, name), WebSiteModel.TYPE_PUBLISH_QUEUE_ENTRY, props);
+                    }
+                    catch (DuplicateChildNodeNameException e)
+                    {
+                        // Another transaction has queued the same node since we looked. Its entry may not have the
+                        // same removal flag, so have the whole enqueue retried rather than keep either entry.
+                        throw new ConcurrencyFailureException("Node was queued concurrently for publishing: " + node, e);
+                    }
                 }
             }
         }
@@ -216,99 +260,24 @@ public class PublishServiceImpl implements PublishService
             Path targetPath = nodeService.getPath(targetSite);
             pathMapper.addPathMapping(sourcePath, targetPath);
 
-            Set<NodeRef> nodesToTransfer = new HashSet<NodeRef>(89);
-            Set<NodeRef> nodesToRemoveOnTransfer = new HashSet<NodeRef>(89);
             NodeRef queue = siteHelper.getWebSiteContainer(websiteId, PUBLISH_QUEUE_NAME);
             if (queue != null)
             {
-                List<ChildAssociationRef> publishedNodes = nodeService.getChildAssocs(queue,
-                        ContentModel.ASSOC_CONTAINS, RegexQNamePattern.MATCH_ALL);
-                for (ChildAssociationRef assoc : publishedNodes)
+                List<QueueEntry> entries = readQueue(queue);
+                int failedChunks = 0;
+                for (int start = 0; start < entries.size(); start += publishChunkSize)
                 {
-                    NodeRef queueEntry = assoc.getChildRef();
-                    NodeRef node = new NodeRef((String) nodeService.getProperty(queueEntry, WebSiteModel.PROP_QUEUED_NODE));
-                    boolean remove = (Boolean) nodeService.getProperty(queueEntry, WebSiteModel.PROP_QUEUED_NODE_FOR_REMOVAL);
-                    if (remove)
+                    List<QueueEntry> chunk = entries.subList(start, Math.min(start + publishChunkSize, entries.size()));
+                    if (!publishChunk(chunk))
                     {
-                        nodesToRemoveOnTransfer.add(node);
-                    }
-                    else
-                    {
-                        nodesToTransfer.add(node);
+                        failedChunks++;
                     }
                 }
-                if (!nodesToTransfer.isEmpty() || !nodesToRemoveOnTransfer.isEmpty())
+                if (log.isDebugEnabled() && !entries.isEmpty())
                 {
-                    if (log.isDebugEnabled())
-                    {
-                        log.debug("PublishService is about to crawl these nodes: " + nodesToTransfer);
-                    }
-                    //Given the nodes that have been supplied, find any others that we will want to transfer too
-                    // (note that we don't do any crawling of nodes that are to be removed)
-                    NodeCrawler crawler = nodeCrawlerFactory.getNodeCrawler();
-                    configureNodeCrawler(crawler);
-                    nodesToTransfer = crawler.crawl(nodesToTransfer);
-
-                    if (log.isDebugEnabled())
-                    {
-                        log.debug("PublishService has crawled the queued nodes and is about to transfer these nodes: " + nodesToTransfer);
-                    }
-                    
-                    TransferDefinition def = new TransferDefinition();
-                    def.setNodes(nodesToTransfer);
-                    def.setNodesToRemove(nodesToRemoveOnTransfer);
-                    Set<QName> aspectQNames = new HashSet<QName>();
-                    for (String aspectToExclude : aspectsToExclude)
-                    {
-                        aspectQNames.add(QName.createQName(aspectToExclude, namespaceService));
-                    }
-                    def.setExcludedAspects(aspectQNames);
-                    
-                    try
-                    {
-                        transferService.transfer(transferTargetName, def);
-                    }
-                    catch (TransferFailureException e)
-                    {
-                        final List<ChildAssociationRef> finalPublishedNodes = publishedNodes;
-                        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Object>()
-                        {
-
-                            @Override
-                            public Object execute() throws Throwable
-                            {
-                                for (ChildAssociationRef childRef : finalPublishedNodes)
-                                {
-                                    Integer failedAttCount = (Integer) nodeService.getProperty(childRef.getChildRef(), WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT);
-                                    if (failedAttCount == null)
-                                    {
-                                        failedAttCount = 0;
-                                    }
-
-                                    failedAttCount++;
-                                    if (failedAttCount == maxPublishAttempts)
-                                    {
-                                        nodeService.deleteNode(childRef.getChildRef());
-                                    }
-                                    else
-                                    {
-                                        nodeService.setProperty(childRef.getChildRef(), WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT, failedAttCount);
-                                    }
-                                }
-                                return null;
-                            }
-
-                        }, false, true);
-
-                        throw e;
-                    }
-    
-                    // If we get here then the transfer must have completed. Delete
-                    // the queue entries that we have processed
-                    for (ChildAssociationRef assoc : publishedNodes)
-                    {
-                        nodeService.deleteNode(assoc.getChildRef());
-                    }
+                    log.debug("Published " + entries.size() + " queued nodes from " + websiteId + " in "
+                            + ((entries.size() + publishChunkSize - 1) / publishChunkSize) + " chunks, "
+                            + failedChunks + " of which failed");
                 }
             }
             else
@@ -327,6 +296,138 @@ public class PublishServiceImpl implements PublishService
         }
     }
     
+    /**
+     * Read the entries in a publishing queue. If a node has more than one entry (queued before the queue held
+     * one entry per node) then its latest entry wins, and the others are removed along with it.
+     */
+    private List<QueueEntry> readQueue(NodeRef queue)
+    {
+        Map<NodeRef, QueueEntry> entries = new LinkedHashMap<NodeRef, QueueEntry>(89);
+        List<ChildAssociationRef> queueEntries = nodeService.getChildAssocs(queue,
+                ContentModel.ASSOC_CONTAINS, RegexQNamePattern.MATCH_ALL);
+        for (ChildAssociationRef assoc : queueEntries)
+        {
+            NodeRef queueEntry = assoc.getChildRef();
+            Map<QName, Serializable> props = nodeService.getProperties(queueEntry);
+            NodeRef node = new NodeRef((String) props.get(WebSiteModel.PROP_QUEUED_NODE));
+            boolean remove = Boolean.TRUE.equals(props.get(WebSiteModel.PROP_QUEUED_NODE_FOR_REMOVAL));
+            Date created = (Date) props.get(ContentModel.PROP_CREATED);
+
+            QueueEntry entry = entries.get(node);
+            if (entry == null)
+            {
+                entry = new QueueEntry(node);
+                entries.put(node, entry);
+            }
+            entry.add(queueEntry, remove, created);
+        }
+        return new ArrayList<QueueEntry>(entries.values());
+    }
+
+    /**
+     * Publish a chunk of the queue as a single transfer
+     * 
+     * @return true if the transfer succeeded
+     */
+    private boolean publishChunk(final List<QueueEntry> chunk)
+    {
+        Set<NodeRef> nodesToTransfer = new HashSet<NodeRef>(89);
+        Set<NodeRef> nodesToRemoveOnTransfer = new HashSet<NodeRef>(89);
+        for (QueueEntry entry : chunk)
+        {
+            if (entry.remove)
+            {
+                nodesToRemoveOnTransfer.add(entry.node);
+            }
+            else
+            {
+                nodesToTransfer.add(entry.node);
+            }
+        }
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("PublishService is about to crawl these nodes: " + nodesToTransfer);
+        }
+        //Given the nodes that have been supplied, find any others that we will want to transfer too
+        // (note that we don't do any crawling of nodes that are to be removed)
+        NodeCrawler crawler = nodeCrawlerFactory.getNodeCrawler();
+        configureNodeCrawler(crawler);
+        nodesToTransfer = crawler.crawl(nodesToTransfer);
+
+        if (log.isDebugEnabled())
+        {
+            log.debug("PublishService has crawled the queued nodes and is about to transfer these nodes: " + nodesToTransfer);
+        }
+
+        TransferDefinition def = new TransferDefinition();
+        def.setNodes(nodesToTransfer);
+        def.setNodesToRemove(nodesToRemoveOnTransfer);
+        Set<QName> aspectQNames = new HashSet<QName>();
+        for (String aspectToExclude : aspectsToExclude)
+        {
+            aspectQNames.add(QName.createQName(aspectToExclude, namespaceService));
+        }
+        def.setExcludedAspects(aspectQNames);
+
+        try
+        {
+            transferService.transfer(transferTargetName, def);
+        }
+        catch (TransferFailureException e)
+        {
+            log.error("Failed to publish a chunk of " + chunk.size() + " queued nodes. They will be retried up to "
+                    + maxPublishAttempts + " times.", e);
+            transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Object>()
+            {
+                @Override
+                public Object execute() throws Throwable
+                {
+                    for (QueueEntry entry : chunk)
+                    {
+                        if (!nodeService.exists(entry.queueEntry))
+                        {
+                            // The node has been queued again since this entry was read
+                            continue;
+                        }
+                        Integer failedAttCount = (Integer) nodeService.getProperty(entry.queueEntry, WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT);
+                        if (failedAttCount == null)
+                        {
+                            failedAttCount = 0;
+                        }
+
+                        failedAttCount++;
+                        if (failedAttCount >= maxPublishAttempts)
+                        {
+                            entry.delete();
+                        }
+                        else
+                        {
+                            nodeService.setProperty(entry.queueEntry, WebSiteModel.PROP_FAILED_ATTEMPTS_COUNT, failedAttCount);
+                        }
+                    }
+                    return null;
+                }
+            }, false, true);
+            return false;
+        }
+
+        // If we get here then the transfer must have completed. Delete the queue entries that we have processed
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Object>()
+        {
+            @Override
+            public Object execute() throws Throwable
+            {
+                for (QueueEntry entry : chunk)
+                {
+                    entry.delete();
+                }
+                return null;
+            }
+        }, false, true);
+        return true;
+    }
+
     /**
      * Set up the supplied node crawler to find other nodes that should be published too.
      * Override this if necessary, or (preferably) inject a different configurer
@@ -341,4 +442,46 @@ public class PublishServiceImpl implements PublishService
     {
         return transferTargetName;
     }
+
+    /**
+     * The queue entries for a single node
+     */
+    private class QueueEntry
+    {
+        private final NodeRef node;
+        private final List<NodeRef> queueEntries = new ArrayList<NodeRef>(1);
+        private NodeRef queueEntry;
+        private boolean remove;
+        private Date created;
+
+        public QueueEntry(NodeRef node)
+        {
+            this.node = node;
+        }
+
+        public void add(NodeRef queueEntry, boolean remove, Date created)
+        {
+            queueEntries.add(queueEntry);
+            if (this.queueEntry == null || (created != null && (this.created == null || created.after(this.created))))
+            {
+                this.queueEntry = queueEntry;
+                this.remove = remove;
+                this.created = created;
+            }
+        }
+
+        /**
+         * Delete the queue entries, unless they have been replaced already
+         */
+        public void delete()
+        {
+            for (NodeRef entry : queueEntries)
+            {
+                if (nodeService.exists(entry))
+                {
+                    nodeService.deleteNode(entry);
+                }
+            }
+        }
+    }
 }
@@ -25,16 +25,30 @@
  */
 package org.alfresco.module.org_alfresco_module_wcmquickstart.rendition;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.util.contextparser.ContextParserService;
 import org.alfresco.repo.action.executer.ActionExecuter;
+import org.alfresco.repo.cache.SimpleCache;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.security.authentication.AuthenticationUtil.RunAsWork;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
 import org.alfresco.service.cmr.dictionary.TypeDefinition;
 import org.alfresco.service.cmr.rendition.RenderCallback;
@@ -48,17 +62,35 @@ import org.alfresco.service.cmr.repository.NodeService;
 import org.alfresco.service.namespace.InvalidQNameException;
 import org.alfresco.service.namespace.NamespaceService;
 import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.alfresco.util.Pair;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 /**
  * Rendition helper class.  Consolidates common rendition functions used in
  * the WCM Quick Start application.
+ * <p>
+ * The rendition configuration that applies to a type of content in a section, taking into account the
+ * configuration inherited from the parent sections and the configuration of the content's parent types, is
+ * resolved once and held in a transactional cache. The cache is cleared across the cluster whenever a section's
+ * rendition configuration changes or a section is moved.
+ * <p>
+ * Scheduled renditions are only held in memory until they have been created. Renditions that were scheduled but
+ * not yet created when the server stopped are not created on restart; the updatewebsiterenditions web script
+ * recreates the renditions of a site.
  * 
  * @author Roy Wetherall
  */
 public class RenditionHelper implements WebSiteModel
 {
+    private static final Log log = LogFactory.getLog(RenditionHelper.class);
+
     private static final String CMIS_TYPE_DOCUMENT = "cmis:document";
 
+    /** Transaction key for the nodes whose renditions are to be created once the transaction has committed */
+    private static final String KEY_PENDING_RENDITIONS = RenditionHelper.class.getName() + ".pendingRenditions";
+
     /** Node service */
     private NodeService nodeService;
 
@@ -77,6 +109,15 @@ public class RenditionHelper implements WebSiteModel
     /** Context parser service */
     private ContextParserService contextParserService;
 
+    /** Transaction service */
+    private TransactionService transactionService;
+
+    /** Executor that creates scheduled renditions, or null to create them straight away */
+    private Executor executor;
+
+    /** Compiled rendition configuration keyed by section and content type */
+    private SimpleCache<Pair<NodeRef, QName>, CompiledRenditionConfig> renditionConfigCache;
+
     /**
      * Set node service
      * @param nodeService	node service
@@ -131,6 +172,69 @@ public class RenditionHelper implements WebSiteModel
         this.contextParserService = contextParserService;
     }
 
+    /**
+     * Set the transaction service
+     * @param transactionService	transaction service
+     */
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+
+    /**
+     * Set the executor used to create scheduled renditions once the transaction that scheduled them
+     * has committed.  If not set, scheduled renditions are created straight away.
+     * @param executor	executor
+     */
+    public void setExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Set the cache of compiled rendition configuration
+     * @param renditionConfigCache	cache keyed by section and content type
+     */
+    public void setRenditionConfigCache(SimpleCache<Pair<NodeRef, QName>, CompiledRenditionConfig> renditionConfigCache)
+    {
+        this.renditionConfigCache = renditionConfigCache;
+    }
+
+    /**
+     * Schedule the creation of the renditions for the given node once the current transaction has
+     * committed.  The nodes scheduled in a transaction are rendered together in the background, each
+     * in its own transaction.  They are only held in memory until then.
+     * 
+     * @param nodeRef	node reference
+     */
+    @SuppressWarnings("unchecked")
+    public void scheduleRenditions(NodeRef nodeRef)
+    {
+        if (executor == null)
+        {
+            createRenditions(nodeRef);
+            return;
+        }
+        Set<NodeRef> pending = (Set<NodeRef>) AlfrescoTransactionSupport.getResource(KEY_PENDING_RENDITIONS);
+        if (pending == null)
+        {
+            pending = new LinkedHashSet<NodeRef>();
+            AlfrescoTransactionSupport.bindResource(KEY_PENDING_RENDITIONS, pending);
+            AlfrescoTransactionSupport.bindListener(new RenditionScheduler(pending, AuthenticationUtil.getRunAsUser()));
+        }
+        pending.add(nodeRef);
+    }
+
+    /**
+     * Discard the compiled rendition configuration.  This must be called when a section's rendition
+     * configuration or position in the section hierarchy changes.  The shared cache is cleared, on all
+     * servers, when the transaction commits.
+     */
+    public void invalidateRenditionConfig()
+    {
+        renditionConfigCache.clear();
+    }
+
     public void createRenditions(NodeRef nodeRef)
     {
         createRenditions(nodeRef, false);
@@ -188,22 +292,57 @@ public class RenditionHelper implements WebSiteModel
      */
     private void createRenditions(NodeRef section, NodeRef nodeRef, QName type, String mimetype)
     {
-        // Get the section config to a map
-        Map<String, List<String>> renditionConfig = getRenditionConfig(section);
+        createRenditions(nodeRef, getCompiledRenditionConfig(section, type).getRenditions(mimetype));
+    }
 
-        if (renditionConfig.isEmpty() == false)
+    /**
+     * Get the rendition configuration that applies to the given type of content in a section, compiling
+     * and caching it if necessary.
+     * @param section	section node
+     * @param type		content type
+     * @return CompiledRenditionConfig	compiled rendition configuration
+     */
+    private CompiledRenditionConfig getCompiledRenditionConfig(NodeRef section, QName type)
+    {
+        Pair<NodeRef, QName> key = new Pair<NodeRef, QName>(section, type);
+        CompiledRenditionConfig config = renditionConfigCache.get(key);
+        if (config == null)
         {
-            createRenditions(nodeRef, renditionConfig.get(mimetype));				
-            createRenditions(nodeRef, getRenditionListForType(renditionConfig, type));
+            config = compileRenditionConfig(section, type);
+            renditionConfigCache.put(key, config);
         }
+        return config;
+    }
 
-        // Check parents if in herit rendition config
-        Boolean inherit = (Boolean)nodeService.getProperty(section, PROP_INHERIT_RENDITION_CONFIG);
-        if (Boolean.TRUE.equals(inherit) && TYPE_WEB_SITE.equals(type) == false)
+    /**
+     * Resolve the rendition configuration of a section and the sections it inherits from for a content type.
+     * @param section	section node
+     * @param type		content type
+     * @return CompiledRenditionConfig	compiled rendition configuration
+     */
+    private CompiledRenditionConfig compileRenditionConfig(NodeRef section, QName type)
+    {
+        CompiledRenditionConfig result = new CompiledRenditionConfig();
+        Set<NodeRef> visited = new HashSet<NodeRef>();
+        NodeRef current = section;
+        while (current != null && visited.add(current) == true)
         {
-            NodeRef sectionParent = nodeService.getPrimaryParent(section).getParentRef();
-            createRenditions(sectionParent, nodeRef, type, mimetype);			
+            // Get the section config to a map
+            Map<String, List<String>> renditionConfig = getRenditionConfig(current);
+            if (renditionConfig.isEmpty() == false)
+            {
+                result.addAll(renditionConfig, getRenditionListForType(renditionConfig, type));
+            }
+
+            // Check parents if inherit rendition config
+            Boolean inherit = (Boolean)nodeService.getProperty(current, PROP_INHERIT_RENDITION_CONFIG);
+            if (Boolean.TRUE.equals(inherit) == false || TYPE_WEB_SITE.equals(type) == true)
+            {
+                break;
+            }
+            current = nodeService.getPrimaryParent(current).getParentRef();
         }
+        return result;
     }
 
     /**
@@ -281,7 +420,7 @@ public class RenditionHelper implements WebSiteModel
      * @param node
      * @param renditions
      */
-    private void createRenditions(NodeRef node, List<String> renditions)
+    private void createRenditions(NodeRef node, Collection<String> renditions)
     {
         if (renditions != null)
         {
@@ -396,4 +535,122 @@ public class RenditionHelper implements WebSiteModel
         }
         return result;
     }
+
+    /**
+     * Create the renditions of each node in its own transaction
+     * @param nodes	node references
+     */
+    private void createRenditions(List<NodeRef> nodes)
+    {
+        RetryingTransactionHelper txHelper = transactionService.getRetryingTransactionHelper();
+        for (final NodeRef nodeRef : nodes)
+        {
+            try
+            {
+                txHelper.doInTransaction(new RetryingTransactionHelper.RetryingTransactionCallback<Object>()
+                {
+                    public Object execute() throws Throwable
+                    {
+                        createRenditions(nodeRef);
+                        return null;
+                    }
+                }, false, true);
+            }
+            catch (Throwable ex)
+            {
+                log.warn("Failed to create renditions for " + nodeRef, ex);
+            }
+        }
+    }
+
+    /**
+     * Rendition configuration resolved for a content type in a section.  Holds the renditions configured
+     * against each mimetype and those configured against the content type or any of its parent types.
+     */
+    static class CompiledRenditionConfig implements Serializable
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Map<String, Set<String>> renditionsByMimetype = new HashMap<String, Set<String>>();
+        private final Set<String> typeRenditions = new LinkedHashSet<String>();
+
+        private void addAll(Map<String, List<String>> renditionConfig, List<String> renditionsForType)
+        {
+            for (Map.Entry<String, List<String>> entry : renditionConfig.entrySet())
+            {
+                Set<String> renditions = renditionsByMimetype.get(entry.getKey());
+                if (renditions == null)
+                {
+                    renditions = new LinkedHashSet<String>();
+                    renditionsByMimetype.put(entry.getKey(), renditions);
+                }
+                renditions.addAll(entry.getValue());
+            }
+            typeRenditions.addAll(renditionsForType);
+        }
+
+        /**
+         * @param mimetype	mimetype of the content
+         * @return Collection<String>	names of the renditions to create
+         */
+        public Collection<String> getRenditions(String mimetype)
+        {
+            Set<String> renditions = renditionsByMimetype.get(mimetype);
+            if (renditions == null)
+            {
+                return typeRenditions;
+            }
+            if (typeRenditions.isEmpty() == true)
+            {
+                return renditions;
+            }
+            Set<String> result = new LinkedHashSet<String>(renditions);
+            result.addAll(typeRenditions);
+            return Collections.unmodifiableSet(result);
+        }
+    }
+
+    /**
+     * Creates the renditions of the nodes scheduled in a transaction once it has committed
+     */
+    private class RenditionScheduler extends TransactionListenerAdapter
+    {
+        private final Set<NodeRef> nodes;
+        private final String runAsUser;
+
+        public RenditionScheduler(Set<NodeRef> nodes, String runAsUser)
+        {
+            this.nodes = nodes;
+            this.runAsUser = runAsUser;
+        }
+
+        @Override
+        public void afterCommit()
+        {
+            final List<NodeRef> nodesToRender = new ArrayList<NodeRef>(nodes);
+            try
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        AuthenticationUtil.runAs(new RunAsWork<Object>()
+                        {
+                            @Override
+                            public Object doWork() throws Exception
+                            {
+                                createRenditions(nodesToRender);
+                                return null;
+                            }
+                        }, runAsUser == null ? AuthenticationUtil.getSystemUserName() : runAsUser);
+                    }
+                });
+            }
+            catch (RejectedExecutionException ex)
+            {
+                log.warn("Unable to schedule the creation of renditions for " + nodesToRender, ex);
+            }
+        }
+    }
 }
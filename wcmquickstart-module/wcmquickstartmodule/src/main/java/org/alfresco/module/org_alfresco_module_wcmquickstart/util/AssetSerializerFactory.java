@@ -28,4 +28,10 @@ package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
 public interface AssetSerializerFactory
 {
     AssetSerializer getAssetSerializer();
+
+    /**
+     * Returns a serializer for the format requested by the client, such as "xml" or "json". The default serializer
+     * is returned if the format is null or not supported.
+     */
+    AssetSerializer getAssetSerializer(String format);
 }
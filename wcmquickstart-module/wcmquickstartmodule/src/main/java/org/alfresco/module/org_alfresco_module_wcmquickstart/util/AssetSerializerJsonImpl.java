@@ -0,0 +1,297 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+
+/**
+ * Writes assets as JSON. This is more compact than the XML format and is quicker for the client to read.
+ * <p>
+ * The response is an object with an optional "header" property map and an "assets" array. Each asset is
+ * an object with its "id", "type" and a "props" map keyed by prefixed property name. Text and node refs are
+ * written as strings, whole numbers without a decimal point and other numbers with one. Dates and content
+ * are written as objects with a single property whose name starts with "@" so that they can't be mistaken
+ * for a map of properties: <code>{"@time":millis}</code> and
+ * <code>{"@content":{"mime":..,"size":..,"enc":..}}</code>.
+ */
+public class AssetSerializerJsonImpl implements AssetSerializer
+{
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Writer writer;
+    private NamespaceService namespaceService;
+    private Set<QName> propertiesToIgnore = AssetSerializerXmlImpl.DEFAULT_PROPERTIES_TO_IGNORE;
+    private Map<QName, String> prefixedNames = new HashMap<QName, String>(89);
+    private boolean assetsStarted = false;
+
+    public void setNamespaceService(NamespaceService namespaceService)
+    {
+        this.namespaceService = namespaceService;
+    }
+
+    @Override
+    public void start(Writer underlyingWriter) throws AssetSerializationException
+    {
+        try
+        {
+            writer = underlyingWriter;
+            writer.write('{');
+        }
+        catch (Exception ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void end() throws AssetSerializationException
+    {
+        try
+        {
+            startAssets();
+            writer.write("]}");
+        }
+        catch (Exception ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void writeHeader(Map<QName, Serializable> properties) throws AssetSerializationException
+    {
+        try
+        {
+            if (assetsStarted)
+            {
+                throw new IllegalStateException("The header must be written before any assets");
+            }
+            writer.write("\"header\":");
+            writeProperties(properties);
+            writer.write(',');
+        }
+        catch (Exception ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    @Override
+    public void writeNode(NodeRef nodeRef, QName type, Map<QName, Serializable> properties)
+            throws AssetSerializationException
+    {
+        try
+        {
+            if (!startAssets())
+            {
+                writer.write(',');
+            }
+            writer.write("{\"id\":");
+            writeString(nodeRef.toString());
+            writer.write(",\"type\":");
+            writeString(getPrefixedName(type));
+            writer.write(",\"props\":");
+            writeProperties(properties);
+            writer.write('}');
+        }
+        catch (Exception ex)
+        {
+            throw new AssetSerializationException(ex);
+        }
+    }
+
+    /**
+     * Open the assets array if it hasn't been already
+     *
+     * @return true if the array has been opened by this call
+     */
+    private boolean startAssets() throws IOException
+    {
+        if (assetsStarted)
+        {
+            return false;
+        }
+        writer.write("\"assets\":[");
+        assetsStarted = true;
+        return true;
+    }
+
+    private void writeProperties(Map<QName, ?> properties) throws IOException
+    {
+        writer.write('{');
+        boolean first = true;
+        for (Map.Entry<QName, ?> property : properties.entrySet())
+        {
+            if (!propertiesToIgnore.contains(property.getKey()))
+            {
+                if (!first)
+                {
+                    writer.write(',');
+                }
+                first = false;
+                writeString(getPrefixedName(property.getKey()));
+                writer.write(':');
+                writeValue(property.getValue());
+            }
+        }
+        writer.write('}');
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(Object value) throws IOException
+    {
+        if (value == null)
+        {
+            writer.write("null");
+        }
+        else if (value instanceof List)
+        {
+            writer.write('[');
+            boolean first = true;
+            for (Object element : (List<?>) value)
+            {
+                if (!first)
+                {
+                    writer.write(',');
+                }
+                first = false;
+                writeValue(element);
+            }
+            writer.write(']');
+        }
+        else if (value instanceof Map)
+        {
+            writeProperties((Map<QName, ?>) value);
+        }
+        else if (value instanceof Integer || value instanceof Long || value instanceof Boolean)
+        {
+            writer.write(value.toString());
+        }
+        else if (value instanceof Float || value instanceof Double)
+        {
+            double number = ((Number) value).doubleValue();
+            // Float and Double always include a decimal point or exponent, which marks them as non-integers
+            writer.write((Double.isNaN(number) || Double.isInfinite(number)) ? "null" : value.toString());
+        }
+        else if (value instanceof Date)
+        {
+            writer.write("{\"@time\":");
+            writer.write(Long.toString(((Date) value).getTime()));
+            writer.write('}');
+        }
+        else if (value instanceof ContentData)
+        {
+            ContentData contentData = (ContentData) value;
+            writer.write("{\"@content\":{\"mime\":");
+            writeString(contentData.getMimetype());
+            writer.write(",\"size\":");
+            writer.write(Long.toString(contentData.getSize()));
+            writer.write(",\"enc\":");
+            writeString(contentData.getEncoding());
+            writer.write("}}");
+        }
+        else
+        {
+            // Text, multilingual text, node refs and anything else are written as text
+            writeString(value.toString());
+        }
+    }
+
+    private void writeString(String value) throws IOException
+    {
+        if (value == null)
+        {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; ++i)
+        {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\' || ch < 0x20)
+            {
+                writer.write(value, start, i - start);
+                start = i + 1;
+                switch (ch)
+                {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    writer.write("\\u00");
+                    writer.write(HEX[ch >> 4]);
+                    writer.write(HEX[ch & 0xF]);
+                    break;
+                }
+            }
+        }
+        writer.write(value, start, length - start);
+        writer.write('"');
+    }
+
+    private String getPrefixedName(QName name)
+    {
+        String prefixedName = prefixedNames.get(name);
+        if (prefixedName == null)
+        {
+            prefixedName = name.toPrefixString(namespaceService);
+            prefixedNames.put(name, prefixedName);
+        }
+        return prefixedName;
+    }
+
+    @Override
+    public String getMimeType()
+    {
+        return "application/json";
+    }
+}
@@ -59,7 +59,7 @@ public class AssetSerializerXmlImpl implements AssetSerializer
     };
 
     private final static AttributesImpl EMPTY_ATTRIBUTES = new AttributesImpl();
-    private static Set<QName> DEFAULT_PROPERTIES_TO_IGNORE;
+    static final Set<QName> DEFAULT_PROPERTIES_TO_IGNORE;
     private static ThreadLocal<DateFormat> dateFormat = new ThreadLocal<DateFormat>()
     {
         @Override
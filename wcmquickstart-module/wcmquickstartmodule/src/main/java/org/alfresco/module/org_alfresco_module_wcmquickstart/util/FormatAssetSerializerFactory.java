@@ -0,0 +1,77 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Asset serializer factory that chooses a serializer by the format requested by the client.
+ */
+public class FormatAssetSerializerFactory implements AssetSerializerFactory
+{
+    private Map<String, AssetSerializerFactory> serializerFactories = Collections.emptyMap();
+    private String defaultFormat = "xml";
+
+    /**
+     * Set the factories used for each format, keyed by the format name
+     * @param serializerFactories
+     */
+    public void setSerializerFactories(Map<String, AssetSerializerFactory> serializerFactories)
+    {
+        this.serializerFactories = serializerFactories;
+    }
+
+    /**
+     * Set the format used when the client doesn't ask for a supported format. Defaults to "xml".
+     * @param defaultFormat
+     */
+    public void setDefaultFormat(String defaultFormat)
+    {
+        this.defaultFormat = defaultFormat;
+    }
+
+    @Override
+    public AssetSerializer getAssetSerializer()
+    {
+        return getAssetSerializer(defaultFormat);
+    }
+
+    @Override
+    public AssetSerializer getAssetSerializer(String format)
+    {
+        AssetSerializerFactory factory = (format == null) ? null : serializerFactories.get(format);
+        if (factory == null)
+        {
+            factory = serializerFactories.get(defaultFormat);
+            if (factory == null)
+            {
+                throw new IllegalStateException("No asset serializer configured for the default format " + defaultFormat);
+            }
+        }
+        return factory.getAssetSerializer();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import org.alfresco.service.namespace.NamespaceService;
+
+public class JsonAssetSerializerFactory implements AssetSerializerFactory
+{
+    private NamespaceService namespaceService;
+
+    public void setNamespaceService(NamespaceService namespaceService)
+    {
+        this.namespaceService = namespaceService;
+    }
+
+    @Override
+    public AssetSerializer getAssetSerializer()
+    {
+        AssetSerializerJsonImpl serializer = new AssetSerializerJsonImpl();
+        serializer.setNamespaceService(namespaceService);
+        return serializer;
+    }
+
+    @Override
+    public AssetSerializer getAssetSerializer(String format)
+    {
+        return getAssetSerializer();
+    }
+
+}
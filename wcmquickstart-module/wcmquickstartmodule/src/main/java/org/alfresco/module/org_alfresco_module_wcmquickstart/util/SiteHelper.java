@@ -38,8 +38,15 @@ import java.util.concurrent.ConcurrentHashMap;
 
 import org.alfresco.model.ContentModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
+import org.alfresco.repo.cache.SimpleCache;
+import org.alfresco.repo.node.NodeServicePolicies;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
 import org.alfresco.repo.site.SiteModel;
+import org.alfresco.repo.transaction.AlfrescoTransactionSupport;
+import org.alfresco.repo.transaction.TransactionListenerAdapter;
 import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.MLText;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
@@ -58,6 +65,11 @@ import org.springframework.extensions.surf.util.I18NUtil;
 
 /**
  * Site helper class.
+ * <p>
+ * The nearest site, web site, web root and section above each folder are held in a transactional cache, so that
+ * finding them for a node takes a single lookup once its folder has been seen. Only folders with nothing but folders
+ * above them are cached. The cache is cleared, on all servers, when a transaction that moves, deletes or changes the
+ * type of a folder commits. The locales of each web site are cached until its locales are updated.
  * 
  * @author Brian
  */
@@ -72,21 +84,73 @@ public class SiteHelper implements WebSiteModel
     private static final String DATA_LISTS_FOLDER_NAME = "dataLists";
     private static final String FEEDBACK_DATA_LIST_NAME = "wcmqs.feedback.dataListNameFormat";
 
+    /** The types whose nearest instance above a folder is cached */
+    private static final QName[] PARENT_TYPES = { SiteModel.TYPE_SITE, TYPE_WEB_SITE, TYPE_WEB_ROOT, TYPE_SECTION };
+
     private SiteService siteService;
     private NodeService nodeService;
     private DictionaryService dictionaryService;
     private SearchService searchService;
     private NamespaceService namespaceService;
+    private PolicyComponent policyComponent;
 
-    private Map<NodeRef,List<Locale>> websiteLocales = new ConcurrentHashMap<NodeRef, List<Locale>>();
-    private Map<NodeRef,Date> websiteLocaleLoadTimes = new ConcurrentHashMap<NodeRef, Date>();
+    private Map<NodeRef,WebSiteLocales> websiteLocales = new ConcurrentHashMap<NodeRef, WebSiteLocales>();
     private List<Locale> defaultWebsiteLocales = new ArrayList<Locale>();
-    
+
+    private SimpleCache<NodeRef, NodeRef[]> nearestParentsCache;
+
+    /**
+     * Binds the behaviours that keep the nearest parents cache up to date
+     */
+    public void init()
+    {
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnMoveNodePolicy.QNAME, ContentModel.TYPE_FOLDER,
+                new JavaBehaviour(this, "onMoveNode"));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnSetNodeTypePolicy.QNAME, ContentModel.TYPE_FOLDER,
+                new JavaBehaviour(this, "onSetNodeType"));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.BeforeDeleteNodePolicy.QNAME, ContentModel.TYPE_FOLDER,
+                new JavaBehaviour(this, "beforeDeleteNode"));
+    }
+
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef)
+    {
+        if (!oldChildAssocRef.getParentRef().equals(newChildAssocRef.getParentRef()))
+        {
+            invalidateNearestParents();
+        }
+    }
+
+    public void onSetNodeType(NodeRef nodeRef, QName oldType, QName newType)
+    {
+        invalidateNearestParents();
+    }
+
+    public void beforeDeleteNode(NodeRef nodeRef)
+    {
+        invalidateNearestParents();
+    }
+
+    private void invalidateNearestParents()
+    {
+        nearestParentsCache.clear();
+    }
+
     public void setDefaultWebsiteLocales(List<Locale> defaultWebsiteLocales)
     {
         this.defaultWebsiteLocales = defaultWebsiteLocales;
     }
 
+    /**
+     * Set the cache of the nearest parents of each folder
+     * 
+     * @param nearestParentsCache
+     *            cache keyed by folder
+     */
+    public void setNearestParentsCache(SimpleCache<NodeRef, NodeRef[]> nearestParentsCache)
+    {
+        this.nearestParentsCache = nearestParentsCache;
+    }
+
     /**
      * Given a webasset, return the full URL calculated from the containing web
      * site.
@@ -209,22 +273,53 @@ public class SiteHelper implements WebSiteModel
     {
         List<Locale> locales = Collections.emptyList();
         if (website != null && nodeService.exists(website) && 
-                dictionaryService.isSubClass(TYPE_WEB_SITE, nodeService.getType(website)))
+                dictionaryService.isSubClass(nodeService.getType(website), TYPE_WEB_SITE))
         {
+            // The modified time catches changes made on other servers in a cluster
             Date lastModifiedTime = (Date) nodeService.getProperty(website, ContentModel.PROP_MODIFIED);
-            Date lastLoadTime = websiteLocaleLoadTimes.get(website);
-            locales = websiteLocales.get(website);
-            if (locales == null || lastModifiedTime.after(lastLoadTime))
+            WebSiteLocales cached = websiteLocales.get(website);
+            if (cached == null || (lastModifiedTime != null && lastModifiedTime.after(cached.loadTime)))
             {
-                locales = loadWebSiteLocales(website);
+                cached = loadWebSiteLocales(website);
             }
+            locales = cached.locales;
         }
         return locales;
     }
+
+    /**
+     * Discard the cached locales of a web site. This must be called when its locales are updated.
+     * 
+     * @param website
+     *            web site node reference
+     */
+    public void invalidateWebSiteLocales(final NodeRef website)
+    {
+        websiteLocales.remove(website);
+        if (AlfrescoTransactionSupport.getTransactionId() != null)
+        {
+            // Discard anything cached from the uncommitted locales, too
+            AlfrescoTransactionSupport.bindListener(new TransactionListenerAdapter()
+            {
+                @Override
+                public void afterCommit()
+                {
+                    websiteLocales.remove(website);
+                }
+
+                @Override
+                public void afterRollback()
+                {
+                    websiteLocales.remove(website);
+                }
+            });
+        }
+    }
     
     @SuppressWarnings("unchecked")
-    private List<Locale> loadWebSiteLocales(NodeRef website)
+    private WebSiteLocales loadWebSiteLocales(NodeRef website)
     {
+        Date loadTime = new Date();
         List<Locale> results = defaultWebsiteLocales;
         List<String> languages = (List<String>) nodeService.getProperty(website, PROP_SITE_LOCALES);
         if (languages != null)
@@ -235,9 +330,9 @@ public class SiteHelper implements WebSiteModel
                 results.add(new Locale(locale));
             }
         }
-        websiteLocales.put(website, results);
-        websiteLocaleLoadTimes.put(website, new Date());
-        return results;
+        WebSiteLocales cached = new WebSiteLocales(Collections.unmodifiableList(results), loadTime);
+        websiteLocales.put(website, cached);
+        return cached;
     }
 
     /**
@@ -439,6 +534,11 @@ public class SiteHelper implements WebSiteModel
         this.namespaceService = namespaceService;
     }
 
+    public void setPolicyComponent(PolicyComponent policyComponent)
+    {
+        this.policyComponent = policyComponent;
+    }
+
     /**
      * Find the nearest parent in the primary child association hierarchy that
      * is of the specified content type (or a sub-type of that type).
@@ -468,6 +568,17 @@ public class SiteHelper implements WebSiteModel
     {
         NodeRef parentNode;
         parentNode = allowSelf ? noderef : nodeService.getPrimaryParent(noderef).getParentRef();
+        if (parentNode == null || nodeService.exists(parentNode) == false)
+        {
+            return parentNode;
+        }
+        for (int i = 0; i < PARENT_TYPES.length; ++i)
+        {
+            if (PARENT_TYPES[i].equals(parentType))
+            {
+                return getNearestParents(parentNode)[i];
+            }
+        }
         while (parentNode != null && nodeService.exists(parentNode) == true
                 && dictionaryService.isSubClass(nodeService.getType(parentNode), parentType) == false)
         {
@@ -475,4 +586,64 @@ public class SiteHelper implements WebSiteModel
         }
         return parentNode;
     }
+
+    /**
+     * Get the nearest node of each of the {@link #PARENT_TYPES} in the primary child association hierarchy,
+     * starting with the node itself. Folders are cached, so this only needs to walk up from a folder the first
+     * time it is asked about. The cache is only invalidated when a folder changes, so a folder is only cached if
+     * its parent is a cached folder or the root of the store.
+     * 
+     * @param nodeRef
+     *            node reference
+     * @return NodeRef[] nearest node of each type, or null where there isn't one
+     */
+    private NodeRef[] getNearestParents(NodeRef nodeRef)
+    {
+        NodeRef[] nearestParents = nearestParentsCache.get(nodeRef);
+        if (nearestParents == null)
+        {
+            ChildAssociationRef parentAssoc = nodeService.getPrimaryParent(nodeRef);
+            NodeRef parentRef = parentAssoc == null ? null : parentAssoc.getParentRef();
+            boolean cacheable = true;
+            if (parentRef != null && nodeService.exists(parentRef) == true)
+            {
+                nearestParents = getNearestParents(parentRef).clone();
+                cacheable = nearestParentsCache.contains(parentRef)
+                        || parentRef.equals(nodeService.getRootNode(parentRef.getStoreRef()));
+            }
+            else
+            {
+                nearestParents = new NodeRef[PARENT_TYPES.length];
+            }
+
+            QName type = nodeService.getType(nodeRef);
+            for (int i = 0; i < PARENT_TYPES.length; ++i)
+            {
+                if (dictionaryService.isSubClass(type, PARENT_TYPES[i]) == true)
+                {
+                    nearestParents[i] = nodeRef;
+                }
+            }
+            if (cacheable == true && dictionaryService.isSubClass(type, ContentModel.TYPE_FOLDER) == true)
+            {
+                nearestParentsCache.put(nodeRef, nearestParents);
+            }
+        }
+        return nearestParents;
+    }
+
+    /**
+     * The locales of a web site and when they were loaded
+     */
+    private static class WebSiteLocales
+    {
+        private final List<Locale> locales;
+        private final Date loadTime;
+
+        public WebSiteLocales(List<Locale> locales, Date loadTime)
+        {
+            this.locales = locales;
+            this.loadTime = loadTime;
+        }
+    }
 }
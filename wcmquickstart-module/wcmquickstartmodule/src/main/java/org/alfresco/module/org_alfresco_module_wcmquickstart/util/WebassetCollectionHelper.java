@@ -25,13 +25,18 @@
  */
 package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.alfresco.error.AlfrescoRuntimeException;
+import org.alfresco.model.ContentModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.util.contextparser.ContextParserService;
+import org.alfresco.repo.policy.BehaviourFilter;
 import org.alfresco.service.cmr.repository.AssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
@@ -57,6 +62,7 @@ public class WebassetCollectionHelper implements WebSiteModel
     private SearchService searchService;
     private NamespaceService namespaceService;
     private ContextParserService contextParserService;
+    private BehaviourFilter behaviourFilter;
     private String searchStore = StoreRef.STORE_REF_WORKSPACE_SPACESSTORE.toString();
     
     /**
@@ -106,6 +112,18 @@ public class WebassetCollectionHelper implements WebSiteModel
         this.contextParserService = contextParserService;
     }
 
+    /**
+     * Set the behaviour filter, used to update the refresh time of an unchanged collection without
+     * changing its modified time
+     * 
+     * @param behaviourFilter
+     *            behaviour filter
+     */
+    public void setBehaviourFilter(BehaviourFilter behaviourFilter)
+    {
+        this.behaviourFilter = behaviourFilter;
+    }
+
     /**
      * Clear collection
      * 
@@ -123,13 +141,17 @@ public class WebassetCollectionHelper implements WebSiteModel
     }
 
     /**
-     * Refresh collection, clears all current members of the collection.
+     * Refresh collection. The members of the collection are only changed where they differ from the
+     * results of its query, and a collection whose members haven't changed is left as it is apart from
+     * its refresh time.
      * 
      * @param collection
      *            collection node reference
+     * @return true if the members of the collection have changed
      */
-    public void refreshCollection(NodeRef collection)
+    public boolean refreshCollection(NodeRef collection)
     {
+        boolean changed = false;
         // Get the query language and max query size
         String queryLanguage = (String) nodeService.getProperty(collection, PROP_QUERY_LANGUAGE);
         String query = (String) nodeService.getProperty(collection, PROP_QUERY);
@@ -140,9 +162,6 @@ public class WebassetCollectionHelper implements WebSiteModel
 
         if (query != null && query.trim().length() != 0)
         {
-            // Clear the contents of the content collection
-            clearCollection(collection);
-
             // Parse the query string
             query = contextParserService.parse(collection, query);
 
@@ -200,6 +219,7 @@ public class WebassetCollectionHelper implements WebSiteModel
                 // Iterate over the results of the query
                 int resultCount = 0;
                 ArrayList<NodeRef> idList = new ArrayList<NodeRef>(maxQuerySize);
+                List<NodeRef> assets = new ArrayList<NodeRef>(maxQuerySize);
                 for (NodeRef result : resultSet.getNodeRefs())
                 {
                     if (maxQuerySize < 1 || resultCount < maxQuerySize)
@@ -207,7 +227,7 @@ public class WebassetCollectionHelper implements WebSiteModel
                         // Only add associations to webassets
                         if (nodeService.hasAspect(result, ASPECT_WEBASSET) == true)
                         {
-                            nodeService.createAssociation(collection, result, ASSOC_WEBASSETS);
+                            assets.add(result);
                         }
                         idList.add(result);
                         resultCount++;
@@ -217,13 +237,57 @@ public class WebassetCollectionHelper implements WebSiteModel
                         break;
                     }
                 }
-                nodeService.setProperty(collection, PROP_CONTAINED_ASSETS, idList);
+
+                // Only change the associations that differ from the results
+                List<NodeRef> currentAssets = new ArrayList<NodeRef>();
+                for (AssociationRef assoc : nodeService.getTargetAssocs(collection, ASSOC_WEBASSETS))
+                {
+                    currentAssets.add(assoc.getTargetRef());
+                }
+                AssociationChanges changes = getAssociationChanges(currentAssets, assets);
+                for (NodeRef removed : changes.getRemoved())
+                {
+                    nodeService.removeAssociation(collection, removed, ASSOC_WEBASSETS);
+                }
+                for (NodeRef added : changes.getAdded())
+                {
+                    nodeService.createAssociation(collection, added, ASSOC_WEBASSETS);
+                }
+                changed = !changes.isEmpty();
+
+                Serializable currentIdList = nodeService.getProperty(collection, PROP_CONTAINED_ASSETS);
+                if (!idList.equals(currentIdList))
+                {
+                    nodeService.setProperty(collection, PROP_CONTAINED_ASSETS, idList);
+                    changed = true;
+                }
 
                 // Set the refreshAt property
                 Calendar now = Calendar.getInstance();
                 now.add(Calendar.MINUTE, minsToRefresh);
-                nodeService.setProperty(collection, PROP_REFRESH_AT, now.getTime());
+                if (changed || behaviourFilter == null)
+                {
+                    nodeService.setProperty(collection, PROP_REFRESH_AT, now.getTime());
+                }
+                else
+                {
+                    // Nothing has changed, so don't let the new refresh time change the modified time
+                    behaviourFilter.disableBehaviour(collection, ContentModel.ASPECT_AUDITABLE);
+                    try
+                    {
+                        nodeService.setProperty(collection, PROP_REFRESH_AT, now.getTime());
+                    }
+                    finally
+                    {
+                        behaviourFilter.enableBehaviour(collection, ContentModel.ASPECT_AUDITABLE);
+                    }
+                }
 
+                if (log.isDebugEnabled())
+                {
+                    log.debug("Refreshed dynamic asset collection (" + collection + "): " + (changed ? changes.getRemoved().size()
+                            + " members removed, " + changes.getAdded().size() + " added" : "unchanged"));
+                }
             }
             catch (Exception e)
             {
@@ -234,6 +298,83 @@ public class WebassetCollectionHelper implements WebSiteModel
             	if (resultSet != null) {resultSet.close();}
             }
         }
+        return changed;
+    }
+
+    /**
+     * Work out the smallest set of association changes that turns the current targets into the required
+     * targets, in the required order.
+     * <p>
+     * New associations are always added at the end of the list, so the targets that can stay where they are
+     * form the longest prefix of the required list that appears in the same order in the current list. The
+     * remaining required targets are (re)added in order after them, and every other current target is removed.
+     * 
+     * @param current
+     *            the current targets, in order
+     * @param required
+     *            the required targets, in order
+     * @return the associations to remove and the associations to add, in the order they should be added
+     */
+    static AssociationChanges getAssociationChanges(List<NodeRef> current, List<NodeRef> required)
+    {
+        int kept = 0;
+        int currentIndex = 0;
+        while (kept < required.size())
+        {
+            NodeRef target = required.get(kept);
+            while (currentIndex < current.size() && !current.get(currentIndex).equals(target))
+            {
+                currentIndex++;
+            }
+            if (currentIndex == current.size())
+            {
+                break;
+            }
+            currentIndex++;
+            kept++;
+        }
+
+        Set<NodeRef> keptTargets = new HashSet<NodeRef>(required.subList(0, kept));
+        List<NodeRef> removed = new ArrayList<NodeRef>();
+        for (NodeRef target : current)
+        {
+            if (!keptTargets.contains(target))
+            {
+                removed.add(target);
+            }
+        }
+        List<NodeRef> added = new ArrayList<NodeRef>(required.subList(kept, required.size()));
+        return new AssociationChanges(removed, added);
+    }
+
+    /**
+     * The associations to remove from and add to a collection
+     */
+    static class AssociationChanges
+    {
+        private final List<NodeRef> removed;
+        private final List<NodeRef> added;
+
+        AssociationChanges(List<NodeRef> removed, List<NodeRef> added)
+        {
+            this.removed = removed;
+            this.added = added;
+        }
+
+        public List<NodeRef> getRemoved()
+        {
+            return removed;
+        }
+
+        public List<NodeRef> getAdded()
+        {
+            return added;
+        }
+
+        public boolean isEmpty()
+        {
+            return removed.isEmpty() && added.isEmpty();
+        }
     }
 
     private QName parsePropertyName(String value)
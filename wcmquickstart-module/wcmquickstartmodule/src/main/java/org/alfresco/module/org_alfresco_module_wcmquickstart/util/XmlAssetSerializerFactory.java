@@ -44,4 +44,10 @@ public class XmlAssetSerializerFactory implements AssetSerializerFactory
         return serializer;
     }
 
+    @Override
+    public AssetSerializer getAssetSerializer(String format)
+    {
+        return getAssetSerializer();
+    }
+
 }
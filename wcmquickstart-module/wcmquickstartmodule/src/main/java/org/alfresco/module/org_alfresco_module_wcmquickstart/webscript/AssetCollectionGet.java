@@ -150,7 +150,7 @@ public class AssetCollectionGet extends AbstractWebScript implements WebSiteMode
         {
             boolean onlyModifiedTime = (req.getParameter(PARAM_MODIFIED_TIME_ONLY) != null);
             
-            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer();
+            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer(req.getFormat());
             res.setContentEncoding("UTF-8");
             res.setContentType(assetSerializer.getMimeType());
             Writer writer = res.getWriter();
@@ -40,6 +40,7 @@ import org.alfresco.module.org_alfresco_module_wcmquickstart.model.WebSiteModel;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.util.AssetSerializer;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.util.AssetSerializerFactory;
 import org.alfresco.module.org_alfresco_module_wcmquickstart.util.SiteHelper;
+import org.alfresco.repo.domain.node.NodeBulkLoader;
 import org.alfresco.service.cmr.repository.AssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
@@ -58,6 +59,10 @@ import org.springframework.extensions.webscripts.WebScriptResponse;
 
 /**
  * Asset GET implementation
+ * <p>
+ * A named asset is looked up as a child of its section, which is transactional and doesn't depend on
+ * the index being up to date. The index is only queried when the asset isn't a child of the section by
+ * that name, such as when it has been linked into more than one section.
  */
 public class AssetGet extends AbstractWebScript
 {
@@ -73,6 +78,7 @@ public class AssetGet extends AbstractWebScript
     private SearchService searchService;
     private AssetSerializerFactory assetSerializerFactory;
     private SiteHelper siteHelper;
+    private NodeBulkLoader nodeBulkLoader;
 
     public void setAssetSerializerFactory(AssetSerializerFactory assetSerializerFactory)
     {
@@ -94,6 +100,14 @@ public class AssetGet extends AbstractWebScript
         this.siteHelper = siteHelper;
     }
 
+    /**
+     * Optional. If set, the nodes found are loaded into the node caches in bulk before they are serialized.
+     */
+    public void setNodeBulkLoader(NodeBulkLoader nodeBulkLoader)
+    {
+        this.nodeBulkLoader = nodeBulkLoader;
+    }
+
     @Override
     public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
     {
@@ -118,40 +132,14 @@ public class AssetGet extends AbstractWebScript
                             + (onlyModifiedTime ? "   (modified time only)" : ""));
                 }
 
-                NodeRef siteId = null;
-                String siteIdText = req.getParameter(PARAM_SITE_ID);
-                if (siteIdText == null)
+                NodeRef namedNode = getChildByName(new NodeRef(sectionIdText), nodeName);
+                if (namedNode == null)
                 {
-                    siteId = siteHelper.getRelevantWebSite(new NodeRef(sectionIdText));
-                }
-                else
-                {
-                    siteId = new NodeRef(siteIdText);
-                }
-
-                String query = "+@ws\\:parentSections:\"" + sectionIdText + "\" +@cm\\:name:\"" + nodeName + "\"";
-                SearchParameters searchParameters = new SearchParameters();
-                searchParameters.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
-                searchParameters.setLanguage(SearchService.LANGUAGE_LUCENE);
-                searchParameters.setQuery(query);
-                List<Locale> locales = siteHelper.getWebSiteLocales(siteId);
-                for (Locale locale : locales)
-                {
-                    searchParameters.addLocale(locale);
-                }
-                ResultSet rs = null;
-                
-                try
-                {
-                    rs = searchService.query(searchParameters);
-                    if (rs.length() > 0)
-                    {
-                        foundNodes.add(rs.getNodeRef(0));
-                    }
+                    namedNode = queryByName(sectionIdText, nodeName, req.getParameter(PARAM_SITE_ID));
                 }
-                finally
+                if (namedNode != null)
                 {
-                	if (rs != null) {rs.close();}
+                    foundNodes.add(namedNode);
                 }
             }
             else
@@ -161,11 +149,23 @@ public class AssetGet extends AbstractWebScript
                     log.debug("Received request for specific node(s): " + Arrays.toString(nodeRefs)
                             + (onlyModifiedTime ? "   (modified time only)" : ""));
                 }
+                List<NodeRef> requestedNodes = new ArrayList<NodeRef>(nodeRefs.length);
                 for (String nodeRefString : nodeRefs)
                 {
                     try
                     {
-                        NodeRef nodeRef = new NodeRef(nodeRefString);
+                        requestedNodes.add(new NodeRef(nodeRefString));
+                    }
+                    catch (Exception ex)
+                    {
+                        // Safe to ignore
+                    }
+                }
+                cacheNodes(requestedNodes);
+                for (NodeRef nodeRef : requestedNodes)
+                {
+                    try
+                    {
                         if (nodeService.exists(nodeRef)
                                 && (nodeService.getProperty(nodeRef, ContentModel.PROP_NODE_UUID) != null))
                         {
@@ -181,7 +181,7 @@ public class AssetGet extends AbstractWebScript
 
             res.setContentEncoding("UTF-8");
             Writer writer = res.getWriter();
-            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer();
+            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer(req.getFormat());
             res.setContentType(assetSerializer.getMimeType());
             assetSerializer.start(writer);
             for (NodeRef nodeRef : foundNodes)
@@ -241,4 +241,78 @@ public class AssetGet extends AbstractWebScript
             throw createStatusException(e, req, res);
         }
     }
+
+    /**
+     * Look up a web asset by name amongst the children of the specified section
+     * 
+     * @return the asset or null if the section has no web asset child of that name
+     */
+    private NodeRef getChildByName(NodeRef sectionId, String nodeName)
+    {
+        if (!nodeService.exists(sectionId))
+        {
+            return null;
+        }
+        NodeRef child = nodeService.getChildByName(sectionId, ContentModel.ASSOC_CONTAINS, nodeName);
+        if (child != null && !nodeService.hasAspect(child, WebSiteModel.ASPECT_WEBASSET))
+        {
+            // A subsection or some other node that isn't served as an asset
+            child = null;
+        }
+        return child;
+    }
+
+    /**
+     * Find a web asset by name using the index. This finds assets that are in the section under a
+     * different association, but depends on the index being up to date.
+     * 
+     * @return the asset or null if none is found
+     */
+    private NodeRef queryByName(String sectionIdText, String nodeName, String siteIdText)
+    {
+        NodeRef siteId = null;
+        if (siteIdText == null)
+        {
+            siteId = siteHelper.getRelevantWebSite(new NodeRef(sectionIdText));
+        }
+        else
+        {
+            siteId = new NodeRef(siteIdText);
+        }
+
+        String query = "+@ws\\:parentSections:\"" + sectionIdText + "\" +@cm\\:name:\"" + nodeName + "\"";
+        SearchParameters searchParameters = new SearchParameters();
+        searchParameters.addStore(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+        searchParameters.setLanguage(SearchService.LANGUAGE_LUCENE);
+        searchParameters.setQuery(query);
+        List<Locale> locales = siteHelper.getWebSiteLocales(siteId);
+        for (Locale locale : locales)
+        {
+            searchParameters.addLocale(locale);
+        }
+        ResultSet rs = null;
+        try
+        {
+            rs = searchService.query(searchParameters);
+            return (rs.length() > 0) ? rs.getNodeRef(0) : null;
+        }
+        finally
+        {
+            if (rs != null)
+            {
+                rs.close();
+            }
+        }
+    }
+
+    /**
+     * Load the nodes' properties and aspects with as few queries as possible, rather than one node at a time
+     */
+    private void cacheNodes(List<NodeRef> nodeRefs)
+    {
+        if (nodeBulkLoader != null && nodeRefs.size() > 1)
+        {
+            nodeBulkLoader.cacheNodes(nodeRefs);
+        }
+    }
 }
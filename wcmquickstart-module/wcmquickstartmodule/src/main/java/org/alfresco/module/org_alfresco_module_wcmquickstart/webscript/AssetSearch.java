@@ -213,9 +213,9 @@ public class AssetSearch extends AbstractWebScript
             int count = 0;
             
             res.setContentEncoding("UTF-8");
-            res.setContentType("text/xml");
             Writer writer = res.getWriter();
-            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer();
+            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer(req.getFormat());
+            res.setContentType(assetSerializer.getMimeType());
             assetSerializer.start(writer);
             Map<QName, Serializable> header = new HashMap<QName, Serializable>(3);
             header.put(QName.createQName("totalResults"), new Long(totalResults));
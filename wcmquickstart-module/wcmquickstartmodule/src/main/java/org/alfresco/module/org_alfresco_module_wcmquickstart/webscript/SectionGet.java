@@ -159,7 +159,7 @@ public class SectionGet extends AbstractWebScript
 
             res.setContentEncoding("UTF-8");
             Writer writer = res.getWriter();
-            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer();
+            AssetSerializer assetSerializer = assetSerializerFactory.getAssetSerializer(req.getFormat());
             res.setContentType(assetSerializer.getMimeType());
             assetSerializer.start(writer);
             for (NodeRef nodeRef : foundNodes)
@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.webscript;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.module.org_alfresco_module_wcmquickstart.model.SectionHierarchyProcessor;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.DeclarativeWebScript;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+
+/**
+ * Reports the progress of the background recalculation of section ancestors
+ */
+public class SectionHierarchyStatusGet extends DeclarativeWebScript
+{
+    private SectionHierarchyProcessor sectionHierarchyProcessor;
+
+    public void setSectionHierarchyProcessor(SectionHierarchyProcessor sectionHierarchyProcessor)
+    {
+        this.sectionHierarchyProcessor = sectionHierarchyProcessor;
+    }
+
+    /**
+     * @see org.springframework.extensions.webscripts.DeclarativeWebScript#executeImpl(org.springframework.extensions.webscripts.WebScriptRequest,
+     *      org.springframework.extensions.webscripts.Status,
+     *      org.springframework.extensions.webscripts.Cache)
+     */
+    @Override
+    protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
+    {
+        List<Map<String, Object>> failedSections = new ArrayList<Map<String, Object>>();
+        for (Map.Entry<NodeRef, Integer> failed : sectionHierarchyProcessor.getFailedSections().entrySet())
+        {
+            Map<String, Object> section = new HashMap<String, Object>();
+            section.put("id", failed.getKey().toString());
+            section.put("failures", failed.getValue());
+            failedSections.add(section);
+        }
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("running", sectionHierarchyProcessor.isRunning());
+        model.put("pendingSections", sectionHierarchyProcessor.getPendingSectionCount());
+        Date startTime = sectionHierarchyProcessor.getPropagationStartTime();
+        if (startTime != null)
+        {
+            model.put("propagationStartTime", startTime);
+        }
+        model.put("sectionsProcessed", sectionHierarchyProcessor.getSectionsProcessed());
+        model.put("nodesUpdated", sectionHierarchyProcessor.getNodesUpdated());
+        model.put("lastPropagationTime", sectionHierarchyProcessor.getLastPropagationTime());
+        model.put("failedSections", failedSections);
+        return model;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.model;
+
+import static org.mockito.Mockito.mock;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.lock.JobLockService;
+import org.alfresco.repo.policy.BehaviourFilter;
+import org.alfresco.repo.transaction.RetryingTransactionHelper;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.attributes.AttributeService;
+import org.alfresco.service.cmr.attributes.AttributeService.AttributeQueryCallback;
+import org.alfresco.service.cmr.dictionary.DictionaryService;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests the batched processing of pending sections by {@link SectionHierarchyProcessor}, against a section
+ * tree and attribute store held in memory.
+ */
+public class SectionHierarchyProcessorTest extends TestCase
+{
+    private final Map<List<Serializable>, Serializable> attributes = new LinkedHashMap<List<Serializable>, Serializable>();
+    private final Map<NodeRef, NodeRef> parents = new LinkedHashMap<NodeRef, NodeRef>();
+    private final Map<NodeRef, QName> types = new HashMap<NodeRef, QName>();
+    private final Map<NodeRef, Serializable> ancestors = new HashMap<NodeRef, Serializable>();
+    private final Set<NodeRef> failingSections = new HashSet<NodeRef>();
+    private final List<NodeRef> expandedSections = new ArrayList<NodeRef>();
+    private final List<NodeRef> sectionsRecordedOnRelease = new ArrayList<NodeRef>();
+    private int transactions;
+    private int locksTaken;
+
+    private SectionHierarchyProcessor processor;
+    private NodeRef folder;
+    private NodeRef root;
+    private NodeRef a;
+    private NodeRef b;
+    private NodeRef c;
+    private NodeRef d;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        // folder / root / a / c
+        //               /   / d
+        //               / b
+        folder = createNode(null, ContentModel.TYPE_FOLDER);
+        root = createNode(folder, WebSiteModel.TYPE_WEB_ROOT);
+        a = createNode(root, WebSiteModel.TYPE_SECTION);
+        b = createNode(root, WebSiteModel.TYPE_SECTION);
+        c = createNode(a, WebSiteModel.TYPE_SECTION);
+        d = createNode(a, WebSiteModel.TYPE_SECTION);
+
+        final RetryingTransactionHelper txHelper = mock(RetryingTransactionHelper.class, new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                transactions++;
+                return ((RetryingTransactionCallback<?>) invocation.getArguments()[0]).execute();
+            }
+        });
+        TransactionService transactionService = mock(TransactionService.class, new Answer<Object>()
+        {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable
+            {
+                return txHelper;
+            }
+        });
+
+        processor = new SectionHierarchyProcessor();
+        processor.setTransactionService(transactionService);
+        processor.setAttributeService(mock(AttributeService.class, new AttributeAnswer()));
+        processor.setNodeService(mock(NodeService.class, new NodeAnswer()));
+        processor.setDictionaryService(mock(DictionaryService.class, new DictionaryAnswer()));
+        processor.setJobLockService(mock(JobLockService.class, new LockAnswer()));
+        processor.setBehaviourFilter(mock(BehaviourFilter.class));
+        processor.setBatchSize(2);
+    }
+
+    public void testPendingSectionsAreProcessedInBatches()
+    {
+        addPending(root, true);
+        attributes.put(key("startedAt"), Long.valueOf(System.currentTimeMillis()));
+
+        processor.processPending();
+
+        assertAncestors(root);
+        assertAncestors(a, root);
+        assertAncestors(b, root);
+        assertAncestors(c, a, root);
+        assertAncestors(d, a, root);
+        assertEquals(0, processor.getPendingSectionCount());
+        assertEquals(5L, processor.getSectionsProcessed());
+        assertEquals(5L, processor.getNodesUpdated());
+        assertTrue(processor.getLastPropagationTime() >= 0L);
+        assertFalse(attributes.containsKey(key("startedAt")));
+        // Five sections in batches of no more than two nodes
+        assertTrue(transactions > 3);
+    }
+
+    public void testUnchangedSubtreeIsSkipped()
+    {
+        setAncestors(root);
+        setAncestors(a, root);
+        setAncestors(b, root);
+        setAncestors(c, a, root);
+        setAncestors(d, a, root);
+        addPending(root, true);
+
+        processor.processPending();
+
+        // The affected section is always expanded, the subsections whose ancestors are correct are not
+        assertEquals(Arrays.asList(root), expandedSections);
+        assertEquals(0L, processor.getNodesUpdated());
+        assertEquals(0, processor.getPendingSectionCount());
+    }
+
+    public void testProcessingResumesFromPendingSections()
+    {
+        // A previous run processed the web root and section a, then stopped
+        setAncestors(root);
+        setAncestors(a, root);
+        addPending(b, false);
+        addPending(c, false);
+        addPending(d, false);
+
+        processor.processPending();
+
+        assertAncestors(b, root);
+        assertAncestors(c, a, root);
+        assertAncestors(d, a, root);
+        assertEquals(3L, processor.getNodesUpdated());
+        assertFalse(expandedSections.contains(root));
+        assertFalse(expandedSections.contains(a));
+    }
+
+    public void testFailingSectionIsRemovedAfterMaxAttempts()
+    {
+        processor.setMaxAttempts(2);
+        failingSections.add(b);
+        addPending(root, true);
+
+        processor.processPending();
+
+        assertAncestors(a, root);
+        assertAncestors(c, a, root);
+        assertAncestors(d, a, root);
+        assertNull(ancestors.get(b));
+        assertEquals(0, processor.getPendingSectionCount());
+        Map<NodeRef, Integer> failed = processor.getFailedSections();
+        assertEquals(1, failed.size());
+        assertEquals(Integer.valueOf(2), failed.get(b));
+    }
+
+    public void testSectionsRecordedWhileLockIsHeldAreProcessed()
+    {
+        setAncestors(root);
+        setAncestors(a, root);
+        setAncestors(b, root);
+        setAncestors(c, a, root);
+        addPending(b, false);
+        // Another server records section d as the lock is released
+        sectionsRecordedOnRelease.add(d);
+
+        processor.processPending();
+
+        assertAncestors(d, a, root);
+        assertEquals(2, locksTaken);
+        assertEquals(0, processor.getPendingSectionCount());
+    }
+
+    private NodeRef createNode(NodeRef parent, QName type)
+    {
+        NodeRef node = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, "node" + parents.size());
+        parents.put(node, parent);
+        types.put(node, type);
+        return node;
+    }
+
+    private void addPending(NodeRef section, boolean root)
+    {
+        attributes.put(key("pending", section.toString()), Boolean.valueOf(root));
+    }
+
+    private void setAncestors(NodeRef section, NodeRef... sectionAncestors)
+    {
+        ancestors.put(section, new ArrayList<NodeRef>(Arrays.asList(sectionAncestors)));
+    }
+
+    private void assertAncestors(NodeRef section, NodeRef... expected)
+    {
+        Serializable actual = ancestors.get(section);
+        assertNotNull("No ancestors set on " + section, actual);
+        assertEquals(new HashSet<NodeRef>(Arrays.asList(expected)), new HashSet<Object>((Collection<?>) actual));
+    }
+
+    private static List<Serializable> key(Serializable... keys)
+    {
+        return Arrays.asList(keys);
+    }
+
+    /**
+     * @return the arguments of an invocation with any varargs array expanded
+     */
+    private static List<Object> arguments(InvocationOnMock invocation)
+    {
+        List<Object> arguments = new ArrayList<Object>();
+        for (Object argument : invocation.getArguments())
+        {
+            if (argument instanceof Serializable[])
+            {
+                arguments.addAll(Arrays.asList((Serializable[]) argument));
+            }
+            else
+            {
+                arguments.add(argument);
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Attribute keys without the application name, which is the first key of every attribute
+     */
+    private static List<Serializable> keys(List<Object> arguments, int from)
+    {
+        List<Serializable> keys = new ArrayList<Serializable>();
+        for (Object key : arguments.subList(from + 1, arguments.size()))
+        {
+            keys.add((Serializable) key);
+        }
+        return keys;
+    }
+
+    private class AttributeAnswer implements Answer<Object>
+    {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable
+        {
+            String method = invocation.getMethod().getName();
+            List<Object> arguments = arguments(invocation);
+            if (method.equals("exists"))
+            {
+                return attributes.containsKey(keys(arguments, 0));
+            }
+            else if (method.equals("getAttribute"))
+            {
+                return attributes.get(keys(arguments, 0));
+            }
+            else if (method.equals("setAttribute"))
+            {
+                attributes.put(keys(arguments, 1), (Serializable) arguments.get(0));
+            }
+            else if (method.equals("removeAttribute"))
+            {
+                attributes.remove(keys(arguments, 0));
+            }
+            else if (method.equals("getAttributes"))
+            {
+                AttributeQueryCallback callback = (AttributeQueryCallback) arguments.get(0);
+                List<Serializable> prefix = keys(arguments, 1);
+                long id = 0;
+                for (Map.Entry<List<Serializable>, Serializable> attribute : new ArrayList<Map.Entry<List<Serializable>, Serializable>>(
+                        attributes.entrySet()))
+                {
+                    List<Serializable> key = attribute.getKey();
+                    if (key.size() > prefix.size() && key.subList(0, prefix.size()).equals(prefix))
+                    {
+                        List<Serializable> fullKey = new ArrayList<Serializable>();
+                        fullKey.add(arguments.get(1).toString());
+                        fullKey.addAll(key);
+                        if (!callback.handleAttribute(id++, attribute.getValue(), fullKey.toArray(new Serializable[0])))
+                        {
+                            break;
+                        }
+                    }
+                }
+            }
+            else
+            {
+                throw new UnsupportedOperationException(method);
+            }
+            return null;
+        }
+    }
+
+    private class NodeAnswer implements Answer<Object>
+    {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable
+        {
+            String method = invocation.getMethod().getName();
+            Object[] arguments = invocation.getArguments();
+            NodeRef node = (NodeRef) arguments[0];
+            if (failingSections.contains(node))
+            {
+                throw new IllegalStateException("Failing section " + node);
+            }
+            if (method.equals("exists"))
+            {
+                return parents.containsKey(node);
+            }
+            else if (method.equals("getPrimaryParent"))
+            {
+                return new ChildAssociationRef(ContentModel.ASSOC_CONTAINS, parents.get(node), ContentModel.ASSOC_CONTAINS,
+                        node);
+            }
+            else if (method.equals("getType"))
+            {
+                return types.get(node);
+            }
+            else if (method.equals("getProperty"))
+            {
+                return ancestors.get(node);
+            }
+            else if (method.equals("setProperty"))
+            {
+                ancestors.put(node, (Serializable) arguments[2]);
+                return null;
+            }
+            else if (method.equals("getChildAssocsByPropertyValue"))
+            {
+                return new ArrayList<ChildAssociationRef>();
+            }
+            else if (method.equals("getChildAssocs"))
+            {
+                expandedSections.add(node);
+                List<ChildAssociationRef> children = new ArrayList<ChildAssociationRef>();
+                for (Map.Entry<NodeRef, NodeRef> child : parents.entrySet())
+                {
+                    if (node.equals(child.getValue()))
+                    {
+                        children.add(new ChildAssociationRef(ContentModel.ASSOC_CONTAINS, node,
+                                ContentModel.ASSOC_CONTAINS, child.getKey()));
+                    }
+                }
+                return children;
+            }
+            throw new UnsupportedOperationException(method);
+        }
+    }
+
+    private static class DictionaryAnswer implements Answer<Object>
+    {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable
+        {
+            String method = invocation.getMethod().getName();
+            if (method.equals("isSubClass"))
+            {
+                Object type = invocation.getArguments()[0];
+                return WebSiteModel.TYPE_SECTION.equals(type) || WebSiteModel.TYPE_WEB_ROOT.equals(type);
+            }
+            else if (method.equals("getSubTypes"))
+            {
+                return Arrays.asList(WebSiteModel.TYPE_SECTION, WebSiteModel.TYPE_WEB_ROOT);
+            }
+            throw new UnsupportedOperationException(method);
+        }
+    }
+
+    private class LockAnswer implements Answer<Object>
+    {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable
+        {
+            String method = invocation.getMethod().getName();
+            if (method.equals("getLock"))
+            {
+                locksTaken++;
+                return "lock" + locksTaken;
+            }
+            else if (method.equals("releaseLock"))
+            {
+                for (NodeRef section : sectionsRecordedOnRelease)
+                {
+                    addPending(section, false);
+                }
+                sectionsRecordedOnRelease.clear();
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import static org.mockito.Mockito.*;
+
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.GUID;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import junit.framework.TestCase;
+
+public class AssetSerializerJsonImplTest extends TestCase
+{
+    private AssetSerializerJsonImpl testObject;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        testObject = new AssetSerializerJsonImpl();
+        NamespaceService namespaceService = mock(NamespaceService.class);
+        doAnswer(new Answer<Collection<String>>()
+                {
+                    @Override
+                    public Collection<String> answer(InvocationOnMock invocation) throws Throwable
+                    {
+                        List<String> reply = new ArrayList<String>();
+                        reply.add("myapp");
+                        return reply;
+                    }
+                }).when(namespaceService).getPrefixes(any(String.class));
+        
+        testObject.setNamespaceService(namespaceService);
+    }
+
+    public void testWriteNodes() throws Exception
+    {
+        String text = "The радиатор <sat> on the \"mat\":\tfirst on one side\\the other...\n";
+        Date date = new Date();
+        NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, GUID.generate());
+
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(QName.createQName("uri", "integerProperty"), new Integer(678));
+        props.put(QName.createQName("uri", "longProperty"), new Long(6737436288L));
+        props.put(QName.createQName("uri", "dateProperty"), date);
+        props.put(QName.createQName("uri", "doubleProperty"), new Double(132.4352e12));
+        props.put(QName.createQName("uri", "wholeDoubleProperty"), new Double(2));
+        props.put(QName.createQName("uri", "textProperty"), text);
+        props.put(QName.createQName("uri", "missingProperty"), null);
+        props.put(QName.createQName("uri", "contentProperty"), new ContentData(null, "text/html", 1234L, "UTF-8"));
+        ArrayList<String> textList = new ArrayList<String>();
+        textList.add("One");
+        textList.add("Two");
+        props.put(QName.createQName("uri", "textListProperty"), textList);
+        props.put(QName.createQName("uri", "mapProperty"), new HashMap<QName,Serializable>(props));
+        props.put(ContentModel.PROP_NODE_UUID, nodeRef.getId());
+
+        Map<QName, Serializable> header = new HashMap<QName, Serializable>();
+        header.put(QName.createQName("uri", "totalResults"), new Long(2));
+
+        StringWriter writer = new StringWriter();
+        testObject.start(writer);
+        testObject.writeHeader(header);
+        testObject.writeNode(nodeRef, QName.createQName("uri", "MyType"), props);
+        testObject.writeNode(nodeRef, QName.createQName("uri", "MyType"), props);
+        testObject.end();
+
+        JSONObject json = new JSONObject(writer.toString());
+        assertEquals(2, json.getJSONObject("header").getLong("myapp:totalResults"));
+        JSONArray assets = json.getJSONArray("assets");
+        assertEquals(2, assets.length());
+
+        JSONObject asset = assets.getJSONObject(0);
+        assertEquals(nodeRef.toString(), asset.getString("id"));
+        assertEquals("myapp:MyType", asset.getString("type"));
+        JSONObject assetProps = asset.getJSONObject("props");
+        assertEquals(678, assetProps.getInt("myapp:integerProperty"));
+        assertEquals(6737436288L, assetProps.getLong("myapp:longProperty"));
+        assertEquals(date.getTime(), assetProps.getJSONObject("myapp:dateProperty").getLong("@time"));
+        assertEquals(132.4352e12, assetProps.getDouble("myapp:doubleProperty"));
+        assertTrue(writer.toString().contains("\"myapp:wholeDoubleProperty\":2.0"));
+        assertEquals(text, assetProps.getString("myapp:textProperty"));
+        assertTrue(assetProps.isNull("myapp:missingProperty"));
+        JSONObject content = assetProps.getJSONObject("myapp:contentProperty").getJSONObject("@content");
+        assertEquals("text/html", content.getString("mime"));
+        assertEquals(1234L, content.getLong("size"));
+        assertEquals(2, assetProps.getJSONArray("myapp:textListProperty").length());
+        assertEquals(text, assetProps.getJSONObject("myapp:mapProperty").getString("myapp:textProperty"));
+        assertFalse(assetProps.has("myapp:node-uuid"));
+    }
+
+    public void testEmpty() throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        testObject.start(writer);
+        testObject.end();
+        assertEquals("{\"assets\":[]}", writer.toString());
+    }
+}
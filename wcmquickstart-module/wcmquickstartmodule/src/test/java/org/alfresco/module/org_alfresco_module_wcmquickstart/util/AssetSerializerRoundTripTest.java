@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import static org.mockito.Mockito.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.service.cmr.repository.ContentData;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.util.GUID;
+import org.alfresco.wcm.client.impl.AssetDeserializerJsonImpl;
+import org.alfresco.wcm.client.impl.AssetDeserializerXmlImpl;
+import org.alfresco.wcm.client.impl.ContentInfo;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import junit.framework.TestCase;
+
+/**
+ * Writes the same nodes with both asset serializers and checks that the client's deserializers read them back
+ * into the same property maps.
+ */
+public class AssetSerializerRoundTripTest extends TestCase
+{
+    private NamespaceService namespaceService;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        namespaceService = mock(NamespaceService.class);
+        doAnswer(new Answer<Collection<String>>()
+                {
+                    @Override
+                    public Collection<String> answer(InvocationOnMock invocation) throws Throwable
+                    {
+                        List<String> reply = new ArrayList<String>();
+                        reply.add("myapp");
+                        return reply;
+                    }
+                }).when(namespaceService).getPrefixes(any(String.class));
+    }
+
+    public void testRoundTrip() throws Exception
+    {
+        String text = "The радиатор <sat> on the \"mat\":\tfirst on one side\\the other...\n";
+        Date date = new Date();
+        NodeRef nodeRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, GUID.generate());
+        NodeRef sectionRef = new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, GUID.generate());
+
+        Map<QName, Serializable> props = new HashMap<QName, Serializable>();
+        props.put(QName.createQName("uri", "integerProperty"), new Integer(678));
+        props.put(QName.createQName("uri", "longProperty"), new Long(6737436288L));
+        props.put(QName.createQName("uri", "dateProperty"), date);
+        props.put(QName.createQName("uri", "doubleProperty"), new Double(132.4352e12));
+        props.put(QName.createQName("uri", "wholeDoubleProperty"), new Double(2));
+        props.put(QName.createQName("uri", "booleanProperty"), Boolean.TRUE);
+        props.put(QName.createQName("uri", "textProperty"), text);
+        props.put(QName.createQName("uri", "idProperty"), sectionRef);
+        props.put(QName.createQName("uri", "missingProperty"), null);
+        props.put(QName.createQName("uri", "contentProperty"), new ContentData(null, "text/html", 1234L, "UTF-8"));
+        ArrayList<String> textList = new ArrayList<String>();
+        textList.add("One");
+        textList.add("Two");
+        props.put(QName.createQName("uri", "textListProperty"), textList);
+        props.put(ContentModel.PROP_NODE_UUID, nodeRef.getId());
+
+        Map<QName, Serializable> header = new HashMap<QName, Serializable>();
+        header.put(QName.createQName("uri", "totalResults"), new Long(2));
+
+        AssetSerializerJsonImpl jsonSerializer = new AssetSerializerJsonImpl();
+        jsonSerializer.setNamespaceService(namespaceService);
+        AssetDeserializerJsonImpl jsonDeserializer = new AssetDeserializerJsonImpl();
+        LinkedList<TreeMap<String, Serializable>> jsonAssets = jsonDeserializer.deserialize(
+                new ByteArrayInputStream(serialize(jsonSerializer, nodeRef, header, props).getBytes("UTF-8")));
+
+        AssetSerializerXmlImpl xmlSerializer = new AssetSerializerXmlImpl();
+        xmlSerializer.setNamespaceService(namespaceService);
+        AssetDeserializerXmlImpl xmlDeserializer = new AssetDeserializerXmlImpl();
+        LinkedList<TreeMap<String, Serializable>> xmlAssets = xmlDeserializer.deserialize(
+                new ByteArrayInputStream(serialize(xmlSerializer, nodeRef, header, props).getBytes("UTF-8")));
+
+        assertEquals(2, jsonAssets.size());
+        assertEquals(2L, jsonDeserializer.getHeader().get("myapp:totalResults"));
+        assertEquals(xmlDeserializer.getHeader(), jsonDeserializer.getHeader());
+
+        TreeMap<String, Serializable> asset = jsonAssets.getFirst();
+        assertEquals(nodeRef.toString(), asset.get("id"));
+        assertEquals("myapp:MyType", asset.get("type"));
+        assertEquals(678L, asset.get("myapp:integerProperty"));
+        assertEquals(6737436288L, asset.get("myapp:longProperty"));
+        assertEquals(date, asset.get("myapp:dateProperty"));
+        assertEquals(132.4352e12, asset.get("myapp:doubleProperty"));
+        assertEquals(2.0, asset.get("myapp:wholeDoubleProperty"));
+        assertEquals(Boolean.TRUE, asset.get("myapp:booleanProperty"));
+        assertEquals(text, asset.get("myapp:textProperty"));
+        assertEquals(sectionRef.toString(), asset.get("myapp:idProperty"));
+        assertTrue(asset.containsKey("myapp:missingProperty"));
+        assertNull(asset.get("myapp:missingProperty"));
+        assertEquals(textList, asset.get("myapp:textListProperty"));
+        assertFalse(asset.containsKey("myapp:node-uuid"));
+
+        // ContentInfo doesn't implement equals, so compare its fields before comparing the rest of the maps
+        assertEquals(removeContent(xmlAssets), removeContent(jsonAssets));
+        assertEquals("text/html,1234,UTF-8;text/html,1234,UTF-8;", removeContent(jsonAssets));
+        assertEquals(xmlAssets, jsonAssets);
+    }
+
+    public void testEmptyRoundTrip() throws Exception
+    {
+        AssetSerializerJsonImpl jsonSerializer = new AssetSerializerJsonImpl();
+        jsonSerializer.setNamespaceService(namespaceService);
+        StringWriter writer = new StringWriter();
+        jsonSerializer.start(writer);
+        jsonSerializer.end();
+
+        AssetDeserializerJsonImpl jsonDeserializer = new AssetDeserializerJsonImpl();
+        assertTrue(jsonDeserializer.deserialize(new ByteArrayInputStream(writer.toString().getBytes("UTF-8"))).isEmpty());
+        assertTrue(jsonDeserializer.getHeader().isEmpty());
+    }
+
+    private String serialize(AssetSerializer serializer, NodeRef nodeRef, Map<QName, Serializable> header,
+            Map<QName, Serializable> props) throws Exception
+    {
+        StringWriter writer = new StringWriter();
+        serializer.start(writer);
+        serializer.writeHeader(header);
+        serializer.writeNode(nodeRef, QName.createQName("uri", "MyType"), props);
+        serializer.writeNode(nodeRef, QName.createQName("uri", "MyType"), props);
+        serializer.end();
+        return writer.toString();
+    }
+
+    private String removeContent(LinkedList<TreeMap<String, Serializable>> assets)
+    {
+        StringBuilder contents = new StringBuilder();
+        for (TreeMap<String, Serializable> asset : assets)
+        {
+            ContentInfo content = (ContentInfo) asset.remove("myapp:contentProperty");
+            contents.append(content.getMimeType()).append(',').append(content.getSize()).append(',')
+                    .append(content.getEncoding()).append(';');
+        }
+        return contents.toString();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * Alfresco WCMQS AMP
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.module.org_alfresco_module_wcmquickstart.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.alfresco.module.org_alfresco_module_wcmquickstart.util.WebassetCollectionHelper.AssociationChanges;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.StoreRef;
+
+import junit.framework.TestCase;
+
+public class WebassetCollectionHelperTest extends TestCase
+{
+    private static final NodeRef A = node("a");
+    private static final NodeRef B = node("b");
+    private static final NodeRef C = node("c");
+    private static final NodeRef D = node("d");
+    private static final NodeRef X = node("x");
+
+    public void testUnchanged()
+    {
+        AssociationChanges changes = checkChanges(list(A, B, C), list(A, B, C));
+        assertTrue(changes.isEmpty());
+    }
+
+    public void testEmpty()
+    {
+        assertTrue(checkChanges(list(), list()).isEmpty());
+        assertEquals(list(A, B), checkChanges(list(), list(A, B)).getAdded());
+        assertEquals(list(A, B), checkChanges(list(A, B), list()).getRemoved());
+    }
+
+    public void testAppend()
+    {
+        AssociationChanges changes = checkChanges(list(A, B), list(A, B, C));
+        assertEquals(list(), changes.getRemoved());
+        assertEquals(list(C), changes.getAdded());
+    }
+
+    public void testRemove()
+    {
+        AssociationChanges changes = checkChanges(list(A, B, C, D), list(A, C));
+        assertEquals(list(B, D), changes.getRemoved());
+        assertEquals(list(), changes.getAdded());
+    }
+
+    public void testMoveToEnd()
+    {
+        // Only the moved target is recreated
+        AssociationChanges changes = checkChanges(list(A, B, C, D), list(B, C, D, A));
+        assertEquals(list(A), changes.getRemoved());
+        assertEquals(list(A), changes.getAdded());
+    }
+
+    public void testInsert()
+    {
+        // Targets after the new one have to be recreated after it
+        AssociationChanges changes = checkChanges(list(A, B, C), list(A, X, B, C));
+        assertEquals(list(B, C), changes.getRemoved());
+        assertEquals(list(X, B, C), changes.getAdded());
+    }
+
+    public void testReplace()
+    {
+        checkChanges(list(A, B, C), list(D, C, B, X));
+        checkChanges(list(D, A, X, C), list(C, A, D));
+    }
+
+    /**
+     * Apply the changes the way the node service does, adding new associations at the end, and check
+     * that the result is the required list
+     */
+    private AssociationChanges checkChanges(List<NodeRef> current, List<NodeRef> required)
+    {
+        AssociationChanges changes = WebassetCollectionHelper.getAssociationChanges(current, required);
+        List<NodeRef> result = new ArrayList<NodeRef>(current);
+        result.removeAll(changes.getRemoved());
+        result.addAll(changes.getAdded());
+        assertEquals(required, result);
+        return changes;
+    }
+
+    private static List<NodeRef> list(NodeRef... nodeRefs)
+    {
+        return nodeRefs.length == 0 ? Collections.<NodeRef>emptyList() : Arrays.asList(nodeRefs);
+    }
+
+    private static NodeRef node(String id)
+    {
+        return new NodeRef(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE, id);
+    }
+}
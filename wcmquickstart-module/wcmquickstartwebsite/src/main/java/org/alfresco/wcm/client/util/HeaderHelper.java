@@ -74,6 +74,19 @@ public abstract class HeaderHelper
         return true;
     }
     
+    /**
+     * Check the value of an If-Range request header. This base implementation returns false so
+     * that the whole asset is rendered. Override in a subclass as necessary
+     * @param asset Asset
+     * @param ifRange String the entity tag or HTTP date of the If-Range header
+     * @return boolean true if the browser's copy of the asset is current and the requested ranges
+     *         can be rendered
+     */
+    public boolean isRangeCurrent(Asset asset, String ifRange)
+    {
+        return false;
+    }
+
     public final String getHttpDate(Date date)
     {
         return dateFormatter().format(date);
@@ -62,9 +62,7 @@ public class SimpleCacheControlHeaderHelper extends HeaderHelper
         try
         {
             // Set headers
-            Date modifiedDate = ((Date) asset.getProperty(Resource.PROPERTY_MODIFIED_TIME));
-            long modifiedTime = modifiedDate.getTime();
-            modifiedTime = (modifiedTime / 1000) * 1000; // remove ms
+            long modifiedTime = getModifiedTime(asset);
             
             response.addDateHeader("Last-Modified", modifiedTime);
             response.addDateHeader("Expires", new Date().getTime() + defaultExpiry);
@@ -114,4 +112,42 @@ public class SimpleCacheControlHeaderHelper extends HeaderHelper
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * An If-Range header is current if it holds the strong entity tag or the exact last modified
+     * date set by {@link #setHeaders(Asset, boolean, HttpServletRequest, HttpServletResponse)}
+     */
+    @Override
+    public boolean isRangeCurrent(Asset asset, String ifRange)
+    {
+        long modifiedTime = getModifiedTime(asset);
+        String value = ifRange.trim();
+        if (value.startsWith("W/"))
+        {
+            // Weak entity tags cannot be used for ranges
+            return false;
+        }
+        if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\""))
+        {
+            value = value.substring(1, value.length() - 1);
+        }
+        if (Long.toHexString(modifiedTime).equals(value))
+        {
+            return true;
+        }
+        try
+        {
+            return getDateFromHttpDate(value).getTime() == modifiedTime;
+        }
+        catch (ParseException e)
+        {
+            return false;
+        }
+    }
+
+    private long getModifiedTime(Asset asset)
+    {
+        Date modifiedDate = ((Date) asset.getProperty(Resource.PROPERTY_MODIFIED_TIME));
+        return (modifiedDate.getTime() / 1000) * 1000; // remove ms
+    }
 }
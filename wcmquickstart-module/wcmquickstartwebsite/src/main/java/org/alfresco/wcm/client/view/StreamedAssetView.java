@@ -25,7 +25,14 @@
  */
 package org.alfresco.wcm.client.view;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
@@ -34,18 +41,29 @@ import javax.servlet.http.HttpServletResponse;
 import org.alfresco.wcm.client.Asset;
 import org.alfresco.wcm.client.ContentStream;
 import org.alfresco.wcm.client.Rendition;
+import org.alfresco.wcm.client.impl.CachingContentStreamImpl;
+import org.alfresco.wcm.client.impl.StreamUtils;
 import org.alfresco.wcm.client.util.HeaderHelper;
 import org.alfresco.wcm.client.util.impl.SimpleCacheControlHeaderHelper;
 import org.springframework.web.servlet.view.AbstractUrlBasedView;
 
 /**
  * Stream an asset for the view
+ * <p>
+ * Byte range requests are answered with partial content, as long as the If-Range header, if
+ * present, matches the current asset. Multiple ranges are only served from cached content,
+ * which can be read at any position - otherwise the whole asset is rendered.
  * 
  * @author Chris Lack
  * 
  */
 public class StreamedAssetView extends AbstractUrlBasedView
 {
+    private static final String BYTES_UNIT = "bytes";
+    private static final String DEFAULT_MIME_TYPE = "application/octet-stream";
+    /** Requests for more ranges than this are answered with the whole asset */
+    private static final int MAX_RANGES = 16;
+
     private static HeaderHelper headerHelper = new SimpleCacheControlHeaderHelper();
     
     private Asset asset;
@@ -112,11 +130,192 @@ public class StreamedAssetView extends AbstractUrlBasedView
             if (contentStream != null) 
             {
                 String mimeType = contentStream.getMimeType();
-                response.setContentType(mimeType == null ? "application/octet-stream" : mimeType);
-                response.setContentLength((int)contentStream.getLength());
-                out = response.getOutputStream();
-                contentStream.output(out);
+                mimeType = (mimeType == null ? DEFAULT_MIME_TYPE : mimeType);
+                long length = contentStream.getLength();
+                List<long[]> ranges = null;
+                if (length >= 0)
+                {
+                    response.setHeader("Accept-Ranges", BYTES_UNIT);
+                    ranges = getRequestedRanges(request, length);
+                    if (ranges != null && ranges.isEmpty())
+                    {
+                        response.setHeader("Content-Range", BYTES_UNIT + " */" + length);
+                        response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                        return;
+                    }
+                    if (ranges != null && ranges.size() > 1 && !(contentStream instanceof CachingContentStreamImpl))
+                    {
+                        // The content can only be read once
+                        ranges = null;
+                    }
+                }
+
+                if (ranges == null)
+                {
+                    response.setContentType(mimeType);
+                    if (length >= 0)
+                    {
+                        setContentLength(response, length);
+                    }
+                    out = response.getOutputStream();
+                    contentStream.output(out);
+                }
+                else if (ranges.size() == 1)
+                {
+                    long[] range = ranges.get(0);
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setContentType(mimeType);
+                    response.setHeader("Content-Range", getContentRange(range, length));
+                    setContentLength(response, range[1] - range[0] + 1);
+                    out = response.getOutputStream();
+                    outputRange(contentStream, out, range);
+                }
+                else
+                {
+                    String boundary = UUID.randomUUID().toString();
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setContentType("multipart/byteranges; boundary=" + boundary);
+                    out = response.getOutputStream();
+                    for (long[] range : ranges)
+                    {
+                        writeAscii(out, "\r\n--" + boundary + "\r\nContent-Type: " + mimeType
+                                + "\r\nContent-Range: " + getContentRange(range, length) + "\r\n\r\n");
+                        outputRange(contentStream, out, range);
+                    }
+                    writeAscii(out, "\r\n--" + boundary + "--\r\n");
+                    out.flush();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the byte ranges requested by the Range header
+     * 
+     * @param request
+     *            the request
+     * @param length
+     *            content length
+     * @return the first and last byte position of each range, an empty list if none of the
+     *         ranges can be satisfied or null if the whole content should be rendered
+     */
+    List<long[]> getRequestedRanges(HttpServletRequest request, long length)
+    {
+        String rangeHeader = request.getHeader("Range");
+        if (rangeHeader == null || !rangeHeader.startsWith(BYTES_UNIT + "="))
+        {
+            return null;
+        }
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange != null && !headerHelper.isRangeCurrent(asset, ifRange))
+        {
+            return null;
+        }
+
+        String[] specs = rangeHeader.substring(BYTES_UNIT.length() + 1).split(",");
+        if (specs.length > MAX_RANGES)
+        {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<long[]>(specs.length);
+        try
+        {
+            for (String spec : specs)
+            {
+                spec = spec.trim();
+                int dash = spec.indexOf('-');
+                if (dash < 0)
+                {
+                    return null;
+                }
+                long first;
+                long last;
+                if (dash == 0)
+                {
+                    // Suffix range: the last n bytes
+                    long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix <= 0)
+                    {
+                        continue;
+                    }
+                    first = Math.max(0L, length - suffix);
+                    last = length - 1;
+                }
+                else
+                {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    last = (dash == spec.length() - 1 ? length - 1 : Math.min(length - 1,
+                            Long.parseLong(spec.substring(dash + 1))));
+                    if (last < first && first < length)
+                    {
+                        // Syntactically invalid - the header is ignored
+                        return null;
+                    }
+                }
+                if (first < length && first <= last)
+                {
+                    ranges.add(new long[] { first, last });
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+        return ranges;
+    }
+
+    private void outputRange(ContentStream contentStream, OutputStream out, long[] range) throws IOException
+    {
+        long count = range[1] - range[0] + 1;
+        if (contentStream instanceof CachingContentStreamImpl)
+        {
+            ((CachingContentStreamImpl) contentStream).output(out, range[0], count);
+        }
+        else
+        {
+            InputStream in = contentStream.getStream();
+            try
+            {
+                long skip = range[0];
+                while (skip > 0)
+                {
+                    long skipped = in.skip(skip);
+                    if (skipped <= 0)
+                    {
+                        if (in.read() == -1)
+                        {
+                            throw new IOException("Content ended before the requested range");
+                        }
+                        skipped = 1;
+                    }
+                    skip -= skipped;
+                }
+                StreamUtils.output(in, out, count);
+            }
+            finally
+            {
+                in.close();
             }
         }
     }
+
+    private static String getContentRange(long[] range, long length)
+    {
+        return BYTES_UNIT + " " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    /**
+     * Set the content length as a header as it may exceed the range of
+     * {@link HttpServletResponse#setContentLength(int)}
+     */
+    private static void setContentLength(HttpServletResponse response, long length)
+    {
+        response.setHeader("Content-Length", Long.toString(length));
+    }
+
+    private static void writeAscii(OutputStream out, String text) throws IOException
+    {
+        out.write(text.getBytes(StandardCharsets.US_ASCII));
+    }
 }
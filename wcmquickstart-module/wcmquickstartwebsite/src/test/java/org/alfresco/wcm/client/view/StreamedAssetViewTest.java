@@ -0,0 +1,232 @@
+/*
+ * #%L
+ * Alfresco WCMQS Web
+ * %%
+ * Copyright (C) 2005 - 2016 Alfresco Software Limited
+ * %%
+ * This file is part of the Alfresco software. 
+ * If the software was purchased under a paid Alfresco license, the terms of 
+ * the paid license agreement will prevail.  Otherwise, the software is 
+ * provided under the following open source license terms:
+ * 
+ * Alfresco is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * Alfresco is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with Alfresco. If not, see <http://www.gnu.org/licenses/>.
+ * #L%
+ */
+package org.alfresco.wcm.client.view;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+
+import org.alfresco.wcm.client.Asset;
+import org.alfresco.wcm.client.ContentStream;
+import org.alfresco.wcm.client.Resource;
+import org.alfresco.wcm.client.util.impl.SimpleCacheControlHeaderHelper;
+
+/**
+ * Tests for the byte ranges served by the {@link StreamedAssetView} class
+ */
+public class StreamedAssetViewTest extends TestCase
+{
+    private static final long LENGTH = 1000L;
+    /** Fri, 13 Feb 2009 23:31:30.123 GMT - the milliseconds are not part of the headers */
+    private static final Date MODIFIED = new Date(1234567890123L);
+    private static final String ETAG = Long.toHexString(1234567890000L);
+
+    /** Range header and the expected ranges: null for the whole asset and "" for none satisfiable */
+    private static final String[][] RANGES = new String[][] {
+        { null, null },
+        { "items=0-9", null },
+        { "bytes=0-99", "0-99" },
+        { "bytes=100-", "100-999" },
+        { "bytes=900-2000", "900-999" },
+        { "bytes=999-999", "999-999" },
+        // Suffix ranges
+        { "bytes=-100", "900-999" },
+        { "bytes=-2000", "0-999" },
+        // Multiple ranges
+        { "bytes=0-99, 200-299", "0-99,200-299" },
+        { "bytes=0-0,-1", "0-0,999-999" },
+        { "bytes=1000-,0-9", "0-9" },
+        // Unsatisfiable ranges
+        { "bytes=1000-1100", "" },
+        { "bytes=1000-", "" },
+        { "bytes=-0", "" },
+        { "bytes=1000-,2000-", "" },
+        // Invalid ranges
+        { "bytes=99-0", null },
+        { "bytes=100", null },
+        { "bytes=a-b", null },
+        { "bytes=-", null }
+    };
+
+    /** If-Range header for "bytes=0-99" and the expected ranges: null for the whole asset */
+    private static final String[][] IF_RANGES = new String[][] {
+        { ETAG, "0-99" },
+        { "\"" + ETAG + "\"", "0-99" },
+        { "W/\"" + ETAG + "\"", null },
+        { Long.toHexString(1234567889000L), null },
+        { "Fri, 13 Feb 2009 23:31:30 GMT", "0-99" },
+        { "Fri, 13 Feb 2009 23:31:29 GMT", null },
+        { "yesterday", null }
+    };
+
+    private ContentStream contentStream = proxy(ContentStream.class, new InvocationHandler()
+    {
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if (method.getName().equals("getLength"))
+            {
+                return LENGTH;
+            }
+            if (method.getName().equals("getMimeType"))
+            {
+                return "text/plain";
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+
+    private Asset asset = proxy(Asset.class, new InvocationHandler()
+    {
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            if (method.getName().equals("getProperty") && Resource.PROPERTY_MODIFIED_TIME.equals(args[0]))
+            {
+                return MODIFIED;
+            }
+            if (method.getName().equals("getContentAsInputStream"))
+            {
+                return contentStream;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+    });
+
+    private StreamedAssetView view = new StreamedAssetView(asset);
+
+    public void testRequestedRanges()
+    {
+        for (String[] range : RANGES)
+        {
+            assertEquals(range[0], range[1], format(view.getRequestedRanges(request(range[0], null), LENGTH)));
+        }
+    }
+
+    public void testMaximumRanges()
+    {
+        StringBuilder rangeHeader = new StringBuilder("bytes=0-0");
+        StringBuilder expected = new StringBuilder("0-0");
+        for (int i = 1; i < 16; i++)
+        {
+            rangeHeader.append(',').append(i * 10).append('-').append(i * 10);
+            expected.append(',').append(i * 10).append('-').append(i * 10);
+        }
+        assertEquals(expected.toString(), format(view.getRequestedRanges(request(rangeHeader.toString(), null), LENGTH)));
+
+        rangeHeader.append(",990-999");
+        assertNull("More than 16 ranges render the whole asset",
+                view.getRequestedRanges(request(rangeHeader.toString(), null), LENGTH));
+    }
+
+    public void testIfRange()
+    {
+        SimpleCacheControlHeaderHelper headerHelper = new SimpleCacheControlHeaderHelper();
+        for (String[] ifRange : IF_RANGES)
+        {
+            assertEquals(ifRange[0], ifRange[1] != null, headerHelper.isRangeCurrent(asset, ifRange[0]));
+            assertEquals(ifRange[0], ifRange[1], format(view.getRequestedRanges(request("bytes=0-99", ifRange[0]), LENGTH)));
+        }
+    }
+
+    public void testUnsatisfiableRange() throws Exception
+    {
+        final Map<String, Object> headers = new HashMap<String, Object>();
+        final int[] status = new int[1];
+        HttpServletResponse response = proxy(HttpServletResponse.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().endsWith("Header"))
+                {
+                    headers.put((String) args[0], args[1]);
+                    return null;
+                }
+                if (method.getName().equals("sendError"))
+                {
+                    status[0] = (Integer) args[0];
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        view.renderMergedOutputModel(null, request("bytes=1000-", null), response);
+
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, status[0]);
+        assertEquals("bytes */1000", headers.get("Content-Range"));
+        assertEquals("bytes", headers.get("Accept-Ranges"));
+    }
+
+    private HttpServletRequest request(final String range, final String ifRange)
+    {
+        return proxy(HttpServletRequest.class, new InvocationHandler()
+        {
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getHeader"))
+                {
+                    return "Range".equals(args[0]) ? range : "If-Range".equals(args[0]) ? ifRange : null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(StreamedAssetViewTest.class.getClassLoader(), new Class<?>[] { type },
+                handler));
+    }
+
+    /**
+     * @return the ranges as "first-last" separated by commas
+     */
+    private static String format(List<long[]> ranges)
+    {
+        if (ranges == null)
+        {
+            return null;
+        }
+        StringBuilder formatted = new StringBuilder();
+        for (long[] range : ranges)
+        {
+            if (formatted.length() > 0)
+            {
+                formatted.append(',');
+            }
+            formatted.append(range[0]).append('-').append(range[1]);
+        }
+        return formatted.toString();
+    }
+}
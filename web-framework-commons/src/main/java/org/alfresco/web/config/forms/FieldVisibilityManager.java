@@ -29,7 +29,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -83,6 +85,10 @@ class FieldVisibilityManager
     //
     // Later note: The latter approach is actually required as the show/hide instructions
     //      must not be cached - in order to support changes at runtime.
+    //
+    // The visible and hidden field lists computed from the instructions are memoized
+    // per mode, the memo is discarded whenever an instruction is added. Runtime config
+    // changes either add instructions or produce a new combined instance so are still seen.
     
     private static Log logger = LogFactory.getLog(FieldVisibilityManager.class);
 
@@ -90,6 +96,14 @@ class FieldVisibilityManager
     // of a <show> tag in any mode has repercussions for field-visibility in all modes.
     //TODO Is this correct?
     private List<FieldVisibilityInstruction> visibilityInstructions = new ArrayList<FieldVisibilityInstruction>();
+    
+    // marker for a memoized null result - ConcurrentHashMap does not support null values
+    private static final List<String> NOT_KNOWABLE = Collections.unmodifiableList(new ArrayList<String>(0));
+    private static final int INDEX_NOT_COMPUTED = -2;
+    
+    private final Map<Mode, List<String>> visibleFieldNames = new ConcurrentHashMap<Mode, List<String>>(4);
+    private final Map<Mode, List<String>> hiddenFieldNames = new ConcurrentHashMap<Mode, List<String>>(4);
+    private volatile int indexOfFirstShow = INDEX_NOT_COMPUTED;
 
     /**
      * 
@@ -100,6 +114,10 @@ class FieldVisibilityManager
     void addInstruction(String showOrHide, String fieldId, String modesString)
     {
         this.visibilityInstructions.add(new FieldVisibilityInstruction(showOrHide, fieldId, modesString));
+        
+        this.indexOfFirstShow = INDEX_NOT_COMPUTED;
+        this.visibleFieldNames.clear();
+        this.hiddenFieldNames.clear();
     }
     
     /**
@@ -216,11 +234,21 @@ class FieldVisibilityManager
      */
     public int getIndexOfFirstShow()
     {
-        for (int i = 0; i < visibilityInstructions.size(); i++)
+        int index = this.indexOfFirstShow;
+        if (index == INDEX_NOT_COMPUTED)
         {
-            if (visibilityInstructions.get(i).getShowOrHide().equals(Visibility.SHOW)) return i;
+            index = -1;
+            for (int i = 0; i < visibilityInstructions.size(); i++)
+            {
+                if (visibilityInstructions.get(i).getShowOrHide().equals(Visibility.SHOW))
+                {
+                    index = i;
+                    break;
+                }
+            }
+            this.indexOfFirstShow = index;
         }
-        return -1;
+        return index;
     }
 
     /**
@@ -243,6 +271,17 @@ class FieldVisibilityManager
      * else <code>null</code>.
      */
     public List<String> getFieldNamesVisibleInMode(Mode mode)
+    {
+        List<String> result = this.visibleFieldNames.get(mode);
+        if (result == null)
+        {
+            result = computeFieldNamesVisibleInMode(mode);
+            this.visibleFieldNames.put(mode, result != null ? result : NOT_KNOWABLE);
+        }
+        return result != NOT_KNOWABLE ? result : null;
+    }
+    
+    private List<String> computeFieldNamesVisibleInMode(Mode mode)
     {
         int indexOfFirstShow = getIndexOfFirstShow();
         if (indexOfFirstShow == -1)
@@ -287,6 +326,17 @@ class FieldVisibilityManager
      * else <code>null</code>.
      */
     public List<String> getFieldNamesHiddenInMode(Mode mode)
+    {
+        List<String> result = this.hiddenFieldNames.get(mode);
+        if (result == null)
+        {
+            result = computeFieldNamesHiddenInMode(mode);
+            this.hiddenFieldNames.put(mode, result != null ? result : NOT_KNOWABLE);
+        }
+        return result != NOT_KNOWABLE ? result : null;
+    }
+    
+    private List<String> computeFieldNamesHiddenInMode(Mode mode)
     {
         int indexOfFirstShow = getIndexOfFirstShow();
         if (indexOfFirstShow != -1)
@@ -26,14 +26,17 @@
 package org.alfresco.web.config.forms;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import javax.servlet.http.HttpSession;
 
 import org.apache.commons.logging.Log;
 import org.springframework.extensions.config.evaluator.Evaluator;
 import org.springframework.extensions.surf.FrameworkUtil;
-import org.springframework.extensions.surf.RequestContext;
 import org.springframework.extensions.surf.ServletUtil;
 import org.springframework.extensions.surf.exception.ConnectorServiceException;
 import org.springframework.extensions.surf.support.ThreadLocalRequestContext;
@@ -45,6 +48,11 @@ import org.springframework.extensions.webscripts.connector.ResponseStatus;
 /**
  * This class provides common behaviour for the evaluators which use 
  * a repo web script as part of their implementation.
+ * <p>
+ * Service responses are cached for the current request and, for a short time, across
+ * requests for the same user. Concurrent lookups of the same service for the same user
+ * wait for a single repository call. Cached responses are invalidated when the user interface
+ * changes repository data through the proxy, see {@link #invalidateCachedResponses(Collection, String)}.
  * 
  * @author Neil McErlean
  * @author Gavin Cornwell
@@ -52,8 +60,72 @@ import org.springframework.extensions.webscripts.connector.ResponseStatus;
 public abstract class ServiceBasedEvaluator implements Evaluator
 {
     protected static final String ENDPOINT_ID = "alfresco";
+    
+    private static final long DEFAULT_RESPONSE_CACHE_TIMEOUT = 10000L;
+    private static final int MAX_CACHED_RESPONSES = 1024;
+    
+    /** Service responses cached across requests - keyed by user and service URL */
+    private static final Map<String, CachedResponse> RESPONSES = new ConcurrentHashMap<String, CachedResponse>();
 
     protected abstract Log getLogger();
+    
+    /**
+     * Removes all service responses cached across requests.
+     */
+    public static void invalidateCachedResponses()
+    {
+        RESPONSES.clear();
+    }
+    
+    /**
+     * Removes the service responses cached across requests that relate to the given nodes or tasks,
+     * for all users. If no identifiers are given the responses cached for the user are removed, or all
+     * responses if the user is not known.
+     * 
+     * @param ids Node UUIDs or task ids - the responses whose service URL contains any of them are removed
+     * @param userId The user whose responses are removed when there are no ids, may be null
+     */
+    public static void invalidateCachedResponses(Collection<String> ids, String userId)
+    {
+        if (ids.isEmpty() && userId == null)
+        {
+            RESPONSES.clear();
+            return;
+        }
+        final String userPrefix = userId + '|';
+        for (Iterator<String> i = RESPONSES.keySet().iterator(); i.hasNext(); /**/)
+        {
+            final String key = i.next();
+            if (ids.isEmpty())
+            {
+                if (key.startsWith(userPrefix))
+                {
+                    i.remove();
+                }
+            }
+            else
+            {
+                final String serviceUrl = key.substring(key.indexOf("|/") + 1);
+                for (String id : ids)
+                {
+                    if (serviceUrl.contains(id))
+                    {
+                        i.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+    
+    /**
+     * @return the time in milliseconds a service response is cached across requests, zero to
+     *         only cache for the current request
+     */
+    protected long getResponseCacheTimeout()
+    {
+        return DEFAULT_RESPONSE_CACHE_TIMEOUT;
+    }
 
     /**
      * Calls the given service
@@ -80,12 +152,102 @@ public abstract class ServiceBasedEvaluator implements Evaluator
             return (String)cachedResult;
         }
 
-        ConnectorService connService = FrameworkUtil.getConnectorService();
+        String currentUserId = ThreadLocalRequestContext.getRequestContext().getUserId();
+        String jsonResponseString = retrieveResponse(currentUserId, serviceUrl);
+        
+        // Cache the jsonResponseString in the RequestContext
+        if (getLogger().isDebugEnabled())
+        {
+            getLogger().debug("Caching response for " + serviceUrl + ":\n" + jsonResponseString);
+        }
+        
+        ThreadLocalRequestContext.getRequestContext().setValue(keyForCachedJson, jsonResponseString);
+        
+        return jsonResponseString;
+    }
+    
+    /**
+     * Retrieves the service response from the cross request cache, or from the repository
+     * if there is no current response for the user.
+     * 
+     * @param userId The current user
+     * @param serviceUrl The service to call
+     * @return The service response as a JSON string
+     * @throws ConnectorServiceException
+     */
+    private String retrieveResponse(String userId, String serviceUrl) throws ConnectorServiceException
+    {
+        long timeout = getResponseCacheTimeout();
+        if (timeout <= 0 || userId == null)
+        {
+            return callRepository(userId, serviceUrl).getResponse();
+        }
         
-        RequestContext requestContext = ThreadLocalRequestContext.getRequestContext();
-        String currentUserId = requestContext.getUserId();
+        String key = userId + '|' + serviceUrl;
+        CachedResponse cached = RESPONSES.get(key);
+        if (cached != null && cached.isExpired(timeout))
+        {
+            RESPONSES.remove(key, cached);
+            cached = null;
+        }
+        if (cached == null)
+        {
+            if (RESPONSES.size() >= MAX_CACHED_RESPONSES)
+            {
+                removeExpiredResponses(timeout);
+            }
+            CachedResponse created = new CachedResponse();
+            cached = RESPONSES.size() < MAX_CACHED_RESPONSES ? RESPONSES.putIfAbsent(key, created) : created;
+            if (cached == null || cached == created)
+            {
+                // this thread calls the repository - concurrent lookups of the same response wait for it
+                String json = null;
+                try
+                {
+                    Response r = callRepository(userId, serviceUrl);
+                    if (r.getStatus().getCode() == ResponseStatus.STATUS_OK)
+                    {
+                        json = r.getResponse();
+                    }
+                    return r.getResponse();
+                }
+                finally
+                {
+                    // only successful responses are kept, waiting callers retry any other result
+                    if (json == null)
+                    {
+                        RESPONSES.remove(key, created);
+                    }
+                    created.set(json);
+                }
+            }
+        }
+        
+        String json = cached.await();
+        if (json != null)
+        {
+            if (getLogger().isDebugEnabled())
+            {
+                getLogger().debug("Retrieved cached response for " + serviceUrl + " for user " + userId);
+            }
+            return json;
+        }
+        return callRepository(userId, serviceUrl).getResponse();
+    }
+    
+    /**
+     * Calls the given service in the repository.
+     * 
+     * @param userId The current user
+     * @param serviceUrl The service to call
+     * @return The service response
+     * @throws ConnectorServiceException
+     */
+    private Response callRepository(String userId, String serviceUrl) throws ConnectorServiceException
+    {
+        ConnectorService connService = FrameworkUtil.getConnectorService();
         HttpSession currentSession = ServletUtil.getSession(true);
-        Connector connector = connService.getConnector(ENDPOINT_ID, currentUserId, currentSession);
+        Connector connector = connService.getConnector(ENDPOINT_ID, userId, currentSession);
 
         Response r = connector.call(serviceUrl);
         
@@ -94,18 +256,72 @@ public abstract class ServiceBasedEvaluator implements Evaluator
         {
            throw new NotAuthenticatedException();
         }
-
-        String jsonResponseString = r.getResponse();
+        return r;
+    }
+    
+    private static void removeExpiredResponses(long timeout)
+    {
+        for (Iterator<CachedResponse> i = RESPONSES.values().iterator(); i.hasNext(); /**/)
+        {
+            if (i.next().isExpired(timeout))
+            {
+                i.remove();
+            }
+        }
+    }
+    
+    /**
+     * A service response cached across requests. Callers wait in {@link #await()} until the
+     * repository call for the response has completed.
+     */
+    private static final class CachedResponse
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile String json;
+        private volatile long created;
         
-        // Cache the jsonResponseString in the RequestContext
-        if (getLogger().isDebugEnabled())
+        void set(String json)
         {
-            getLogger().debug("Caching response for " + serviceUrl + ":\n" + jsonResponseString);
+            this.json = json;
+            this.created = System.currentTimeMillis();
+            this.done.countDown();
         }
         
-        ThreadLocalRequestContext.getRequestContext().setValue(keyForCachedJson, jsonResponseString);
+        boolean isExpired(long timeout)
+        {
+            return this.done.getCount() == 0 && System.currentTimeMillis() - this.created > timeout;
+        }
         
-        return jsonResponseString;
+        /**
+         * @return the response or null if the repository call did not return a successful response
+         */
+        String await()
+        {
+            boolean interrupted = false;
+            try
+            {
+                while (true)
+                {
+                    try
+                    {
+                        this.done.await();
+                        break;
+                    }
+                    catch (InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+            }
+            finally
+            {
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return this.json;
+        }
     }
     
     /**
@@ -56,6 +56,15 @@ public class TaskTypeEvaluator extends ServiceBasedEvaluator
     {
         return logger;
     }
+    
+    /**
+     * The type of a task instance never changes so the response can be cached for longer.
+     */
+    @Override
+    protected long getResponseCacheTimeout()
+    {
+        return 60000L;
+    }
 
     /**
      * Determines whether the given node type matches the path of the given object.
@@ -32,6 +32,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpSession;
 
@@ -73,6 +75,7 @@ import org.springframework.extensions.webscripts.connector.ConnectorContext;
 import org.springframework.extensions.webscripts.connector.ConnectorService;
 import org.springframework.extensions.webscripts.connector.HttpMethod;
 import org.springframework.extensions.webscripts.connector.Response;
+import org.springframework.extensions.webscripts.connector.ResponseStatus;
 import org.springframework.extensions.webscripts.json.JSONWriter;
 import org.springframework.util.StringUtils;
 
@@ -134,6 +137,8 @@ public class FormUIGet extends DeclarativeWebScript
     protected static final String PARAM_JS = "js";
     protected static final String PARAM_ERROR_KEY = "err";
     
+    protected static final String ITEM_KIND_TYPE = "type";
+    
     protected static final String CONSTRAINT_MANDATORY = "MANDATORY";
     protected static final String CONSTRAINT_LIST = "LIST";
     protected static final String CONSTRAINT_LENGTH = "LENGTH";
@@ -202,11 +207,21 @@ public class FormUIGet extends DeclarativeWebScript
     private static final String TYPE_LONG ="long";
     private static final String TYPE_DOUBLE ="double";
     private static final String TYPE_FLOAT ="float";
+    
+    private static final int MAX_CACHED_FORM_DEFINITIONS = 512;
+    
+    /** Form definitions for type items - shared by all instances so they can be invalidated together */
+    private static final Map<String, FormDefinition> FORM_DEFINITIONS = new ConcurrentHashMap<String, FormDefinition>();
+    
+    /** Incremented on each invalidation so that a definition retrieved before it is not cached */
+    private static final AtomicLong FORM_DEFINITIONS_GENERATION = new AtomicLong();
      
     protected ConfigService configService;
     
     private MessageHelper messageHelper = null;
     
+    private long formDefinitionCacheTimeout = 300000L;
+    
     /**
      * Sets the ConfigService instance
      * 
@@ -216,6 +231,31 @@ public class FormUIGet extends DeclarativeWebScript
     {
         this.configService = configService;
     }
+    
+    /**
+     * Sets the time in milliseconds that a form definition for a type item is cached for.
+     * A dictionary update in Share invalidates the cache immediately, the timeout ensures that
+     * model changes made directly in the repository are also picked up. Zero disables the cache.
+     * 
+     * @param formDefinitionCacheTimeout cache timeout in milliseconds, default is 5 minutes
+     */
+    public void setFormDefinitionCacheTimeout(long formDefinitionCacheTimeout)
+    {
+        this.formDefinitionCacheTimeout = formDefinitionCacheTimeout;
+    }
+    
+    /**
+     * Removes all cached form definitions. Called when the data dictionary is updated,
+     * including when the update was made on another node of the cluster.
+     */
+    public static void invalidateFormDefinitions()
+    {
+        FORM_DEFINITIONS_GENERATION.incrementAndGet();
+        FORM_DEFINITIONS.clear();
+        
+        if (logger.isDebugEnabled())
+            logger.debug("Invalidated cached form definitions");
+    }
 
     @Override
     protected Map<String, Object> executeImpl(WebScriptRequest req, Status status, Cache cache)
@@ -275,7 +315,7 @@ public class FormUIGet extends DeclarativeWebScript
         List<String> visibleFields = getVisibleFields(mode, formConfig);
         
         // get the form definition from the form service
-        Response formSvcResponse = retrieveFormDefinition(itemKind, itemId, visibleFields, formConfig);
+        Response formSvcResponse = retrieveCachedFormDefinition(itemKind, itemId, visibleFields, formConfig);
         if (formSvcResponse.getStatus().getCode() == Status.STATUS_OK)
         {
             model = generateFormModel(request, mode, formSvcResponse, formConfig);
@@ -500,6 +540,98 @@ public class FormUIGet extends DeclarativeWebScript
         return response;
     }
     
+    /**
+     * Retrieves the form definition for the given item, using the cached definition
+     * for a type item where possible.
+     * <p>
+     * The definition of a type item depends only on the type, the requested and forced
+     * fields, the locale and the tenant of the current user - so it is cached on that basis.
+     * Definitions for other item kinds include node data and are always retrieved.
+     * 
+     * @param itemKind The form item kind
+     * @param itemId The form item id
+     * @param visibleFields The list of field names to return or null
+     *        to return all fields
+     * @param formConfig The form configuration
+     * @return Response object from the remote call or the cache
+     */
+    protected Response retrieveCachedFormDefinition(String itemKind, String itemId, 
+                List<String> visibleFields, FormConfigElement formConfig)
+    {
+        String userId = ThreadLocalRequestContext.getRequestContext().getUserId();
+        if (this.formDefinitionCacheTimeout <= 0 || !ITEM_KIND_TYPE.equals(itemKind) || userId == null)
+        {
+            return retrieveFormDefinition(itemKind, itemId, visibleFields, formConfig);
+        }
+        
+        String cacheKey = buildFormDefinitionCacheKey(userId, itemId, visibleFields, formConfig);
+        FormDefinition cached = FORM_DEFINITIONS.get(cacheKey);
+        if (cached != null && System.currentTimeMillis() - cached.created < this.formDefinitionCacheTimeout)
+        {
+            if (logger.isDebugEnabled())
+                logger.debug("Using cached form definition for: " + cacheKey);
+            
+            ResponseStatus status = new ResponseStatus();
+            status.setCode(Status.STATUS_OK);
+            return new Response(cached.json, status);
+        }
+        
+        long generation = FORM_DEFINITIONS_GENERATION.get();
+        Response response = retrieveFormDefinition(itemKind, itemId, visibleFields, formConfig);
+        if (response != null && response.getStatus().getCode() == Status.STATUS_OK)
+        {
+            // a definition retrieved while the cache was invalidated may be out of date
+            if ((cached != null || FORM_DEFINITIONS.size() < MAX_CACHED_FORM_DEFINITIONS) &&
+                generation == FORM_DEFINITIONS_GENERATION.get())
+            {
+                FORM_DEFINITIONS.put(cacheKey, new FormDefinition(response.getResponse()));
+            }
+        }
+        return response;
+    }
+    
+    /**
+     * Builds the cache key for a type item form definition from the tenant of the user,
+     * the type, the requested fields, the locale and the forced fields.
+     * 
+     * @param userId The current user id
+     * @param itemId The form item id
+     * @param visibleFields The list of field names to return or null
+     * @param formConfig The form configuration
+     * @return cache key
+     */
+    private static String buildFormDefinitionCacheKey(String userId, String itemId, 
+                List<String> visibleFields, FormConfigElement formConfig)
+    {
+        StringBuilder key = new StringBuilder(128);
+        
+        // partition by the user domain in the same way as the data dictionary
+        int idx = userId.indexOf('@');
+        if (idx != -1)
+        {
+            key.append(userId.substring(idx));
+        }
+        key.append('|').append(itemId).append('|').append(I18NUtil.getLocale());
+        
+        key.append('|');
+        if (visibleFields != null)
+        {
+            for (String fieldId : visibleFields)
+            {
+                key.append(fieldId).append(',');
+            }
+            key.append('|');
+            for (String fieldId : visibleFields)
+            {
+                if (formConfig.isFieldForced(fieldId))
+                {
+                    key.append(fieldId).append(',');
+                }
+            }
+        }
+        return key.toString();
+    }
+    
     /**
      * Helper to build a map of the default headers for script requests - we send over
      * the current users locale so it can be respected by any appropriate REST APIs.
@@ -3134,6 +3266,21 @@ public class FormUIGet extends DeclarativeWebScript
             return this.resolveMessage(id, args);
         }
     }
+    
+    /**
+     * A cached form definition response.
+     */
+    private static final class FormDefinition
+    {
+        final String json;
+        final long created;
+        
+        FormDefinition(String json)
+        {
+            this.json = json;
+            this.created = System.currentTimeMillis();
+        }
+    }
 }
 
 
@@ -258,6 +258,27 @@ public class FieldVisibilityManagerTest extends TestCase
                 hiddenViewFields);
     }
     
+    public void testComputedFieldNamesReflectAddedInstructions()
+    {
+        FieldVisibilityManager testFVM = new FieldVisibilityManager();
+        testFVM.addInstruction("hide", "A", "view");
+        assertEquals(null, testFVM.getFieldNamesVisibleInMode(Mode.VIEW));
+        assertEquals(Arrays.asList(new String[]{"A"}), testFVM.getFieldNamesHiddenInMode(Mode.VIEW));
+        
+        // repeated calls return the computed result
+        assertSame(testFVM.getFieldNamesHiddenInMode(Mode.VIEW), testFVM.getFieldNamesHiddenInMode(Mode.VIEW));
+        
+        // a show instruction changes the meaning of all previous instructions
+        testFVM.addInstruction("show", "B", null);
+        assertEquals(null, testFVM.getFieldNamesHiddenInMode(Mode.VIEW));
+        assertEquals(Arrays.asList(new String[]{"B"}), testFVM.getFieldNamesVisibleInMode(Mode.VIEW));
+        assertTrue(testFVM.isManagingHiddenFields());
+        
+        testFVM.addInstruction("show", "C", "edit");
+        assertEquals(Arrays.asList(new String[]{"B"}), testFVM.getFieldNamesVisibleInMode(Mode.VIEW));
+        assertEquals(Arrays.asList(new String[]{"B", "C"}), testFVM.getFieldNamesVisibleInMode(Mode.EDIT));
+    }
+
     private void assertFieldIsVisibleInModes(FieldVisibilityManager fvm, String fieldId, Mode... modes)
     {
         for (Mode m : modes)